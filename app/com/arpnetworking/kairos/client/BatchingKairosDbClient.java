@@ -0,0 +1,374 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.kairos.client;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.actor.Scheduler;
+import akka.stream.javadsl.Source;
+import com.arpnetworking.kairos.client.models.KairosMetricNamesQueryResponse;
+import com.arpnetworking.kairos.client.models.Metric;
+import com.arpnetworking.kairos.client.models.MetricsQuery;
+import com.arpnetworking.kairos.client.models.MetricsQueryResponse;
+import com.arpnetworking.kairos.client.models.RollupResponse;
+import com.arpnetworking.kairos.client.models.RollupTask;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.play.configuration.ConfigurationHelper;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.typesafe.config.Config;
+import scala.concurrent.ExecutionContextExecutor;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A {@link KairosDbClient} that batches datapoint queries.
+ *
+ * Queries with the same time range and query-level arguments that are submitted within a short linger
+ * window are merged into a single request whose metrics are the distinct metrics of the queries, so that
+ * identical metrics requested concurrently are only queried once. Since KairosDB answers each metric of a
+ * request with one query in the response, the response is fanned back out to each query by metric index.
+ * A batch is sent once its linger window elapses or once it reaches the maximum number of metrics,
+ * whichever comes first.
+ *
+ * If KairosDB rejects a merged request as invalid, its queries are retried individually so that one
+ * malformed query does not fail the others. All other operations are delegated unchanged.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class BatchingKairosDbClient implements KairosDbClient {
+    /**
+     * Public constructor.
+     *
+     * @param delegate the client to send batches with
+     * @param actorSystem the actor system to schedule batches on
+     * @param mapper the object mapper used to find identical metrics
+     * @param configuration the configuration
+     * @param metrics the periodic metrics instance
+     */
+    public BatchingKairosDbClient(
+            final KairosDbClient delegate,
+            final ActorSystem actorSystem,
+            final ObjectMapper mapper,
+            final Config configuration,
+            final PeriodicMetrics metrics) {
+        _delegate = delegate;
+        _keyWriter = mapper.writer()
+                .with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+        _scheduler = actorSystem.scheduler();
+        _dispatcher = actorSystem.dispatcher();
+        _metrics = metrics;
+        _enabled = configuration.getBoolean("kairosdb.batching.enabled");
+        _linger = ConfigurationHelper.getFiniteDuration(configuration, "kairosdb.batching.linger");
+        _maxBatchSize = configuration.getInt("kairosdb.batching.maxBatchSize");
+    }
+
+    @Override
+    public CompletionStage<MetricsQueryResponse> queryMetrics(final MetricsQuery query) {
+        if (!_enabled || query.getMetrics().size() >= _maxBatchSize) {
+            return _delegate.queryMetrics(query);
+        }
+        final Optional<List<String>> metricKeys = metricKeys(query);
+        if (!metricKeys.isPresent()) {
+            return _delegate.queryMetrics(query);
+        }
+
+        final Submission submission = new Submission(query);
+        final BatchKey key = new BatchKey(query);
+        final List<Batch> ready = Lists.newArrayListWithCapacity(2);
+        Batch created = null;
+        synchronized (_pending) {
+            Batch batch = _pending.get(key);
+            if (batch != null && batch.getMetricCount() + query.getMetrics().size() > _maxBatchSize) {
+                _pending.remove(key);
+                ready.add(batch);
+                batch = null;
+            }
+            if (batch == null) {
+                created = new Batch(query);
+                batch = created;
+                _pending.put(key, batch);
+            }
+            batch.add(submission, metricKeys.get());
+            if (batch.getMetricCount() >= _maxBatchSize) {
+                _pending.remove(key);
+                ready.add(batch);
+            }
+        }
+
+        if (created != null && !ready.contains(created)) {
+            final Batch lingering = created;
+            _scheduler.scheduleOnce(_linger, () -> flushIfPending(key, lingering), _dispatcher);
+        }
+        ready.forEach(this::send);
+        return submission.getResponse();
+    }
+
+    @Override
+    public Source<MetricsQueryResponse.QueryResult, NotUsed> streamMetrics(final MetricsQuery query) {
+        // Streamed series are emitted as they are decoded, which a shared batch response cannot do
+        return _delegate.streamMetrics(query);
+    }
+
+    @Override
+    public CompletionStage<KairosMetricNamesQueryResponse> queryMetricNames() {
+        return _delegate.queryMetricNames();
+    }
+
+    @Override
+    public CompletionStage<MetricsQueryResponse> queryMetricTags(final MetricsQuery query) {
+        return _delegate.queryMetricTags(query);
+    }
+
+    @Override
+    public CompletionStage<List<RollupTask>> queryRollups() {
+        return _delegate.queryRollups();
+    }
+
+    @Override
+    public CompletionStage<RollupResponse> createRollup(final RollupTask rollupTask) {
+        return _delegate.createRollup(rollupTask);
+    }
+
+    @Override
+    public CompletionStage<RollupResponse> updateRollup(final String id, final RollupTask rollupTask) {
+        return _delegate.updateRollup(id, rollupTask);
+    }
+
+    @Override
+    public CompletionStage<Void> deleteRollup(final String id) {
+        return _delegate.deleteRollup(id);
+    }
+
+    private Optional<List<String>> metricKeys(final MetricsQuery query) {
+        final List<String> keys = Lists.newArrayListWithCapacity(query.getMetrics().size());
+        for (final Metric metric : query.getMetrics()) {
+            try {
+                keys.add(_keyWriter.writeValueAsString(metric));
+            } catch (final JsonProcessingException e) {
+                LOGGER.warn()
+                        .setMessage("Unable to compute batching key for metric")
+                        .addData("metric", metric.getName())
+                        .setThrowable(e)
+                        .log();
+                return Optional.empty();
+            }
+        }
+        return Optional.of(keys);
+    }
+
+    private void flushIfPending(final BatchKey key, final Batch batch) {
+        synchronized (_pending) {
+            if (!_pending.remove(key, batch)) {
+                return;
+            }
+        }
+        send(batch);
+    }
+
+    private void send(final Batch batch) {
+        final List<Submission> submissions = batch.getSubmissions();
+        _metrics.recordCounter("kairos_client/batching/queries", submissions.size());
+        _metrics.recordCounter("kairos_client/batching/metrics", batch.getMetricCount());
+        _metrics.recordCounter("kairos_client/batching/duplicates", batch.getDuplicateCount());
+        _metrics.recordCounter("kairos_client/batching/full", batch.getMetricCount() >= _maxBatchSize ? 1 : 0);
+
+        if (submissions.size() == 1) {
+            submissions.get(0).completeWith(_delegate.queryMetrics(submissions.get(0).getQuery()));
+            return;
+        }
+
+        final MetricsQuery merged = batch.toQuery();
+        _delegate.queryMetrics(merged).whenComplete((response, failure) -> {
+            if (failure != null) {
+                final Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause()
+                        : failure;
+                if (cause instanceof KairosDbRequestException && ((KairosDbRequestException) cause).getHttpStatus() == 400) {
+                    // Isolate the invalid query by retrying each query on its own
+                    _metrics.recordCounter("kairos_client/batching/split_retry", 1);
+                    submissions.forEach(submission -> submission.completeWith(_delegate.queryMetrics(submission.getQuery())));
+                } else {
+                    submissions.forEach(submission -> submission.getResponse().completeExceptionally(cause));
+                }
+                return;
+            }
+            if (response.getQueries().size() != batch.getMetricCount()) {
+                final IllegalStateException mismatch = new IllegalStateException(String.format(
+                        "Expected %d queries in batched response but received %d",
+                        batch.getMetricCount(),
+                        response.getQueries().size()));
+                submissions.forEach(submission -> submission.getResponse().completeExceptionally(mismatch));
+                return;
+            }
+            for (final Submission submission : submissions) {
+                final MetricsQueryResponse.Builder builder = new MetricsQueryResponse.Builder()
+                        .setQueries(submission.getIndexes()
+                                .stream()
+                                .map(response.getQueries()::get)
+                                .collect(ImmutableList.toImmutableList()));
+                response.getOtherArgs().forEach(builder::addOtherArg);
+                submission.getResponse().complete(builder.build());
+            }
+        });
+    }
+
+    private final KairosDbClient _delegate;
+    private final ObjectWriter _keyWriter;
+    private final Scheduler _scheduler;
+    private final ExecutionContextExecutor _dispatcher;
+    private final PeriodicMetrics _metrics;
+    private final boolean _enabled;
+    private final FiniteDuration _linger;
+    private final int _maxBatchSize;
+    private final Map<BatchKey, Batch> _pending = Maps.newHashMap();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchingKairosDbClient.class);
+
+    private static final class Submission {
+        Submission(final MetricsQuery query) {
+            _query = query;
+        }
+
+        MetricsQuery getQuery() {
+            return _query;
+        }
+
+        CompletableFuture<MetricsQueryResponse> getResponse() {
+            return _response;
+        }
+
+        List<Integer> getIndexes() {
+            return _indexes;
+        }
+
+        void setIndexes(final List<Integer> indexes) {
+            _indexes = indexes;
+        }
+
+        void completeWith(final CompletionStage<MetricsQueryResponse> stage) {
+            stage.whenComplete((response, failure) -> {
+                if (failure != null) {
+                    _response.completeExceptionally(failure);
+                } else {
+                    _response.complete(response);
+                }
+            });
+        }
+
+        private final MetricsQuery _query;
+        private final CompletableFuture<MetricsQueryResponse> _response = new CompletableFuture<>();
+        private List<Integer> _indexes = ImmutableList.of();
+    }
+
+    private static final class Batch {
+        Batch(final MetricsQuery first) {
+            _first = first;
+        }
+
+        void add(final Submission submission, final List<String> metricKeys) {
+            final List<Metric> metrics = submission.getQuery().getMetrics();
+            final ImmutableList.Builder<Integer> indexes = ImmutableList.builder();
+            for (int i = 0; i < metrics.size(); ++i) {
+                Integer index = _indexes.get(metricKeys.get(i));
+                if (index == null) {
+                    index = _metrics.size();
+                    _metrics.add(metrics.get(i));
+                    _indexes.put(metricKeys.get(i), index);
+                } else {
+                    ++_duplicateCount;
+                }
+                indexes.add(index);
+            }
+            submission.setIndexes(indexes.build());
+            _submissions.add(submission);
+        }
+
+        List<Submission> getSubmissions() {
+            return _submissions;
+        }
+
+        int getMetricCount() {
+            return _metrics.size();
+        }
+
+        int getDuplicateCount() {
+            return _duplicateCount;
+        }
+
+        MetricsQuery toQuery() {
+            return new MetricsQuery.Builder()
+                    .setStartTime(_first.getStartTime())
+                    .setEndTime(_first.getEndTime().orElse(null))
+                    .setOtherArgs(_first.getOtherArgs())
+                    .setMetrics(ImmutableList.copyOf(_metrics))
+                    .build();
+        }
+
+        private final MetricsQuery _first;
+        private final List<Submission> _submissions = Lists.newArrayList();
+        private final List<Metric> _metrics = Lists.newArrayList();
+        private final Map<String, Integer> _indexes = Maps.newHashMap();
+        private int _duplicateCount;
+    }
+
+    private static final class BatchKey {
+        BatchKey(final MetricsQuery query) {
+            _startTime = query.getStartTime();
+            _endTime = query.getEndTime();
+            _otherArgs = query.getOtherArgs();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final BatchKey other = (BatchKey) o;
+            return _startTime.equals(other._startTime)
+                    && _endTime.equals(other._endTime)
+                    && _otherArgs.equals(other._otherArgs);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(_startTime, _endTime, _otherArgs);
+        }
+
+        private final Instant _startTime;
+        private final Optional<Instant> _endTime;
+        private final ImmutableMap<String, Object> _otherArgs;
+    }
+}
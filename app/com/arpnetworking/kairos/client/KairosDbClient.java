@@ -15,11 +15,14 @@
  */
 package com.arpnetworking.kairos.client;
 
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
 import com.arpnetworking.kairos.client.models.KairosMetricNamesQueryResponse;
 import com.arpnetworking.kairos.client.models.MetricsQuery;
 import com.arpnetworking.kairos.client.models.MetricsQueryResponse;
 import com.arpnetworking.kairos.client.models.RollupResponse;
 import com.arpnetworking.kairos.client.models.RollupTask;
+import com.google.common.collect.ImmutableList;
 
 import java.util.List;
 import java.util.concurrent.CompletionStage;
@@ -38,6 +41,25 @@ public interface KairosDbClient {
      */
     CompletionStage<MetricsQueryResponse> queryMetrics(MetricsQuery query);
 
+    /**
+     * Executes a query for datapoints from KairosDB and emits each series of the response once it has
+     * been decoded, in the order of the metrics in the query. The query is executed each time the
+     * source is materialized.
+     *
+     * The default implementation decodes the complete response before emitting the first series.
+     *
+     * @param query the query
+     * @return the series of the response
+     */
+    default Source<MetricsQueryResponse.QueryResult, NotUsed> streamMetrics(final MetricsQuery query) {
+        return Source.single(query)
+                .mapAsync(1, this::queryMetrics)
+                .mapConcat(response -> response.getQueries()
+                        .stream()
+                        .flatMap(queryResponse -> queryResponse.getResults().stream())
+                        .collect(ImmutableList.toImmutableList()));
+    }
+
     /**
      * Queries KairosDB for metric names.
      *
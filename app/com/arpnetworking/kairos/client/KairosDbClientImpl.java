@@ -15,7 +15,9 @@
  */
 package com.arpnetworking.kairos.client;
 
+import akka.NotUsed;
 import akka.actor.ActorSystem;
+import akka.japi.Pair;
 import akka.http.javadsl.Http;
 import akka.http.javadsl.model.ContentTypes;
 import akka.http.javadsl.model.HttpRequest;
@@ -27,27 +29,42 @@ import akka.http.scaladsl.coding.Deflate$;
 import akka.http.scaladsl.coding.Gzip$;
 import akka.http.scaladsl.coding.NoCoding$;
 import akka.stream.ActorMaterializer;
+import akka.stream.KillSwitches;
+import akka.stream.UniqueKillSwitch;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
 import com.arpnetworking.commons.builder.OvalBuilder;
 import com.arpnetworking.kairos.client.models.KairosMetricNamesQueryResponse;
 import com.arpnetworking.kairos.client.models.MetricsQuery;
 import com.arpnetworking.kairos.client.models.MetricsQueryResponse;
 import com.arpnetworking.kairos.client.models.RollupResponse;
 import com.arpnetworking.kairos.client.models.RollupTask;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.utility.SingleFlight;
 import com.fasterxml.jackson.annotation.JacksonInject;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonStreamContext;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.google.common.collect.ImmutableList;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import net.sf.oval.constraint.NotNull;
-import scala.compat.java8.FutureConverters;
+import net.sf.oval.constraint.ValidateWithMethod;
 import scala.concurrent.duration.FiniteDuration;
 
-import java.io.IOException;
 import java.net.URI;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 /**
  * Client for accessing KairosDB APIs.
@@ -57,32 +74,58 @@ import java.util.concurrent.TimeUnit;
 public final class KairosDbClientImpl implements KairosDbClient {
     @Override
     public CompletionStage<MetricsQueryResponse> queryMetrics(final MetricsQuery query) {
-        return performMetricsQuery(createUri(METRICS_QUERY_PATH), query);
+        return performMetricsQuery(METRICS_QUERY_PATH, query, QUERY_CLASS);
+    }
+
+    @Override
+    public Source<MetricsQueryResponse.QueryResult, NotUsed> streamMetrics(final MetricsQuery query) {
+        final KairosDbEndpoints.Endpoint endpoint = _endpoints.select(STREAM_QUERY_CLASS);
+        try {
+            final HttpRequest request = HttpRequest.POST(createUri(endpoint, METRICS_QUERY_PATH).toString())
+                    .withEntity(ContentTypes.APPLICATION_JSON, _mapper.writeValueAsString(query));
+            return this.<MetricsQueryResponse.QueryResult>streamRequest(request, QUERY_RESULT_TYPE, StreamingJsonDecoder::queryResult)
+                    .watchTermination((notUsed, done) -> {
+                        endpoint.track(STREAM_QUERY_CLASS, System.nanoTime(), done, value -> false);
+                        return notUsed;
+                    });
+        } catch (final JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     @Override
     public CompletionStage<KairosMetricNamesQueryResponse> queryMetricNames() {
-        final HttpRequest request = HttpRequest.GET(createUri(METRICS_NAMES_PATH).toString());
-        return fireRequest(request, KairosMetricNamesQueryResponse.class);
+        return _endpoints.executeHedged(
+                METRIC_NAMES_CLASS,
+                endpoint -> fireRequest(
+                        HttpRequest.GET(createUri(endpoint, METRICS_NAMES_PATH).toString()),
+                        KairosMetricNamesQueryResponse.class),
+                response -> false,
+                response -> { });
     }
 
     @Override
     public CompletionStage<MetricsQueryResponse> queryMetricTags(final MetricsQuery query) {
-        return performMetricsQuery(createUri(METRICS_TAGS_PATH), query);
+        return performMetricsQuery(METRICS_TAGS_PATH, query, TAGS_QUERY_CLASS);
     }
 
     @Override
     public CompletionStage<List<RollupTask>> queryRollups() {
-        final HttpRequest request = HttpRequest.GET(createUri(ROLLUPS_PATH).toString());
-        return fireRequest(request, ROLLUP_LIST_TYPEREF);
+        return _endpoints.executeHedged(
+                ROLLUPS_CLASS,
+                endpoint -> fireRequest(HttpRequest.GET(createUri(endpoint, ROLLUPS_PATH).toString()), ROLLUP_LIST_TYPEREF),
+                response -> false,
+                response -> { });
     }
 
     @Override
     public CompletionStage<RollupResponse> createRollup(final RollupTask rollupTask) {
         try {
-            final HttpRequest request = HttpRequest.POST(createUri(ROLLUPS_PATH).toString())
-                    .withEntity(ContentTypes.APPLICATION_JSON, _mapper.writeValueAsString(rollupTask));
-            return fireRequest(request, RollupResponse.class);
+            final String body = _mapper.writeValueAsString(rollupTask);
+            return _endpoints.execute(ROLLUP_WRITE_CLASS, endpoint -> fireRequest(
+                    HttpRequest.POST(createUri(endpoint, ROLLUPS_PATH).toString())
+                            .withEntity(ContentTypes.APPLICATION_JSON, body),
+                    RollupResponse.class));
         } catch (final JsonProcessingException e) {
             throw new RuntimeException(e);
         }
@@ -91,9 +134,11 @@ public final class KairosDbClientImpl implements KairosDbClient {
     @Override
     public CompletionStage<RollupResponse> updateRollup(final String id, final RollupTask rollupTask) {
         try {
-            final HttpRequest request = HttpRequest.PUT(createUri(ROLLUPS_PATH).toString() + "/" + id)
-                    .withEntity(ContentTypes.APPLICATION_JSON, _mapper.writeValueAsString(rollupTask));
-            return fireRequest(request, RollupResponse.class);
+            final String body = _mapper.writeValueAsString(rollupTask);
+            return _endpoints.execute(ROLLUP_WRITE_CLASS, endpoint -> fireRequest(
+                    HttpRequest.PUT(createUri(endpoint, ROLLUPS_PATH).toString() + "/" + id)
+                            .withEntity(ContentTypes.APPLICATION_JSON, body),
+                    RollupResponse.class));
         } catch (final JsonProcessingException e) {
             throw new RuntimeException(e);
         }
@@ -101,15 +146,27 @@ public final class KairosDbClientImpl implements KairosDbClient {
 
     @Override
     public CompletionStage<Void> deleteRollup(final String id) {
-        final HttpRequest request = HttpRequest.DELETE(createUri(ROLLUPS_PATH).toString() + "/" + id);
-        return fireRequest(request, Void.class);
+        return _endpoints.execute(ROLLUP_WRITE_CLASS, endpoint -> fireRequest(
+                HttpRequest.DELETE(createUri(endpoint, ROLLUPS_PATH).toString() + "/" + id),
+                Void.class));
     }
 
-    private CompletionStage<MetricsQueryResponse> performMetricsQuery(final URI uri, final MetricsQuery query) {
+    private CompletionStage<MetricsQueryResponse> performMetricsQuery(
+            final URI path,
+            final MetricsQuery query,
+            final String requestClass) {
         try {
-            final HttpRequest request = HttpRequest.POST(uri.toString())
-                    .withEntity(ContentTypes.APPLICATION_JSON, _mapper.writeValueAsString(query));
-            return fireRequest(request, MetricsQueryResponse.class);
+            final String body = _mapper.writeValueAsString(query);
+            final Function<KairosDbEndpoints.Endpoint, CompletionStage<MetricsQueryResponse>> attempt = endpoint -> fireMetricsRequest(
+                    HttpRequest.POST(createUri(endpoint, path).toString())
+                            .withEntity(ContentTypes.APPLICATION_JSON, body));
+            // Identical concurrent queries share a single request; the responses are immutable
+            return _queryFlights.execute(
+                    path + "\n" + body,
+                    // Queries that save their results write data, so they are never sent twice
+                    () -> query.hasSideEffects()
+                            ? _endpoints.execute(SAVE_AS_QUERY_CLASS, attempt)
+                            : _endpoints.executeHedged(requestClass, attempt, response -> false, response -> { }));
         } catch (final JsonProcessingException e) {
             throw new RuntimeException(e);
         }
@@ -124,8 +181,47 @@ public final class KairosDbClientImpl implements KairosDbClient {
     }
 
     private <T> CompletionStage<T> fireRequest(final HttpRequest request, final JavaType responseType) {
-        return _http.singleRequest(request.addHeader(AcceptEncoding.create(HttpEncodings.GZIP)), _materializer)
-                .thenCompose(httpResponse -> {
+        return fireRequest(this.<T>streamRequest(request, responseType, StreamingJsonDecoder::root));
+    }
+
+    private CompletionStage<MetricsQueryResponse> fireMetricsRequest(final HttpRequest request) {
+        // Each query of the response is bound as soon as it has been read, so the raw response is never held in full
+        return fireRequest(this.<MetricsQueryResponse.Query>streamRequest(request, QUERY_TYPE, StreamingJsonDecoder::query)
+                .fold(ImmutableList.<MetricsQueryResponse.Query>builder(), (queries, query) -> queries.add(query))
+                .map(queries -> new MetricsQueryResponse.Builder().setQueries(queries.build()).build()));
+    }
+
+    private <T> CompletionStage<T> fireRequest(final Source<T, NotUsed> values) {
+        final Pair<UniqueKillSwitch, CompletionStage<Optional<T>>> materialized = values
+                .viaMat(KillSwitches.single(), Keep.right())
+                .toMat(Sink.headOption(), Keep.both())
+                .run(_materializer);
+        final CompletableFuture<T> response = materialized.second()
+                .<T>thenApply(value -> value.orElse(null))
+                .toCompletableFuture();
+        // Cancelling the response, as a lost hedge is, aborts the request and discards the connection
+        response.whenComplete((value, failure) -> {
+            if (response.isCancelled()) {
+                materialized.first().shutdown();
+            }
+        });
+        return response;
+    }
+
+    private <T> Source<T, NotUsed> streamRequest(
+            final HttpRequest request,
+            final JavaType type,
+            final Predicate<JsonStreamContext> selector) {
+        return Source.single(request.addHeader(AcceptEncoding.create(HttpEncodings.GZIP)))
+                .mapAsync(1, encodedRequest -> _http.singleRequest(encodedRequest, _materializer))
+                .flatMapConcat(httpResponse -> {
+                    if (!httpResponse.status().isSuccess()) {
+                        httpResponse.discardEntityBytes(_materializer);
+                        throw new KairosDbRequestException(
+                                httpResponse.status().intValue(),
+                                httpResponse.status().reason(),
+                                URI.create(request.getUri().toString()));
+                    }
                     final HttpEncoding encoding = httpResponse.encoding();
                     final Coder flow;
                     if (HttpEncodings.GZIP.equals(encoding)) {
@@ -135,37 +231,35 @@ public final class KairosDbClientImpl implements KairosDbClient {
                     } else {
                         flow = NoCoding$.MODULE$;
                     }
-                    if (!httpResponse.status().isSuccess()) {
-                        throw new KairosDbRequestException(
-                                httpResponse.status().intValue(),
-                                httpResponse.status().reason(),
-                                URI.create(request.getUri().toString()));
-                    }
                     return httpResponse.entity()
-                            .toStrict(_readTimeout.toMillis(), _materializer)
-                            .thenCompose(strict -> FutureConverters.toJava(flow.decode(strict.getData(), _materializer)));
+                            .getDataBytes()
+                            .completionTimeout(_readTimeout)
+                            .via(flow.decoderFlow());
                 })
-                .thenApply(body -> {
-                    try {
-                        if (body.size() > 0) {
-                            return _mapper.readValue(body.utf8String(), responseType);
-                        } else {
-                            return null;
-                        }
-                    } catch (final IOException e) {
-                        throw new RuntimeException(e);
-                    }
+                // Decompressed chunks are parsed as they arrive; the empty element marks the end of the body
+                .map(Optional::of)
+                .concat(Source.single(Optional.<ByteString>empty()))
+                .statefulMapConcat(() -> {
+                    final StreamingJsonDecoder<T> decoder = new StreamingJsonDecoder<>(_mapper, type, selector);
+                    return chunk -> chunk.isPresent() ? decoder.feed(chunk.get()) : decoder.finish();
                 });
     }
 
-    private URI createUri(final URI relativePath) {
-        return _uri.resolve(relativePath);
+    private static URI createUri(final KairosDbEndpoints.Endpoint endpoint, final URI relativePath) {
+        return endpoint.getUri().resolve(relativePath);
     }
 
     private KairosDbClientImpl(final Builder builder) {
         final ActorSystem actorSystem = builder._actorSystem;
         _mapper = builder._mapper;
-        _uri = builder._uri;
+        _endpoints = builder._endpoints != null
+                ? builder._endpoints
+                : new KairosDbEndpoints.Builder()
+                        .setUris(ImmutableList.of(builder._uri))
+                        .setActorSystem(actorSystem)
+                        .setMetrics(builder._metrics)
+                        .build();
+        _queryFlights = new SingleFlight<>(builder._metrics, "kairos_client/query");
 
         _http = Http.get(actorSystem);
         _materializer = ActorMaterializer.create(actorSystem);
@@ -175,14 +269,24 @@ public final class KairosDbClientImpl implements KairosDbClient {
     private final ObjectMapper _mapper;
     private final Http _http;
     private final ActorMaterializer _materializer;
-    private final URI _uri;
+    private final KairosDbEndpoints _endpoints;
     private final FiniteDuration _readTimeout;
+    private final SingleFlight<String, MetricsQueryResponse> _queryFlights;
 
     static final URI METRICS_QUERY_PATH = URI.create("/api/v1/datapoints/query");
     static final URI METRICS_NAMES_PATH = URI.create("/api/v1/metricnames");
     static final URI METRICS_TAGS_PATH = URI.create("/api/v1/datapoints/query/tags");
     static final URI ROLLUPS_PATH = URI.create("/api/v1/rollups");
+    private static final String QUERY_CLASS = "query";
+    private static final String SAVE_AS_QUERY_CLASS = "save_as_query";
+    private static final String STREAM_QUERY_CLASS = "stream_query";
+    private static final String TAGS_QUERY_CLASS = "tags_query";
+    private static final String METRIC_NAMES_CLASS = "metric_names";
+    private static final String ROLLUPS_CLASS = "rollups";
+    private static final String ROLLUP_WRITE_CLASS = "rollup_write";
     private static final TypeReference<List<RollupTask>> ROLLUP_LIST_TYPEREF = new TypeReference<List<RollupTask>>() { };
+    private static final JavaType QUERY_TYPE = TypeFactory.defaultInstance().constructType(MetricsQueryResponse.Query.class);
+    private static final JavaType QUERY_RESULT_TYPE = TypeFactory.defaultInstance().constructType(MetricsQueryResponse.QueryResult.class);
 
     /**
      * Implementation of the builder pattern for {@link KairosDbClientImpl}.
@@ -220,7 +324,18 @@ public final class KairosDbClientImpl implements KairosDbClient {
         }
 
         /**
-         * Sets the base URI.
+         * Sets the periodic metrics instance.
+         *
+         * @param value the periodic metrics instance
+         * @return this Builder
+         */
+        public Builder setMetrics(final PeriodicMetrics value) {
+            _metrics = value;
+            return this;
+        }
+
+        /**
+         * Sets the base URI of a single KairosDB endpoint. Either this or the endpoints must be set.
          *
          * @param value the base URI
          * @return this Builder
@@ -230,6 +345,17 @@ public final class KairosDbClientImpl implements KairosDbClient {
             return this;
         }
 
+        /**
+         * Sets the KairosDB endpoints to balance requests across. Either this or the URI must be set.
+         *
+         * @param value the endpoints
+         * @return this Builder
+         */
+        public Builder setEndpoints(final KairosDbEndpoints value) {
+            _endpoints = value;
+            return this;
+        }
+
         /**
          * Sets the read timeout. Optional. Defaults to 1 hour.
          *
@@ -248,8 +374,17 @@ public final class KairosDbClientImpl implements KairosDbClient {
         @JacksonInject
         private ObjectMapper _mapper;
         @NotNull
+        @JacksonInject
+        private PeriodicMetrics _metrics;
         private URI _uri;
+        @ValidateWithMethod(methodName = "validateEndpoints", parameterType = KairosDbEndpoints.class, ignoreIfNull = false)
+        private KairosDbEndpoints _endpoints;
         @NotNull
         private FiniteDuration _readTimeout = FiniteDuration.apply(1, TimeUnit.HOURS);
+
+        @SuppressFBWarnings(value = "UPM_UNCALLED_PRIVATE_METHOD", justification = "invoked reflectively by @ValidateWithMethod")
+        private boolean validateEndpoints(@Nullable final KairosDbEndpoints endpoints) {
+            return endpoints != null || _uri != null;
+        }
     }
 }
@@ -0,0 +1,713 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.kairos.client;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import akka.actor.Scheduler;
+import com.arpnetworking.commons.builder.OvalBuilder;
+import com.arpnetworking.metrics.Units;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import net.sf.oval.constraint.Min;
+import net.sf.oval.constraint.NotEmpty;
+import net.sf.oval.constraint.NotNull;
+import net.sf.oval.constraint.Range;
+import scala.concurrent.ExecutionContextExecutor;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.net.URI;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Balances requests across a set of equivalent KairosDB endpoints.
+ *
+ * Each endpoint tracks an exponentially weighted moving average of its response latency and the number of
+ * requests in flight to it. An endpoint is selected by sampling two endpoints at random and picking the one
+ * with the lower expected cost (latency scaled by outstanding requests), which steers load away from slow
+ * endpoints without the herding of always picking the fastest one.
+ *
+ * Endpoints that fail repeatedly, or whose latency is a multiple of the fastest healthy endpoint, are ejected
+ * for a cool down period. The last healthy endpoint is never ejected.
+ *
+ * Idempotent requests may be hedged: if the first attempt has not completed after the configured percentile
+ * of recently observed latencies, a second attempt is sent to a different endpoint and the first successful
+ * response wins. The attempt that loses the race is cancelled.
+ *
+ * Every request belongs to a request class, such as datapoint queries or rollup merges, named by the caller.
+ * Latencies of different classes can differ by orders of magnitude, so each class has its own window of
+ * recent latencies for the hedge delay, and endpoints are selected and judged as latency outliers on the
+ * moving average of the class of the request. Failures count towards ejection regardless of class.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class KairosDbEndpoints {
+    /**
+     * Selects an endpoint for a request.
+     *
+     * @param requestClass the class of the request
+     * @return the selected endpoint
+     */
+    public Endpoint select(final String requestClass) {
+        return selectExcluding(requestClass, null).orElseThrow(() -> new IllegalStateException("No KairosDB endpoints available"));
+    }
+
+    /**
+     * Executes a request against a selected endpoint without hedging. Requests that are not idempotent,
+     * such as writes, must be executed this way.
+     *
+     * @param requestClass the class of the request
+     * @param attempt function sending the request to an endpoint
+     * @param <T> the type of the response
+     * @return the response
+     */
+    public <T> CompletionStage<T> execute(final String requestClass, final Function<Endpoint, CompletionStage<T>> attempt) {
+        return execute(requestClass, attempt, false, response -> false, response -> { });
+    }
+
+    /**
+     * Executes an idempotent request, hedging it against a second endpoint if the first attempt is slow.
+     * The stage returned by the attempt that loses the race is cancelled; attempts should abort their
+     * request when that happens.
+     *
+     * @param requestClass the class of the request
+     * @param attempt function sending the request to an endpoint
+     * @param isFailure predicate identifying responses that indicate an unhealthy endpoint
+     * @param discard consumer releasing responses that lost the race after completing
+     * @param <T> the type of the response
+     * @return the first successful response, or the failure of the last attempt
+     */
+    public <T> CompletionStage<T> executeHedged(
+            final String requestClass,
+            final Function<Endpoint, CompletionStage<T>> attempt,
+            final Predicate<? super T> isFailure,
+            final Consumer<? super T> discard) {
+        return execute(requestClass, attempt, true, isFailure, discard);
+    }
+
+    /**
+     * The delay after which an idempotent request is hedged, if hedging is possible.
+     *
+     * @param requestClass the class of the request
+     * @return the hedge delay
+     */
+    public Optional<FiniteDuration> getHedgeDelay(final String requestClass) {
+        if (!_hedgingEnabled || _endpoints.size() < 2) {
+            return Optional.empty();
+        }
+        return latencyWindow(requestClass).getPercentileNanos()
+                .map(percentile -> FiniteDuration.apply(Math.max(percentile, _minHedgeDelay.toNanos()), TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * All configured endpoints.
+     *
+     * @return the endpoints
+     */
+    public List<Endpoint> getEndpoints() {
+        return _endpoints;
+    }
+
+    private <T> CompletionStage<T> execute(
+            final String requestClass,
+            final Function<Endpoint, CompletionStage<T>> attempt,
+            final boolean hedge,
+            final Predicate<? super T> isFailure,
+            final Consumer<? super T> discard) {
+        final Endpoint primary = select(requestClass);
+        final HedgedRequest<T> request = new HedgedRequest<>(requestClass, attempt, isFailure, discard);
+        request.send(primary, false);
+        final Optional<FiniteDuration> delay = hedge ? getHedgeDelay(requestClass) : Optional.empty();
+        if (delay.isPresent()) {
+            request.scheduleHedge(_scheduler.scheduleOnce(
+                    delay.get(),
+                    () -> selectExcluding(requestClass, primary).ifPresent(endpoint -> request.hedge(endpoint)),
+                    _dispatcher));
+        }
+        return request.getResponse();
+    }
+
+    private LatencyWindow latencyWindow(final String requestClass) {
+        return _latencyWindows.computeIfAbsent(requestClass, key -> new LatencyWindow());
+    }
+
+    private Optional<Endpoint> selectExcluding(final String requestClass, final Endpoint excluded) {
+        final long now = _clock.millis();
+        List<Endpoint> candidates = _endpoints.stream()
+                .filter(endpoint -> endpoint != excluded && !endpoint.isEjected(now))
+                .collect(Collectors.toList());
+        if (candidates.isEmpty()) {
+            // Prefer a degraded endpoint to failing outright
+            candidates = _endpoints.stream().filter(endpoint -> endpoint != excluded).collect(Collectors.toList());
+        }
+        if (candidates.isEmpty()) {
+            return Optional.empty();
+        }
+        if (candidates.size() == 1) {
+            return Optional.of(candidates.get(0));
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            ++second;
+        }
+        final Endpoint a = candidates.get(first);
+        final Endpoint b = candidates.get(second);
+        return Optional.of(a.getCost(requestClass) <= b.getCost(requestClass) ? a : b);
+    }
+
+    private void checkOutlier(final Endpoint endpoint, final Optional<String> requestClass) {
+        final long now = _clock.millis();
+        if (endpoint.isEjected(now)) {
+            return;
+        }
+        final List<Endpoint> healthyOthers = _endpoints.stream()
+                .filter(other -> other != endpoint && !other.isEjected(now))
+                .collect(Collectors.toList());
+        if (healthyOthers.isEmpty()) {
+            return;
+        }
+        final boolean failing = endpoint.getConsecutiveFailures() >= _ejectionConsecutiveFailures;
+        // Latencies are only compared within the class of the request that was just timed
+        final boolean slow = requestClass.isPresent()
+                && endpoint.getSamples(requestClass.get()) >= MIN_OUTLIER_SAMPLES
+                && healthyOthers.stream()
+                        .filter(other -> other.getSamples(requestClass.get()) >= MIN_OUTLIER_SAMPLES)
+                        .mapToDouble(other -> other.getEwmaNanos(requestClass.get()))
+                        .min()
+                        .orElse(Double.MAX_VALUE) * _ejectionLatencyFactor < endpoint.getEwmaNanos(requestClass.get());
+        if (failing || slow) {
+            endpoint.eject(now + _ejectionDuration.toMillis());
+            _metrics.recordCounter("kairos_client/endpoints/ejected", 1);
+        }
+    }
+
+    private static Throwable unwrap(final Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+
+    private static boolean isCancellation(final Throwable failure) {
+        return unwrap(failure) instanceof CancellationException;
+    }
+
+    private static boolean isEndpointFailure(final Throwable failure) {
+        final Throwable cause = unwrap(failure);
+        // A rejected request says nothing about the health of the endpoint that rejected it
+        return !(cause instanceof KairosDbRequestException) || ((KairosDbRequestException) cause).getHttpStatus() >= 500;
+    }
+
+    private KairosDbEndpoints(final Builder builder) {
+        _endpoints = builder._uris.stream().map(Endpoint::new).collect(ImmutableList.toImmutableList());
+        _scheduler = builder._actorSystem.scheduler();
+        _dispatcher = builder._actorSystem.dispatcher();
+        _metrics = builder._metrics;
+        _clock = builder._clock;
+        _ewmaWeight = builder._ewmaWeight;
+        _hedgingEnabled = builder._hedgingEnabled;
+        _hedgePercentile = builder._hedgePercentile;
+        _minHedgeDelay = builder._minHedgeDelay;
+        _minHedgeSamples = builder._minHedgeSamples;
+        _ejectionConsecutiveFailures = builder._ejectionConsecutiveFailures;
+        _ejectionLatencyFactor = builder._ejectionLatencyFactor;
+        _ejectionDuration = builder._ejectionDuration;
+    }
+
+    private final ImmutableList<Endpoint> _endpoints;
+    private final Scheduler _scheduler;
+    private final ExecutionContextExecutor _dispatcher;
+    private final PeriodicMetrics _metrics;
+    private final Clock _clock;
+    private final double _ewmaWeight;
+    private final boolean _hedgingEnabled;
+    private final double _hedgePercentile;
+    private final FiniteDuration _minHedgeDelay;
+    private final int _minHedgeSamples;
+    private final int _ejectionConsecutiveFailures;
+    private final double _ejectionLatencyFactor;
+    private final FiniteDuration _ejectionDuration;
+    private final ConcurrentMap<String, LatencyWindow> _latencyWindows = new ConcurrentHashMap<>();
+
+    private static final int LATENCY_WINDOW = 1024;
+    private static final int PERCENTILE_REFRESH_SAMPLES = 32;
+    private static final int MIN_OUTLIER_SAMPLES = 10;
+
+    /**
+     * A KairosDB endpoint and its observed health.
+     *
+     * @author Gilligan Markham (gmarkham at dropbox dot com)
+     */
+    public final class Endpoint {
+        /**
+         * The base URI of the endpoint.
+         *
+         * @return the base URI
+         */
+        public URI getUri() {
+            return _uri;
+        }
+
+        @Override
+        public String toString() {
+            return _uri.toString();
+        }
+
+        synchronized double getEwmaNanos(final String requestClass) {
+            final LatencyAverage average = _averages.get(requestClass);
+            return average == null ? 0 : average._ewmaNanos;
+        }
+
+        synchronized int getSamples(final String requestClass) {
+            final LatencyAverage average = _averages.get(requestClass);
+            return average == null ? 0 : average._samples;
+        }
+
+        synchronized int getConsecutiveFailures() {
+            return _consecutiveFailures;
+        }
+
+        synchronized boolean isEjected(final long nowMillis) {
+            if (_ejectedUntil == 0) {
+                return false;
+            }
+            if (nowMillis < _ejectedUntil) {
+                return true;
+            }
+            // Returning endpoints start over so that they are probed rather than judged on stale latencies
+            _ejectedUntil = 0;
+            _averages.clear();
+            _consecutiveFailures = 0;
+            return false;
+        }
+
+        synchronized void eject(final long untilMillis) {
+            _ejectedUntil = untilMillis;
+        }
+
+        /**
+         * Tracks a request to this endpoint, recording its latency or failure once it completes.
+         * Cancelled requests are recorded as neither.
+         *
+         * @param requestClass the class of the request
+         * @param startNanos the {@link System#nanoTime()} at which the request was sent
+         * @param completion the completion of the request
+         * @param isFailure predicate identifying responses that indicate an unhealthy endpoint
+         * @param <T> the type of the response
+         */
+        <T> void track(
+                final String requestClass,
+                final long startNanos,
+                final CompletionStage<T> completion,
+                final Predicate<? super T> isFailure) {
+            _inFlight.incrementAndGet();
+            completion.whenComplete((value, failure) -> {
+                _inFlight.decrementAndGet();
+                if (failure != null && isCancellation(failure)) {
+                    return;
+                }
+                if (failure != null ? isEndpointFailure(failure) : isFailure.test(value)) {
+                    recordFailure();
+                } else {
+                    recordSuccess(requestClass, System.nanoTime() - startNanos);
+                }
+            });
+        }
+
+        double getCost(final String requestClass) {
+            return (getEwmaNanos(requestClass) + 1) * (_inFlight.get() + 1);
+        }
+
+        void recordSuccess(final String requestClass, final long latencyNanos) {
+            synchronized (this) {
+                _averages.computeIfAbsent(requestClass, key -> new LatencyAverage()).add(latencyNanos);
+                _consecutiveFailures = 0;
+            }
+            latencyWindow(requestClass).add(latencyNanos);
+            _metrics.recordTimer("kairos_client/endpoints/latency", latencyNanos, Optional.of(Units.NANOSECOND));
+            checkOutlier(this, Optional.of(requestClass));
+        }
+
+        void recordFailure() {
+            synchronized (this) {
+                ++_consecutiveFailures;
+            }
+            _metrics.recordCounter("kairos_client/endpoints/failure", 1);
+            checkOutlier(this, Optional.empty());
+        }
+
+        private Endpoint(final URI uri) {
+            _uri = uri;
+        }
+
+        private final URI _uri;
+        private final AtomicInteger _inFlight = new AtomicInteger();
+        private final Map<String, LatencyAverage> _averages = Maps.newHashMap();
+        private int _consecutiveFailures;
+        private long _ejectedUntil;
+    }
+
+    /**
+     * The moving average of the latency of one class of requests to one endpoint. Guarded by the endpoint.
+     */
+    private final class LatencyAverage {
+        void add(final long latencyNanos) {
+            _ewmaNanos = _samples == 0 ? latencyNanos : _ewmaWeight * latencyNanos + (1 - _ewmaWeight) * _ewmaNanos;
+            ++_samples;
+        }
+
+        private double _ewmaNanos;
+        private int _samples;
+    }
+
+    /**
+     * The most recent latencies of one class of requests across all endpoints.
+     */
+    private final class LatencyWindow {
+        synchronized void add(final long latencyNanos) {
+            _latencies[(int) (_count % _latencies.length)] = latencyNanos;
+            ++_count;
+            ++_samplesSincePercentile;
+        }
+
+        synchronized Optional<Long> getPercentileNanos() {
+            if (_count < _minHedgeSamples) {
+                return Optional.empty();
+            }
+            if (_samplesSincePercentile >= PERCENTILE_REFRESH_SAMPLES || _percentileNanos < 0) {
+                final long[] sorted = Arrays.copyOf(_latencies, (int) Math.min(_count, _latencies.length));
+                Arrays.sort(sorted);
+                _percentileNanos = sorted[(int) Math.min(sorted.length - 1, Math.floor(sorted.length * _hedgePercentile))];
+                _samplesSincePercentile = 0;
+            }
+            return Optional.of(_percentileNanos);
+        }
+
+        private final long[] _latencies = new long[LATENCY_WINDOW];
+        private long _count;
+        private int _samplesSincePercentile;
+        private long _percentileNanos = -1;
+    }
+
+    private final class HedgedRequest<T> {
+        HedgedRequest(
+                final String requestClass,
+                final Function<Endpoint, CompletionStage<T>> attempt,
+                final Predicate<? super T> isFailure,
+                final Consumer<? super T> discard) {
+            _requestClass = requestClass;
+            _attempt = attempt;
+            _isFailure = isFailure;
+            _discard = discard;
+        }
+
+        CompletableFuture<T> getResponse() {
+            return _response;
+        }
+
+        synchronized void scheduleHedge(final Cancellable hedge) {
+            if (_response.isDone()) {
+                hedge.cancel();
+            } else {
+                _pendingHedge = hedge;
+            }
+        }
+
+        void hedge(final Endpoint endpoint) {
+            synchronized (this) {
+                _pendingHedge = null;
+                if (_response.isDone()) {
+                    return;
+                }
+            }
+            _metrics.recordCounter("kairos_client/endpoints/hedged", 1);
+            send(endpoint, true);
+        }
+
+        void send(final Endpoint endpoint, final boolean isHedge) {
+            synchronized (this) {
+                ++_outstanding;
+            }
+            final long start = System.nanoTime();
+            CompletableFuture<T> stage;
+            try {
+                stage = _attempt.apply(endpoint).toCompletableFuture();
+                // CHECKSTYLE.OFF: IllegalCatch - Failures to send are failures of the attempt
+            } catch (final RuntimeException e) {
+                // CHECKSTYLE.ON: IllegalCatch
+                stage = new CompletableFuture<>();
+                stage.completeExceptionally(e);
+            }
+            final CompletableFuture<T> attempt = stage;
+            synchronized (this) {
+                _attempts.add(attempt);
+            }
+            endpoint.track(_requestClass, start, attempt, _isFailure);
+            attempt.whenComplete((value, failure) -> {
+                if (failure == null) {
+                    if (_response.complete(value)) {
+                        if (isHedge) {
+                            _metrics.recordCounter("kairos_client/endpoints/hedge_won", 1);
+                        }
+                        cancelHedge();
+                        cancelLosers(attempt);
+                    } else {
+                        _discard.accept(value);
+                    }
+                } else {
+                    final boolean last;
+                    synchronized (this) {
+                        --_outstanding;
+                        // Requests are not retried; a hedge that has not been sent yet is abandoned
+                        last = _outstanding == 0;
+                    }
+                    if (last) {
+                        _response.completeExceptionally(unwrap(failure));
+                        cancelHedge();
+                    }
+                }
+            });
+        }
+
+        private void cancelLosers(final CompletableFuture<T> winner) {
+            final List<CompletableFuture<T>> losers;
+            synchronized (this) {
+                losers = _attempts.stream().filter(attempt -> attempt != winner).collect(Collectors.toList());
+            }
+            for (final CompletableFuture<T> loser : losers) {
+                if (loser.cancel(true)) {
+                    _metrics.recordCounter("kairos_client/endpoints/hedge_cancelled", 1);
+                }
+            }
+        }
+
+        private void cancelHedge() {
+            final Cancellable hedge;
+            synchronized (this) {
+                hedge = _pendingHedge;
+                _pendingHedge = null;
+            }
+            if (hedge != null) {
+                hedge.cancel();
+            }
+        }
+
+        private final String _requestClass;
+        private final Function<Endpoint, CompletionStage<T>> _attempt;
+        private final List<CompletableFuture<T>> _attempts = Lists.newArrayListWithCapacity(2);
+        private final Predicate<? super T> _isFailure;
+        private final Consumer<? super T> _discard;
+        private final CompletableFuture<T> _response = new CompletableFuture<>();
+        private int _outstanding;
+        private Cancellable _pendingHedge;
+    }
+
+    /**
+     * Implementation of the builder pattern for {@link KairosDbEndpoints}.
+     *
+     * @author Gilligan Markham (gmarkham at dropbox dot com)
+     */
+    public static final class Builder extends OvalBuilder<KairosDbEndpoints> {
+        /**
+         * Public constructor.
+         */
+        public Builder() {
+            super(KairosDbEndpoints::new);
+        }
+
+        /**
+         * Sets the base URIs of the endpoints.
+         *
+         * @param value the base URIs
+         * @return this Builder
+         */
+        public Builder setUris(final ImmutableList<URI> value) {
+            _uris = value;
+            return this;
+        }
+
+        /**
+         * Sets the actor system to schedule hedged requests on.
+         *
+         * @param value the actor system
+         * @return this Builder
+         */
+        public Builder setActorSystem(final ActorSystem value) {
+            _actorSystem = value;
+            return this;
+        }
+
+        /**
+         * Sets the periodic metrics instance.
+         *
+         * @param value the periodic metrics instance
+         * @return this Builder
+         */
+        public Builder setMetrics(final PeriodicMetrics value) {
+            _metrics = value;
+            return this;
+        }
+
+        /**
+         * Sets the clock used to time ejections. Optional. Defaults to the system clock.
+         *
+         * @param value the clock
+         * @return this Builder
+         */
+        public Builder setClock(final Clock value) {
+            _clock = value;
+            return this;
+        }
+
+        /**
+         * Sets the weight of the latest latency sample in the moving average. Optional. Defaults to 0.3.
+         *
+         * @param value the weight
+         * @return this Builder
+         */
+        public Builder setEwmaWeight(final Double value) {
+            _ewmaWeight = value;
+            return this;
+        }
+
+        /**
+         * Sets whether idempotent requests are hedged. Optional. Defaults to false.
+         *
+         * @param value whether to hedge
+         * @return this Builder
+         */
+        public Builder setHedgingEnabled(final Boolean value) {
+            _hedgingEnabled = value;
+            return this;
+        }
+
+        /**
+         * Sets the latency percentile after which a request is hedged. Optional. Defaults to 0.95.
+         *
+         * @param value the percentile
+         * @return this Builder
+         */
+        public Builder setHedgePercentile(final Double value) {
+            _hedgePercentile = value;
+            return this;
+        }
+
+        /**
+         * Sets the minimum hedge delay. Optional. Defaults to 10 milliseconds.
+         *
+         * @param value the minimum hedge delay
+         * @return this Builder
+         */
+        public Builder setMinHedgeDelay(final FiniteDuration value) {
+            _minHedgeDelay = value;
+            return this;
+        }
+
+        /**
+         * Sets the number of latency samples required before requests are hedged. Optional. Defaults to 100.
+         *
+         * @param value the number of samples
+         * @return this Builder
+         */
+        public Builder setMinHedgeSamples(final Integer value) {
+            _minHedgeSamples = value;
+            return this;
+        }
+
+        /**
+         * Sets the number of consecutive failures after which an endpoint is ejected. Optional. Defaults to 5.
+         *
+         * @param value the number of failures
+         * @return this Builder
+         */
+        public Builder setEjectionConsecutiveFailures(final Integer value) {
+            _ejectionConsecutiveFailures = value;
+            return this;
+        }
+
+        /**
+         * Sets the multiple of the fastest healthy endpoint's latency above which an endpoint is ejected.
+         * Optional. Defaults to 3.
+         *
+         * @param value the latency factor
+         * @return this Builder
+         */
+        public Builder setEjectionLatencyFactor(final Double value) {
+            _ejectionLatencyFactor = value;
+            return this;
+        }
+
+        /**
+         * Sets how long an ejected endpoint is excluded. Optional. Defaults to 30 seconds.
+         *
+         * @param value the ejection duration
+         * @return this Builder
+         */
+        public Builder setEjectionDuration(final FiniteDuration value) {
+            _ejectionDuration = value;
+            return this;
+        }
+
+        @NotNull
+        @NotEmpty
+        private ImmutableList<URI> _uris;
+        @NotNull
+        private ActorSystem _actorSystem;
+        @NotNull
+        private PeriodicMetrics _metrics;
+        @NotNull
+        private Clock _clock = Clock.systemUTC();
+        @NotNull
+        @Range(min = 0, max = 1)
+        private Double _ewmaWeight = 0.3;
+        @NotNull
+        private Boolean _hedgingEnabled = false;
+        @NotNull
+        @Range(min = 0, max = 1)
+        private Double _hedgePercentile = 0.95;
+        @NotNull
+        private FiniteDuration _minHedgeDelay = FiniteDuration.apply(10, TimeUnit.MILLISECONDS);
+        @NotNull
+        @Min(1)
+        private Integer _minHedgeSamples = 100;
+        @NotNull
+        @Min(1)
+        private Integer _ejectionConsecutiveFailures = 5;
+        @NotNull
+        @Min(1)
+        private Double _ejectionLatencyFactor = 3.0;
+        @NotNull
+        private FiniteDuration _ejectionDuration = FiniteDuration.apply(30, TimeUnit.SECONDS);
+    }
+}
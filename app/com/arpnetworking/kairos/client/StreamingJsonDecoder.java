@@ -0,0 +1,198 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.kairos.client;
+
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+
+/**
+ * Incrementally decodes JSON values from a document delivered in chunks.
+ *
+ * Chunks are fed to Jackson's non-blocking parser as they arrive. The tokens of each value whose
+ * enclosing context matches the selector are buffered until the value is complete and then bound to
+ * the target type, so neither the raw document nor more than one selected value is held in memory at
+ * a time. Tokens outside of selected values are discarded.
+ *
+ * This class is not thread safe.
+ *
+ * @param <T> the type of the decoded values
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+final class StreamingJsonDecoder<T> {
+
+    /**
+     * Creates a decoder for a single document.
+     *
+     * @param mapper the object mapper to bind values with
+     * @param type the type of the selected values
+     * @param selector selects values by their enclosing context
+     * @throws IOException if the parser cannot be created
+     */
+    StreamingJsonDecoder(
+            final ObjectMapper mapper,
+            final JavaType type,
+            final Predicate<JsonStreamContext> selector) throws IOException {
+        _mapper = mapper;
+        _type = type;
+        _selector = selector;
+        _parser = mapper.getFactory().createNonBlockingByteArrayParser();
+        _feeder = (ByteArrayFeeder) _parser.getNonBlockingInputFeeder();
+    }
+
+    /**
+     * Decodes the next chunk of the document.
+     *
+     * @param chunk the chunk
+     * @return the values completed by the chunk
+     * @throws IOException if the document is malformed or a value cannot be bound
+     */
+    List<T> feed(final ByteString chunk) throws IOException {
+        if (chunk.isEmpty()) {
+            return Lists.newArrayList();
+        }
+        final byte[] bytes = chunk.toArray();
+        _feeder.feedInput(bytes, 0, bytes.length);
+        return drain();
+    }
+
+    /**
+     * Signals the end of the document.
+     *
+     * @return the values completed by the end of the document
+     * @throws IOException if the document is incomplete or a value cannot be bound
+     */
+    List<T> finish() throws IOException {
+        _feeder.endOfInput();
+        final List<T> values = drain();
+        if (_buffer != null) {
+            throw new JsonParseException(_parser, "Unexpected end of input within a selected value");
+        }
+        return values;
+    }
+
+    /**
+     * Selects the root value of the document.
+     *
+     * @param context the enclosing context
+     * @return true if the context is the root context
+     */
+    static boolean root(final JsonStreamContext context) {
+        return context.inRoot();
+    }
+
+    /**
+     * Selects the queries of a KairosDB query response, i.e. the elements of {@code {"queries": [...]}}.
+     *
+     * @param context the enclosing context
+     * @return true if the context is the queries array of a query response
+     */
+    static boolean query(final JsonStreamContext context) {
+        final JsonStreamContext response = parent(context, 2);
+        return context.inArray()
+                && isField(context.getParent(), "queries")
+                && response != null
+                && response.inRoot();
+    }
+
+    /**
+     * Selects the series of a KairosDB query response, i.e. the elements of
+     * {@code {"queries": [{"results": [...]}]}}.
+     *
+     * @param context the enclosing context
+     * @return true if the context is a results array of a query response
+     */
+    static boolean queryResult(final JsonStreamContext context) {
+        final JsonStreamContext query = parent(context, 2);
+        final JsonStreamContext response = parent(context, 4);
+        return context.inArray()
+                && isField(context.getParent(), "results")
+                && query != null
+                && query.inArray()
+                && isField(parent(context, 3), "queries")
+                && response != null
+                && response.inRoot();
+    }
+
+    private List<T> drain() throws IOException {
+        final List<T> values = Lists.newArrayList();
+        JsonToken token = _parser.nextToken();
+        while (token != null && token != JsonToken.NOT_AVAILABLE) {
+            if (_buffer == null && isSelected(token)) {
+                _buffer = new TokenBuffer(_mapper, false);
+                _depth = 0;
+            }
+            if (_buffer != null) {
+                _buffer.copyCurrentEvent(_parser);
+                if (token.isStructStart()) {
+                    ++_depth;
+                } else if (token.isStructEnd()) {
+                    --_depth;
+                }
+                if (_depth == 0) {
+                    try (JsonParser valueParser = _buffer.asParser(_mapper)) {
+                        values.add(_mapper.readValue(valueParser, _type));
+                    }
+                    _buffer = null;
+                }
+            }
+            token = _parser.nextToken();
+        }
+        return values;
+    }
+
+    private boolean isSelected(final JsonToken token) {
+        // The parser has already entered the context of a structure when reporting its start
+        if (token.isStructStart()) {
+            return _selector.test(_parser.getParsingContext().getParent());
+        }
+        return token.isScalarValue() && _selector.test(_parser.getParsingContext());
+    }
+
+    @Nullable
+    private static JsonStreamContext parent(final JsonStreamContext context, final int levels) {
+        JsonStreamContext current = context;
+        for (int i = 0; i < levels && current != null; ++i) {
+            current = current.getParent();
+        }
+        return current;
+    }
+
+    private static boolean isField(@Nullable final JsonStreamContext context, final String name) {
+        return context != null && context.inObject() && name.equals(context.getCurrentName());
+    }
+
+    private final ObjectMapper _mapper;
+    private final JavaType _type;
+    private final Predicate<JsonStreamContext> _selector;
+    private final JsonParser _parser;
+    private final ByteArrayFeeder _feeder;
+    @Nullable
+    private TokenBuffer _buffer;
+    private int _depth;
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.kairos.client.models;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+import javax.annotation.Nullable;
+
+/**
+ * Immutable columnar list of the data points of a series in a KairosDB query response.
+ *
+ * Timestamps are stored as an array of epoch milliseconds and values as an array of primitive longs
+ * when every value is an integer, or of primitive doubles when the values are numbers that can be
+ * represented exactly as doubles. Series containing any other values (e.g. histograms or strings)
+ * fall back to an array of objects. Integer values in a double series are tracked so that they are
+ * serialized exactly as they were received.
+ *
+ * The {@link List} view creates a {@link MetricsQueryResponse.DataPoint} on each access; bulk
+ * consumers should use the indexed accessors instead.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+@JsonSerialize(using = DataPoints.Serializer.class)
+@JsonDeserialize(using = DataPoints.Deserializer.class)
+public final class DataPoints extends AbstractList<MetricsQueryResponse.DataPoint> implements RandomAccess {
+
+    /**
+     * Returns the empty list of data points.
+     *
+     * @return the empty list
+     */
+    public static DataPoints of() {
+        return EMPTY;
+    }
+
+    /**
+     * Creates a columnar copy of a list of data points.
+     *
+     * @param points the data points
+     * @return the columnar list; the argument itself if it is already columnar
+     */
+    public static DataPoints copyOf(final List<? extends MetricsQueryResponse.DataPoint> points) {
+        if (points instanceof DataPoints) {
+            return (DataPoints) points;
+        }
+        final Builder builder = new Builder(points.size());
+        for (final MetricsQueryResponse.DataPoint point : points) {
+            builder.add(point.getTime().toEpochMilli(), point.getValue());
+        }
+        return builder.build();
+    }
+
+    @Override
+    public MetricsQueryResponse.DataPoint get(final int index) {
+        return new MetricsQueryResponse.DataPoint(Instant.ofEpochMilli(_times[index]), getValue(index));
+    }
+
+    @Override
+    public int size() {
+        return _times.length;
+    }
+
+    /**
+     * Gets the timestamp of a data point.
+     *
+     * @param index the index of the data point
+     * @return the timestamp in milliseconds since the epoch
+     */
+    public long getTimeMillis(final int index) {
+        return _times[index];
+    }
+
+    /**
+     * Gets the value of a data point. Integer values are returned as {@link Long} and other numbers
+     * as {@link Double} unless the series uses the object representation.
+     *
+     * @param index the index of the data point
+     * @return the value
+     */
+    @Nullable
+    public Object getValue(final int index) {
+        if (_longs != null) {
+            return _longs[index];
+        }
+        if (_doubles != null) {
+            if (_integral.get(index)) {
+                return (long) _doubles[index];
+            }
+            return _doubles[index];
+        }
+        return _objects[index];
+    }
+
+    /**
+     * Determines whether the values are stored as primitives.
+     *
+     * @return true if every value is a number stored in a primitive array
+     */
+    public boolean isNumeric() {
+        return _objects == null;
+    }
+
+    /**
+     * Gets the value of a data point as a double.
+     *
+     * @param index the index of the data point
+     * @return the value
+     * @throws ClassCastException if the value is not a number
+     */
+    public double getDouble(final int index) {
+        if (_longs != null) {
+            return _longs[index];
+        }
+        if (_doubles != null) {
+            return _doubles[index];
+        }
+        return ((Number) _objects[index]).doubleValue();
+    }
+
+    /**
+     * Creates a copy of these data points with every timestamp shifted by an offset. The values are
+     * shared with this instance.
+     *
+     * @param offsetMillis the offset in milliseconds
+     * @return the shifted data points
+     */
+    public DataPoints withTimeOffset(final long offsetMillis) {
+        if (offsetMillis == 0 || isEmpty()) {
+            return this;
+        }
+        final long[] times = new long[_times.length];
+        for (int i = 0; i < times.length; ++i) {
+            times[i] = _times[i] + offsetMillis;
+        }
+        return new DataPoints(times, _longs, _doubles, _integral, _objects);
+    }
+
+    private static boolean isExactDouble(final long value) {
+        return value >= -MAX_EXACT_DOUBLE && value <= MAX_EXACT_DOUBLE;
+    }
+
+    private DataPoints(
+            final long[] times,
+            @Nullable final long[] longs,
+            @Nullable final double[] doubles,
+            final BitSet integral,
+            @Nullable final Object[] objects) {
+        _times = times;
+        _longs = longs;
+        _doubles = doubles;
+        _integral = integral;
+        _objects = objects;
+    }
+
+    private final long[] _times;
+    // Exactly one of the value arrays is non-null
+    private final long[] _longs;
+    private final double[] _doubles;
+    private final BitSet _integral;
+    private final Object[] _objects;
+
+    private static final DataPoints EMPTY = new DataPoints(new long[0], new long[0], null, new BitSet(), null);
+    private static final long MAX_EXACT_DOUBLE = 1L << 53;
+
+    /**
+     * Accumulates data points in columnar form. The representation is widened from longs to doubles
+     * to objects as values that the current representation cannot hold exactly are added.
+     *
+     * @author Gilligan Markham (gmarkham at dropbox dot com)
+     */
+    public static final class Builder {
+        /**
+         * Public constructor.
+         */
+        public Builder() {
+            this(DEFAULT_CAPACITY);
+        }
+
+        /**
+         * Public constructor.
+         *
+         * @param expectedSize the expected number of data points
+         */
+        public Builder(final int expectedSize) {
+            final int capacity = Math.max(expectedSize, 1);
+            _times = new long[capacity];
+            _longs = new long[capacity];
+        }
+
+        /**
+         * Adds a data point with an integer value.
+         *
+         * @param timeMillis the timestamp in milliseconds since the epoch
+         * @param value the value
+         * @return this {@link Builder}
+         */
+        public Builder add(final long timeMillis, final long value) {
+            ensureCapacity();
+            if (_longs != null) {
+                _longs[_size] = value;
+            } else if (_doubles != null && isExactDouble(value)) {
+                _doubles[_size] = value;
+                _integral.set(_size);
+            } else {
+                toObjects();
+                _objects[_size] = value;
+            }
+            _times[_size++] = timeMillis;
+            return this;
+        }
+
+        /**
+         * Adds a data point with a floating point value.
+         *
+         * @param timeMillis the timestamp in milliseconds since the epoch
+         * @param value the value
+         * @return this {@link Builder}
+         */
+        public Builder add(final long timeMillis, final double value) {
+            ensureCapacity();
+            if (_longs != null) {
+                toDoubles();
+            }
+            if (_doubles != null) {
+                _doubles[_size] = value;
+            } else {
+                _objects[_size] = value;
+            }
+            _times[_size++] = timeMillis;
+            return this;
+        }
+
+        /**
+         * Adds a data point with an arbitrary value.
+         *
+         * @param timeMillis the timestamp in milliseconds since the epoch
+         * @param value the value
+         * @return this {@link Builder}
+         */
+        public Builder add(final long timeMillis, @Nullable final Object value) {
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                return add(timeMillis, ((Number) value).longValue());
+            }
+            if (value instanceof Double) {
+                return add(timeMillis, ((Double) value).doubleValue());
+            }
+            ensureCapacity();
+            toObjects();
+            _objects[_size] = value;
+            _times[_size++] = timeMillis;
+            return this;
+        }
+
+        /**
+         * Adds a data point copied from another list of data points, preserving the type of its value.
+         *
+         * @param source the data points to copy from
+         * @param index the index of the data point to copy
+         * @return this {@link Builder}
+         */
+        public Builder add(final DataPoints source, final int index) {
+            final long timeMillis = source._times[index];
+            if (source._longs != null) {
+                return add(timeMillis, source._longs[index]);
+            }
+            if (source._doubles != null) {
+                if (source._integral.get(index)) {
+                    return add(timeMillis, (long) source._doubles[index]);
+                }
+                return add(timeMillis, source._doubles[index]);
+            }
+            return add(timeMillis, source._objects[index]);
+        }
+
+        /**
+         * Adds all data points of another list of data points.
+         *
+         * @param source the data points to copy
+         * @return this {@link Builder}
+         */
+        public Builder addAll(final DataPoints source) {
+            for (int i = 0; i < source.size(); ++i) {
+                add(source, i);
+            }
+            return this;
+        }
+
+        /**
+         * Creates the list of data points.
+         *
+         * @return the data points
+         */
+        public DataPoints build() {
+            if (_size == 0) {
+                return EMPTY;
+            }
+            return new DataPoints(
+                    Arrays.copyOf(_times, _size),
+                    _longs == null ? null : Arrays.copyOf(_longs, _size),
+                    _doubles == null ? null : Arrays.copyOf(_doubles, _size),
+                    (BitSet) _integral.clone(),
+                    _objects == null ? null : Arrays.copyOf(_objects, _size));
+        }
+
+        private void ensureCapacity() {
+            if (_size < _times.length) {
+                return;
+            }
+            final int capacity = _times.length * 2;
+            _times = Arrays.copyOf(_times, capacity);
+            if (_longs != null) {
+                _longs = Arrays.copyOf(_longs, capacity);
+            }
+            if (_doubles != null) {
+                _doubles = Arrays.copyOf(_doubles, capacity);
+            }
+            if (_objects != null) {
+                _objects = Arrays.copyOf(_objects, capacity);
+            }
+        }
+
+        private void toDoubles() {
+            for (int i = 0; i < _size; ++i) {
+                if (!isExactDouble(_longs[i])) {
+                    toObjects();
+                    return;
+                }
+            }
+            _doubles = new double[_times.length];
+            for (int i = 0; i < _size; ++i) {
+                _doubles[i] = _longs[i];
+            }
+            _integral.set(0, _size);
+            _longs = null;
+        }
+
+        private void toObjects() {
+            if (_objects != null) {
+                return;
+            }
+            _objects = new Object[_times.length];
+            for (int i = 0; i < _size; ++i) {
+                if (_longs != null) {
+                    _objects[i] = _longs[i];
+                } else if (_integral.get(i)) {
+                    _objects[i] = (long) _doubles[i];
+                } else {
+                    _objects[i] = _doubles[i];
+                }
+            }
+            _longs = null;
+            _doubles = null;
+            _integral.clear();
+        }
+
+        private long[] _times;
+        private long[] _longs;
+        private double[] _doubles;
+        private final BitSet _integral = new BitSet();
+        private Object[] _objects;
+        private int _size;
+
+        private static final int DEFAULT_CAPACITY = 16;
+    }
+
+    /**
+     * Serializes data points as an array of {@code [timestamp, value]} pairs without creating a
+     * {@link MetricsQueryResponse.DataPoint} per element.
+     *
+     * @author Gilligan Markham (gmarkham at dropbox dot com)
+     */
+    public static final class Serializer extends StdSerializer<DataPoints> {
+        /**
+         * Public constructor.
+         */
+        public Serializer() {
+            super(DataPoints.class);
+        }
+
+        @Override
+        public void serialize(
+                final DataPoints value,
+                final JsonGenerator generator,
+                final SerializerProvider provider) throws IOException {
+            generator.writeStartArray(value.size());
+            for (int i = 0; i < value.size(); ++i) {
+                generator.writeStartArray(2);
+                generator.writeNumber(value._times[i]);
+                if (value._longs != null) {
+                    generator.writeNumber(value._longs[i]);
+                } else if (value._doubles != null && value._integral.get(i)) {
+                    generator.writeNumber((long) value._doubles[i]);
+                } else if (value._doubles != null) {
+                    generator.writeNumber(value._doubles[i]);
+                } else {
+                    provider.defaultSerializeValue(value._objects[i], generator);
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndArray();
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Deserializes an array of {@code [timestamp, value]} pairs directly into columnar form.
+     *
+     * @author Gilligan Markham (gmarkham at dropbox dot com)
+     */
+    public static final class Deserializer extends StdDeserializer<DataPoints> {
+        /**
+         * Public constructor.
+         */
+        public Deserializer() {
+            super(DataPoints.class);
+        }
+
+        @Override
+        public DataPoints deserialize(final JsonParser parser, final DeserializationContext context) throws IOException {
+            if (!parser.isExpectedStartArrayToken()) {
+                return (DataPoints) context.handleUnexpectedToken(DataPoints.class, parser);
+            }
+            final boolean bigDecimals = context.isEnabled(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+            final Builder builder = new Builder();
+            JsonToken token = parser.nextToken();
+            while (token == JsonToken.START_ARRAY) {
+                if (parser.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+                    return context.reportWrongTokenException(this, JsonToken.VALUE_NUMBER_INT, "Expected data point timestamp");
+                }
+                final long timeMillis = parser.getLongValue();
+                final JsonToken valueToken = parser.nextToken();
+                if (valueToken == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() != JsonParser.NumberType.BIG_INTEGER) {
+                    builder.add(timeMillis, parser.getLongValue());
+                } else if (valueToken == JsonToken.VALUE_NUMBER_FLOAT && !bigDecimals) {
+                    builder.add(timeMillis, parser.getDoubleValue());
+                } else if (valueToken == JsonToken.END_ARRAY || valueToken == null) {
+                    return context.reportWrongTokenException(this, JsonToken.VALUE_NUMBER_FLOAT, "Expected data point value");
+                } else {
+                    builder.add(timeMillis, context.readValue(parser, Object.class));
+                }
+                if (parser.nextToken() != JsonToken.END_ARRAY) {
+                    return context.reportWrongTokenException(this, JsonToken.END_ARRAY, "Expected end of data point");
+                }
+                token = parser.nextToken();
+            }
+            if (token != JsonToken.END_ARRAY) {
+                return context.reportWrongTokenException(this, JsonToken.START_ARRAY, "Expected data point");
+            }
+            return builder.build();
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -16,10 +16,13 @@
 package com.arpnetworking.kairos.client.models;
 
 import com.arpnetworking.commons.builder.OvalBuilder;
+import com.fasterxml.jackson.annotation.JsonAnyGetter;
+import com.fasterxml.jackson.annotation.JsonAnySetter;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonValue;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Multimap;
 import net.sf.oval.constraint.NotEmpty;
@@ -64,6 +67,11 @@ public final class Metric {
         return _order;
     }
 
+    @JsonAnyGetter
+    public ImmutableMap<String, Object> getOtherArgs() {
+        return _otherArgs;
+    }
+
     private Metric(final Builder builder) {
         _name = builder._name;
         _tags = builder._tags;
@@ -71,6 +79,7 @@ public final class Metric {
         _groupBy = builder._groupBy;
         _limit = Optional.ofNullable(builder._limit);
         _order = Optional.ofNullable(builder._order);
+        _otherArgs = builder._otherArgs;
     }
 
     private final String _name;
@@ -79,6 +88,7 @@ public final class Metric {
     private final ImmutableList<MetricsQuery.GroupBy> _groupBy;
     private final Optional<Integer> _limit;
     private final Optional<Order> _order;
+    private final ImmutableMap<String, Object> _otherArgs;
 
     /**
      * Implementation of the builder pattern for {@link Metric}.
@@ -161,6 +171,30 @@ public final class Metric {
             return this;
         }
 
+        /**
+         * Adds an "unknown" parameter. Optional.
+         *
+         * @param key key for the entry
+         * @param value value for the entry
+         * @return this {@link Builder}
+         */
+        @JsonAnySetter
+        public Builder addOtherArg(final String key, final Object value) {
+            _otherArgs = new ImmutableMap.Builder<String, Object>().putAll(_otherArgs).put(key, value).build();
+            return this;
+        }
+
+        /**
+         * Sets the "unknown" parameters. Optional. Cannot be null.
+         *
+         * @param value the other args
+         * @return this {@link Builder}
+         */
+        public Builder setOtherArgs(final ImmutableMap<String, Object> value) {
+            _otherArgs = value;
+            return this;
+        }
+
         @NotNull
         @NotEmpty
         private String _name;
@@ -177,6 +211,9 @@ public final class Metric {
         private Integer _limit;
 
         private Order _order;
+
+        @NotNull
+        private ImmutableMap<String, Object> _otherArgs = ImmutableMap.of();
     }
 
     /**
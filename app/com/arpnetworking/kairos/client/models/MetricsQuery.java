@@ -26,8 +26,12 @@ import com.google.common.collect.ImmutableMap;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import net.sf.oval.constraint.NotEmpty;
 import net.sf.oval.constraint.NotNull;
+import net.sf.oval.constraint.ValidateWithMethod;
 
+import java.time.Clock;
 import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -77,15 +81,54 @@ public final class MetricsQuery {
         return _metrics;
     }
 
+    @JsonAnyGetter
+    public ImmutableMap<String, Object> getOtherArgs() {
+        return _otherArgs;
+    }
+
+    /**
+     * Whether executing the query writes data, i.e. whether any metric saves its results with a
+     * {@code save_as} aggregator. Such queries are not idempotent.
+     *
+     * @return true if the query has side effects
+     */
+    @JsonIgnore
+    public boolean hasSideEffects() {
+        return _metrics.stream()
+                .flatMap(metric -> metric.getAggregators().stream())
+                .anyMatch(aggregator -> SAVE_AS_AGGREGATOR.equals(aggregator.getName()));
+    }
+
     private MetricsQuery(final Builder builder) {
-        _startTime = builder._startTime;
-        _endTime = Optional.ofNullable(builder._endTime);
+        final Instant now = builder._clock.instant();
+        if (builder._startTime != null) {
+            _startTime = builder._startTime;
+        } else {
+            _startTime = resolveRelative(now, builder._startRelative);
+        }
+        if (builder._endTime != null) {
+            _endTime = Optional.of(builder._endTime);
+        } else if (builder._endRelative != null) {
+            _endTime = Optional.of(resolveRelative(now, builder._endRelative));
+        } else {
+            _endTime = Optional.empty();
+        }
         _metrics = builder._metrics;
+        _otherArgs = builder._otherArgs;
+    }
+
+    private static Instant resolveRelative(final Instant now, final Sampling relative) {
+        return ZonedDateTime.ofInstant(now, ZoneOffset.UTC)
+                .minus(relative.getValue(), relative.getUnit().getChronoUnit())
+                .toInstant();
     }
 
     private final Instant _startTime;
     private final Optional<Instant> _endTime;
     private final ImmutableList<Metric> _metrics;
+    private final ImmutableMap<String, Object> _otherArgs;
+
+    private static final String SAVE_AS_AGGREGATOR = "save_as";
 
     /**
      * Implementation of the builder pattern for MetricsQuery.
@@ -99,7 +142,7 @@ public final class MetricsQuery {
         }
 
         /**
-         * Sets the start time of the query. Required. Cannot be null.
+         * Sets the start time of the query. Required unless a relative start time is set.
          *
          * @param value the start time
          * @return this {@link Builder}
@@ -109,6 +152,30 @@ public final class MetricsQuery {
             return this;
         }
 
+        /**
+         * Sets the start time of the query in epoch milliseconds. Required unless a relative start time is set.
+         *
+         * @param value the start time in epoch milliseconds
+         * @return this {@link Builder}
+         */
+        @JsonProperty("start_absolute")
+        public Builder setStartAbsolute(final Long value) {
+            _startTime = Instant.ofEpochMilli(value);
+            return this;
+        }
+
+        /**
+         * Sets the start time of the query relative to now. Ignored if an absolute start time is set.
+         *
+         * @param value the relative start time
+         * @return this {@link Builder}
+         */
+        @JsonProperty("start_relative")
+        public Builder setStartRelative(@Nullable final Sampling value) {
+            _startRelative = value;
+            return this;
+        }
+
         /**
          * Sets the end time of the query. Null is used as "now" from KairosDB.  Optional. Default is null.
          *
@@ -120,6 +187,43 @@ public final class MetricsQuery {
             return this;
         }
 
+        /**
+         * Sets the end time of the query in epoch milliseconds. Optional. Default is null.
+         *
+         * @param value the end time in epoch milliseconds
+         * @return this {@link Builder}
+         */
+        @JsonProperty("end_absolute")
+        public Builder setEndAbsolute(@Nullable final Long value) {
+            _endTime = value == null ? null : Instant.ofEpochMilli(value);
+            return this;
+        }
+
+        /**
+         * Sets the end time of the query relative to now. Ignored if an absolute end time is set. Optional. Default is null.
+         *
+         * @param value the relative end time
+         * @return this {@link Builder}
+         */
+        @JsonProperty("end_relative")
+        public Builder setEndRelative(@Nullable final Sampling value) {
+            _endRelative = value;
+            return this;
+        }
+
+        /**
+         * Sets the clock that relative start and end times are resolved against. Optional. Cannot be null.
+         * Default is the system UTC clock.
+         *
+         * @param value the clock
+         * @return this {@link Builder}
+         */
+        @JsonIgnore
+        public Builder setClock(final Clock value) {
+            _clock = value;
+            return this;
+        }
+
         /**
          * Sets list of metrics. Required. Cannot be null or empty.
          *
@@ -135,12 +239,47 @@ public final class MetricsQuery {
             return _metrics;
         }
 
-        @NotNull
+        /**
+         * Adds an "unknown" parameter. Optional.
+         *
+         * @param key key for the entry
+         * @param value value for the entry
+         * @return this {@link Builder}
+         */
+        @JsonAnySetter
+        public Builder addOtherArg(final String key, final Object value) {
+            _otherArgs = new ImmutableMap.Builder<String, Object>().putAll(_otherArgs).put(key, value).build();
+            return this;
+        }
+
+        /**
+         * Sets the "unknown" parameters. Optional. Cannot be null.
+         *
+         * @param value the other args
+         * @return this {@link Builder}
+         */
+        public Builder setOtherArgs(final ImmutableMap<String, Object> value) {
+            _otherArgs = value;
+            return this;
+        }
+
+        @SuppressFBWarnings(value = "UPM_UNCALLED_PRIVATE_METHOD", justification = "invoked reflectively by @ValidateWithMethod")
+        private boolean validateStartTime(@Nullable final Instant value) {
+            return value != null || _startRelative != null;
+        }
+
+        @ValidateWithMethod(methodName = "validateStartTime", parameterType = Instant.class, ignoreIfNull = false)
         private Instant _startTime;
+        private Sampling _startRelative;
         private Instant _endTime;
+        private Sampling _endRelative;
+        @NotNull
+        private Clock _clock = Clock.systemUTC();
         @NotNull
         @NotEmpty
         private ImmutableList<Metric> _metrics = ImmutableList.of();
+        @NotNull
+        private ImmutableMap<String, Object> _otherArgs = ImmutableMap.of();
     }
 
     /**
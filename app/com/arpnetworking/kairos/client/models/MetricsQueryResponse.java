@@ -21,6 +21,8 @@ import com.fasterxml.jackson.annotation.JsonAnySetter;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
@@ -31,6 +33,7 @@ import net.sf.oval.constraint.NotNull;
 
 import java.time.Instant;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * Model class to represent a metrics query response from KairosDB.
@@ -154,6 +157,17 @@ public final class MetricsQueryResponse {
                 return this;
             }
 
+            /**
+             * Sets the "unknown" parameters. Optional.
+             *
+             * @param value the unknown parameters
+             * @return this {@link Builder}
+             */
+            public Builder setOtherArgs(final ImmutableMap<String, Object> value) {
+                _otherArgs = value;
+                return this;
+            }
+
             /**
              * Sets the sample size. Required.
              *
@@ -197,7 +211,8 @@ public final class MetricsQueryResponse {
             return _name;
         }
 
-        public ImmutableList<DataPoint> getValues() {
+        @JsonSerialize(using = DataPoints.Serializer.class)
+        public DataPoints getValues() {
             return _values;
         }
 
@@ -218,7 +233,7 @@ public final class MetricsQueryResponse {
         }
 
         private final ImmutableMap<String, Object> _otherArgs;
-        private final ImmutableList<DataPoint> _values;
+        private final DataPoints _values;
         private final String _name;
         private final ImmutableMultimap<String, String> _tags;
 
@@ -261,13 +276,14 @@ public final class MetricsQueryResponse {
             }
 
             /**
-             * Sets the values list. Optional. Cannot be null.
+             * Sets the values list. Optional. Cannot be null. The values are stored in columnar form.
              *
              * @param value the values
              * @return this {@link Builder}
              */
-            public Builder setValues(final ImmutableList<DataPoint> value) {
-                _values = value;
+            @JsonDeserialize(using = DataPoints.Deserializer.class)
+            public Builder setValues(final List<? extends DataPoint> value) {
+                _values = value == null ? null : DataPoints.copyOf(value);
                 return this;
             }
 
@@ -297,7 +313,7 @@ public final class MetricsQueryResponse {
             @NotEmpty
             private String _name;
             @NotNull
-            private ImmutableList<DataPoint> _values = ImmutableList.of();
+            private DataPoints _values = DataPoints.of();
             @NotNull
             private ImmutableMap<String, Object> _otherArgs = ImmutableMap.of();
             @NotNull
@@ -330,6 +346,11 @@ public final class MetricsQueryResponse {
             _value = builder._value;
         }
 
+        DataPoint(final Instant time, @Nullable final Object value) {
+            _time = time;
+            _value = value;
+        }
+
         private final Instant _time;
         private final Object _value;
 
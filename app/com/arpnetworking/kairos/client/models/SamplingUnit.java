@@ -15,6 +15,11 @@
  */
 package com.arpnetworking.kairos.client.models;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+
 /**
  * Enumeration representing the possible values for a Kairos sampling unit.
  *
@@ -24,33 +29,54 @@ public enum SamplingUnit {
     /**
      * Sampling is count represents milliseconds.
      */
-    MILLISECONDS,
+    MILLISECONDS(ChronoUnit.MILLIS),
     /**
      * Sampling is count represents seconds.
      */
-    SECONDS,
+    SECONDS(ChronoUnit.SECONDS),
     /**
      * Sampling is count represents minutes.
      */
-    MINUTES,
+    MINUTES(ChronoUnit.MINUTES),
     /**
      * Sampling is count represents hours.
      */
-    HOURS,
+    HOURS(ChronoUnit.HOURS),
     /**
      * Sampling is count represents days.
      */
-    DAYS,
+    DAYS(ChronoUnit.DAYS),
     /**
      * Sampling is count represents weeks.
      */
-    WEEKS,
+    WEEKS(ChronoUnit.WEEKS),
     /**
      * Sampling is count represents months.
      */
-    MONTHS,
+    MONTHS(ChronoUnit.MONTHS),
     /**
      * Sampling is count represents years.
      */
-    YEARS;
+    YEARS(ChronoUnit.YEARS);
+
+    /**
+     * Parses a sampling unit case-insensitively, as KairosDB does.
+     *
+     * @param value the unit name
+     * @return the matching {@link SamplingUnit}
+     */
+    @JsonCreator
+    public static SamplingUnit fromString(final String value) {
+        return valueOf(value.toUpperCase(Locale.ROOT));
+    }
+
+    public ChronoUnit getChronoUnit() {
+        return _chronoUnit;
+    }
+
+    SamplingUnit(final ChronoUnit chronoUnit) {
+        _chronoUnit = chronoUnit;
+    }
+
+    private final ChronoUnit _chronoUnit;
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.query;
+
+import com.arpnetworking.kairos.client.KairosDbClient;
+import com.arpnetworking.metrics.Units;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.play.configuration.ConfigurationHelper;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.utility.SingleFlight;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Singleton;
+import com.typesafe.config.Config;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+/**
+ * Catalog of the metric names known to KairosDB, indexed for substring lookups.
+ *
+ * The catalog is served stale-while-revalidate: once loaded, lookups are always answered from the
+ * current index and a lookup against an index older than the refresh interval starts a background
+ * reload. Only the very first lookup waits for KairosDB.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+@Singleton
+public final class MetricNameCatalog {
+    /**
+     * Public constructor.
+     *
+     * @param kairosDbClient the client used to fetch the metric names
+     * @param configuration the configuration
+     * @param clock the clock used to age the index
+     * @param metrics the periodic metrics instance
+     */
+    @Inject
+    public MetricNameCatalog(
+            final KairosDbClient kairosDbClient,
+            final Config configuration,
+            final Clock clock,
+            final PeriodicMetrics metrics) {
+        _kairosDbClient = kairosDbClient;
+        _clock = clock;
+        _metrics = metrics;
+        _refreshIntervalMillis = ConfigurationHelper.getFiniteDuration(
+                configuration,
+                "kairosdb.proxy.metricNames.refreshInterval").toMillis();
+        _maxResults = configuration.getInt("kairosdb.proxy.metricNames.maxResults");
+        _refreshes = new SingleFlight<>(metrics, "kairos_proxy/metric_names/refresh");
+    }
+
+    /**
+     * Finds metric names.
+     *
+     * With no filter every known metric name is returned. With a filter, only the names containing it
+     * (ignoring case) are returned, excluding the {@code PT1M/} rollup outputs, up to a limit.
+     *
+     * @param containing simple string match filter for metric names
+     * @param limit the maximum number of filtered names to return; capped by the configured maximum
+     * @return the metric names
+     */
+    public CompletionStage<ImmutableList<String>> find(@Nullable final String containing, final Optional<Integer> limit) {
+        return index().thenApply(index -> {
+            if (containing == null || containing.isEmpty()) {
+                return index.all();
+            }
+            final long start = System.nanoTime();
+            final ImmutableList<String> results = index.search(containing, Math.min(limit.orElse(_maxResults), _maxResults));
+            _metrics.recordTimer("kairos_proxy/metric_names/lookup", System.nanoTime() - start, Optional.of(Units.NANOSECOND));
+            return results;
+        });
+    }
+
+    private CompletionStage<MetricNameIndex> index() {
+        final Snapshot snapshot = _snapshot.get();
+        if (snapshot == null) {
+            return refresh();
+        }
+        final long now = _clock.millis();
+        final long lastAttempt = _lastRefreshAttempt.get();
+        if (now - snapshot._loadedAt.toEpochMilli() >= _refreshIntervalMillis
+                && now - lastAttempt >= _refreshIntervalMillis
+                && _lastRefreshAttempt.compareAndSet(lastAttempt, now)) {
+            // Serve the stale index while it is being reloaded; failed reloads are retried after another interval
+            refresh();
+        }
+        return CompletableFuture.completedFuture(snapshot._index);
+    }
+
+    private CompletionStage<MetricNameIndex> refresh() {
+        return _refreshes.execute(
+                REFRESH_KEY,
+                () -> _kairosDbClient.queryMetricNames()
+                        .thenApplyAsync(response -> {
+                            final long start = System.nanoTime();
+                            final MetricNameIndex index = MetricNameIndex.build(response.getResults(), IS_PT1M);
+                            _metrics.recordTimer(
+                                    "kairos_proxy/metric_names/index_build",
+                                    System.nanoTime() - start,
+                                    Optional.of(Units.NANOSECOND));
+                            _metrics.recordGauge("kairos_proxy/metric_names/count", index.size());
+                            _snapshot.set(new Snapshot(index, _clock.instant()));
+                            return index;
+                        })
+                        .whenComplete((index, failure) -> {
+                            _metrics.recordCounter("kairos_proxy/metric_names/refresh/success", failure == null ? 1 : 0);
+                            if (failure != null) {
+                                LOGGER.warn()
+                                        .setMessage("Failed to refresh metric names")
+                                        .setThrowable(failure)
+                                        .log();
+                            }
+                        }));
+    }
+
+    private final KairosDbClient _kairosDbClient;
+    private final Clock _clock;
+    private final PeriodicMetrics _metrics;
+    private final long _refreshIntervalMillis;
+    private final int _maxResults;
+    private final SingleFlight<String, MetricNameIndex> _refreshes;
+    private final AtomicReference<Snapshot> _snapshot = new AtomicReference<>();
+    private final AtomicLong _lastRefreshAttempt = new AtomicLong(Long.MIN_VALUE / 2);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricNameCatalog.class);
+    private static final String REFRESH_KEY = "METRICNAMES";
+    private static final Predicate<String> IS_PT1M = s -> s.startsWith("PT1M/");
+
+    private static final class Snapshot {
+        Snapshot(final MetricNameIndex index, final Instant loadedAt) {
+            _index = index;
+            _loadedAt = loadedAt;
+        }
+
+        private final MetricNameIndex _index;
+        private final Instant _loadedAt;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.query;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Immutable, case-insensitive substring index over a list of metric names.
+ *
+ * Every lower-cased trigram of every searchable name maps to the sorted ordinals of the names containing
+ * it. A substring lookup intersects the posting lists of the trigrams of the search string, starting with
+ * the shortest, and verifies the surviving candidates. Names that are hidden from searches are kept for
+ * full listings but are never added to the posting lists.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+final class MetricNameIndex {
+    /**
+     * Builds an index.
+     *
+     * @param names the metric names
+     * @param hidden predicate matching names to exclude from substring searches
+     * @return the index
+     */
+    static MetricNameIndex build(final List<String> names, final Predicate<String> hidden) {
+        final ImmutableList<String> indexed = ImmutableList.copyOf(names);
+        final BitSet hiddenOrdinals = new BitSet(indexed.size());
+        final Map<Long, Postings> postings = Maps.newHashMap();
+        for (int ordinal = 0; ordinal < indexed.size(); ++ordinal) {
+            final String name = indexed.get(ordinal);
+            if (hidden.test(name)) {
+                hiddenOrdinals.set(ordinal);
+                continue;
+            }
+            for (int i = 0; i + NGRAM_LENGTH <= name.length(); ++i) {
+                postings.computeIfAbsent(trigram(name, i), key -> new Postings()).add(ordinal);
+            }
+        }
+
+        final Map<Long, int[]> trimmed = Maps.newHashMapWithExpectedSize(postings.size());
+        postings.forEach((key, value) -> trimmed.put(key, value.toArray()));
+        return new MetricNameIndex(indexed, hiddenOrdinals, trimmed);
+    }
+
+    /**
+     * Gets all of the metric names, including hidden names, in their original order. The list is shared by
+     * every caller rather than copied.
+     *
+     * @return the metric names
+     */
+    ImmutableList<String> all() {
+        return _names;
+    }
+
+    /**
+     * Gets the number of metric names in the index.
+     *
+     * @return the number of metric names
+     */
+    int size() {
+        return _names.size();
+    }
+
+    /**
+     * Finds the non-hidden metric names containing a string, ignoring case.
+     *
+     * @param containing the string to search for
+     * @param limit the maximum number of names to return
+     * @return the matching names in their original order
+     */
+    ImmutableList<String> search(final String containing, final int limit) {
+        final ImmutableList.Builder<String> results = ImmutableList.builder();
+        if (containing.length() < NGRAM_LENGTH) {
+            int found = 0;
+            for (int ordinal = 0; ordinal < _names.size() && found < limit; ++ordinal) {
+                if (!_hidden.get(ordinal) && containsIgnoreCase(_names.get(ordinal), containing)) {
+                    results.add(_names.get(ordinal));
+                    ++found;
+                }
+            }
+            return results.build();
+        }
+
+        final int[][] lists = new int[containing.length() - NGRAM_LENGTH + 1][];
+        for (int i = 0; i < lists.length; ++i) {
+            final int[] list = _postings.get(trigram(containing, i));
+            if (list == null) {
+                return ImmutableList.of();
+            }
+            lists[i] = list;
+        }
+        Arrays.sort(lists, Comparator.comparingInt(list -> list.length));
+
+        int found = 0;
+        for (int i = 0; i < lists[0].length && found < limit; ++i) {
+            final int ordinal = lists[0][i];
+            if (inAll(lists, ordinal) && containsIgnoreCase(_names.get(ordinal), containing)) {
+                results.add(_names.get(ordinal));
+                ++found;
+            }
+        }
+        return results.build();
+    }
+
+    private static boolean inAll(final int[][] lists, final int ordinal) {
+        for (int i = 1; i < lists.length; ++i) {
+            if (lists[i] != lists[i - 1] && Arrays.binarySearch(lists[i], ordinal) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsIgnoreCase(final String name, final String containing) {
+        final int last = name.length() - containing.length();
+        for (int i = 0; i <= last; ++i) {
+            if (name.regionMatches(true, i, containing, 0, containing.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long trigram(final String value, final int offset) {
+        return ((long) Character.toLowerCase(value.charAt(offset)) << 32)
+                | ((long) Character.toLowerCase(value.charAt(offset + 1)) << 16)
+                | Character.toLowerCase(value.charAt(offset + 2));
+    }
+
+    private MetricNameIndex(final ImmutableList<String> names, final BitSet hidden, final Map<Long, int[]> postings) {
+        _names = names;
+        _hidden = hidden;
+        _postings = postings;
+    }
+
+    private final ImmutableList<String> _names;
+    private final BitSet _hidden;
+    private final Map<Long, int[]> _postings;
+
+    private static final int NGRAM_LENGTH = 3;
+
+    private static final class Postings {
+        void add(final int ordinal) {
+            // Ordinals arrive in increasing order, so a repeated trigram within a name is always the last entry
+            if (_size > 0 && _ordinals[_size - 1] == ordinal) {
+                return;
+            }
+            if (_size == _ordinals.length) {
+                _ordinals = Arrays.copyOf(_ordinals, _size * 2);
+            }
+            _ordinals[_size++] = ordinal;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(_ordinals, _size);
+        }
+
+        private int[] _ordinals = new int[4];
+        private int _size = 0;
+    }
+}
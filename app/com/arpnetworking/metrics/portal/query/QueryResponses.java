@@ -0,0 +1,225 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.query;
+
+import com.arpnetworking.kairos.client.models.DataPoints;
+import com.arpnetworking.kairos.client.models.MetricsQueryResponse;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Helpers for slicing and splicing the per-metric {@link MetricsQueryResponse.Query} objects returned by KairosDB
+ * when a single logical query is answered by several requests over adjacent time ranges.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class QueryResponses {
+
+    /**
+     * Concatenates the responses for a single metric covering adjacent, non-overlapping time ranges.
+     *
+     * Results are matched up by metric name and group; tags are unioned and values are appended in
+     * the order of the pieces.  The sample size of the result is the sum of the sample sizes of the pieces.
+     *
+     * @param pieces the responses, ordered by time range
+     * @return the combined response
+     */
+    public static MetricsQueryResponse.Query concat(final List<MetricsQueryResponse.Query> pieces) {
+        if (pieces.size() == 1) {
+            return pieces.get(0);
+        }
+        final Map<ResultKey, ResultAccumulator> accumulators = Maps.newLinkedHashMap();
+        MetricsQueryResponse.QueryResult firstEmpty = null;
+        long sampleSize = 0;
+        for (final MetricsQueryResponse.Query piece : pieces) {
+            sampleSize += piece.getSampleSize();
+            for (final MetricsQueryResponse.QueryResult result : piece.getResults()) {
+                if (result.getValues().isEmpty()) {
+                    if (firstEmpty == null) {
+                        firstEmpty = result;
+                    }
+                    continue;
+                }
+                accumulators.computeIfAbsent(new ResultKey(result), key -> new ResultAccumulator(result)).add(result);
+            }
+        }
+
+        final ImmutableList.Builder<MetricsQueryResponse.QueryResult> results = ImmutableList.builder();
+        if (accumulators.isEmpty() && firstEmpty != null) {
+            results.add(firstEmpty);
+        }
+        accumulators.values().forEach(accumulator -> results.add(accumulator.build()));
+
+        return new MetricsQueryResponse.Query.Builder()
+                .setOtherArgs(pieces.get(0).getOtherArgs())
+                .setSampleSize(sampleSize)
+                .setResults(results.build())
+                .build();
+    }
+
+    /**
+     * Extracts the data points of a response that fall in a time range.
+     *
+     * The sample size of the slice is estimated from the fraction of the data points that fall in the range.
+     *
+     * @param query the response to slice
+     * @param start the start of the range (inclusive)
+     * @param end the end of the range (inclusive)
+     * @param alignEndTime true if data point timestamps mark the end of their sampling window
+     * @return the slice of the response
+     */
+    public static MetricsQueryResponse.Query slice(
+            final MetricsQueryResponse.Query query,
+            final Instant start,
+            final Instant end,
+            final boolean alignEndTime) {
+        final ImmutableList.Builder<MetricsQueryResponse.QueryResult> results = ImmutableList.builder();
+        final long startMillis = start.toEpochMilli();
+        final long endMillis = end.toEpochMilli();
+        MetricsQueryResponse.QueryResult firstEmpty = null;
+        long totalPoints = 0;
+        long slicePoints = 0;
+        boolean hasResults = false;
+        for (final MetricsQueryResponse.QueryResult result : query.getResults()) {
+            final DataPoints points = result.getValues();
+            totalPoints += points.size();
+            final DataPoints.Builder values = new DataPoints.Builder(points.size());
+            int count = 0;
+            for (int i = 0; i < points.size(); ++i) {
+                final long time = alignEndTime ? points.getTimeMillis(i) - 1 : points.getTimeMillis(i);
+                if (time >= startMillis && time <= endMillis) {
+                    values.add(points, i);
+                    ++count;
+                }
+            }
+            if (count > 0) {
+                slicePoints += count;
+                hasResults = true;
+                results.add(copyWithValues(result, values.build()));
+            } else if (firstEmpty == null) {
+                firstEmpty = copyWithValues(result, DataPoints.of());
+            }
+        }
+        if (!hasResults && firstEmpty != null) {
+            results.add(firstEmpty);
+        }
+
+        final long sampleSize = totalPoints == 0 ? 0 : query.getSampleSize() * slicePoints / totalPoints;
+        return new MetricsQueryResponse.Query.Builder()
+                .setOtherArgs(query.getOtherArgs())
+                .setSampleSize(sampleSize)
+                .setResults(results.build())
+                .build();
+    }
+
+    /**
+     * Estimates the retained heap size of a response in bytes.
+     *
+     * @param query the response
+     * @return the estimated size in bytes
+     */
+    public static long estimateSize(final MetricsQueryResponse.Query query) {
+        long size = QUERY_OVERHEAD;
+        for (final MetricsQueryResponse.QueryResult result : query.getResults()) {
+            size += RESULT_OVERHEAD + 2L * result.getName().length();
+            size += TAG_OVERHEAD * result.getTags().size();
+            final long pointSize = result.getValues().isNumeric() ? NUMERIC_DATA_POINT_SIZE : OBJECT_DATA_POINT_SIZE;
+            size += pointSize * result.getValues().size();
+        }
+        return size;
+    }
+
+    private static MetricsQueryResponse.QueryResult copyWithValues(
+            final MetricsQueryResponse.QueryResult result,
+            final DataPoints values) {
+        return new MetricsQueryResponse.QueryResult.Builder()
+                .setName(result.getName())
+                .setTags(result.getTags())
+                .setOtherArgs(result.getOtherArgs())
+                .setValues(values)
+                .build();
+    }
+
+    private QueryResponses() { }
+
+    private static final long QUERY_OVERHEAD = 64;
+    private static final long RESULT_OVERHEAD = 128;
+    private static final long TAG_OVERHEAD = 96;
+    // A timestamp and a primitive value in the columnar representation
+    private static final long NUMERIC_DATA_POINT_SIZE = 16;
+    private static final long OBJECT_DATA_POINT_SIZE = 48;
+
+    private static final class ResultKey {
+        ResultKey(final MetricsQueryResponse.QueryResult result) {
+            _name = result.getName();
+            _groupBy = result.getOtherArgs().get("group_by");
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final ResultKey other = (ResultKey) o;
+            return _name.equals(other._name)
+                    && Objects.equals(_groupBy, other._groupBy);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(_name, _groupBy);
+        }
+
+        private final String _name;
+        private final Object _groupBy;
+    }
+
+    private static final class ResultAccumulator {
+        ResultAccumulator(final MetricsQueryResponse.QueryResult first) {
+            _first = first;
+        }
+
+        void add(final MetricsQueryResponse.QueryResult result) {
+            _tags.putAll(result.getTags());
+            _values.add(result.getValues());
+        }
+
+        MetricsQueryResponse.QueryResult build() {
+            final DataPoints.Builder values = new DataPoints.Builder(_values.stream().mapToInt(DataPoints::size).sum());
+            _values.forEach(values::addAll);
+            return new MetricsQueryResponse.QueryResult.Builder()
+                    .setName(_first.getName())
+                    .setOtherArgs(_first.getOtherArgs())
+                    .setTags(_tags.build())
+                    .setValues(values.build())
+                    .build();
+        }
+
+        private final MetricsQueryResponse.QueryResult _first;
+        private final ImmutableSetMultimap.Builder<String, String> _tags = ImmutableSetMultimap.builder();
+        private final List<DataPoints> _values = Lists.newArrayList();
+    }
+}
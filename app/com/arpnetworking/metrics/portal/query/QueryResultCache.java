@@ -0,0 +1,345 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.query;
+
+import com.arpnetworking.kairos.client.KairosDbClient;
+import com.arpnetworking.kairos.client.models.Metric;
+import com.arpnetworking.kairos.client.models.MetricsQuery;
+import com.arpnetworking.kairos.client.models.MetricsQueryResponse;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.play.configuration.ConfigurationHelper;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.math.LongMath;
+import com.google.inject.Singleton;
+import com.typesafe.config.Config;
+
+import java.math.RoundingMode;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import javax.inject.Inject;
+
+/**
+ * Caches the results of datapoint queries in fixed, epoch-aligned time buckets.
+ *
+ * Only buckets that are entirely in the past (by at least the configured settle time) are cached. A query
+ * is answered by stitching together the cached buckets with the results of as few KairosDB queries as
+ * possible covering the uncached buckets, the unaligned head of the query and the still-open tail.
+ *
+ * A query is only cacheable when splitting it on bucket boundaries cannot change the result. This requires
+ * every aggregator to either be window-local with an aligned, fixed-length sampling or to operate on each
+ * data point independently, and the metrics to not use limits or descending ordering.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+@Singleton
+public final class QueryResultCache {
+    /**
+     * Public constructor.
+     *
+     * @param kairosDbClient the client used to fetch uncached data
+     * @param configuration the configuration
+     * @param mapper the object mapper used to compute cache keys
+     * @param clock the clock used to determine which buckets are closed
+     * @param metrics the periodic metrics instance
+     */
+    @Inject
+    public QueryResultCache(
+            final KairosDbClient kairosDbClient,
+            final Config configuration,
+            final ObjectMapper mapper,
+            final Clock clock,
+            final PeriodicMetrics metrics) {
+        _kairosDbClient = kairosDbClient;
+        _keyWriter = mapper.writer()
+                .with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+        _clock = clock;
+        _metrics = metrics;
+        _enabled = configuration.getBoolean("kairosdb.proxy.cache.enabled");
+        _bucketSizeMillis = ConfigurationHelper.getFiniteDuration(configuration, "kairosdb.proxy.cache.bucketSize").toMillis();
+        _settleMillis = ConfigurationHelper.getFiniteDuration(configuration, "kairosdb.proxy.cache.settle").toMillis();
+        _cache = CacheBuilder.newBuilder()
+                .maximumWeight(configuration.getBytes("kairosdb.proxy.cache.maxSize"))
+                .<String, MetricsQueryResponse.Query>weigher(
+                        (key, value) -> (int) Math.min(Integer.MAX_VALUE, 2L * key.length() + QueryResponses.estimateSize(value)))
+                .removalListener(notification -> {
+                    if (notification.wasEvicted()) {
+                        _metrics.recordCounter("kairos_proxy/cache/evictions", 1);
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Determines whether a query can be answered by the cache.
+     *
+     * @param query the query
+     * @return true if the cache is enabled and the query can be split on bucket boundaries
+     */
+    public boolean isCacheable(final MetricsQuery query) {
+        return _enabled && bucketSize(query).isPresent();
+    }
+
+    /**
+     * Executes a query, using cached buckets where possible. Queries that are not cacheable are passed
+     * through to KairosDB unchanged.
+     *
+     * @param query the query
+     * @return the response
+     */
+    public CompletionStage<MetricsQueryResponse> queryMetrics(final MetricsQuery query) {
+        final OptionalLong bucketSize = _enabled ? bucketSize(query) : OptionalLong.empty();
+        if (!bucketSize.isPresent()) {
+            return _kairosDbClient.queryMetrics(query);
+        }
+
+        final long bucket = bucketSize.getAsLong();
+        final long now = _clock.millis();
+        final long start = query.getStartTime().toEpochMilli();
+        final long end = query.getEndTime().map(Instant::toEpochMilli).orElse(now);
+        final long firstBucket = LongMath.divide(start, bucket, RoundingMode.CEILING) * bucket;
+        final long closedBefore = Math.floorDiv(Math.min(end + 1, now - _settleMillis), bucket) * bucket;
+        if (firstBucket >= closedBefore) {
+            return _kairosDbClient.queryMetrics(query);
+        }
+
+        final List<MetricPlan> plans = Lists.newArrayList();
+        for (final Metric metric : query.getMetrics()) {
+            final Optional<String> keyPrefix = keyPrefix(query, metric, bucket);
+            if (!keyPrefix.isPresent()) {
+                return _kairosDbClient.queryMetrics(query);
+            }
+            plans.add(plan(metric, keyPrefix.get(), start, end, !query.getEndTime().isPresent(), firstBucket, closedBefore, bucket));
+        }
+
+        // Metrics missing exactly the same ranges are fetched together
+        final Map<List<Range>, List<Integer>> groups = Maps.newLinkedHashMap();
+        for (int i = 0; i < plans.size(); ++i) {
+            groups.computeIfAbsent(plans.get(i)._missing, k -> Lists.newArrayList()).add(i);
+        }
+
+        final List<CompletableFuture<?>> fetches = Lists.newArrayList();
+        for (final Map.Entry<List<Range>, List<Integer>> group : groups.entrySet()) {
+            final ImmutableList<Metric> metrics = group.getValue()
+                    .stream()
+                    .map(i -> plans.get(i)._metric)
+                    .collect(ImmutableList.toImmutableList());
+            for (final Range range : group.getKey()) {
+                final MetricsQuery subQuery = new MetricsQuery.Builder()
+                        .setStartTime(Instant.ofEpochMilli(range._start))
+                        .setEndTime(range._openEnded ? null : Instant.ofEpochMilli(range._end))
+                        .setMetrics(metrics)
+                        .setOtherArgs(query.getOtherArgs())
+                        .build();
+                fetches.add(_kairosDbClient.queryMetrics(subQuery)
+                        .thenAccept(response -> {
+                            for (int j = 0; j < group.getValue().size(); ++j) {
+                                final MetricPlan plan = plans.get(group.getValue().get(j));
+                                final MetricsQueryResponse.Query result = response.getQueries().get(j);
+                                plan.addFetched(range, result);
+                                store(plan, range, result, bucket, closedBefore);
+                            }
+                        })
+                        .toCompletableFuture());
+            }
+        }
+
+        return CompletableFuture.allOf(fetches.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> new MetricsQueryResponse.Builder()
+                        .setQueries(plans.stream().map(MetricPlan::assemble).collect(ImmutableList.toImmutableList()))
+                        .build());
+    }
+
+    private MetricPlan plan(
+            final Metric metric,
+            final String keyPrefix,
+            final long start,
+            final long end,
+            final boolean openEnded,
+            final long firstBucket,
+            final long closedBefore,
+            final long bucket) {
+        final MetricPlan plan = new MetricPlan(metric, keyPrefix, SamplingGrid.alignEndTime(metric));
+        if (start < firstBucket) {
+            plan.addMissing(start, firstBucket - 1, false);
+        }
+        long hits = 0;
+        long misses = 0;
+        for (long bucketStart = firstBucket; bucketStart < closedBefore; bucketStart += bucket) {
+            final MetricsQueryResponse.Query cached = _cache.getIfPresent(keyPrefix + bucketStart);
+            if (cached != null) {
+                plan.addCached(bucketStart, cached);
+                ++hits;
+            } else {
+                plan.addMissing(bucketStart, bucketStart + bucket - 1, false);
+                ++misses;
+            }
+        }
+        if (closedBefore <= end) {
+            plan.addMissing(closedBefore, end, openEnded);
+        }
+        _metrics.recordCounter("kairos_proxy/cache/hit", hits);
+        _metrics.recordCounter("kairos_proxy/cache/miss", misses);
+        return plan;
+    }
+
+    private void store(
+            final MetricPlan plan,
+            final Range range,
+            final MetricsQueryResponse.Query result,
+            final long bucket,
+            final long closedBefore) {
+        final long first = LongMath.divide(range._start, bucket, RoundingMode.CEILING) * bucket;
+        long bytes = 0;
+        for (long bucketStart = first; bucketStart + bucket - 1 <= range._end && bucketStart < closedBefore; bucketStart += bucket) {
+            final MetricsQueryResponse.Query slice = QueryResponses.slice(
+                    result,
+                    Instant.ofEpochMilli(bucketStart),
+                    Instant.ofEpochMilli(bucketStart + bucket - 1),
+                    plan._alignEndTime);
+            _cache.put(plan._keyPrefix + bucketStart, slice);
+            bytes += QueryResponses.estimateSize(slice);
+        }
+        _metrics.recordCounter("kairos_proxy/cache/bytes", bytes);
+    }
+
+    private Optional<String> keyPrefix(final MetricsQuery query, final Metric metric, final long bucket) {
+        try {
+            return Optional.of(_keyWriter.writeValueAsString(metric)
+                    + _keyWriter.writeValueAsString(query.getOtherArgs())
+                    + "/" + bucket + "@");
+        } catch (final JsonProcessingException e) {
+            LOGGER.warn()
+                    .setMessage("Unable to compute cache key for metric")
+                    .addData("metric", metric.getName())
+                    .setThrowable(e)
+                    .log();
+            return Optional.empty();
+        }
+    }
+
+    private OptionalLong bucketSize(final MetricsQuery query) {
+        long grid = 1;
+        for (final Metric metric : query.getMetrics()) {
+            final OptionalLong metricGrid = SamplingGrid.gridMillis(query, metric, SamplingGrid.WINDOWED_AGGREGATORS);
+            if (!metricGrid.isPresent()) {
+                return OptionalLong.empty();
+            }
+            grid = grid / LongMath.gcd(grid, metricGrid.getAsLong()) * metricGrid.getAsLong();
+        }
+        return OptionalLong.of(LongMath.divide(_bucketSizeMillis, grid, RoundingMode.CEILING) * grid);
+    }
+
+    private final KairosDbClient _kairosDbClient;
+    private final ObjectWriter _keyWriter;
+    private final Clock _clock;
+    private final PeriodicMetrics _metrics;
+    private final boolean _enabled;
+    private final long _bucketSizeMillis;
+    private final long _settleMillis;
+    private final Cache<String, MetricsQueryResponse.Query> _cache;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryResultCache.class);
+
+    private static final class Range {
+        Range(final long start, final long end, final boolean openEnded) {
+            _start = start;
+            _end = end;
+            _openEnded = openEnded;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Range other = (Range) o;
+            return _start == other._start
+                    && _end == other._end
+                    && _openEnded == other._openEnded;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(_start, _end, _openEnded);
+        }
+
+        private final long _start;
+        private final long _end;
+        private final boolean _openEnded;
+    }
+
+    private static final class MetricPlan {
+        MetricPlan(final Metric metric, final String keyPrefix, final boolean alignEndTime) {
+            _metric = metric;
+            _keyPrefix = keyPrefix;
+            _alignEndTime = alignEndTime;
+        }
+
+        void addCached(final long start, final MetricsQueryResponse.Query cached) {
+            _pieces.put(start, cached);
+        }
+
+        void addMissing(final long start, final long end, final boolean openEnded) {
+            if (!_missing.isEmpty()) {
+                final Range last = _missing.get(_missing.size() - 1);
+                if (last._end + 1 == start) {
+                    _missing.set(_missing.size() - 1, new Range(last._start, end, openEnded));
+                    return;
+                }
+            }
+            _missing.add(new Range(start, end, openEnded));
+        }
+
+        synchronized void addFetched(final Range range, final MetricsQueryResponse.Query result) {
+            _pieces.put(range._start, result);
+        }
+
+        synchronized MetricsQueryResponse.Query assemble() {
+            return QueryResponses.concat(_pieces.entrySet()
+                    .stream()
+                    .sorted(Comparator.comparing(Map.Entry::getKey))
+                    .map(Map.Entry::getValue)
+                    .collect(ImmutableList.toImmutableList()));
+        }
+
+        private final Metric _metric;
+        private final String _keyPrefix;
+        private final boolean _alignEndTime;
+        private final List<Range> _missing = Lists.newArrayList();
+        private final Map<Long, MetricsQueryResponse.Query> _pieces = Maps.newHashMap();
+    }
+}
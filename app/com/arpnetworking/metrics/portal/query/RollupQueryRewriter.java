@@ -0,0 +1,368 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.query;
+
+import com.arpnetworking.kairos.client.KairosDbClient;
+import com.arpnetworking.kairos.client.models.Aggregator;
+import com.arpnetworking.kairos.client.models.Metric;
+import com.arpnetworking.kairos.client.models.MetricsQuery;
+import com.arpnetworking.kairos.client.models.MetricsQueryResponse;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.play.configuration.ConfigurationHelper;
+import com.arpnetworking.rollups.RollupPeriod;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.math.LongMath;
+import com.google.inject.Singleton;
+import com.typesafe.config.Config;
+
+import java.math.RoundingMode;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+/**
+ * Rewrites datapoint queries to read from the rollup series written by the rollup generator.
+ *
+ * A metric is rewritten when every sampled aggregator can be computed from merged rollup data points and
+ * samples in windows that are a whole number of rollup periods. The rollup series is read only over the
+ * range in which it is known to be complete, which is determined from the first and last data points of
+ * the rollup series; the head and tail of the query outside of that range are read from the raw series
+ * and the results are stitched together.
+ *
+ * Rollup data points are timestamped at the end of the period they cover. The rollup sub-query therefore
+ * starts one millisecond after the first window with unaligned sampling, so that each window contains
+ * exactly the rollup data points of the periods it covers, and the resulting timestamps are shifted back.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+@Singleton
+public final class RollupQueryRewriter {
+    /**
+     * Public constructor.
+     *
+     * @param kairosDbClient the client used to determine rollup coverage
+     * @param queryResultCache the cache through which the rewritten queries are executed
+     * @param configuration the configuration
+     * @param clock the clock
+     * @param metrics the periodic metrics instance
+     */
+    @Inject
+    public RollupQueryRewriter(
+            final KairosDbClient kairosDbClient,
+            final QueryResultCache queryResultCache,
+            final Config configuration,
+            final Clock clock,
+            final PeriodicMetrics metrics) {
+        _kairosDbClient = kairosDbClient;
+        _queryResultCache = queryResultCache;
+        _clock = clock;
+        _metrics = metrics;
+        _enabled = configuration.getBoolean("kairosdb.proxy.rollups.enabled");
+        _coverage = CacheBuilder.newBuilder()
+                .expireAfterWrite(
+                        ConfigurationHelper.getFiniteDuration(configuration, "kairosdb.proxy.rollups.coverageTtl").toMillis(),
+                        TimeUnit.MILLISECONDS)
+                .maximumSize(configuration.getLong("kairosdb.proxy.rollups.maxCoverageEntries"))
+                .build();
+    }
+
+    /**
+     * Determines whether any metric of a query can be read from a rollup series.
+     *
+     * @param query the query
+     * @return true if the query would be rewritten
+     */
+    public boolean isRewritable(final MetricsQuery query) {
+        return _enabled && query.getMetrics().stream().anyMatch(metric -> rollupPeriod(query, metric).isPresent());
+    }
+
+    /**
+     * Executes a query, reading from rollup series where they are complete.
+     *
+     * @param query the query
+     * @return the response
+     */
+    public CompletionStage<MetricsQueryResponse> queryMetrics(final MetricsQuery query) {
+        if (!_enabled) {
+            return _queryResultCache.queryMetrics(query);
+        }
+        final long start = query.getStartTime().toEpochMilli();
+        final long end = query.getEndTime().map(Instant::toEpochMilli).orElse(_clock.millis());
+
+        final List<CompletableFuture<MetricsQueryResponse.Query>> results = Lists.newArrayList();
+        final List<Integer> rawIndices = Lists.newArrayList();
+        for (final Metric metric : query.getMetrics()) {
+            final Optional<RollupPeriod> period = rollupPeriod(query, metric);
+            _metrics.recordCounter("kairos_proxy/rollup_rewrite/candidate", period.isPresent() ? 1 : 0);
+            if (period.isPresent()) {
+                final long grid = SamplingGrid.gridMillis(query, metric, ROLLUP_AGGREGATORS).getAsLong();
+                results.add(coverage(metric.getName() + period.get().getSuffix())
+                        .thenCompose(coverage -> queryMetric(query, metric, period.get(), grid, start, end, coverage))
+                        .toCompletableFuture());
+            } else {
+                rawIndices.add(results.size());
+                results.add(new CompletableFuture<>());
+            }
+        }
+
+        // Metrics that cannot use a rollup are queried together, as in the original query
+        if (!rawIndices.isEmpty()) {
+            final ImmutableList<Metric> rawMetrics = rawIndices.stream()
+                    .map(query.getMetrics()::get)
+                    .collect(ImmutableList.toImmutableList());
+            _queryResultCache.queryMetrics(subQuery(query, rawMetrics, start, query.getEndTime().orElse(null)))
+                    .whenComplete((response, failure) -> {
+                        for (int i = 0; i < rawIndices.size(); ++i) {
+                            if (failure != null) {
+                                results.get(rawIndices.get(i)).completeExceptionally(failure);
+                            } else {
+                                results.get(rawIndices.get(i)).complete(response.getQueries().get(i));
+                            }
+                        }
+                    });
+        }
+
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> new MetricsQueryResponse.Builder()
+                        .setQueries(results.stream().map(CompletableFuture::join).collect(ImmutableList.toImmutableList()))
+                        .build());
+    }
+
+    private CompletionStage<MetricsQueryResponse.Query> queryMetric(
+            final MetricsQuery query,
+            final Metric metric,
+            final RollupPeriod period,
+            final long grid,
+            final long start,
+            final long end,
+            final Optional<Coverage> coverage) {
+        final long periodMillis = period.periodCountToDuration(1).toMillis();
+        final long rollupStart = coverage.isPresent()
+                ? ceil(Math.max(start, coverage.get()._firstPeriodEnd - periodMillis), grid)
+                : 0;
+        final long rollupEnd = coverage.isPresent()
+                ? Math.floorDiv(Math.min(end + 1, coverage.get()._lastPeriodEnd), grid) * grid
+                : 0;
+        if (rollupEnd - rollupStart < grid) {
+            _metrics.recordCounter("kairos_proxy/rollup_rewrite/rewritten", 0);
+            return single(_queryResultCache.queryMetrics(
+                    subQuery(query, ImmutableList.of(metric), start, query.getEndTime().orElse(null))));
+        }
+        _metrics.recordCounter("kairos_proxy/rollup_rewrite/rewritten", 1);
+
+        final List<CompletableFuture<MetricsQueryResponse.Query>> pieces = Lists.newArrayList();
+        if (start < rollupStart) {
+            pieces.add(single(_queryResultCache.queryMetrics(
+                    subQuery(query, ImmutableList.of(metric), start, Instant.ofEpochMilli(rollupStart - 1)))).toCompletableFuture());
+        }
+        final long shift = SamplingGrid.alignEndTime(metric) ? lastSamplingMillis(metric) - 1 : -1;
+        pieces.add(single(_queryResultCache.queryMetrics(subQuery(
+                query,
+                ImmutableList.of(toRollupMetric(metric, period)),
+                rollupStart + 1,
+                Instant.ofEpochMilli(rollupEnd))))
+                .thenApply(result -> fromRollupResult(result, metric.getName(), shift))
+                .toCompletableFuture());
+        if (rollupEnd <= end) {
+            pieces.add(single(_queryResultCache.queryMetrics(
+                    subQuery(query, ImmutableList.of(metric), rollupEnd, query.getEndTime().orElse(null)))).toCompletableFuture());
+        }
+
+        return CompletableFuture.allOf(pieces.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> QueryResponses.concat(
+                        pieces.stream().map(CompletableFuture::join).collect(ImmutableList.toImmutableList())));
+    }
+
+    private CompletionStage<Optional<Coverage>> coverage(final String rollupMetricName) {
+        final CompletionStage<Optional<Coverage>> cached = _coverage.getIfPresent(rollupMetricName);
+        if (cached != null) {
+            return cached;
+        }
+        final Metric.Builder metric = new Metric.Builder().setName(rollupMetricName).setLimit(1);
+        final CompletableFuture<Optional<Coverage>> coverage = _kairosDbClient.queryMetrics(new MetricsQuery.Builder()
+                .setStartTime(Instant.EPOCH)
+                .setMetrics(ImmutableList.of(
+                        metric.setOrder(Metric.Order.ASC).build(),
+                        metric.setOrder(Metric.Order.DESC).build()))
+                .build())
+                .thenApply(response -> {
+                    final Optional<Instant> first = firstTime(response.getQueries().get(0));
+                    final Optional<Instant> last = firstTime(response.getQueries().get(1));
+                    _metrics.recordCounter("kairos_proxy/rollup_rewrite/coverage/success", 1);
+                    if (!first.isPresent() || !last.isPresent()) {
+                        return Optional.<Coverage>empty();
+                    }
+                    return Optional.of(new Coverage(first.get().toEpochMilli(), last.get().toEpochMilli()));
+                })
+                .exceptionally(failure -> {
+                    _metrics.recordCounter("kairos_proxy/rollup_rewrite/coverage/success", 0);
+                    LOGGER.warn()
+                            .setMessage("Failed to determine rollup coverage; reading raw data")
+                            .addData("metric", rollupMetricName)
+                            .setThrowable(failure)
+                            .log();
+                    _coverage.invalidate(rollupMetricName);
+                    return Optional.empty();
+                })
+                .toCompletableFuture();
+        _coverage.put(rollupMetricName, coverage);
+        return coverage;
+    }
+
+    private static Optional<Instant> firstTime(final MetricsQueryResponse.Query query) {
+        return query.getResults()
+                .stream()
+                .filter(result -> !result.getValues().isEmpty())
+                .map(result -> Instant.ofEpochMilli(result.getValues().getTimeMillis(0)))
+                .findFirst();
+    }
+
+    private static Optional<RollupPeriod> rollupPeriod(final MetricsQuery query, final Metric metric) {
+        if (Arrays.stream(RollupPeriod.values()).anyMatch(period -> metric.getName().endsWith(period.getSuffix()))) {
+            return Optional.empty();
+        }
+        final OptionalLong grid = SamplingGrid.gridMillis(query, metric, ROLLUP_AGGREGATORS);
+        if (!grid.isPresent() || metric.getAggregators().stream().noneMatch(aggregator -> aggregator.getSampling().isPresent())) {
+            return Optional.empty();
+        }
+        return Arrays.stream(RollupPeriod.values())
+                .sorted(Comparator.comparing((RollupPeriod period) -> period.periodCountToDuration(1)).reversed())
+                // Sampling grids are epoch aligned; a window of a period with another origin (weeks start on
+                // Monday) would cover parts of two rollup periods, so such periods are never read
+                .filter(period -> period.getOrigin().equals(Instant.EPOCH))
+                .filter(period -> metric.getAggregators()
+                        .stream()
+                        .filter(aggregator -> aggregator.getSampling().isPresent())
+                        .allMatch(aggregator -> SamplingGrid.samplingMillis(aggregator.getSampling().get())
+                                % period.periodCountToDuration(1).toMillis() == 0))
+                .findFirst();
+    }
+
+    private static Metric toRollupMetric(final Metric metric, final RollupPeriod period) {
+        return new Metric.Builder()
+                .setName(metric.getName() + period.getSuffix())
+                .setTags(ImmutableMultimap.copyOf(metric.getTags()))
+                .setGroupBy(metric.getGroupBy())
+                .setOtherArgs(metric.getOtherArgs())
+                .setAggregators(metric.getAggregators()
+                        .stream()
+                        .map(aggregator -> {
+                            if (!aggregator.getSampling().isPresent()) {
+                                return aggregator;
+                            }
+                            // Windows start at the (shifted) query start and are stamped with their start time
+                            return new Aggregator.Builder()
+                                    .setName(aggregator.getName())
+                                    .setSampling(aggregator.getSampling().get())
+                                    .setAlignSampling(false)
+                                    .setAlignStartTime(true)
+                                    .setOtherArgs(aggregator.getOtherArgs())
+                                    .build();
+                        })
+                        .collect(ImmutableList.toImmutableList()))
+                .build();
+    }
+
+    private static MetricsQueryResponse.Query fromRollupResult(
+            final MetricsQueryResponse.Query query,
+            final String name,
+            final long shiftMillis) {
+        return new MetricsQueryResponse.Query.Builder()
+                .setOtherArgs(query.getOtherArgs())
+                .setSampleSize(query.getSampleSize())
+                .setResults(query.getResults()
+                        .stream()
+                        .map(result -> new MetricsQueryResponse.QueryResult.Builder()
+                                .setName(name)
+                                .setTags(result.getTags())
+                                .setOtherArgs(result.getOtherArgs())
+                                .setValues(result.getValues().withTimeOffset(shiftMillis))
+                                .build())
+                        .collect(ImmutableList.toImmutableList()))
+                .build();
+    }
+
+    private static long lastSamplingMillis(final Metric metric) {
+        long samplingMillis = 0;
+        for (final Aggregator aggregator : metric.getAggregators()) {
+            if (aggregator.getSampling().isPresent()) {
+                samplingMillis = SamplingGrid.samplingMillis(aggregator.getSampling().get());
+            }
+        }
+        return samplingMillis;
+    }
+
+    private static MetricsQuery subQuery(
+            final MetricsQuery query,
+            final ImmutableList<Metric> metrics,
+            final long start,
+            @Nullable final Instant end) {
+        return new MetricsQuery.Builder()
+                .setStartTime(Instant.ofEpochMilli(start))
+                .setEndTime(end)
+                .setMetrics(metrics)
+                .setOtherArgs(query.getOtherArgs())
+                .build();
+    }
+
+    private static CompletionStage<MetricsQueryResponse.Query> single(final CompletionStage<MetricsQueryResponse> response) {
+        return response.thenApply(r -> r.getQueries().get(0));
+    }
+
+    private static long ceil(final long value, final long grid) {
+        return LongMath.divide(value, grid, RoundingMode.CEILING) * grid;
+    }
+
+    private final KairosDbClient _kairosDbClient;
+    private final QueryResultCache _queryResultCache;
+    private final Clock _clock;
+    private final PeriodicMetrics _metrics;
+    private final boolean _enabled;
+    private final Cache<String, CompletionStage<Optional<Coverage>>> _coverage;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RollupQueryRewriter.class);
+    /**
+     * Sampled aggregators that produce the same result from merged rollup data points as from raw data points.
+     */
+    private static final ImmutableSet<String> ROLLUP_AGGREGATORS = ImmutableSet.of(
+            "avg", "count", "max", "merge", "min", "percentile", "sum");
+
+    private static final class Coverage {
+        Coverage(final long firstPeriodEnd, final long lastPeriodEnd) {
+            _firstPeriodEnd = firstPeriodEnd;
+            _lastPeriodEnd = lastPeriodEnd;
+        }
+
+        private final long _firstPeriodEnd;
+        private final long _lastPeriodEnd;
+    }
+}
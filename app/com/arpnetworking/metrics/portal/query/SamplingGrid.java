@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.query;
+
+import com.arpnetworking.kairos.client.models.Aggregator;
+import com.arpnetworking.kairos.client.models.Metric;
+import com.arpnetworking.kairos.client.models.MetricsQuery;
+import com.arpnetworking.kairos.client.models.Sampling;
+import com.arpnetworking.kairos.client.models.SamplingUnit;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.math.LongMath;
+
+import java.time.temporal.ChronoUnit;
+import java.util.OptionalLong;
+import java.util.Set;
+
+/**
+ * Determines the time grid on which the results of a metric query can be split without changing them.
+ *
+ * A metric can be split at any multiple of its grid when each of its aggregators is either applied to
+ * each data point independently or aggregates fixed-length, epoch-aligned sampling windows, and the
+ * metric neither limits nor reverses its data points.
+ *
+ * Grids are aligned to the epoch. Rollup periods that are aligned to another origin, such as weeks
+ * starting on Monday, do not fit on any grid.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+final class SamplingGrid {
+
+    /**
+     * Computes the grid of a metric in a query.
+     *
+     * @param query the query
+     * @param metric the metric
+     * @param windowedAggregators the names of the sampled aggregators permitted
+     * @return the grid in milliseconds; one if the metric has no sampled aggregators; empty if the
+     * metric cannot be split
+     */
+    static OptionalLong gridMillis(final MetricsQuery query, final Metric metric, final Set<String> windowedAggregators) {
+        if (metric.getLimit().isPresent() || metric.getOrder().orElse(Metric.Order.ASC) != Metric.Order.ASC) {
+            return OptionalLong.empty();
+        }
+        final boolean hasTimeZone = query.getOtherArgs().containsKey("time_zone");
+        long grid = 1;
+        for (final Aggregator aggregator : metric.getAggregators()) {
+            if (POINTWISE_AGGREGATORS.contains(aggregator.getName())) {
+                continue;
+            }
+            if (!windowedAggregators.contains(aggregator.getName())
+                    || !aggregator.getSampling().isPresent()
+                    || !aggregator.getAlignSampling().orElse(false)) {
+                return OptionalLong.empty();
+            }
+            final Sampling sampling = aggregator.getSampling().get();
+            final SamplingUnit unit = sampling.getUnit();
+            if (unit.compareTo(SamplingUnit.DAYS) > 0 || (hasTimeZone && unit == SamplingUnit.DAYS)) {
+                return OptionalLong.empty();
+            }
+            final long samplingMillis = samplingMillis(sampling);
+            final long truncatedStart = query.getStartTime().truncatedTo(unit.getChronoUnit()).toEpochMilli();
+            if (samplingMillis <= 0 || truncatedStart % samplingMillis != 0) {
+                return OptionalLong.empty();
+            }
+            grid = grid / LongMath.gcd(grid, samplingMillis) * samplingMillis;
+            if (grid > MAX_GRID_MILLIS) {
+                return OptionalLong.empty();
+            }
+        }
+        return OptionalLong.of(grid);
+    }
+
+    /**
+     * Computes the length of a sampling window.
+     *
+     * @param sampling the sampling
+     * @return the length in milliseconds
+     */
+    static long samplingMillis(final Sampling sampling) {
+        return sampling.getUnit().getChronoUnit().getDuration().toMillis() * sampling.getValue();
+    }
+
+    /**
+     * Determines whether the data points of a metric are timestamped at the end of their sampling window.
+     *
+     * @param metric the metric
+     * @return true if the last sampled aggregator aligns to the end of the window
+     */
+    static boolean alignEndTime(final Metric metric) {
+        boolean alignEndTime = false;
+        for (final Aggregator aggregator : metric.getAggregators()) {
+            if (aggregator.getSampling().isPresent()) {
+                alignEndTime = aggregator.getAlignEndTime().orElse(false);
+            }
+        }
+        return alignEndTime;
+    }
+
+    private SamplingGrid() { }
+
+    /**
+     * Sampled aggregators whose result for a window depends only on the data points in that window.
+     */
+    static final ImmutableSet<String> WINDOWED_AGGREGATORS = ImmutableSet.of(
+            "avg", "count", "dev", "first", "last", "max", "merge", "min", "percentile", "sum");
+    /**
+     * Aggregators that transform each data point independently.
+     */
+    static final ImmutableSet<String> POINTWISE_AGGREGATORS = ImmutableSet.of(
+            "div", "filter", "scale");
+    private static final long MAX_GRID_MILLIS = ChronoUnit.DAYS.getDuration().toMillis();
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.query;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
+import com.arpnetworking.kairos.client.KairosDbClient;
+import com.arpnetworking.kairos.client.models.KairosMetricNamesQueryResponse;
+import com.arpnetworking.kairos.client.models.Metric;
+import com.arpnetworking.kairos.client.models.MetricsQuery;
+import com.arpnetworking.kairos.client.models.MetricsQueryResponse;
+import com.arpnetworking.kairos.client.models.RollupResponse;
+import com.arpnetworking.kairos.client.models.RollupTask;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.play.configuration.ConfigurationHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.math.LongMath;
+import com.typesafe.config.Config;
+
+import java.math.RoundingMode;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * A {@link KairosDbClient} that splits long datapoint queries into time slices, executes the slices in
+ * parallel with bounded concurrency and merges the results in time order.
+ *
+ * Slice boundaries are aligned to the sampling of the aggregators of every metric in the query so that
+ * no sampling window is divided between slices. Queries that cannot be split without changing their
+ * results, e.g. those using aggregators that depend on data points outside of their sampling window
+ * (rate, diff, sampler, ...), aggregators with side effects (save_as), limits or descending ordering,
+ * are passed to the wrapped client unchanged. All other operations are delegated unchanged.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class SlicingKairosDbClient implements KairosDbClient {
+    /**
+     * Public constructor.
+     *
+     * @param delegate the client to execute the slices with
+     * @param configuration the configuration
+     * @param clock the clock used to resolve open-ended queries
+     * @param metrics the periodic metrics instance
+     */
+    public SlicingKairosDbClient(
+            final KairosDbClient delegate,
+            final Config configuration,
+            final Clock clock,
+            final PeriodicMetrics metrics) {
+        _delegate = delegate;
+        _clock = clock;
+        _metrics = metrics;
+        _enabled = configuration.getBoolean("kairosdb.slicing.enabled");
+        _sliceMillis = ConfigurationHelper.getFiniteDuration(configuration, "kairosdb.slicing.sliceDuration").toMillis();
+        _maxSlices = configuration.getInt("kairosdb.slicing.maxSlices");
+        _parallelism = configuration.getInt("kairosdb.slicing.parallelism");
+    }
+
+    @Override
+    public CompletionStage<MetricsQueryResponse> queryMetrics(final MetricsQuery query) {
+        final List<MetricsQuery> slices = slice(query);
+        _metrics.recordCounter("kairos_client/slicing/slices", slices.size());
+        if (slices.size() == 1) {
+            return _delegate.queryMetrics(query);
+        }
+
+        final List<Supplier<CompletionStage<MetricsQueryResponse>>> tasks = slices.stream()
+                .<Supplier<CompletionStage<MetricsQueryResponse>>>map(slice -> () -> _delegate.queryMetrics(slice))
+                .collect(Collectors.toList());
+        return runBounded(tasks, _parallelism).thenApply(responses -> {
+            final ImmutableList.Builder<MetricsQueryResponse.Query> queries = ImmutableList.builder();
+            for (int i = 0; i < query.getMetrics().size(); ++i) {
+                final int index = i;
+                queries.add(QueryResponses.concat(responses.stream()
+                        .map(response -> response.getQueries().get(index))
+                        .collect(ImmutableList.toImmutableList())));
+            }
+            return new MetricsQueryResponse.Builder()
+                    .setQueries(queries.build())
+                    .build();
+        });
+    }
+
+    @Override
+    public Source<MetricsQueryResponse.QueryResult, NotUsed> streamMetrics(final MetricsQuery query) {
+        // Series are only emitted once complete, so sliced queries are merged before streaming
+        if (slice(query).size() == 1) {
+            return _delegate.streamMetrics(query);
+        }
+        return KairosDbClient.super.streamMetrics(query);
+    }
+
+    @Override
+    public CompletionStage<KairosMetricNamesQueryResponse> queryMetricNames() {
+        return _delegate.queryMetricNames();
+    }
+
+    @Override
+    public CompletionStage<MetricsQueryResponse> queryMetricTags(final MetricsQuery query) {
+        return _delegate.queryMetricTags(query);
+    }
+
+    @Override
+    public CompletionStage<List<RollupTask>> queryRollups() {
+        return _delegate.queryRollups();
+    }
+
+    @Override
+    public CompletionStage<RollupResponse> createRollup(final RollupTask rollupTask) {
+        return _delegate.createRollup(rollupTask);
+    }
+
+    @Override
+    public CompletionStage<RollupResponse> updateRollup(final String id, final RollupTask rollupTask) {
+        return _delegate.updateRollup(id, rollupTask);
+    }
+
+    @Override
+    public CompletionStage<Void> deleteRollup(final String id) {
+        return _delegate.deleteRollup(id);
+    }
+
+    /**
+     * Splits a query into time slices.
+     *
+     * @param query the query
+     * @return the slices in time order; the query itself if it cannot or need not be split
+     */
+    List<MetricsQuery> slice(final MetricsQuery query) {
+        if (!_enabled) {
+            return ImmutableList.of(query);
+        }
+        final long start = query.getStartTime().toEpochMilli();
+        final long end = query.getEndTime().map(Instant::toEpochMilli).orElse(_clock.millis());
+        final long sliceCount = Math.min(_maxSlices, LongMath.divide(end - start + 1, _sliceMillis, RoundingMode.CEILING));
+        if (sliceCount < 2) {
+            return ImmutableList.of(query);
+        }
+
+        long grid = 1;
+        for (final Metric metric : query.getMetrics()) {
+            final OptionalLong metricGrid = SamplingGrid.gridMillis(query, metric, SamplingGrid.WINDOWED_AGGREGATORS);
+            if (!metricGrid.isPresent()) {
+                _metrics.recordCounter("kairos_client/slicing/unsplittable", 1);
+                return ImmutableList.of(query);
+            }
+            grid = grid / LongMath.gcd(grid, metricGrid.getAsLong()) * metricGrid.getAsLong();
+        }
+        _metrics.recordCounter("kairos_client/slicing/unsplittable", 0);
+
+        final long sliceLength = LongMath.divide(
+                LongMath.divide(end - start + 1, sliceCount, RoundingMode.CEILING),
+                grid,
+                RoundingMode.CEILING) * grid;
+        final List<MetricsQuery> slices = Lists.newArrayList();
+        long sliceStart = start;
+        long boundary = LongMath.divide(start, grid, RoundingMode.FLOOR) * grid;
+        while (sliceStart <= end) {
+            boundary += sliceLength;
+            final long sliceEnd = boundary - 1;
+            final boolean last = sliceEnd >= end;
+            slices.add(new MetricsQuery.Builder()
+                    .setStartTime(Instant.ofEpochMilli(sliceStart))
+                    .setEndTime(last ? query.getEndTime().orElse(null) : Instant.ofEpochMilli(sliceEnd))
+                    .setMetrics(query.getMetrics())
+                    .setOtherArgs(query.getOtherArgs())
+                    .build());
+            if (last) {
+                break;
+            }
+            sliceStart = sliceEnd + 1;
+        }
+        return slices;
+    }
+
+    private static <T> CompletionStage<List<T>> runBounded(
+            final List<Supplier<CompletionStage<T>>> tasks,
+            final int parallelism) {
+        final CompletableFuture<List<T>> result = new CompletableFuture<>();
+        final List<T> results = Lists.newArrayList();
+        tasks.forEach(task -> results.add(null));
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicInteger remaining = new AtomicInteger(tasks.size());
+        final Runnable[] launch = new Runnable[1];
+        launch[0] = () -> {
+            final int index = next.getAndIncrement();
+            if (index >= tasks.size() || result.isDone()) {
+                return;
+            }
+            tasks.get(index).get().whenComplete((value, failure) -> {
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                    return;
+                }
+                synchronized (results) {
+                    results.set(index, value);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    synchronized (results) {
+                        result.complete(ImmutableList.copyOf(results));
+                    }
+                } else {
+                    launch[0].run();
+                }
+            });
+        };
+        for (int i = 0; i < Math.min(parallelism, tasks.size()); ++i) {
+            launch[0].run();
+        }
+        return result;
+    }
+
+    private final KairosDbClient _delegate;
+    private final Clock _clock;
+    private final PeriodicMetrics _metrics;
+    private final boolean _enabled;
+    private final long _sliceMillis;
+    private final int _maxSlices;
+    private final int _parallelism;
+}
@@ -22,6 +22,7 @@ import models.internal.QueryResult;
 import models.internal.reports.Report;
 
 import java.util.Optional;
+import java.util.UUID;
 
 // CHECKSTYLE.OFF: JavadocTypeCheck - Checkstyle does not recognize implSpec.
 /**
@@ -55,6 +56,17 @@ public interface ReportQuery {
      */
     ReportQuery offset(int offset);
 
+    /**
+     * Only return reports whose id is greater than the given id. Optional. Default is not set.
+     *
+     * Reports are returned in ascending order of id, so passing the id of the last report of one page
+     * fetches the next page without the cost of skipping over the earlier pages.
+     *
+     * @param afterId The id of the last report of the previous page.
+     * @return This instance of {@code ReportQuery}
+     */
+    ReportQuery afterId(UUID afterId);
+
     /**
      * Accessor for the organization.
      *
@@ -75,4 +87,11 @@ public interface ReportQuery {
      * @return The offset, if any, otherwise {@link Optional#empty()}
      */
     Optional<Integer> getOffset();
+
+    /**
+     * Accessor for the id to return reports after.
+     *
+     * @return The id, if any, otherwise {@link Optional#empty()}
+     */
+    Optional<UUID> getAfterId();
 }
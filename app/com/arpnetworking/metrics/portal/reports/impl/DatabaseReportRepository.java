@@ -17,6 +17,7 @@ package com.arpnetworking.metrics.portal.reports.impl;
 
 import com.arpnetworking.metrics.portal.reports.ReportQuery;
 import com.arpnetworking.metrics.portal.reports.ReportRepository;
+import com.arpnetworking.metrics.portal.scheduling.JobChange;
 import com.arpnetworking.metrics.portal.scheduling.JobQuery;
 import com.arpnetworking.metrics.portal.scheduling.Schedule;
 import com.arpnetworking.metrics.portal.scheduling.impl.NeverSchedule;
@@ -28,17 +29,20 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.typesafe.config.Config;
 import io.ebean.EbeanServer;
+import io.ebean.ExpressionList;
 import io.ebean.PagedList;
 import io.ebean.Transaction;
 import models.ebean.NeverReportSchedule;
 import models.ebean.OneOffReportSchedule;
 import models.ebean.PeriodicReportSchedule;
+import models.ebean.ReportChange;
 import models.ebean.ReportExecution;
 import models.ebean.ReportSchedule;
 import models.internal.Organization;
 import models.internal.QueryResult;
 import models.internal.impl.ChromeScreenshotReportSource;
 import models.internal.impl.DefaultJobQuery;
+import models.internal.impl.DefaultOrganization;
 import models.internal.impl.DefaultQueryResult;
 import models.internal.impl.HtmlReportFormat;
 import models.internal.impl.PdfReportFormat;
@@ -52,6 +56,8 @@ import play.Environment;
 
 import java.time.Instant;
 import java.util.Collection;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
@@ -305,6 +311,47 @@ public final class DatabaseReportRepository implements ReportRepository {
         return new DefaultJobQuery<>(this, organization);
     }
 
+    @Override
+    public List<JobChange> getJobChanges(final long afterVersion, final int limit) {
+        assertIsOpen();
+        // Versions are the ids of the transactions that wrote the changes. Transactions commit out of order, so only the
+        // changes of transactions older than every transaction still in progress are read; no earlier change can appear later.
+        final List<ReportChange> page = _ebeanServer.find(ReportChange.class)
+                .where()
+                .gt("version", afterVersion)
+                .raw("version < txid_snapshot_xmin(txid_current_snapshot())")
+                .orderBy()
+                .asc("version")
+                .setMaxRows(limit)
+                .findList();
+        final List<ReportChange> changes;
+        if (!page.isEmpty() && page.size() >= limit) {
+            // The caller continues after the last version, so all the changes of the last transaction are returned
+            final long lastVersion = page.get(page.size() - 1).getVersion();
+            changes = new ArrayList<>();
+            page.stream().filter(change -> change.getVersion() != lastVersion).forEach(changes::add);
+            changes.addAll(_ebeanServer.find(ReportChange.class).where().eq("version", lastVersion).findList());
+        } else {
+            changes = page;
+        }
+        return changes.stream()
+                .map(change -> new JobChange.Builder()
+                        .setId(change.getReportUuid())
+                        .setOrganization(new DefaultOrganization.Builder().setId(change.getOrganizationUuid()).build())
+                        .setVersion(change.getVersion())
+                        .build())
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    @Override
+    public long getLatestJobChangeVersion() {
+        assertIsOpen();
+        // Transactions still in progress may yet commit changes, so the log is only complete before the oldest of them
+        return _ebeanServer.createSqlQuery("SELECT txid_snapshot_xmin(txid_current_snapshot()) - 1 AS version")
+                .findOne()
+                .getLong("version");
+    }
+
     @Override
     public QueryResult<Report> queryReports(final ReportQuery query) {
         assertIsOpen();
@@ -436,9 +483,13 @@ public final class DatabaseReportRepository implements ReportRepository {
         final int offset = query.getOffset().orElse(0);
         final int limit = query.getLimit();
 
-        return ebeanServer.find(models.ebean.Report.class)
+        final ExpressionList<models.ebean.Report> reports = ebeanServer.find(models.ebean.Report.class)
                 .where()
-                .eq("organization.uuid", query.getOrganization().getId())
+                .eq("organization.uuid", query.getOrganization().getId());
+        query.getAfterId().ifPresent(afterId -> reports.gt("uuid", afterId));
+        return reports
+                .orderBy()
+                .asc("uuid")
                 .setFirstRow(offset)
                 .setMaxRows(limit)
                 .findPagedList();
@@ -26,6 +26,7 @@ import models.internal.scheduling.Job;
 import java.time.Instant;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 
 /**
@@ -65,6 +66,40 @@ public final class CachedJob<T> implements Job<T> {
         return result;
     }
 
+    /**
+     * Factory for creating {@link CachedJob}s without blocking on the repository.
+     *
+     * The repository is accessed through {@link JobRef#getAsyncRepository(Injector)}; the returned job is only
+     * handed out once it is fully loaded, so it can be adopted by an actor in a later message.
+     *
+     * @param injector The injector to load the referenced {@link JobRepository} through.
+     * @param ref The {@link JobRef} to load.
+     * @param periodicMetrics The {@link PeriodicMetrics} instance to log metrics through.
+     * @param <T> The type of the result of the referenced {@link Job}.
+     * @return A {@link CachedJob}, or a failure with a {@link NoSuchJobException} if the job can't be loaded from the repository.
+     */
+    public static <T> CompletionStage<CachedJob<T>> loadAsync(
+            final Injector injector,
+            final JobRef<T> ref,
+            final PeriodicMetrics periodicMetrics) {
+        final AsyncJobRepository<T> repository = ref.getAsyncRepository(injector);
+        return repository.getJob(ref.getJobId(), ref.getOrganization())
+                .thenCompose(loaded -> {
+                    if (!loaded.isPresent()) {
+                        periodicMetrics.recordCounter("cached_job_reload_success", 0);
+                        throw new CompletionException(new NoSuchJobException(ref.toString()));
+                    }
+                    periodicMetrics.recordCounter("cached_job_reload_success", 1);
+                    return repository.getJobLastRun(ref.getJobId(), ref.getOrganization())
+                            .thenApply(lastRun -> {
+                                final CachedJob<T> result = new CachedJob<>(ref, periodicMetrics);
+                                result._cached = loaded.get();
+                                result._lastRun = lastRun;
+                                return result;
+                            });
+                });
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
@@ -112,9 +147,7 @@ public final class CachedJob<T> implements Job<T> {
      * @throws NoSuchJobException If a reload is necessary but the job can't be loaded from the repository.
      */
     public void reloadIfOutdated(final Injector injector, final String upToDateETag) throws NoSuchJobException {
-        final boolean upToDate = _cached.getETag().map(upToDateETag::equals).orElse(false);
-        _periodicMetrics.recordCounter("cached_job_conditional_reload_necessary", upToDate ? 1 : 0);
-        if (upToDate) {
+        if (isUpToDate(upToDateETag)) {
             return;
         }
         LOGGER.debug()
@@ -126,6 +159,18 @@ public final class CachedJob<T> implements Job<T> {
         reload(injector);
     }
 
+    /**
+     * Determines whether the cached job is up to date.
+     *
+     * @param upToDateETag Checked for equality to the cached job's ETag.
+     * @return True if the cached job has the given ETag, and so does not need to be reloaded.
+     */
+    public boolean isUpToDate(final String upToDateETag) {
+        final boolean upToDate = _cached.getETag().map(upToDateETag::equals).orElse(false);
+        _periodicMetrics.recordCounter("cached_job_conditional_reload_necessary", upToDate ? 1 : 0);
+        return upToDate;
+    }
+
     @Override
     public UUID getId() {
         return _cached.getId();
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.scheduling;
+
+import com.google.common.base.MoreObjects;
+import models.internal.Organization;
+import models.internal.scheduling.Job;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * An {@link AsyncJobRepository} that runs the calls of a blocking {@link JobRepository} on a {@link JobRepositoryExecutor}.
+ *
+ * @param <T> The type of result produced by the {@link Job}s.
+ *
+ * @author Spencer Pearson (spencerpearson at dropbox dot com)
+ */
+public final class ExecutorAsyncJobRepository<T> implements AsyncJobRepository<T> {
+
+    /**
+     * Public constructor.
+     *
+     * @param repository The blocking repository to delegate to.
+     * @param executor The executor to run the blocking calls on.
+     */
+    public ExecutorAsyncJobRepository(final JobRepository<T> repository, final JobRepositoryExecutor executor) {
+        _repository = repository;
+        _executor = executor;
+    }
+
+    @Override
+    public CompletionStage<Optional<Job<T>>> getJob(final UUID id, final Organization organization) {
+        return _executor.submit("get_job", () -> _repository.getJob(id, organization));
+    }
+
+    @Override
+    public CompletionStage<Optional<Instant>> getJobLastRun(final UUID id, final Organization organization) {
+        return _executor.submit("get_job_last_run", () -> _repository.getJobLastRun(id, organization));
+    }
+
+    @Override
+    public CompletionStage<Void> jobStarted(final UUID id, final Organization organization, final Instant scheduled) {
+        return _executor.submit("job_started", () -> {
+            _repository.jobStarted(id, organization, scheduled);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> jobSucceeded(final UUID id, final Organization organization, final Instant scheduled, final T result) {
+        return _executor.submit("job_succeeded", () -> {
+            _repository.jobSucceeded(id, organization, scheduled, result);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletionStage<Void> jobFailed(final UUID id, final Organization organization, final Instant scheduled, final Throwable error) {
+        return _executor.submit("job_failed", () -> {
+            _repository.jobFailed(id, organization, scheduled, error);
+            return null;
+        });
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("repository", _repository)
+                .toString();
+    }
+
+    private final JobRepository<T> _repository;
+    private final JobRepositoryExecutor _executor;
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.scheduling;
+
+import com.arpnetworking.commons.builder.OvalBuilder;
+import com.arpnetworking.logback.annotations.Loggable;
+import com.google.common.base.MoreObjects;
+import models.internal.Organization;
+import models.internal.impl.DefaultOrganization;
+import net.sf.oval.constraint.Min;
+import net.sf.oval.constraint.NotNull;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * An entry in a {@link JobRepository}'s change log, recording that a job was added, updated or deleted.
+ *
+ * @author Spencer Pearson (spencerpearson at dropbox dot com)
+ */
+@Loggable
+public final class JobChange {
+    private final UUID _jobId;
+    private final UUID _orgId;
+    private final long _version;
+
+    private JobChange(final Builder builder) {
+        _jobId = builder._jobId;
+        _orgId = builder._orgId;
+        _version = builder._version;
+    }
+
+    public UUID getJobId() {
+        return _jobId;
+    }
+
+    public Organization getOrganization() {
+        return new DefaultOrganization.Builder().setId(_orgId).build();
+    }
+
+    /**
+     * The position of this change in the repository's change log. Later changes have greater versions.
+     *
+     * @return The version.
+     */
+    public long getVersion() {
+        return _version;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final JobChange other = (JobChange) o;
+        return _version == other._version
+                && _jobId.equals(other._jobId)
+                && _orgId.equals(other._orgId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(_jobId, _orgId, _version);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("jobId", _jobId)
+                .add("orgId", _orgId)
+                .add("version", _version)
+                .toString();
+    }
+
+    /**
+     * Implementation of builder pattern for {@link JobChange}.
+     *
+     * @author Spencer Pearson (spencerpearson at dropbox dot com)
+     */
+    public static final class Builder extends OvalBuilder<JobChange> {
+        @NotNull
+        private UUID _jobId;
+        @NotNull
+        private UUID _orgId;
+        @NotNull
+        @Min(1)
+        private Long _version;
+
+        /**
+         * Public constructor.
+         */
+        public Builder() {
+            super(JobChange::new);
+        }
+
+        /**
+         * The id of the changed job. Required. Cannot be null.
+         *
+         * @param id The id.
+         * @return This instance of Builder.
+         */
+        public Builder setId(final UUID id) {
+            _jobId = id;
+            return this;
+        }
+
+        /**
+         * The {@link Organization} that the changed job belongs to. Required. Cannot be null.
+         *
+         * @param organization The organization.
+         * @return This instance of Builder.
+         */
+        public Builder setOrganization(final Organization organization) {
+            _orgId = organization.getId();
+            return this;
+        }
+
+        /**
+         * The position of the change in the repository's change log. Required. Cannot be null. Must be positive.
+         *
+         * @param version The version.
+         * @return This instance of Builder.
+         */
+        public Builder setVersion(final Long version) {
+            _version = version;
+            return this;
+        }
+    }
+}
@@ -17,6 +17,9 @@ package com.arpnetworking.metrics.portal.scheduling;
 
 import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.cluster.Cluster;
+import akka.cluster.ClusterEvent;
+import akka.pattern.PatternsCS;
 import akka.persistence.AbstractPersistentActorWithTimers;
 import com.arpnetworking.metrics.Unit;
 import com.arpnetworking.metrics.impl.BaseScale;
@@ -25,22 +28,50 @@ import com.arpnetworking.metrics.impl.TsdUnit;
 import com.arpnetworking.metrics.incubator.PeriodicMetrics;
 import com.arpnetworking.metrics.portal.organizations.OrganizationRepository;
 import com.arpnetworking.metrics.util.PagingIterator;
+import com.arpnetworking.play.configuration.ConfigurationHelper;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.utility.HierarchicalTimingWheel;
+import com.google.common.base.MoreObjects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.inject.Injector;
+import com.typesafe.config.Config;
 import models.internal.Organization;
 import models.internal.scheduling.Job;
+import scala.concurrent.duration.FiniteDuration;
 
+import java.io.Serializable;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 /**
  * Coordinates a {@link JobRepository}'s {@link JobExecutorActor}s to ensure that exactly one actor exists for each job.
  *
+ * <p>Jobs are reloaded as they change: the coordinator polls the repository's change log (see
+ * {@link JobRepository#getJobChanges(long, int)}) and tells the executor of each changed job to reload it.</p>
+ *
+ * <p>Changes can still be missed, e.g. by repositories that keep no change log, so the coordinator also runs a much less
+ * frequent anti-entropy routine that reconciles every job in the repository with its executor. The routine skips jobs whose
+ * ETag has not changed since it last told their executor about them, unless that was more than a configured time ago.
+ * When a member joins or leaves the cluster, the shards of the executor region move and their executors are restarted
+ * without a job, so the coordinator forgets which ETags it sent and runs anti-entropy once the shards have settled.</p>
+ *
+ * <p>Executors whose job is idle passivate after sending the coordinator a {@link Passivated} message. The coordinator keeps
+ * their next runs in a {@link HierarchicalTimingWheel} and reloads each of them shortly before it is due, which restarts the
+ * executor. The index is not persisted: a new coordinator instance's first anti-entropy run restarts every executor, and
+ * those that are still idle passivate again.</p>
+ *
  * @param <T> The type of the results of the managed actors' jobs.
  *
  * @author Spencer Pearson (spencerpearson at dropbox dot com)
@@ -52,14 +83,24 @@ public final class JobCoordinator<T> extends AbstractPersistentActorWithTimers {
     private final OrganizationRepository _organizationRepository;
     private final ActorRef _jobExecutorRegion;
     private final PeriodicMetrics _periodicMetrics;
+    private final FiniteDuration _changePollInterval;
+    private final FiniteDuration _antiEntropyInterval;
+    private final FiniteDuration _rebalanceDelay;
+    private final Cache<JobRef<T>, String> _sentETags;
+    private final Duration _rehydrationLead;
+    private final HierarchicalTimingWheel<JobRef<T>> _passivated;
 
     private boolean _currentlyExecuting = false;
+    private boolean _currentlyPolling = false;
+    private boolean _subscribedToMembership = false;
+    private Optional<Long> _changeVersion = Optional.empty();
 
     /**
      * Props factory.
      *
      * @param <T> The type of result produced by the {@link JobRepository}'s jobs.
-     * @param injector The Guice injector to load the {@link JobRepository} from.
+     * @param injector The Guice injector to load the {@link JobRepository} and the {@link JobRepositoryExecutor} from.
+     * @param configuration Play configuration.
      * @param repositoryType The type of the repository to load.
      * @param organizationRepository Provides the set of all {@link Organization}s to monitor in the repository.
      * @param jobExecutorRegion The ref to the Akka cluster-sharding region that dispatches to {@link JobExecutorActor}s.
@@ -68,19 +109,28 @@ public final class JobCoordinator<T> extends AbstractPersistentActorWithTimers {
      */
     public static <T> Props props(
             final Injector injector,
+            final Config configuration,
             final Class<? extends JobRepository<T>> repositoryType,
             final OrganizationRepository organizationRepository,
             final ActorRef jobExecutorRegion,
             final PeriodicMetrics periodicMetrics) {
-        return props(injector, Clock.systemUTC(), repositoryType, organizationRepository, jobExecutorRegion, periodicMetrics);
+        return props(
+                injector,
+                Clock.systemUTC(),
+                configuration,
+                repositoryType,
+                organizationRepository,
+                jobExecutorRegion,
+                periodicMetrics);
     }
 
     /**
      * Props factory.
      *
      * @param <T> The type of result produced by the {@link JobRepository}'s jobs.
-     * @param injector The Guice injector to load the {@link JobRepository} from.
-     * @param clock The clock the actor will use to determine when the anti-entropy process should run.
+     * @param injector The Guice injector to load the {@link JobRepository} and the {@link JobRepositoryExecutor} from.
+     * @param clock The clock the actor will use to time the anti-entropy process.
+     * @param configuration Play configuration.
      * @param repositoryType The type of the repository to load.
      * @param organizationRepository Provides the set of all {@link Organization}s to monitor in the repository.
      * @param jobExecutorRegion The ref to the Akka cluster-sharding region that dispatches to {@link JobExecutorActor}s.
@@ -90,18 +140,27 @@ public final class JobCoordinator<T> extends AbstractPersistentActorWithTimers {
     /* package-private */ static <T> Props props(
             final Injector injector,
             final Clock clock,
+            final Config configuration,
             final Class<? extends JobRepository<T>> repositoryType,
             final OrganizationRepository organizationRepository,
             final ActorRef jobExecutorRegion,
             final PeriodicMetrics periodicMetrics) {
         return Props.create(
                 JobCoordinator.class,
-                () -> new JobCoordinator<>(injector, clock, repositoryType, organizationRepository, jobExecutorRegion, periodicMetrics));
+                () -> new JobCoordinator<>(
+                        injector,
+                        clock,
+                        configuration,
+                        repositoryType,
+                        organizationRepository,
+                        jobExecutorRegion,
+                        periodicMetrics));
     }
 
     private JobCoordinator(
             final Injector injector,
             final Clock clock,
+            final Config configuration,
             final Class<? extends JobRepository<T>> repositoryType,
             final OrganizationRepository organizationRepository,
             final ActorRef jobExecutorRegion,
@@ -112,24 +171,51 @@ public final class JobCoordinator<T> extends AbstractPersistentActorWithTimers {
         _organizationRepository = organizationRepository;
         _jobExecutorRegion = jobExecutorRegion;
         _periodicMetrics = periodicMetrics;
+        _changePollInterval = ConfigurationHelper.getFiniteDuration(configuration, "scheduling.coordinator.changePollInterval");
+        _antiEntropyInterval = ConfigurationHelper.getFiniteDuration(configuration, "scheduling.coordinator.antiEntropyInterval");
+        _rebalanceDelay = ConfigurationHelper.getFiniteDuration(configuration, "scheduling.coordinator.rebalanceDelay");
+        _sentETags = CacheBuilder.newBuilder()
+                .expireAfterWrite(
+                        ConfigurationHelper.getFiniteDuration(configuration, "scheduling.coordinator.resendInterval").toMillis(),
+                        TimeUnit.MILLISECONDS)
+                .build();
+        _rehydrationLead = Duration.ofMillis(
+                ConfigurationHelper.getFiniteDuration(configuration, "scheduling.passivation.lead").toMillis());
+        _passivated = new HierarchicalTimingWheel<>(REHYDRATE_INTERVAL.toMillis(), clock.millis());
     }
 
     @Override
     public void preStart() throws Exception {
         super.preStart();
+        timers().startPeriodicTimer(ANTI_ENTROPY_PERIODIC_TIMER_NAME, AntiEntropyTick.INSTANCE, _antiEntropyInterval);
+        timers().startPeriodicTimer(CHANGE_POLL_PERIODIC_TIMER_NAME, ChangePollTick.INSTANCE, _changePollInterval);
         timers().startPeriodicTimer(
-                ANTI_ENTROPY_PERIODIC_TIMER_NAME,
-                AntiEntropyTick.INSTANCE,
-                scala.concurrent.duration.Duration.fromNanos(ANTI_ENTROPY_TICK_INTERVAL.toNanos()));
+                REHYDRATE_PERIODIC_TIMER_NAME,
+                RehydrateTick.INSTANCE,
+                scala.concurrent.duration.Duration.fromNanos(REHYDRATE_INTERVAL.toNanos()));
+        if (CLUSTER_PROVIDER.equals(getContext().getSystem().settings().ProviderClass())) {
+            Cluster.get(getContext().getSystem()).subscribe(getSelf(), ClusterEvent.MemberUp.class, ClusterEvent.MemberRemoved.class);
+            _subscribedToMembership = true;
+        }
+        // The first poll only finds where the change log currently ends; anti-entropy runs once that is known
+        getSelf().tell(ChangePollTick.INSTANCE, getSelf());
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if (_subscribedToMembership) {
+            Cluster.get(getContext().getSystem()).unsubscribe(getSelf());
+        }
+        super.postStop();
     }
 
     private static <T> Iterator<? extends Job<T>> getAllJobs(final JobRepository<T> repo, final Organization organization) {
         return new PagingIterator.Builder<Job<T>>()
-                .setGetPage(offset -> repo.createJobQuery(organization)
-                        .offset(offset)
-                        .limit(JOB_QUERY_PAGE_SIZE)
-                        .execute()
-                        .values())
+                .setGetPageAfter(last -> {
+                    final JobQuery<T> query = repo.createJobQuery(organization).limit(JOB_QUERY_PAGE_SIZE);
+                    last.ifPresent(job -> query.afterId(job.getId()));
+                    return query.execute().values();
+                })
                 .build();
     }
 
@@ -140,6 +226,7 @@ public final class JobCoordinator<T> extends AbstractPersistentActorWithTimers {
             final OrganizationRepository organizationRepository,
             final ActorRef jobExecutorRegion,
             final PeriodicMetrics periodicMetrics,
+            final Cache<JobRef<T>, String> sentETags,
             final ActorRef coordinator) {
 
         try {
@@ -151,21 +238,33 @@ public final class JobCoordinator<T> extends AbstractPersistentActorWithTimers {
             final Instant startTime = clock.instant();
             final JobRepository<T> repo = injector.getInstance(repositoryType);
             final Iterable<? extends Organization> allOrgs = organizationRepository.query(organizationRepository.createQuery()).values();
+            long sent = 0;
+            long skipped = 0;
             for (final Organization organization : allOrgs) {
                 final Iterator<? extends Job<T>> allJobs = getAllJobs(repo, organization);
-                allJobs.forEachRemaining(job -> {
+                while (allJobs.hasNext()) {
+                    final Job<T> job = allJobs.next();
                     final JobRef<T> ref = new JobRef.Builder<T>()
                             .setRepositoryType(repositoryType)
                             .setOrganization(organization)
                             .setId(job.getId())
                             .build();
+                    final String eTag = job.getETag().orElse(null);
+                    if (eTag != null && eTag.equals(sentETags.getIfPresent(ref))) {
+                        ++skipped;
+                        continue;
+                    }
                     jobExecutorRegion.tell(
                             new JobExecutorActor.Reload.Builder<T>()
                                     .setJobRef(ref)
-                                    .setETag(job.getETag().orElse(null))
+                                    .setETag(eTag)
                                     .build(),
                             coordinator);
-                });
+                    if (eTag != null) {
+                        sentETags.put(ref, eTag);
+                    }
+                    ++sent;
+                }
             }
 
             // We now know that all jobs in the repo have current actors.
@@ -176,11 +275,15 @@ public final class JobCoordinator<T> extends AbstractPersistentActorWithTimers {
                     "job_coordinator_tick_time",
                     ChronoUnit.NANOS.between(startTime, clock.instant()),
                     Optional.of(NANOS));
+            periodicMetrics.recordCounter("job_coordinator_anti_entropy_reloads", sent);
+            periodicMetrics.recordCounter("job_coordinator_anti_entropy_skipped", skipped);
 
             LOGGER.debug()
                     .setMessage("finished anti-entropy")
                     .addData("repositoryType", repositoryType)
                     .addData("elapsedTimeSec", ChronoUnit.NANOS.between(startTime, clock.instant()))
+                    .addData("reloads", sent)
+                    .addData("skipped", skipped)
                     .log();
         } finally {
             coordinator.tell(AntiEntropyFinished.INSTANCE, coordinator);
@@ -196,6 +299,7 @@ public final class JobCoordinator<T> extends AbstractPersistentActorWithTimers {
         final OrganizationRepository organizationRepository = _organizationRepository;
         final ActorRef jobExecutorRegion = _jobExecutorRegion;
         final PeriodicMetrics periodicMetrics = _periodicMetrics;
+        final Cache<JobRef<T>, String> sentETags = _sentETags;
         final ActorRef self = getSelf();
         return () -> runAntiEntropy(
                 injector,
@@ -204,9 +308,104 @@ public final class JobCoordinator<T> extends AbstractPersistentActorWithTimers {
                 organizationRepository,
                 jobExecutorRegion,
                 periodicMetrics,
+                sentETags,
                 self);
     }
 
+    /**
+     * Reads the next changes from the repository's change log. The actor is sent a {@link ChangesPolled} message with the result.
+     */
+    private void pollChanges() {
+        if (_currentlyPolling) {
+            return;
+        }
+        _currentlyPolling = true;
+
+        final JobRepository<T> repo = _injector.getInstance(_repositoryType);
+        final JobRepositoryExecutor executor = _injector.getInstance(JobRepositoryExecutor.class);
+        final CompletionStage<ChangesPolled> polled;
+        if (_changeVersion.isPresent()) {
+            final long afterVersion = _changeVersion.get();
+            polled = executor.submit("get_job_changes", () -> repo.getJobChanges(afterVersion, CHANGE_QUERY_PAGE_SIZE))
+                    .thenApply(changes -> new ChangesPolled(
+                            changes.isEmpty() ? afterVersion : changes.get(changes.size() - 1).getVersion(),
+                            changes,
+                            null));
+        } else {
+            polled = executor.submit("get_latest_job_change_version", repo::getLatestJobChangeVersion)
+                    .thenApply(version -> new ChangesPolled(version, ImmutableList.of(), null));
+        }
+        PatternsCS.pipe(
+                polled.exceptionally(error -> new ChangesPolled(0, ImmutableList.of(), error)),
+                getContext().dispatcher()
+        ).to(getSelf());
+    }
+
+    private void changesPolled(final ChangesPolled message) {
+        _currentlyPolling = false;
+        if (message.getError() != null) {
+            _periodicMetrics.recordCounter("job_coordinator_change_poll_success", 0);
+            LOGGER.warn()
+                    .setMessage("failed to poll job changes")
+                    .addData("repositoryType", _repositoryType)
+                    .addData("changeVersion", _changeVersion)
+                    .setThrowable(message.getError())
+                    .log();
+            return;
+        }
+        _periodicMetrics.recordCounter("job_coordinator_change_poll_success", 1);
+
+        final boolean firstPoll = !_changeVersion.isPresent();
+        _changeVersion = Optional.of(message.getVersion());
+        for (final JobChange change : message.getChanges()) {
+            final JobRef<T> ref = new JobRef.Builder<T>()
+                    .setRepositoryType(_repositoryType)
+                    .setOrganization(change.getOrganization())
+                    .setId(change.getJobId())
+                    .build();
+            // Without an ETag the executor reloads unconditionally; anti-entropy must not skip it next time either
+            _sentETags.invalidate(ref);
+            // The reload restarts the executor if it is passivated; it passivates again with its new next run if still idle
+            _passivated.cancel(ref);
+            _jobExecutorRegion.tell(new JobExecutorActor.Reload.Builder<T>().setJobRef(ref).build(), getSelf());
+        }
+        _periodicMetrics.recordCounter("job_coordinator_changed_jobs", message.getChanges().size());
+
+        if (firstPoll) {
+            // Changes made before the change log was first read are only picked up by anti-entropy
+            getSelf().tell(AntiEntropyTick.INSTANCE, getSelf());
+        }
+        if (message.getChanges().size() >= CHANGE_QUERY_PAGE_SIZE) {
+            // There may be more changes waiting; don't wait for the next tick to read them
+            pollChanges();
+        }
+    }
+
+    private void passivated(final Passivated<T> message) {
+        final JobRef<T> ref = message.getJobRef();
+        if (!_passivated.schedule(ref, message.getNextRun().minus(_rehydrationLead).toEpochMilli())) {
+            rehydrate(ref);
+        }
+        _periodicMetrics.recordGauge("job_coordinator_passivated_jobs", _passivated.size());
+    }
+
+    private void membershipChanged(final ClusterEvent.MemberEvent event) {
+        LOGGER.info()
+                .setMessage("cluster membership changed, resending all jobs")
+                .addData("repositoryType", _repositoryType)
+                .addData("member", event.member())
+                .log();
+        // Executors of shards that moved are restarted without a job, and their ETags would otherwise keep them from being reloaded
+        _sentETags.invalidateAll();
+        // Restarting the timer on every change runs a single anti-entropy once the shards have been rebalanced
+        timers().startSingleTimer(REBALANCE_TIMER_NAME, AntiEntropyTick.INSTANCE, _rebalanceDelay);
+        _periodicMetrics.recordCounter("job_coordinator_membership_changes", 1);
+    }
+
+    private void rehydrate(final JobRef<T> ref) {
+        _jobExecutorRegion.tell(new JobExecutorActor.Reload.Builder<T>().setJobRef(ref).build(), getSelf());
+    }
+
     @Override
     public Receive createReceive() {
         return receiveBuilder()
@@ -219,6 +418,7 @@ public final class JobCoordinator<T> extends AbstractPersistentActorWithTimers {
                     if (_currentlyExecuting) {
                         return;
                     }
+                    _currentlyExecuting = true;
 
                     getContext().getSystem().scheduler().scheduleOnce(
                             scala.concurrent.duration.Duration.Zero(),
@@ -228,6 +428,21 @@ public final class JobCoordinator<T> extends AbstractPersistentActorWithTimers {
                 .match(AntiEntropyFinished.class, message -> {
                     _currentlyExecuting = false;
                 })
+                .match(ChangePollTick.class, message -> pollChanges())
+                // The state sent on subscribing is not a change
+                .match(ClusterEvent.CurrentClusterState.class, message -> { })
+                .match(ClusterEvent.MemberEvent.class, this::membershipChanged)
+                .match(ChangesPolled.class, this::changesPolled)
+                .match(Passivated.class, message -> {
+                    @SuppressWarnings("unchecked")
+                    final Passivated<T> typedMessage = (Passivated<T>) message;
+                    passivated(typedMessage);
+                })
+                .match(RehydrateTick.class, message -> {
+                    final int rehydrated = _passivated.advanceTo(_clock.millis(), this::rehydrate);
+                    _periodicMetrics.recordCounter("job_coordinator_rehydrated_jobs", rehydrated);
+                    _periodicMetrics.recordGauge("job_coordinator_passivated_jobs", _passivated.size());
+                })
                 .build();
     }
 
@@ -245,13 +460,18 @@ public final class JobCoordinator<T> extends AbstractPersistentActorWithTimers {
     }
 
     private static final String ANTI_ENTROPY_PERIODIC_TIMER_NAME = "TICK";
-    private static final Duration ANTI_ENTROPY_TICK_INTERVAL = Duration.ofHours(1);
+    private static final String CHANGE_POLL_PERIODIC_TIMER_NAME = "CHANGE_POLL";
+    private static final String REHYDRATE_PERIODIC_TIMER_NAME = "REHYDRATE";
+    private static final String REBALANCE_TIMER_NAME = "REBALANCE";
+    private static final String CLUSTER_PROVIDER = "akka.cluster.ClusterActorRefProvider";
+    private static final Duration REHYDRATE_INTERVAL = Duration.ofSeconds(1);
     private static final Logger LOGGER = LoggerFactory.getLogger(JobCoordinator.class);
     private static final Unit NANOS = new TsdUnit.Builder()
             .setScale(BaseScale.NANO)
             .setBaseUnit(BaseUnit.SECOND)
             .build();
     private static final int JOB_QUERY_PAGE_SIZE = 256;
+    private static final int CHANGE_QUERY_PAGE_SIZE = 256;
 
     /**
      * Internal message, telling the scheduler to run any necessary jobs.
@@ -267,4 +487,107 @@ public final class JobCoordinator<T> extends AbstractPersistentActorWithTimers {
         /* package private */ static final AntiEntropyFinished INSTANCE = new AntiEntropyFinished();
     }
 
+    /**
+     * Internal message, telling the scheduler to read the repository's change log.
+     */
+    /* package private */ static final class ChangePollTick {
+        /* package private */ static final ChangePollTick INSTANCE = new ChangePollTick();
+    }
+
+    /**
+     * Internal message, telling the scheduler to restart the passivated executors that are due soon.
+     */
+    /* package private */ static final class RehydrateTick {
+        /* package private */ static final RehydrateTick INSTANCE = new RehydrateTick();
+    }
+
+    /**
+     * Message from a {@link JobExecutorActor} that is passivating until shortly before its job's next run.
+     *
+     * @param <T> The type of the result computed by the referenced {@link Job}.
+     */
+    public static final class Passivated<T> implements Serializable {
+        /**
+         * Public constructor.
+         *
+         * @param jobRef The job of the passivating executor.
+         * @param nextRun The time of the job's next run.
+         */
+        public Passivated(final JobRef<T> jobRef, final Instant nextRun) {
+            _jobRef = jobRef;
+            _nextRun = nextRun;
+        }
+
+        public JobRef<T> getJobRef() {
+            return _jobRef;
+        }
+
+        public Instant getNextRun() {
+            return _nextRun;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Passivated<?> other = (Passivated<?>) o;
+            return _jobRef.equals(other._jobRef)
+                    && _nextRun.equals(other._nextRun);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(_jobRef, _nextRun);
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("jobRef", _jobRef)
+                    .add("nextRun", _nextRun)
+                    .toString();
+        }
+
+        private final JobRef<T> _jobRef;
+        private final Instant _nextRun;
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Internal message, telling the scheduler what was read from the repository's change log.
+     */
+    private static final class ChangesPolled {
+        ChangesPolled(final long version, final List<JobChange> changes, @Nullable final Throwable error) {
+            _version = version;
+            _changes = changes;
+            _error = error;
+        }
+
+        /**
+         * The version of the last change read, or where the change log ended if no changes were read.
+         *
+         * @return The version.
+         */
+        public long getVersion() {
+            return _version;
+        }
+
+        public List<JobChange> getChanges() {
+            return _changes;
+        }
+
+        @Nullable
+        public Throwable getError() {
+            return _error;
+        }
+
+        private final long _version;
+        private final List<JobChange> _changes;
+        @Nullable
+        private final Throwable _error;
+    }
 }
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.scheduling;
+
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import com.arpnetworking.metrics.Units;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.utility.HierarchicalTimingWheel;
+import com.google.common.hash.Hashing;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admits {@link JobExecutorActor}s to execute their jobs at a bounded rate.
+ *
+ * One instance runs per node and is shared by all of the node's executors. Schedules align many jobs to
+ * the same instants (e.g. the top of the hour), so instead of executing a due job right away an executor
+ * sends an {@link Admit} message and only executes once it is sent an {@link Admitted} message. Admission
+ * takes two steps:
+ * <ul>
+ *     <li>If a jitter window is configured, the request is first held back by a fixed delay within the window
+ *         derived from the job's id, so that each job's executions stay evenly spaced while different jobs
+ *         due at the same instant are spread over the window.</li>
+ *     <li>Requests are then admitted in order from a token bucket, which allows a configured number of
+ *         executions per second on average and a configured burst.</li>
+ * </ul>
+ * The executor still records the instant the execution was scheduled for, not the instant it was admitted.
+ *
+ * At most a configured number of requests wait for admission; further requests are answered with a
+ * {@link Rejected} message. Waiting requests are not persisted, so executors ask again if they are not admitted
+ * in time, for example because the dispatcher restarted.
+ *
+ * @author Spencer Pearson (spencerpearson at dropbox dot com)
+ */
+public final class JobDispatcher extends AbstractActorWithTimers {
+
+    /**
+     * Props factory.
+     *
+     * @param clock The clock to time the jitter and the token bucket with.
+     * @param tickDuration The resolution of the jitter delays.
+     * @param ratePerSecond The average number of executions admitted per second.
+     * @param burst The maximum number of executions admitted at once after a quiet period.
+     * @param maxQueued The maximum number of requests waiting for admission, jittered or queued.
+     * @param jitterWindow The window the jitter of each job is chosen from; zero disables jitter.
+     * @param periodicMetrics The {@link PeriodicMetrics} that this actor will use to log its metrics.
+     * @return A new props to create this actor.
+     */
+    public static Props props(
+            final Clock clock,
+            final FiniteDuration tickDuration,
+            final double ratePerSecond,
+            final int burst,
+            final int maxQueued,
+            final Duration jitterWindow,
+            final PeriodicMetrics periodicMetrics) {
+        return Props.create(
+                JobDispatcher.class,
+                () -> new JobDispatcher(clock, tickDuration, ratePerSecond, burst, maxQueued, jitterWindow, periodicMetrics));
+    }
+
+    /**
+     * Returns the delay a job's executions are held back by.
+     *
+     * @param jobId The id of the job.
+     * @param jitterWindow The window the delay is chosen from.
+     * @return The delay, in {@code [0, jitterWindow)}.
+     */
+    /* package private */ static Duration jitterOf(final UUID jobId, final Duration jitterWindow) {
+        final long windowMillis = jitterWindow.toMillis();
+        if (windowMillis <= 0) {
+            return Duration.ZERO;
+        }
+        final int hash = Hashing.murmur3_32().hashString(jobId.toString(), StandardCharsets.UTF_8).asInt();
+        return Duration.ofMillis(Integer.toUnsignedLong(hash) % windowMillis);
+    }
+
+    private JobDispatcher(
+            final Clock clock,
+            final FiniteDuration tickDuration,
+            final double ratePerSecond,
+            final int burst,
+            final int maxQueued,
+            final Duration jitterWindow,
+            final PeriodicMetrics periodicMetrics) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("ratePerSecond must be positive");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1");
+        }
+        if (maxQueued < 1) {
+            throw new IllegalArgumentException("maxQueued must be at least 1");
+        }
+        _clock = clock;
+        _ratePerSecond = ratePerSecond;
+        _burst = burst;
+        _maxQueued = maxQueued;
+        _jitterWindow = jitterWindow;
+        _periodicMetrics = periodicMetrics;
+        _jittered = new HierarchicalTimingWheel<>(tickDuration.toMillis(), clock.millis());
+        _tokens = burst;
+        _lastRefillMillis = clock.millis();
+        timers().startPeriodicTimer(ADVANCE_TIMER_NAME, Advance.INSTANCE, tickDuration);
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Admit.class, this::admit)
+                .match(Advance.class, message -> advance())
+                .match(Drain.class, message -> drain())
+                .build();
+    }
+
+    private void admit(final Admit message) {
+        final boolean full = _queue.size() + _jittered.size() >= _maxQueued;
+        _periodicMetrics.recordCounter("job_dispatcher/rejected", full ? 1 : 0);
+        if (full) {
+            getSender().tell(new Rejected(message.getScheduled()), getSelf());
+            return;
+        }
+        final Pending pending = new Pending(getSender(), message.getScheduled(), _clock.millis());
+        final Instant releaseAt = message.getScheduled().plus(jitterOf(message.getJobId(), _jitterWindow));
+        if (!_jittered.schedule(pending, releaseAt.toEpochMilli())) {
+            enqueue(pending);
+            drain();
+        }
+        recordDepth();
+    }
+
+    private void advance() {
+        if (_jittered.advanceTo(_clock.millis(), this::enqueue) > 0) {
+            drain();
+        }
+        recordDepth();
+    }
+
+    private void enqueue(final Pending pending) {
+        _queue.add(pending);
+    }
+
+    private void drain() {
+        final long now = _clock.millis();
+        _tokens = Math.min(_burst, _tokens + (now - _lastRefillMillis) * _ratePerSecond / 1000);
+        _lastRefillMillis = now;
+        int admitted = 0;
+        while (!_queue.isEmpty() && _tokens >= 1) {
+            _tokens -= 1;
+            final Pending pending = _queue.remove();
+            pending.getExecutor().tell(new Admitted(pending.getScheduled()), getSelf());
+            _periodicMetrics.recordTimer(
+                    "job_dispatcher/admission_delay",
+                    TimeUnit.MILLISECONDS.toNanos(now - pending.getRequestedAtMillis()),
+                    Optional.of(Units.NANOSECOND));
+            ++admitted;
+        }
+        _periodicMetrics.recordCounter("job_dispatcher/admitted", admitted);
+        if (!_queue.isEmpty() && !timers().isTimerActive(DRAIN_TIMER_NAME)) {
+            final long waitMillis = (long) Math.ceil((1 - _tokens) * 1000 / _ratePerSecond);
+            timers().startSingleTimer(
+                    DRAIN_TIMER_NAME,
+                    Drain.INSTANCE,
+                    FiniteDuration.apply(Math.max(1, waitMillis), TimeUnit.MILLISECONDS));
+        }
+        recordDepth();
+    }
+
+    private void recordDepth() {
+        _periodicMetrics.recordGauge("job_dispatcher/queue_depth", _queue.size());
+        _periodicMetrics.recordGauge("job_dispatcher/jittered", _jittered.size());
+    }
+
+    private final Clock _clock;
+    private final double _ratePerSecond;
+    private final int _burst;
+    private final int _maxQueued;
+    private final Duration _jitterWindow;
+    private final PeriodicMetrics _periodicMetrics;
+    private final HierarchicalTimingWheel<Pending> _jittered;
+    private final Queue<Pending> _queue = new ArrayDeque<>();
+    private double _tokens;
+    private long _lastRefillMillis;
+
+    private static final String ADVANCE_TIMER_NAME = "ADVANCE";
+    private static final String DRAIN_TIMER_NAME = "DRAIN";
+
+    /**
+     * Asks for the sender to be sent an {@link Admitted} message once it may execute its job.
+     */
+    public static final class Admit implements Serializable {
+        /**
+         * Public constructor.
+         *
+         * @param jobId The id of the job to execute, which determines its jitter.
+         * @param scheduled The instant the execution is scheduled for.
+         */
+        public Admit(final UUID jobId, final Instant scheduled) {
+            _jobId = jobId;
+            _scheduled = scheduled;
+        }
+
+        public UUID getJobId() {
+            return _jobId;
+        }
+
+        public Instant getScheduled() {
+            return _scheduled;
+        }
+
+        private final UUID _jobId;
+        private final Instant _scheduled;
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Tells an executor that it may now execute its job.
+     */
+    public static final class Admitted implements Serializable {
+        /**
+         * Public constructor.
+         *
+         * @param scheduled The instant the admitted execution is scheduled for.
+         */
+        public Admitted(final Instant scheduled) {
+            _scheduled = scheduled;
+        }
+
+        public Instant getScheduled() {
+            return _scheduled;
+        }
+
+        private final Instant _scheduled;
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Tells an executor that its request was not queued because too many requests are waiting for admission.
+     */
+    public static final class Rejected implements Serializable {
+        /**
+         * Public constructor.
+         *
+         * @param scheduled The instant the rejected execution is scheduled for.
+         */
+        public Rejected(final Instant scheduled) {
+            _scheduled = scheduled;
+        }
+
+        public Instant getScheduled() {
+            return _scheduled;
+        }
+
+        private final Instant _scheduled;
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * A request waiting for admission. Compared by identity, so that the same executor can have several.
+     */
+    private static final class Pending {
+        Pending(final ActorRef executor, final Instant scheduled, final long requestedAtMillis) {
+            _executor = executor;
+            _scheduled = scheduled;
+            _requestedAtMillis = requestedAtMillis;
+        }
+
+        ActorRef getExecutor() {
+            return _executor;
+        }
+
+        Instant getScheduled() {
+            return _scheduled;
+        }
+
+        long getRequestedAtMillis() {
+            return _requestedAtMillis;
+        }
+
+        private final ActorRef _executor;
+        private final Instant _scheduled;
+        private final long _requestedAtMillis;
+    }
+
+    private static final class Advance {
+        private static final Advance INSTANCE = new Advance();
+    }
+
+    private static final class Drain {
+        private static final Drain INSTANCE = new Drain();
+    }
+}
@@ -15,9 +15,11 @@
  */
 package com.arpnetworking.metrics.portal.scheduling;
 
-import akka.actor.AbstractActorWithTimers;
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
 import akka.actor.PoisonPill;
 import akka.actor.Props;
+import akka.cluster.sharding.ShardRegion;
 import akka.pattern.PatternsCS;
 import com.arpnetworking.commons.builder.OvalBuilder;
 import com.arpnetworking.metrics.Units;
@@ -27,21 +29,22 @@ import com.arpnetworking.steno.LoggerFactory;
 import com.google.common.base.CaseFormat;
 import com.google.common.base.MoreObjects;
 import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import models.internal.scheduling.Job;
 import net.sf.oval.constraint.NotNull;
 import net.sf.oval.constraint.ValidateWithMethod;
-import scala.concurrent.duration.Duration;
-import scala.concurrent.duration.FiniteDuration;
 
 import java.io.Serializable;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import javax.annotation.Nullable;
 
 /**
@@ -52,45 +55,115 @@ import javax.annotation.Nullable;
  *     <li>
  *          <p><b>Unininitialized.</b> The actor is completely passive.</p>
  *          <p>It starts out in this state (after instantiation, or after dying and being restarted).</p>
- *          <p>It leaves this state when it receives a {@link Reload} message.</p>
+ *          <p>It leaves this state once a {@link Reload} message has loaded its job from the repository.</p>
  *     </li>
  *     <li>
  *         <p><b>Initialized.</b> The actor will intermittently wake up to execute / reload its {@link CachedJob}.</p>
- *         <p>It enters this state when it receives a {@link Reload} message.</p>
- *         <p>It never leaves this state (except when it dies and is resurrected).</p>
+ *         <p>It enters this state once a {@link Reload} message has loaded its job from the repository.</p>
+ *         <p>It never leaves this state (except when it dies or passivates and is resurrected).</p>
  *         <p>Once the actor is initialized, all subsequent {@link Reload} messages <i>must</i> reference the same {@link JobRef}.
  *            Failure to respect this is considered a severe enough programming error that the actor will kill itself.</p>
  *     </li>
  * </ul>
  *
+ * <p>The actor never blocks on its {@link JobRepository}: repository calls run on the {@link JobRepositoryExecutor},
+ *    and their outcomes are piped back to the actor as messages.</p>
+ *
+ * <p>The actor keeps no timers of its own. While its job is not yet due, it asks the node's {@link JobTimingWheel}
+ *    to wake it up at the next run; otherwise it is woken up by reloads and by the completion of its executions.</p>
+ *
+ * <p>If a passivation threshold is configured and the next run is further away than it, the actor instead hands its
+ *    next run to the {@link JobCoordinator} that last reloaded it and asks its shard to passivate it. The coordinator
+ *    sends a new {@link Reload} shortly before the run is due, which starts a fresh actor. Idle jobs therefore take up
+ *    no more than an entry in the coordinator's index.</p>
+ *
+ * <p>A due job is not executed right away: the actor first asks the node's {@link JobDispatcher} for admission, which
+ *    bounds how many jobs the node starts per second and may hold each job back by a fixed jitter. The execution is
+ *    still recorded as scheduled for the instant its schedule gave. If the dispatcher rejects the request the actor
+ *    asks again after a delay, and if it is not admitted within a timeout, e.g. because the dispatcher restarted or a
+ *    message was lost, it asks again right away.</p>
+ *
  * @param <T> The type of result produced by the {@link Job}s.
  *
  * @author Spencer Pearson (spencerpearson at dropbox dot com)
  */
-public final class JobExecutorActor<T> extends AbstractActorWithTimers {
+public final class JobExecutorActor<T> extends AbstractActor {
 
     private final Injector _injector;
     private final Clock _clock;
     private final PeriodicMetrics _periodicMetrics;
+    private final ActorRef _timingWheel;
+    private final ActorRef _dispatcher;
+    private final Optional<Duration> _passivationThreshold;
+    private Optional<ActorRef> _coordinator = Optional.empty();
+    private boolean _passivating = false;
     private boolean _currentlyExecuting = false;
+    private Optional<Instant> _admissionDeadline = Optional.empty();
     private Optional<CachedJob<T>> _cachedJob = Optional.empty();
+    private long _reloadSequence = 0;
+    private long _appliedReloadSequence = 0;
 
     /**
      * Props factory.
      *
-     * @param injector The Guice injector to use to load the {@link JobRepository} referenced by the {@link JobRef}.
+     * @param injector The Guice injector to use to load the {@link JobRepository} referenced by the {@link JobRef},
+     *   the node's {@link JobTimingWheel} (named {@value #TIMING_WHEEL_NAME})
+     *   and the node's {@link JobDispatcher} (named {@value #DISPATCHER_NAME}).
      * @param clock The clock the scheduler will use, when it ticks, to determine whether it's time to run the next job(s) yet.
      * @param periodicMetrics The {@link PeriodicMetrics} that this actor will use to log its metrics.
      * @return A new props to create this actor.
      */
     public static Props props(final Injector injector, final Clock clock, final PeriodicMetrics periodicMetrics) {
-        return Props.create(JobExecutorActor.class, () -> new JobExecutorActor<>(injector, clock, periodicMetrics));
+        return Props.create(JobExecutorActor.class, () -> new JobExecutorActor<>(injector, clock, Optional.empty(), periodicMetrics));
     }
 
-    private JobExecutorActor(final Injector injector, final Clock clock, final PeriodicMetrics periodicMetrics) {
+    /**
+     * Props factory for actors that passivate while their job is idle.
+     *
+     * @param injector The Guice injector to use to load the {@link JobRepository} referenced by the {@link JobRef},
+     *   the node's {@link JobTimingWheel} (named {@value #TIMING_WHEEL_NAME})
+     *   and the node's {@link JobDispatcher} (named {@value #DISPATCHER_NAME}).
+     * @param clock The clock the scheduler will use, when it ticks, to determine whether it's time to run the next job(s) yet.
+     * @param passivationThreshold The actor passivates when its job's next run is further away than this.
+     * @param periodicMetrics The {@link PeriodicMetrics} that this actor will use to log its metrics.
+     * @return A new props to create this actor.
+     */
+    public static Props props(
+            final Injector injector,
+            final Clock clock,
+            final Duration passivationThreshold,
+            final PeriodicMetrics periodicMetrics) {
+        return Props.create(
+                JobExecutorActor.class,
+                () -> new JobExecutorActor<>(injector, clock, Optional.of(passivationThreshold), periodicMetrics));
+    }
+
+    private JobExecutorActor(
+            final Injector injector,
+            final Clock clock,
+            final Optional<Duration> passivationThreshold,
+            final PeriodicMetrics periodicMetrics) {
         _injector = injector;
         _clock = clock;
+        _passivationThreshold = passivationThreshold;
         _periodicMetrics = periodicMetrics;
+        _timingWheel = injector.getInstance(Key.get(ActorRef.class, Names.named(TIMING_WHEEL_NAME)));
+        _dispatcher = injector.getInstance(Key.get(ActorRef.class, Names.named(DISPATCHER_NAME)));
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        _timingWheel.tell(JobTimingWheel.Cancel.INSTANCE, getSelf());
+        super.postStop();
+    }
+
+    @Override
+    public void preRestart(final Throwable reason, final Optional<Object> message) throws Exception {
+        // The restarted actor has no job, and anti-entropy skips jobs whose ETag it already sent, so reload it now
+        _cachedJob.ifPresent(cachedJob -> getSelf().tell(
+                new Reload.Builder<T>().setJobRef(cachedJob.getRef()).build(),
+                _coordinator.orElse(ActorRef.noSender())));
+        super.preRestart(reason, message);
     }
 
     @Override
@@ -103,8 +176,33 @@ public final class JobExecutorActor<T> extends AbstractActorWithTimers {
     }
 
     private void scheduleTickFor(final Instant wakeUpAt) {
-        final FiniteDuration delta = Duration.fromNanos(Math.max(0, ChronoUnit.NANOS.between(_clock.instant(), wakeUpAt)));
-        timers().startSingleTimer(EXTRA_TICK_TIMER_NAME, Tick.INSTANCE, delta);
+        _timingWheel.tell(new JobTimingWheel.Schedule(wakeUpAt), getSelf());
+    }
+
+    /**
+     * Hands the next run to the coordinator and asks the shard to stop this actor until shortly before then.
+     *
+     * @param ref The JobRef the coordinator should reload.
+     * @param nextRun The time of the job's next run.
+     */
+    private void passivate(final JobRef<T> ref, final Instant nextRun) {
+        LOGGER.debug()
+                .setMessage("passivating until next run")
+                .addData("ref", ref)
+                .addData("nextRun", nextRun)
+                .log();
+        _periodicMetrics.recordCounter("job_executor_actor_passivations", 1);
+        _passivating = true;
+        _coordinator.get().tell(new JobCoordinator.Passivated<>(ref, nextRun), getSelf());
+        // Messages sent to the actor through the shard until it stops are buffered and start a new incarnation
+        getContext().getParent().tell(new ShardRegion.Passivate(PoisonPill.getInstance()), getSelf());
+    }
+
+    private boolean shouldPassivateUntil(final Instant now, final Instant nextRun) {
+        return _passivationThreshold.isPresent()
+                && _coordinator.isPresent()
+                && !_currentlyExecuting
+                && Duration.between(now, nextRun).compareTo(_passivationThreshold.get()) > 0;
     }
 
     private void killSelf() {
@@ -115,29 +213,18 @@ public final class JobExecutorActor<T> extends AbstractActorWithTimers {
     }
 
     /**
-     * Initializes the actor with the given JobRef (if uninitialized), or ensure the the given ref equals the one already initialized with.
+     * Ensures that the given JobRef equals the one the actor is already initialized with, if any.
      *
-     * @param ref The JobRef to initialize with.
-     * @return The {@link CachedJob} the actor is initialized to.
-     *   (Guaranteed to equal {@code _cachedJob.get()}; this return value is purely for the typechecker's sake.)
+     * @param ref The JobRef to check.
      * @throws IllegalStateException If the actor was already initialized with a different JobRef.
-     * @throws NoSuchJobException If the actor attempts to initialize itself but can't load the referenced job.
      */
-    private CachedJob<T> initializeOrEnsureRefMatch(final JobRef<T> ref) throws IllegalStateException, NoSuchJobException {
-        if (!_cachedJob.isPresent()) {
-            LOGGER.info()
-                    .setMessage("initializing")
-                    .addData("ref", ref)
-                    .log();
-            _cachedJob = Optional.of(CachedJob.createAndLoad(_injector, ref, _periodicMetrics));
-        }
-
-        final JobRef<T> oldRef = _cachedJob.get().getRef();
-        if (!oldRef.equals(ref)) {
-            throw new IllegalStateException(String.format("got JobRef %s, but already initialized with %s", ref, oldRef));
+    private void ensureRefMatch(final JobRef<T> ref) throws IllegalStateException {
+        if (_cachedJob.isPresent()) {
+            final JobRef<T> oldRef = _cachedJob.get().getRef();
+            if (!oldRef.equals(ref)) {
+                throw new IllegalStateException(String.format("got JobRef %s, but already initialized with %s", ref, oldRef));
+            }
         }
-
-        return _cachedJob.get();
     }
 
 
@@ -148,37 +235,116 @@ public final class JobExecutorActor<T> extends AbstractActorWithTimers {
         return typedRef;
     }
 
+    private static Throwable unwrap(final Throwable error) {
+        Throwable cause = error;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
     /**
-     * Executes the job, notifying the repository upon start and completion. (Unless an execution is already in progress; then, noop.)
-     * (Well, technically, sends the actor a message upon completion, and <i>that</i> notifies the repository about success/failure.)
+     * Starts executing the job by asking the {@link JobDispatcher} for admission. (Unless an execution is already in progress; then, noop.)
+     * (Technically, the actor is sent a {@link JobDispatcher.Admitted} message once admitted, and <i>that</i> starts the job.)
      *
      * @param scheduled The time that the job was scheduled for.
      * @throws ActorNotInitializedException If the actor has never been given a {@link JobRef}, and therefore has nothing to execute.
-     * @throws NoSuchJobException If the repository doesn't recognize the job.
      */
-    private void attemptExecuteAndUpdateRepository(final Instant scheduled) throws ActorNotInitializedException, NoSuchJobException {
+    private void attemptExecuteAndUpdateRepository(final Instant scheduled) throws ActorNotInitializedException {
         if (!_cachedJob.isPresent()) {
             throw new ActorNotInitializedException("unable to execute: executor is not initialized");
         }
 
-        final CachedJob<T> cachedJob = _cachedJob.get();
+        if (_currentlyExecuting) {
+            return;
+        }
+        _currentlyExecuting = true;
+
+        // A tick at the deadline asks again if the request or its admission is lost
+        _admissionDeadline = Optional.of(_clock.instant().plus(ADMISSION_TIMEOUT));
+        scheduleTickFor(_admissionDeadline.get());
+        _dispatcher.tell(new JobDispatcher.Admit(_cachedJob.get().getRef().getJobId(), scheduled), getSelf());
+    }
 
+    /**
+     * Notifies the repository that the job started, once the {@link JobDispatcher} admits it.
+     * (Technically, the actor is sent a {@link JobStarted} message once the repository is notified, and <i>that</i> executes the job.)
+     *
+     * @param message A {@link JobDispatcher.Admitted} message.
+     */
+    private void admitted(final JobDispatcher.Admitted message) {
+        if (!_admissionDeadline.isPresent() || !_cachedJob.isPresent()) {
+            // Requested by a previous incarnation of this actor, or a request repeated after a timeout was admitted already
+            LOGGER.debug()
+                    .setMessage("ignoring admission that no execution is waiting for")
+                    .addData("scheduled", message.getScheduled())
+                    .log();
+            return;
+        }
+        _admissionDeadline = Optional.empty();
+
+        final CachedJob<T> cachedJob = _cachedJob.get();
         final JobRef<T> ref = cachedJob.getRef();
         final Job<T> job = cachedJob.getJob();
-        final JobRepository<T> repo = ref.getRepository(_injector);
+        final Instant scheduled = message.getScheduled();
 
-        if (_currentlyExecuting) {
+        PatternsCS.pipe(
+                ref.getAsyncRepository(_injector)
+                        .jobStarted(ref.getJobId(), ref.getOrganization(), scheduled)
+                        .handle((ignored, error) -> new JobStarted<>(job, scheduled, error)),
+                getContext().dispatcher()
+        ).to(getSelf());
+    }
+
+    /**
+     * Gives up on an execution the {@link JobDispatcher} had no room for, and tries again after a delay.
+     *
+     * @param message A {@link JobDispatcher.Rejected} message.
+     */
+    private void rejected(final JobDispatcher.Rejected message) {
+        if (!_admissionDeadline.isPresent()) {
             return;
         }
-        _currentlyExecuting = true;
+        _admissionDeadline = Optional.empty();
+        _currentlyExecuting = false;
+        _periodicMetrics.recordCounter("job_executor_actor_admission_rejections", 1);
+        LOGGER.warn()
+                .setMessage("dispatcher rejected execution; will retry")
+                .addData("cachedJob", _cachedJob)
+                .addData("scheduled", message.getScheduled())
+                .log();
+        scheduleTickFor(_clock.instant().plus(RETRY_DELAY));
+    }
 
-        try {
-            repo.jobStarted(ref.getJobId(), ref.getOrganization(), scheduled);
-        } catch (final NoSuchElementException error) {
+    /**
+     * Executes the job once the repository knows it started. The actor is sent a {@link JobCompleted} message upon completion.
+     *
+     * @param message A {@link JobStarted} message.
+     */
+    private void jobStarted(final JobStarted<T> message) {
+        final Instant scheduled = message.getScheduled();
+        if (message.getError() != null) {
             _currentlyExecuting = false;
-            throw new NoSuchJobException("job no longer exists in repository", error);
+            if (unwrap(message.getError()) instanceof NoSuchElementException) {
+                LOGGER.warn()
+                        .setMessage("attempted to start executing job, but job no longer exists in repository")
+                        .addData("cachedJob", _cachedJob)
+                        .addData("scheduled", scheduled)
+                        .log();
+                killSelf();
+            } else {
+                LOGGER.error()
+                        .setMessage("failed to notify repository that job started; will retry")
+                        .addData("cachedJob", _cachedJob)
+                        .addData("scheduled", scheduled)
+                        .setThrowable(message.getError())
+                        .log();
+                scheduleTickFor(_clock.instant().plus(RETRY_DELAY));
+            }
+            return;
         }
 
+        final Job<T> job = message.getJob();
         final long startTime = System.nanoTime();
         PatternsCS.pipe(
                 job.execute(getSelf(), scheduled)
@@ -212,9 +378,24 @@ public final class JobExecutorActor<T> extends AbstractActorWithTimers {
     private void tick(final Tick message) throws ActorNotInitializedException {
         _periodicMetrics.recordCounter("job_executor_actor_ticks", 1);
 
+        if (_passivating) {
+            return;
+        }
         if (!_cachedJob.isPresent()) {
             throw new ActorNotInitializedException("somehow, uninitialized JobExecutorActor is trying to tick");
         }
+        if (_admissionDeadline.isPresent()) {
+            if (_clock.instant().isBefore(_admissionDeadline.get().minus(EXECUTION_SLOP))) {
+                return;
+            }
+            _admissionDeadline = Optional.empty();
+            _currentlyExecuting = false;
+            _periodicMetrics.recordCounter("job_executor_actor_admission_timeouts", 1);
+            LOGGER.warn()
+                    .setMessage("not admitted in time; asking dispatcher again")
+                    .addData("cachedJob", _cachedJob)
+                    .log();
+        }
         final CachedJob<T> cachedJob = _cachedJob.get();
 
         final Optional<Instant> nextRun = cachedJob.getSchedule().nextRun(cachedJob.getLastRun());
@@ -227,48 +408,94 @@ public final class JobExecutorActor<T> extends AbstractActorWithTimers {
             return;
         }
 
-        if (_clock.instant().isBefore(nextRun.get().minus(EXECUTION_SLOP))) {
-            scheduleTickFor(nextRun.get());
-        } else {
-            try {
-                attemptExecuteAndUpdateRepository(nextRun.get());
-            } catch (final NoSuchJobException error) {
-                LOGGER.warn()
-                        .setMessage("attempted to start executing job, but job no longer exists in repository")
-                        .addData("ref", cachedJob.getRef())
-                        .addData("scheduled", nextRun.get())
-                        .log();
-                killSelf();
+        final Instant now = _clock.instant();
+        if (now.isBefore(nextRun.get().minus(EXECUTION_SLOP))) {
+            if (shouldPassivateUntil(now, nextRun.get())) {
+                passivate(cachedJob.getRef(), nextRun.get());
+            } else {
+                scheduleTickFor(nextRun.get());
             }
+        } else {
+            attemptExecuteAndUpdateRepository(nextRun.get());
         }
     }
 
     private void reload(final Reload<T> message) {
+        final JobRef<T> ref = unsafeJobRefCast(message.getJobRef());
         final Optional<String> eTag = message.getETag();
-        final CachedJob<T> cachedJob;
         _periodicMetrics.recordCounter("job_executor_actor_reloads", 1);
-        try {
-            cachedJob = initializeOrEnsureRefMatch(unsafeJobRefCast(message.getJobRef()));
-            if (eTag.isPresent()) {
-                cachedJob.reloadIfOutdated(_injector, eTag.get());
-            } else {
-                cachedJob.reload(_injector);
+        ensureRefMatch(ref);
+        if (!getSender().equals(getContext().getSystem().deadLetters())) {
+            // Reloads come from the coordinator, which also keeps the index of passivated jobs
+            _coordinator = Optional.of(getSender());
+        }
+        if (!_cachedJob.isPresent()) {
+            LOGGER.info()
+                    .setMessage("initializing")
+                    .addData("ref", ref)
+                    .log();
+        } else if (eTag.isPresent() && _cachedJob.get().isUpToDate(eTag.get())) {
+            tickNow();
+            return;
+        }
+        requestReload(ref, false);
+    }
+
+    /**
+     * Loads the job from the repository. The actor is sent a {@link Reloaded} message once it is loaded.
+     *
+     * @param ref The JobRef to load.
+     * @param completesExecution Whether the reload follows an execution, which is only over once the reload is applied.
+     */
+    private void requestReload(final JobRef<T> ref, final boolean completesExecution) {
+        final long sequence = ++_reloadSequence;
+        PatternsCS.pipe(
+                CachedJob.loadAsync(_injector, ref, _periodicMetrics)
+                        .handle((cachedJob, error) -> new Reloaded<>(ref, sequence, cachedJob, error, completesExecution)),
+                getContext().dispatcher()
+        ).to(getSelf());
+    }
+
+    private void reloaded(final Reloaded<T> message) {
+        if (message.completesExecution()) {
+            _currentlyExecuting = false;
+        }
+        if (message.getError() != null) {
+            if (unwrap(message.getError()) instanceof NoSuchJobException) {
+                LOGGER.warn()
+                        .setMessage("tried to reload job, but job no longer exists in repository")
+                        .addData("ref", message.getJobRef())
+                        .log();
+                killSelf();
+                return;
             }
-        } catch (final NoSuchJobException error) {
-            LOGGER.warn()
-                    .setMessage("tried to reload job, but job no longer exists in repository")
+            LOGGER.error()
+                    .setMessage("failed to reload job")
                     .addData("ref", message.getJobRef())
+                    .setThrowable(message.getError())
                     .log();
-            killSelf();
+            if (_cachedJob.isPresent()) {
+                scheduleTickFor(_clock.instant().plus(RETRY_DELAY));
+            }
+            // Otherwise there is nothing to tick with until a later reload succeeds
             return;
         }
-        timers().startPeriodicTimer(PERIODIC_TICK_TIMER_NAME, Tick.INSTANCE, TICK_INTERVAL);
+        if (message.getSequence() > _appliedReloadSequence) {
+            // Loads run concurrently and may complete out of order; an older load must not replace a newer one
+            ensureRefMatch(message.getJobRef());
+            _appliedReloadSequence = message.getSequence();
+            _cachedJob = Optional.of(message.getCachedJob());
+        }
+        tickNow();
+    }
+
+    private void tickNow() {
         getSelf().tell(Tick.INSTANCE, getSelf());
     }
 
     private void jobCompleted(final JobCompleted<?> message) {
-        _currentlyExecuting = false;
         if (!_cachedJob.isPresent()) {
+            _currentlyExecuting = false;
             LOGGER.warn()
                     .setMessage("uninitialized, but got completion message (perhaps from previous life?)")
                     .addData("scheduled", message.getScheduled())
@@ -281,55 +508,73 @@ public final class JobExecutorActor<T> extends AbstractActorWithTimers {
 
         @SuppressWarnings("unchecked")
         final JobCompleted<T> typedMessage = (JobCompleted<T>) message;
-        final JobRepository<T> repo = ref.getRepository(_injector);
-        try {
-            final int successMetricValue = message.getError() == null ? 1 : 0;
-            _periodicMetrics.recordCounter(
-                    "job_executor_actor_execution_successes",
-                    successMetricValue);
-            _periodicMetrics.recordCounter(
-                    "job_executor_job/"
-                    + CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, cachedJob.getJob().getClass().getSimpleName())
-                    + "/success",
-                    successMetricValue);
-            if (message.getError() == null) {
-                if (typedMessage.getResult() == null) {
-                    throw new IllegalArgumentException(String.format("JobCompleted message for %s has null error *and* result", ref));
-                }
-                LOGGER.debug()
-                        .setMessage("marking job as successful")
-                        .addData("ref", ref)
-                        .addData("scheduled", message.getScheduled())
-                        .log();
-                repo.jobSucceeded(
-                        ref.getJobId(),
-                        ref.getOrganization(),
-                        message.getScheduled(),
-                        typedMessage.getResult());
-            } else {
-                LOGGER.debug()
-                        .setMessage("marking job as failed")
-                        .addData("ref", ref)
-                        .addData("scheduled", message.getScheduled())
-                        .addData("error", message.getError())
-                        .log();
-                repo.jobFailed(
-                        ref.getJobId(),
-                        ref.getOrganization(),
-                        message.getScheduled(),
-                        typedMessage.getError());
+        final AsyncJobRepository<T> repo = ref.getAsyncRepository(_injector);
+        final int successMetricValue = message.getError() == null ? 1 : 0;
+        _periodicMetrics.recordCounter(
+                "job_executor_actor_execution_successes",
+                successMetricValue);
+        _periodicMetrics.recordCounter(
+                "job_executor_job/"
+                + CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, cachedJob.getJob().getClass().getSimpleName())
+                + "/success",
+                successMetricValue);
+        final CompletionStage<Void> update;
+        if (message.getError() == null) {
+            if (typedMessage.getResult() == null) {
+                _currentlyExecuting = false;
+                throw new IllegalArgumentException(String.format("JobCompleted message for %s has null error *and* result", ref));
             }
-        } catch (final NoSuchElementException error) {
-            LOGGER.warn()
-                    .setMessage("tried to job as complete, but job no longer exists in repository")
+            LOGGER.debug()
+                    .setMessage("marking job as successful")
                     .addData("ref", ref)
                     .addData("scheduled", message.getScheduled())
                     .log();
-            killSelf();
-            return;
+            update = repo.jobSucceeded(
+                    ref.getJobId(),
+                    ref.getOrganization(),
+                    message.getScheduled(),
+                    typedMessage.getResult());
+        } else {
+            LOGGER.debug()
+                    .setMessage("marking job as failed")
+                    .addData("ref", ref)
+                    .addData("scheduled", message.getScheduled())
+                    .addData("error", message.getError())
+                    .log();
+            update = repo.jobFailed(
+                    ref.getJobId(),
+                    ref.getOrganization(),
+                    message.getScheduled(),
+                    typedMessage.getError());
         }
 
-        getSelf().tell(new Reload.Builder<T>().setJobRef(ref).build(), getSelf());
+        PatternsCS.pipe(
+                update.handle((ignored, error) -> new JobRecorded<>(ref, message.getScheduled(), error)),
+                getContext().dispatcher()
+        ).to(getSelf());
+    }
+
+    private void jobRecorded(final JobRecorded<T> message) {
+        if (message.getError() != null) {
+            if (unwrap(message.getError()) instanceof NoSuchElementException) {
+                _currentlyExecuting = false;
+                LOGGER.warn()
+                        .setMessage("tried to job as complete, but job no longer exists in repository")
+                        .addData("ref", message.getJobRef())
+                        .addData("scheduled", message.getScheduled())
+                        .log();
+                killSelf();
+                return;
+            }
+            LOGGER.error()
+                    .setMessage("failed to mark job as complete")
+                    .addData("ref", message.getJobRef())
+                    .addData("scheduled", message.getScheduled())
+                    .setThrowable(message.getError())
+                    .log();
+        }
+        // The execution is only over once the reload picks up the new last run; until then ticks must not start it again
+        requestReload(message.getJobRef(), true);
     }
 
     @Override
@@ -341,22 +586,53 @@ public final class JobExecutorActor<T> extends AbstractActorWithTimers {
                     final Reload<T> typedMessage = (Reload<T>) message;
                     this.reload(typedMessage);
                 })
+                .match(Reloaded.class, message -> {
+                    @SuppressWarnings("unchecked")
+                    final Reloaded<T> typedMessage = (Reloaded<T>) message;
+                    this.reloaded(typedMessage);
+                })
+                .match(JobDispatcher.Admitted.class, this::admitted)
+                .match(JobDispatcher.Rejected.class, this::rejected)
+                .match(JobStarted.class, message -> {
+                    @SuppressWarnings("unchecked")
+                    final JobStarted<T> typedMessage = (JobStarted<T>) message;
+                    this.jobStarted(typedMessage);
+                })
                 .match(JobCompleted.class, message -> {
                     @SuppressWarnings("unchecked")
                     final JobCompleted<T> typedMessage = (JobCompleted<T>) message;
                     this.jobCompleted(typedMessage);
                 })
+                .match(JobRecorded.class, message -> {
+                    @SuppressWarnings("unchecked")
+                    final JobRecorded<T> typedMessage = (JobRecorded<T>) message;
+                    this.jobRecorded(typedMessage);
+                })
                 .build();
     }
 
-    private static final String EXTRA_TICK_TIMER_NAME = "EXTRA_TICK";
-    private static final String PERIODIC_TICK_TIMER_NAME = "PERIODIC_TICK";
-    private static final FiniteDuration TICK_INTERVAL = Duration.apply(1, TimeUnit.MINUTES);
+    /**
+     * The name the node's {@link JobTimingWheel} is bound to in the Guice injector.
+     */
+    public static final String TIMING_WHEEL_NAME = "job-timing-wheel";
+    /**
+     * The name the node's {@link JobDispatcher} is bound to in the Guice injector.
+     */
+    public static final String DISPATCHER_NAME = "job-dispatcher";
     /**
      * If we wake up very slightly before we're supposed to execute, we should just execute,
      * rather than scheduling another wakeup in the very near future.
      */
-    private static final java.time.Duration EXECUTION_SLOP = java.time.Duration.ofMillis(500);
+    private static final Duration EXECUTION_SLOP = Duration.ofMillis(500);
+    /**
+     * How long to wait before trying again after the repository fails.
+     */
+    private static final Duration RETRY_DELAY = Duration.ofMinutes(1);
+    /**
+     * How long to wait for the {@link JobDispatcher} to admit an execution before asking again. Longer than the
+     * dispatcher holds a request with its default settings: its full queue drained at its rate, plus its jitter.
+     */
+    private static final Duration ADMISSION_TIMEOUT = Duration.ofMinutes(10);
     private static final Logger LOGGER = LoggerFactory.getLogger(JobExecutorActor.class);
 
     /**
@@ -555,6 +831,118 @@ public final class JobExecutorActor<T> extends AbstractActorWithTimers {
         }
     }
 
+    /**
+     * Indicates that the repository was (or failed to be) notified that a job-run started.
+     *
+     * @param <T> The type of the result computed by the referenced {@link Job}.
+     */
+    private static final class JobStarted<T> {
+        private final Job<T> _job;
+        private final Instant _scheduled;
+        @Nullable
+        private final Throwable _error;
+
+        private JobStarted(final Job<T> job, final Instant scheduled, @Nullable final Throwable error) {
+            _job = job;
+            _scheduled = scheduled;
+            _error = error;
+        }
+
+        public Job<T> getJob() {
+            return _job;
+        }
+
+        public Instant getScheduled() {
+            return _scheduled;
+        }
+
+        @Nullable
+        public Throwable getError() {
+            return _error;
+        }
+    }
+
+    /**
+     * Indicates that the repository was (or failed to be) notified that a job-run completed.
+     *
+     * @param <T> The type of the result computed by the referenced {@link Job}.
+     */
+    private static final class JobRecorded<T> {
+        private final JobRef<T> _jobRef;
+        private final Instant _scheduled;
+        @Nullable
+        private final Throwable _error;
+
+        private JobRecorded(final JobRef<T> jobRef, final Instant scheduled, @Nullable final Throwable error) {
+            _jobRef = jobRef;
+            _scheduled = scheduled;
+            _error = error;
+        }
+
+        public JobRef<T> getJobRef() {
+            return _jobRef;
+        }
+
+        public Instant getScheduled() {
+            return _scheduled;
+        }
+
+        @Nullable
+        public Throwable getError() {
+            return _error;
+        }
+    }
+
+    /**
+     * Carries a job loaded from the repository (or the failure to load it) back to the actor.
+     *
+     * @param <T> The type of the result computed by the referenced {@link Job}.
+     */
+    private static final class Reloaded<T> {
+        private final JobRef<T> _jobRef;
+        private final long _sequence;
+        @Nullable
+        private final CachedJob<T> _cachedJob;
+        @Nullable
+        private final Throwable _error;
+        private final boolean _completesExecution;
+
+        private Reloaded(
+                final JobRef<T> jobRef,
+                final long sequence,
+                @Nullable final CachedJob<T> cachedJob,
+                @Nullable final Throwable error,
+                final boolean completesExecution) {
+            _jobRef = jobRef;
+            _sequence = sequence;
+            _cachedJob = cachedJob;
+            _error = error;
+            _completesExecution = completesExecution;
+        }
+
+        public JobRef<T> getJobRef() {
+            return _jobRef;
+        }
+
+        public long getSequence() {
+            return _sequence;
+        }
+
+        @Nullable
+        public CachedJob<T> getCachedJob() {
+            return _cachedJob;
+        }
+
+        @Nullable
+        public Throwable getError() {
+            return _error;
+        }
+
+        public boolean completesExecution() {
+            return _completesExecution;
+        }
+    }
+
     private static final class ActorNotInitializedException extends Exception {
         private ActorNotInitializedException(final String message) {
             super(message);
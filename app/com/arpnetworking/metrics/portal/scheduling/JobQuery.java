@@ -21,6 +21,7 @@ import models.internal.QueryResult;
 import models.internal.scheduling.Job;
 
 import java.util.Optional;
+import java.util.UUID;
 
 // CHECKSTYLE.OFF: JavadocTypeCheck - Checkstyle does not recognize implSpec.
 /**
@@ -56,6 +57,17 @@ public interface JobQuery<T> {
      */
     JobQuery<T> offset(int offset);
 
+    /**
+     * Only return jobs whose id is greater than the given id. Optional. Default is not set.
+     *
+     * Jobs are returned in ascending order of id, so passing the id of the last job of one page
+     * fetches the next page without the cost of skipping over the earlier pages.
+     *
+     * @param afterId The id of the last job of the previous page.
+     * @return This instance of {@code JobQuery}
+     */
+    JobQuery<T> afterId(UUID afterId);
+
     /**
      * Accessor for the organization.
      *
@@ -76,4 +88,11 @@ public interface JobQuery<T> {
      * @return The offset, if any, otherwise {@link Optional#empty()}
      */
     Optional<Integer> getOffset();
+
+    /**
+     * Accessor for the id to return jobs after.
+     *
+     * @return The id, if any, otherwise {@link Optional#empty()}
+     */
+    Optional<UUID> getAfterId();
 }
@@ -96,6 +96,16 @@ public final class JobRef<T> implements Serializable {
         return injector.getInstance(_repositoryType);
     }
 
+    /**
+     * Loads the {@link JobRepository} that {@code repositoryType} refers to, wrapped to run on the {@link JobRepositoryExecutor}.
+     *
+     * @param injector The Guice injector to load the repository and executor through.
+     * @return A non-blocking view of the repository that the given injector has for this ref's {@code repositoryType}.
+     */
+    public AsyncJobRepository<T> getAsyncRepository(final Injector injector) {
+        return new ExecutorAsyncJobRepository<>(getRepository(injector), injector.getInstance(JobRepositoryExecutor.class));
+    }
+
     public Class<? extends JobRepository<T>> getRepositoryType() {
         return _repositoryType;
     }
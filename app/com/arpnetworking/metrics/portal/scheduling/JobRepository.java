@@ -15,11 +15,13 @@
  */
 package com.arpnetworking.metrics.portal.scheduling;
 
+import com.google.common.collect.ImmutableList;
 import models.internal.Organization;
 import models.internal.QueryResult;
 import models.internal.scheduling.Job;
 
 import java.time.Instant;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.UUID;
@@ -106,4 +108,30 @@ public interface JobRepository<T> {
      * @return The jobs resulting from executing the query.
      */
     QueryResult<Job<T>> queryJobs(JobQuery<T> query);
+
+    /**
+     * Get the jobs that were added, updated or deleted after a given point in the repository's change log.
+     *
+     * Repositories that do not keep a change log return no changes; their jobs are only picked up by
+     * the {@link JobCoordinator}'s periodic anti-entropy.
+     *
+     * Versions need not be unique, but a change must never appear with a version lower than or equal to that of a
+     * change that was already returned; changes sharing a version are returned together.
+     *
+     * @param afterVersion Only changes with a greater version are returned.
+     * @param limit The maximum number of changes to return, which may be exceeded to include every change of the last version.
+     * @return The changes, in ascending order of version.
+     */
+    default List<JobChange> getJobChanges(final long afterVersion, final int limit) {
+        return ImmutableList.of();
+    }
+
+    /**
+     * Get the version of the latest change in the repository's change log.
+     *
+     * @return The version, or {@code 0} if the change log is empty or not kept.
+     */
+    default long getLatestJobChangeVersion() {
+        return 0;
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.scheduling;
+
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.utility.HierarchicalTimingWheel;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.Serializable;
+import java.time.Clock;
+import java.time.Instant;
+
+/**
+ * Wakes up {@link JobExecutorActor}s when their jobs are next due.
+ *
+ * One instance runs per node and is shared by all of the node's executors. Instead of each executor
+ * keeping its own timers, an executor that is not yet due sends a {@link Schedule} message with the
+ * instant it next needs to wake up, and is sent a {@link JobExecutorActor.Tick} once that instant has
+ * passed. The instants are held in a {@link HierarchicalTimingWheel} that is advanced once per tick
+ * duration, so executors are never woken early and at most about one tick duration late, and the
+ * cost of a tick only depends on the number of executors that are due.
+ *
+ * @author Spencer Pearson (spencerpearson at dropbox dot com)
+ */
+public final class JobTimingWheel extends AbstractActorWithTimers {
+
+    /**
+     * Props factory.
+     *
+     * @param clock The clock to compare the wake-up instants against.
+     * @param tickDuration The resolution of the wheel.
+     * @param periodicMetrics The {@link PeriodicMetrics} that this actor will use to log its metrics.
+     * @return A new props to create this actor.
+     */
+    public static Props props(final Clock clock, final FiniteDuration tickDuration, final PeriodicMetrics periodicMetrics) {
+        return Props.create(JobTimingWheel.class, () -> new JobTimingWheel(clock, tickDuration, periodicMetrics));
+    }
+
+    private JobTimingWheel(final Clock clock, final FiniteDuration tickDuration, final PeriodicMetrics periodicMetrics) {
+        _clock = clock;
+        _periodicMetrics = periodicMetrics;
+        _wheel = new HierarchicalTimingWheel<>(tickDuration.toMillis(), clock.millis());
+        timers().startPeriodicTimer(ADVANCE_TIMER_NAME, Advance.INSTANCE, tickDuration);
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Schedule.class, this::schedule)
+                .match(Cancel.class, message -> _wheel.cancel(getSender()))
+                .match(Advance.class, message -> advance())
+                .build();
+    }
+
+    private void schedule(final Schedule message) {
+        final ActorRef executor = getSender();
+        if (!_wheel.schedule(executor, message.getWakeUpAt().toEpochMilli())) {
+            executor.tell(JobExecutorActor.Tick.INSTANCE, getSelf());
+        }
+    }
+
+    private void advance() {
+        final int woken = _wheel.advanceTo(_clock.millis(), executor -> executor.tell(JobExecutorActor.Tick.INSTANCE, getSelf()));
+        _periodicMetrics.recordCounter("job_timing_wheel/woken", woken);
+        _periodicMetrics.recordGauge("job_timing_wheel/scheduled", _wheel.size());
+    }
+
+    private final Clock _clock;
+    private final PeriodicMetrics _periodicMetrics;
+    private final HierarchicalTimingWheel<ActorRef> _wheel;
+
+    private static final String ADVANCE_TIMER_NAME = "ADVANCE";
+
+    /**
+     * Asks for the sender to be sent a {@link JobExecutorActor.Tick} at an instant, replacing any instant it asked for before.
+     */
+    public static final class Schedule implements Serializable {
+        /**
+         * Public constructor.
+         *
+         * @param wakeUpAt The instant to wake the sender up at.
+         */
+        public Schedule(final Instant wakeUpAt) {
+            _wakeUpAt = wakeUpAt;
+        }
+
+        public Instant getWakeUpAt() {
+            return _wakeUpAt;
+        }
+
+        private final Instant _wakeUpAt;
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Withdraws the instant the sender asked to be woken up at.
+     */
+    public static final class Cancel implements Serializable {
+        /**
+         * The singleton instance.
+         */
+        public static final Cancel INSTANCE = new Cancel();
+
+        private Cancel() { }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final class Advance {
+        private static final Advance INSTANCE = new Advance();
+    }
+}
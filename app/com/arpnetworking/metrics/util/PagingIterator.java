@@ -21,8 +21,10 @@ import net.sf.oval.constraint.NotNull;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.Queue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 
 /**
@@ -38,6 +40,13 @@ import java.util.function.Function;
  *     offset -> db.query("SELECT * FROM Employees ORDER BY created_date LIMIT 100 OFFSET ?", offset).getValues()
  * }
  *
+ * <p>Skipping over {@code offset} elements gets slower the further into the list the page is. If the elements are ordered by a unique
+ * key, a "keyset paging function" can be used instead: it takes the last element of the previous page (or {@code empty} for the
+ * first page) and returns the elements immediately after it, e.g.</p>
+ * {@code
+ *     last -> db.query("SELECT * FROM Employees WHERE id > ? ORDER BY id LIMIT 100", last.map(Employee::getId).orElse(0)).getValues()
+ * }
+ *
  * <p>Warning: if the wrapped paging function blocks (e.g. for a database query), the {@code PagingIterator} will also sometimes block
  * during calls to {@code hasNext} or {@code next}.</p>
  *
@@ -47,9 +56,10 @@ import java.util.function.Function;
  */
 public final class PagingIterator<E> implements Iterator<E> {
 
-    private final Function<Integer, List<? extends E>> _getPage;
+    private final BiFunction<Integer, Optional<E>, List<? extends E>> _getPage;
     private final Queue<E> _buffer = new LinkedBlockingQueue<>();
     private int _offset = 0;
+    private Optional<E> _last = Optional.empty();
     private boolean _exhaustedSource = false;
 
     private PagingIterator(final Builder<E> builder) {
@@ -63,10 +73,13 @@ public final class PagingIterator<E> implements Iterator<E> {
         if (!_buffer.isEmpty()) {
             return;
         }
-        final List<? extends E> results = _getPage.apply(_offset);
+        final List<? extends E> results = _getPage.apply(_offset, _last);
         _buffer.addAll(results);
         _offset += results.size();
         _exhaustedSource = _buffer.isEmpty();
+        if (!results.isEmpty()) {
+            _last = Optional.of(results.get(results.size() - 1));
+        }
     }
 
     @Override
@@ -92,7 +105,7 @@ public final class PagingIterator<E> implements Iterator<E> {
      */
     public static final class Builder<E> extends OvalBuilder<PagingIterator<E>> {
         @NotNull
-        private Function<Integer, List<? extends E>> _getPage;
+        private BiFunction<Integer, Optional<E>, List<? extends E>> _getPage;
 
         /**
          * Public constructor.
@@ -102,13 +115,24 @@ public final class PagingIterator<E> implements Iterator<E> {
         }
 
         /**
-         * The paging function. Required. Must not be null.
+         * The paging function. This or {@code getPageAfter} is required; the last one set is used. Must not be null.
          *
          * @param getPage The paging function (see {@link PagingIterator}).
          * @return This instance of Builder.
          */
         public Builder<E> setGetPage(final Function<Integer, List<? extends E>> getPage) {
-            _getPage = getPage;
+            _getPage = getPage == null ? null : (offset, last) -> getPage.apply(offset);
+            return this;
+        }
+
+        /**
+         * The keyset paging function. This or {@code getPage} is required; the last one set is used. Must not be null.
+         *
+         * @param getPageAfter The keyset paging function (see {@link PagingIterator}).
+         * @return This instance of Builder.
+         */
+        public Builder<E> setGetPageAfter(final Function<Optional<E>, List<? extends E>> getPageAfter) {
+            _getPage = getPageAfter == null ? null : (offset, last) -> getPageAfter.apply(last);
             return this;
         }
     }
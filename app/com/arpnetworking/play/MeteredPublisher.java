@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.play;
+
+import com.arpnetworking.metrics.Units;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * A reactive streams {@link Publisher} that wraps another publisher and records how many bytes
+ * flowed through it and how long the publisher was held back waiting on demand from the subscriber.
+ *
+ * The metrics are recorded once per subscription when the stream completes, fails or is cancelled:
+ * <ul>
+ *     <li>{@code <prefix>/bytes} - counter of the bytes emitted</li>
+ *     <li>{@code <prefix>/consumer_wait} - timer of the time spent with no outstanding demand</li>
+ * </ul>
+ *
+ * @param <T> the type of element published
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class MeteredPublisher<T> implements Publisher<T> {
+    /**
+     * Public constructor.
+     *
+     * @param delegate the publisher to wrap
+     * @param sizeFunction function computing the size in bytes of an element
+     * @param metrics periodic metrics instance to record to
+     * @param metricPrefix prefix for the recorded metric names
+     */
+    public MeteredPublisher(
+            final Publisher<T> delegate,
+            final ToLongFunction<? super T> sizeFunction,
+            final PeriodicMetrics metrics,
+            final String metricPrefix) {
+        _delegate = delegate;
+        _sizeFunction = sizeFunction;
+        _metrics = metrics;
+        _metricPrefix = metricPrefix;
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super T> subscriber) {
+        _delegate.subscribe(new MeteredSubscriber(subscriber));
+    }
+
+    private final Publisher<T> _delegate;
+    private final ToLongFunction<? super T> _sizeFunction;
+    private final PeriodicMetrics _metrics;
+    private final String _metricPrefix;
+
+    private static final long NOT_STALLED = -1;
+
+    private final class MeteredSubscriber implements Subscriber<T>, Subscription {
+        MeteredSubscriber(final Subscriber<? super T> downstream) {
+            _downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            _upstream = subscription;
+            _stalledSince.set(System.nanoTime());
+            _downstream.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(final T item) {
+            _bytes.addAndGet(_sizeFunction.applyAsLong(item));
+            if (_demand.decrementAndGet() == 0) {
+                _stalledSince.set(System.nanoTime());
+            }
+            _downstream.onNext(item);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            record();
+            _downstream.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            record();
+            _downstream.onComplete();
+        }
+
+        @Override
+        public void request(final long n) {
+            final long stalledSince = _stalledSince.getAndSet(NOT_STALLED);
+            if (stalledSince != NOT_STALLED) {
+                _waitNanos.addAndGet(System.nanoTime() - stalledSince);
+            }
+            _demand.accumulateAndGet(n, (current, added) -> {
+                final long sum = current + added;
+                return sum < 0 ? Long.MAX_VALUE : sum;
+            });
+            _upstream.request(n);
+        }
+
+        @Override
+        public void cancel() {
+            record();
+            _upstream.cancel();
+        }
+
+        private void record() {
+            if (_recorded.compareAndSet(false, true)) {
+                _metrics.recordCounter(_metricPrefix + "/bytes", _bytes.get());
+                _metrics.recordTimer(_metricPrefix + "/consumer_wait", _waitNanos.get(), Optional.of(Units.NANOSECOND));
+            }
+        }
+
+        private final Subscriber<? super T> _downstream;
+        private volatile Subscription _upstream;
+        private final AtomicLong _demand = new AtomicLong(0);
+        private final AtomicLong _bytes = new AtomicLong(0);
+        private final AtomicLong _waitNanos = new AtomicLong(0);
+        private final AtomicLong _stalledSince = new AtomicLong(NOT_STALLED);
+        private final AtomicBoolean _recorded = new AtomicBoolean(false);
+    }
+}
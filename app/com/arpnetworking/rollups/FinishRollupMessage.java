@@ -18,6 +18,10 @@ package com.arpnetworking.rollups;
 import net.sf.oval.constraint.NotEmpty;
 import net.sf.oval.constraint.NotNull;
 
+import java.time.Instant;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
 /**
  * Message class for signifying the end of a rollup workflow.
  *
@@ -33,14 +37,26 @@ public final class FinishRollupMessage extends FailableMessage {
         return _period;
     }
 
+    /**
+     * The end time of the most recent rollup known to be complete, if the workflow established one.
+     *
+     * @return the rollup watermark
+     */
+    public Optional<Instant> getWatermark() {
+        return Optional.ofNullable(_watermark);
+    }
+
     private final String _metricName;
     private final RollupPeriod _period;
+    @Nullable
+    private final Instant _watermark;
     private static final long serialVersionUID = -7098548779115714541L;
 
     private FinishRollupMessage(final Builder builder) {
         super(builder);
         _metricName = builder._metricName;
         _period = builder._period;
+        _watermark = builder._watermark;
     }
 
     /**
@@ -77,11 +93,24 @@ public final class FinishRollupMessage extends FailableMessage {
             return this;
         }
 
+        /**
+         * Sets the {@code _watermark} and returns a reference to this Builder so that the methods can be chained together.
+         * Optional. Defaults to null.
+         *
+         * @param value the {@code _watermark} to set
+         * @return a reference to this Builder
+         */
+        public Builder setWatermark(@Nullable final Instant value) {
+            _watermark = value;
+            return this;
+        }
+
         @Override
         protected void reset() {
             super.reset();
             _metricName = null;
             _period = null;
+            _watermark = null;
         }
 
         @Override
@@ -94,5 +123,7 @@ public final class FinishRollupMessage extends FailableMessage {
         private String _metricName;
         @NotNull
         private RollupPeriod _period;
+        @Nullable
+        private Instant _watermark;
     }
 }
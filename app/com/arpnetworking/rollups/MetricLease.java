@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.rollups;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.Serializable;
+
+/**
+ * Message class used to lease a batch of metric names to a rollup worker. Each metric name
+ * should be released with a {@link MetricLeaseRelease} once it has been rolled up; metric
+ * names that are not released before the lease times out are leased again.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class MetricLease implements Serializable {
+
+    /**
+     * Creates a MetricLease for a batch of metric names.
+     *
+     * @param metricNames the leased metric names
+     */
+    public MetricLease(final ImmutableList<String> metricNames) {
+        _metricNames = metricNames;
+    }
+
+    public ImmutableList<String> getMetricNames() {
+        return _metricNames;
+    }
+
+    private final ImmutableList<String> _metricNames;
+    private static final long serialVersionUID = -1565052386326418097L;
+}
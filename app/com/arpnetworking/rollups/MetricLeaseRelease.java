@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.rollups;
+
+import java.io.Serializable;
+
+/**
+ * Message class used to tell the MetricsDiscovery actor that a leased metric name has been
+ * rolled up, or that its rollup failed and should be retried with backoff.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class MetricLeaseRelease implements Serializable {
+
+    /**
+     * Creates a MetricLeaseRelease for a metric name.
+     *
+     * @param metricName the released metric name
+     * @param failed whether rolling up any period of the metric failed
+     */
+    public MetricLeaseRelease(final String metricName, final boolean failed) {
+        _metricName = metricName;
+        _failed = failed;
+    }
+
+    public String getMetricName() {
+        return _metricName;
+    }
+
+    public boolean isFailed() {
+        return _failed;
+    }
+
+    private final String _metricName;
+    private final boolean _failed;
+    private static final long serialVersionUID = 2207151637790465531L;
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.rollups;
+
+import java.io.Serializable;
+
+/**
+ * Message class used to ask the MetricsDiscovery actor to lease a batch of metric names to the
+ * sender. The actor responds with a {@link MetricLease}, or with {@link NoMoreMetrics} if no
+ * metric names are available.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class MetricLeaseRequest implements Serializable {
+
+    /**
+     * Creates a MetricLeaseRequest for up to a number of metric names.
+     *
+     * @param maxMetrics maximum number of metric names to lease
+     */
+    public MetricLeaseRequest(final int maxMetrics) {
+        _maxMetrics = maxMetrics;
+    }
+
+    public int getMaxMetrics() {
+        return _maxMetrics;
+    }
+
+    private final int _maxMetrics;
+    private static final long serialVersionUID = 4917412436719406432L;
+}
@@ -17,7 +17,9 @@ package com.arpnetworking.rollups;
 
 import akka.actor.AbstractActorWithTimers;
 import akka.actor.ActorRef;
+import akka.actor.Props;
 import akka.actor.Status;
+import akka.actor.Terminated;
 import akka.pattern.PatternsCS;
 import com.arpnetworking.kairos.client.KairosDbClient;
 import com.arpnetworking.kairos.client.models.KairosMetricNamesQueryResponse;
@@ -26,27 +28,56 @@ import com.arpnetworking.metrics.incubator.PeriodicMetrics;
 import com.arpnetworking.play.configuration.ConfigurationHelper;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.utility.MetricNameMatcher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.typesafe.config.Config;
 import scala.concurrent.duration.Deadline;
 import scala.concurrent.duration.FiniteDuration;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
-import java.util.regex.Pattern;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.inject.Inject;
 
 /**
  * Actor for discovering the list of metrics available to be rolled up on a periodic basis.
  *
- * This actor maintains an internal set of metric names and acts as a source for downstream
- * actors that perform the actual rollups.  This is intended to be used as a singleton in the
- * cluster.
+ * This actor maintains an internal queue of metric names and acts as a source for downstream
+ * actors that perform the actual rollups.  This is intended to be used either as a singleton in the
+ * cluster or, when rollups are sharded, as the discovery for a single {@link RollupPartition}. The
+ * discovery of a partition is handed only the metric names of the partition, listed once for all the
+ * partitions of the node by {@link PartitionedMetricNames}.
+ *
+ * Metric names are handed out in order of estimated rollup lag, the oldest watermark of any of
+ * their periods first, so that metrics that have fallen far behind are not starved by metrics that
+ * are nearly current. Metrics whose every period is already rolled up to its most recent end are
+ * not queued at all, and metrics whose rollups keep failing are held back with exponential backoff.
+ * Watermarks are kept with the known metric names; they are only loaded, off the actor thread, for
+ * names that are new or whose rollups were released since the last refresh.
+ *
+ * Metric names are tracked across refreshes with the time they were first and last listed by
+ * KairosDB. Only names that were not known before are matched against the white and black lists,
+ * and names that have not been listed for the configured expiry are forgotten.
+ *
+ * Workers lease metric names in batches. A leased metric name is handed out again if the worker
+ * holding it stops or does not release it before the lease times out.
  *
  * @author Gilligan Markham (gmarkham at dropbox dot com)
  */
@@ -62,20 +93,30 @@ public final class MetricsDiscovery extends AbstractActorWithTimers {
                             _refreshDeadline = _fetchInterval.fromNow();
                             fetchMetricsForRollup();
                         })
-                .match(KairosMetricNamesQueryResponse.class, this::updateMetricsSet)
+                .match(KairosMetricNamesQueryResponse.class, this::updateMetricsQueue)
+                .match(WatermarksLoaded.class, this::handleWatermarksLoaded)
                 .match(
                         Status.Failure.class,
                         failure -> LOGGER.warn("Failed to get metrics from Kairos", failure.cause()))
                 .match(
                         MetricFetch.class,
                         work -> {
-                            final Optional<String> metricName = getNextMetric();
-                            if (metricName.isPresent()) {
-                                getSender().tell(metricName.get(), getSelf());
+                            final Optional<Candidate> candidate = getNextMetric();
+                            if (candidate.isPresent()) {
+                                getSender().tell(candidate.get().getMetricName(), getSelf());
                             } else {
                                 getSender().tell(new NoMoreMetrics(_refreshDeadline), getSelf());
                             }
                         })
+                .match(MetricLeaseRequest.class, this::leaseMetrics)
+                .match(MetricLeaseRelease.class, this::releaseMetric)
+                .match(Terminated.class, terminated -> reclaimLeases(lease -> lease.getWorker().equals(terminated.getActor())))
+                .matchEquals(
+                        LEASE_CHECK_MSG,
+                        work -> {
+                            reclaimLeases(lease -> lease.getExpiry().isOverdue());
+                            recordLeaseMetrics();
+                        })
                 .build();
     }
 
@@ -85,24 +126,87 @@ public final class MetricsDiscovery extends AbstractActorWithTimers {
      * @param configuration play configuration object
      * @param kairosDbClient client to use for fetching metric names
      * @param periodicMetrics periodic metrics client
+     * @param watermarkRepository repository of rollup watermarks used to estimate rollup lag
+     * @param watermarkExecutor executor to run the watermark repository calls on
+     * @param clock clock to use for time calculations
      */
     @Inject
-    public MetricsDiscovery(final Config configuration, final KairosDbClient kairosDbClient, final PeriodicMetrics periodicMetrics) {
+    public MetricsDiscovery(
+            final Config configuration,
+            final KairosDbClient kairosDbClient,
+            final PeriodicMetrics periodicMetrics,
+            final RollupWatermarkRepository watermarkRepository,
+            final RollupWatermarkExecutor watermarkExecutor,
+            final Clock clock) {
+        this(configuration, kairosDbClient::queryMetricNames, periodicMetrics, watermarkRepository, watermarkExecutor, clock);
+    }
+
+    /**
+     * Metrics discovery constructor for a single partition of the metric names.
+     *
+     * @param configuration play configuration object
+     * @param metricNames fetches the metric names owned by this instance
+     * @param periodicMetrics periodic metrics client
+     * @param watermarkRepository repository of rollup watermarks used to estimate rollup lag
+     * @param watermarkExecutor executor to run the watermark repository calls on
+     * @param clock clock to use for time calculations
+     */
+    public MetricsDiscovery(
+            final Config configuration,
+            final Supplier<CompletionStage<KairosMetricNamesQueryResponse>> metricNames,
+            final PeriodicMetrics periodicMetrics,
+            final RollupWatermarkRepository watermarkRepository,
+            final RollupWatermarkExecutor watermarkExecutor,
+            final Clock clock) {
         _fetchInterval = ConfigurationHelper.getFiniteDuration(configuration, "rollup.fetch.interval");
+        _leaseTimeout = ConfigurationHelper.getFiniteDuration(configuration, "rollup.lease.timeout");
+        _failureBackoff = ConfigurationHelper.getFiniteDuration(configuration, "rollup.failure.backoff");
+        _maxFailureBackoff = ConfigurationHelper.getFiniteDuration(configuration, "rollup.failure.maxBackoff");
+        _metricExpiry = Duration.ofMillis(ConfigurationHelper.getFiniteDuration(configuration, "rollup.metric.expiry").toMillis());
         _whiteList = toPredicate(configuration.getStringList("rollup.metric.whitelist"), true);
         _blackList = toPredicate(configuration.getStringList("rollup.metric.blacklist"), false);
-        _kairosDbClient = kairosDbClient;
+        _metricNames = metricNames;
         _periodicMetrics = periodicMetrics;
-        _metricsSet = new LinkedHashSet<>();
-        _setIterator = _metricsSet.iterator();
+        _watermarkRepository = watermarkRepository;
+        _watermarkExecutor = watermarkExecutor;
+        _clock = clock;
+        _queue = new PriorityQueue<>(CANDIDATE_ORDER);
+        _queued = new HashMap<>();
+        _leases = new HashMap<>();
+        _failures = new HashMap<>();
+        _knownMetrics = new HashMap<>();
         _refreshDeadline = Deadline.now();
         getSelf().tell(FETCH_MSG, ActorRef.noSender());
+        getTimers().startPeriodicTimer(LEASE_TIMER, LEASE_CHECK_MSG, _leaseTimeout.div(LEASE_CHECKS_PER_TIMEOUT));
+    }
+
+    /**
+     * Creates a {@link Props} for a metrics discovery actor owning a single partition of the metric names.
+     *
+     * @param configuration play configuration object
+     * @param metricNames fetches the metric names owned by the actor
+     * @param periodicMetrics periodic metrics client
+     * @param watermarkRepository repository of rollup watermarks used to estimate rollup lag
+     * @param watermarkExecutor executor to run the watermark repository calls on
+     * @param clock clock to use for time calculations
+     * @return a new {@link Props}
+     */
+    public static Props props(
+            final Config configuration,
+            final Supplier<CompletionStage<KairosMetricNamesQueryResponse>> metricNames,
+            final PeriodicMetrics periodicMetrics,
+            final RollupWatermarkRepository watermarkRepository,
+            final RollupWatermarkExecutor watermarkExecutor,
+            final Clock clock) {
+        return Props.create(
+                MetricsDiscovery.class,
+                () -> new MetricsDiscovery(configuration, metricNames, periodicMetrics, watermarkRepository, watermarkExecutor, clock));
     }
 
     private void fetchMetricsForRollup() {
         final long startTime = System.nanoTime();
         PatternsCS.pipe(
-                _kairosDbClient.queryMetricNames()
+                _metricNames.get()
                 .whenComplete((response, failure) -> {
                     // Record metrics
                     _periodicMetrics.recordCounter("rollup/metric_names/success", failure == null ? 1 : 0);
@@ -115,23 +219,265 @@ public final class MetricsDiscovery extends AbstractActorWithTimers {
                 .to(getSelf());
     }
 
-    private void updateMetricsSet(final KairosMetricNamesQueryResponse response) {
-        filterMetricNames(response.getResults(), _whiteList, _blackList).forEach(_metricsSet::add);
-        _setIterator = _metricsSet.iterator();
+    private void updateMetricsQueue(final KairosMetricNamesQueryResponse response) {
+        final Instant now = _clock.instant();
+        final Map<Boolean, List<String>> metricNames = updateKnownMetrics(response.getResults(), now)
+                .stream()
+                // Metrics that are queued or leased already keep their place
+                .filter(name -> !_queued.containsKey(name) && !_leases.containsKey(name))
+                .collect(Collectors.partitioningBy(name -> _knownMetrics.get(name).getWatermarks().isPresent()));
+        // Only metrics without watermarks, new or released since the last refresh, need them loaded
+        loadWatermarks(metricNames.get(false));
+        enqueueBehind(metricNames.get(true), now);
     }
 
-    private Optional<String> getNextMetric() {
-        final String next;
-        if (_setIterator.hasNext()) {
-            next = _setIterator.next();
-            _setIterator.remove();
-        } else {
-            next = null;
+    private void handleWatermarksLoaded(final WatermarksLoaded message) {
+        final List<String> metricNames = Lists.newArrayList();
+        for (final String metricName : message.getMetricNames()) {
+            final KnownMetric known = _knownMetrics.get(metricName);
+            // Metrics may have expired or been leased while their watermarks were loading
+            if (known != null && !_queued.containsKey(metricName) && !_leases.containsKey(metricName)) {
+                if (message.isLoaded()) {
+                    known.setWatermarks(Optional.of(message.getWatermarks().getOrDefault(metricName, Collections.emptyMap())));
+                }
+                metricNames.add(metricName);
+            }
+        }
+        enqueueBehind(metricNames, _clock.instant());
+    }
+
+    private void enqueueBehind(final List<String> metricNames, final Instant now) {
+        int upToDate = 0;
+        int backedOff = 0;
+        for (final String metricName : metricNames) {
+            final Failures failures = _failures.get(metricName);
+            if (failures != null && failures.getRetryAt().isAfter(now)) {
+                ++backedOff;
+                continue;
+            }
+            // Without watermarks a metric is simply treated as far behind
+            final Map<RollupPeriod, Instant> metricWatermarks = _knownMetrics.get(metricName)
+                    .getWatermarks()
+                    .orElse(Collections.emptyMap());
+            if (isUpToDate(metricWatermarks, now)) {
+                ++upToDate;
+                continue;
+            }
+            enqueue(new Candidate(metricName, oldestWatermark(metricWatermarks), _sequence++));
+        }
+        _periodicMetrics.recordCounter("rollup/metrics_discovery/up_to_date", upToDate);
+        _periodicMetrics.recordCounter("rollup/metrics_discovery/backed_off", backedOff);
+        recordLeaseMetrics();
+    }
+
+    private List<String> updateKnownMetrics(final List<String> metricNames, final Instant now) {
+        // Only names not seen before are matched against the filters
+        final List<String> eligible = Lists.newArrayList();
+        int added = 0;
+        for (final String metricName : metricNames) {
+            KnownMetric known = _knownMetrics.get(metricName);
+            if (known == null) {
+                final boolean isEligible = filterMetricNames(Collections.singletonList(metricName), _whiteList, _blackList)
+                        .findAny()
+                        .isPresent();
+                known = new KnownMetric(now, isEligible);
+                _knownMetrics.put(metricName, known);
+                ++added;
+            }
+            known.setLastSeen(now);
+            if (known.isEligible()) {
+                eligible.add(metricName);
+            }
+        }
+
+        // Metrics that have not been listed for the expiry are forgotten
+        final Instant expiry = now.minus(_metricExpiry);
+        final Iterator<Map.Entry<String, KnownMetric>> iterator = _knownMetrics.entrySet().iterator();
+        int expired = 0;
+        while (iterator.hasNext()) {
+            final Map.Entry<String, KnownMetric> entry = iterator.next();
+            if (entry.getValue().getLastSeen().isBefore(expiry)) {
+                iterator.remove();
+                _queued.remove(entry.getKey());
+                _failures.remove(entry.getKey());
+                ++expired;
+                LOGGER.debug()
+                        .setMessage("Expired metric")
+                        .addData("metricName", entry.getKey())
+                        .addData("firstSeen", entry.getValue().getFirstSeen())
+                        .addData("lastSeen", entry.getValue().getLastSeen())
+                        .log();
+            }
+        }
+
+        _periodicMetrics.recordCounter("rollup/metrics_discovery/added", added);
+        _periodicMetrics.recordCounter("rollup/metrics_discovery/expired", expired);
+        _periodicMetrics.recordGauge("rollup/metrics_discovery/known", _knownMetrics.size());
+        return eligible;
+    }
+
+    private void loadWatermarks(final List<String> metricNames) {
+        _periodicMetrics.recordCounter("rollup/metrics_discovery/watermarks/loaded", metricNames.size());
+        if (metricNames.isEmpty()) {
+            return;
+        }
+        final long startTime = System.nanoTime();
+        PatternsCS.pipe(
+                _watermarkExecutor.submit("discovery_load", () -> _watermarkRepository.getWatermarks(metricNames))
+                        .handle((watermarks, failure) -> {
+                            _periodicMetrics.recordCounter("rollup/metrics_discovery/watermarks/success", failure == null ? 1 : 0);
+                            _periodicMetrics.recordTimer(
+                                    "rollup/metrics_discovery/watermarks/request",
+                                    System.nanoTime() - startTime,
+                                    Optional.of(Units.NANOSECOND));
+                            if (failure != null) {
+                                LOGGER.warn()
+                                        .setMessage("Failed to load rollup watermarks")
+                                        .addData("count", metricNames.size())
+                                        .setThrowable(failure)
+                                        .log();
+                                return new WatermarksLoaded(metricNames, Collections.emptyMap(), false);
+                            }
+                            return new WatermarksLoaded(metricNames, watermarks, true);
+                        }),
+                getContext().dispatcher())
+                .to(getSelf());
+    }
+
+    private void enqueue(final Candidate candidate) {
+        if (_queued.putIfAbsent(candidate.getMetricName(), candidate) == null) {
+            _queue.add(candidate);
         }
+    }
 
+    private Optional<Candidate> getNextMetric() {
+        final Optional<Candidate> next = peekNextMetric();
+        next.ifPresent(candidate -> {
+            _queue.poll();
+            _queued.remove(candidate.getMetricName());
+        });
+        return next;
+    }
+
+    private Optional<Candidate> peekNextMetric() {
+        // Candidates of expired metrics are dropped lazily when they reach the head of the queue
+        Candidate next = _queue.peek();
+        while (next != null && _queued.get(next.getMetricName()) != next) {
+            _queue.poll();
+            next = _queue.peek();
+        }
         return Optional.ofNullable(next);
     }
 
+    private void leaseMetrics(final MetricLeaseRequest request) {
+        final ActorRef worker = getSender();
+        final ImmutableList.Builder<String> leased = ImmutableList.builder();
+        int count = 0;
+        while (count < request.getMaxMetrics()) {
+            final Optional<Candidate> candidate = getNextMetric();
+            if (!candidate.isPresent()) {
+                break;
+            }
+            final String metricName = candidate.get().getMetricName();
+            // A metric still leased from an earlier refresh is already being rolled up
+            if (!_leases.containsKey(metricName)) {
+                _leases.put(metricName, new Lease(worker, _leaseTimeout.fromNow(), candidate.get()));
+                leased.add(metricName);
+                ++count;
+            }
+        }
+
+        _periodicMetrics.recordCounter("rollup/metrics_discovery/leased", count);
+        if (count == 0) {
+            worker.tell(new NoMoreMetrics(_refreshDeadline), getSelf());
+        } else {
+            // Leases of a worker that stops are reclaimed immediately instead of waiting for them to time out
+            getContext().watch(worker);
+            worker.tell(new MetricLease(leased.build()), getSelf());
+        }
+    }
+
+    private void releaseMetric(final MetricLeaseRelease release) {
+        final String metricName = release.getMetricName();
+        final Lease lease = _leases.get(metricName);
+        if (lease != null && lease.getWorker().equals(getSender())) {
+            _leases.remove(metricName);
+            // The rollup moved the watermarks of the metric, so they are loaded again on the next refresh
+            Optional.ofNullable(_knownMetrics.get(metricName)).ifPresent(known -> known.setWatermarks(Optional.empty()));
+            _periodicMetrics.recordTimer(
+                    "rollup/metrics_discovery/lease_age",
+                    System.nanoTime() - lease.getStartNanos(),
+                    Optional.of(Units.NANOSECOND));
+            _periodicMetrics.recordCounter("rollup/metrics_discovery/release_failed", release.isFailed() ? 1 : 0);
+            if (release.isFailed()) {
+                // Back off exponentially so that a metric that keeps failing does not crowd out the others
+                final int failureCount = Optional.ofNullable(_failures.get(metricName)).map(Failures::getCount).orElse(0) + 1;
+                final long backoffMillis = Math.min(
+                        _maxFailureBackoff.toMillis(),
+                        _failureBackoff.toMillis() << Math.min(failureCount - 1, MAX_BACKOFF_SHIFT));
+                _failures.put(metricName, new Failures(failureCount, _clock.instant().plusMillis(backoffMillis)));
+            } else {
+                _failures.remove(metricName);
+            }
+        }
+    }
+
+    private void reclaimLeases(final Predicate<Lease> predicate) {
+        final Iterator<Map.Entry<String, Lease>> iterator = _leases.entrySet().iterator();
+        int reclaimed = 0;
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Lease> entry = iterator.next();
+            if (predicate.test(entry.getValue())) {
+                iterator.remove();
+                enqueue(entry.getValue().getCandidate());
+                ++reclaimed;
+            }
+        }
+        _periodicMetrics.recordCounter("rollup/metrics_discovery/reclaimed", reclaimed);
+        if (reclaimed > 0) {
+            LOGGER.warn()
+                    .setMessage("Reclaimed leased metrics")
+                    .addData("count", reclaimed)
+                    .log();
+        }
+    }
+
+    private void recordLeaseMetrics() {
+        final long now = System.nanoTime();
+        _periodicMetrics.recordGauge("rollup/metrics_discovery/queue_depth", _queued.size());
+        _periodicMetrics.recordGauge("rollup/metrics_discovery/backoffs", _failures.size());
+        final Optional<Candidate> mostBehind = peekNextMetric();
+        if (mostBehind.isPresent() && mostBehind.get().getOldestWatermark().isAfter(Instant.EPOCH)) {
+            _periodicMetrics.recordGauge(
+                    "rollup/metrics_discovery/max_lag",
+                    Duration.between(mostBehind.get().getOldestWatermark(), _clock.instant()).toMillis());
+        }
+        _periodicMetrics.recordGauge("rollup/metrics_discovery/leases", _leases.size());
+        _periodicMetrics.recordGauge(
+                "rollup/metrics_discovery/oldest_lease_age",
+                TimeUnit.NANOSECONDS.toMillis(_leases.values()
+                        .stream()
+                        .mapToLong(lease -> now - lease.getStartNanos())
+                        .max()
+                        .orElse(0)));
+    }
+
+    private static boolean isUpToDate(final Map<RollupPeriod, Instant> watermarks, final Instant now) {
+        return Arrays.stream(RollupPeriod.values())
+                .allMatch(period -> {
+                    final Instant watermark = watermarks.get(period);
+                    return watermark != null && !watermark.isBefore(period.recentEndTime(now));
+                });
+    }
+
+    private static Instant oldestWatermark(final Map<RollupPeriod, Instant> watermarks) {
+        // A period without a watermark has never been rolled up and is as far behind as possible
+        return Arrays.stream(RollupPeriod.values())
+                .map(period -> watermarks.getOrDefault(period, Instant.EPOCH))
+                .min(Comparator.naturalOrder())
+                .orElse(Instant.EPOCH);
+    }
+
     static Stream<String> filterMetricNames(
             final Collection<String> metricNames,
             final Predicate<String> whiteList,
@@ -143,24 +489,180 @@ public final class MetricsDiscovery extends AbstractActorWithTimers {
     }
 
     static Predicate<String> toPredicate(final List<String> regexList, final boolean defaultResult) {
-        return regexList
-                .stream()
-                .map(Pattern::compile)
-                .map(Pattern::asPredicate)
-                .reduce(Predicate::or).orElse(t -> defaultResult);
+        if (regexList.isEmpty()) {
+            return t -> defaultResult;
+        }
+        return MetricNameMatcher.compile(regexList);
     }
 
     private final FiniteDuration _fetchInterval;
-    private final KairosDbClient _kairosDbClient;
+    private final FiniteDuration _leaseTimeout;
+    private final Supplier<CompletionStage<KairosMetricNamesQueryResponse>> _metricNames;
     private final PeriodicMetrics _periodicMetrics;
-    private final Set<String> _metricsSet;
-    private Iterator<String> _setIterator;
+    private final RollupWatermarkRepository _watermarkRepository;
+    private final RollupWatermarkExecutor _watermarkExecutor;
+    private final Clock _clock;
+    private final FiniteDuration _failureBackoff;
+    private final FiniteDuration _maxFailureBackoff;
+    private final PriorityQueue<Candidate> _queue;
+    private final Map<String, Candidate> _queued;
+    private final Map<String, Lease> _leases;
+    private final Map<String, Failures> _failures;
+    private final Map<String, KnownMetric> _knownMetrics;
+    private final Duration _metricExpiry;
     private Deadline _refreshDeadline;
+    private long _sequence;
     private final Predicate<String> _whiteList;
     private final Predicate<String> _blackList;
 
     private static final String REFRESH_TIMER = "refresh_timer";
+    private static final String LEASE_TIMER = "lease_timer";
     private static final Object FETCH_MSG = new Object();
+    private static final Object LEASE_CHECK_MSG = new Object();
+    private static final int LEASE_CHECKS_PER_TIMEOUT = 4;
+    private static final int MAX_BACKOFF_SHIFT = 20;
     private static final Logger LOGGER = LoggerFactory.getLogger(MetricsDiscovery.class);
-    private static final Predicate<String> ROLLUP_METRIC_PREDICATE = Pattern.compile("^.*_1[hd]$").asPredicate();
+    private static final Predicate<String> ROLLUP_METRIC_PREDICATE = MetricNameMatcher.compile(
+            Arrays.stream(RollupPeriod.values())
+                    .map(period -> MetricNameMatcher.escape(period.getSuffix()) + "$")
+                    .collect(Collectors.toList()));
+    // Metrics that are equally far behind are handed out in the order they were discovered
+    private static final Comparator<Candidate> CANDIDATE_ORDER = Comparator.comparing(Candidate::getOldestWatermark)
+            .thenComparingLong(Candidate::getSequence);
+
+    private static final class Candidate {
+        Candidate(final String metricName, final Instant oldestWatermark, final long sequence) {
+            _metricName = metricName;
+            _oldestWatermark = oldestWatermark;
+            _sequence = sequence;
+        }
+
+        String getMetricName() {
+            return _metricName;
+        }
+
+        Instant getOldestWatermark() {
+            return _oldestWatermark;
+        }
+
+        long getSequence() {
+            return _sequence;
+        }
+
+        private final String _metricName;
+        private final Instant _oldestWatermark;
+        private final long _sequence;
+    }
+
+    private static final class KnownMetric {
+        KnownMetric(final Instant firstSeen, final boolean eligible) {
+            _firstSeen = firstSeen;
+            _lastSeen = firstSeen;
+            _eligible = eligible;
+        }
+
+        Instant getFirstSeen() {
+            return _firstSeen;
+        }
+
+        Instant getLastSeen() {
+            return _lastSeen;
+        }
+
+        void setLastSeen(final Instant lastSeen) {
+            _lastSeen = lastSeen;
+        }
+
+        boolean isEligible() {
+            return _eligible;
+        }
+
+        Optional<Map<RollupPeriod, Instant>> getWatermarks() {
+            return _watermarks;
+        }
+
+        void setWatermarks(final Optional<Map<RollupPeriod, Instant>> watermarks) {
+            _watermarks = watermarks;
+        }
+
+        private final Instant _firstSeen;
+        private Instant _lastSeen;
+        private final boolean _eligible;
+        private Optional<Map<RollupPeriod, Instant>> _watermarks = Optional.empty();
+    }
+
+    private static final class WatermarksLoaded {
+        WatermarksLoaded(
+                final List<String> metricNames,
+                final Map<String, Map<RollupPeriod, Instant>> watermarks,
+                final boolean loaded) {
+            _metricNames = metricNames;
+            _watermarks = watermarks;
+            _loaded = loaded;
+        }
+
+        List<String> getMetricNames() {
+            return _metricNames;
+        }
+
+        Map<String, Map<RollupPeriod, Instant>> getWatermarks() {
+            return _watermarks;
+        }
+
+        boolean isLoaded() {
+            return _loaded;
+        }
+
+        private final List<String> _metricNames;
+        private final Map<String, Map<RollupPeriod, Instant>> _watermarks;
+        private final boolean _loaded;
+    }
+
+    private static final class Failures {
+        Failures(final int count, final Instant retryAt) {
+            _count = count;
+            _retryAt = retryAt;
+        }
+
+        int getCount() {
+            return _count;
+        }
+
+        Instant getRetryAt() {
+            return _retryAt;
+        }
+
+        private final int _count;
+        private final Instant _retryAt;
+    }
+
+    private static final class Lease {
+        Lease(final ActorRef worker, final Deadline expiry, final Candidate candidate) {
+            _worker = worker;
+            _expiry = expiry;
+            _candidate = candidate;
+            _startNanos = System.nanoTime();
+        }
+
+        ActorRef getWorker() {
+            return _worker;
+        }
+
+        Deadline getExpiry() {
+            return _expiry;
+        }
+
+        long getStartNanos() {
+            return _startNanos;
+        }
+
+        Candidate getCandidate() {
+            return _candidate;
+        }
+
+        private final ActorRef _worker;
+        private final Deadline _expiry;
+        private final Candidate _candidate;
+        private final long _startNanos;
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.rollups;
+
+import com.arpnetworking.kairos.client.KairosDbClient;
+import com.arpnetworking.kairos.client.models.KairosMetricNamesQueryResponse;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.play.configuration.ConfigurationHelper;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Multimaps;
+import com.typesafe.config.Config;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletionStage;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Lists the metric names once for all the rollup partitions on a node.
+ *
+ * Every partition refreshes its metric names on the same interval. Rather than each partition
+ * listing every metric name from KairosDB, a listing that was started less than half the fetch
+ * interval ago is shared, and its names are grouped by partition once. Each partition is handed
+ * only the names hashing to it.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+@Singleton
+public final class PartitionedMetricNames {
+
+    /**
+     * Public constructor.
+     *
+     * @param configuration play configuration
+     * @param kairosDbClient client to use for listing metric names
+     * @param periodicMetrics the {@link PeriodicMetrics} to record to
+     * @param clock clock to use for time calculations
+     */
+    @Inject
+    public PartitionedMetricNames(
+            final Config configuration,
+            final KairosDbClient kairosDbClient,
+            final PeriodicMetrics periodicMetrics,
+            final Clock clock) {
+        _kairosDbClient = kairosDbClient;
+        _periodicMetrics = periodicMetrics;
+        _clock = clock;
+        _maxAge = Duration.ofMillis(ConfigurationHelper.getFiniteDuration(configuration, "rollup.fetch.interval").toMillis() / 2);
+    }
+
+    /**
+     * Returns the metric names of a partition.
+     *
+     * @param partition the partition
+     * @param partitionCount the total number of partitions
+     * @return the metric names hashing to the partition
+     */
+    public synchronized CompletionStage<KairosMetricNamesQueryResponse> getMetricNames(final int partition, final int partitionCount) {
+        final Instant now = _clock.instant();
+        final boolean shared = _listing != null
+                && _partitionCount == partitionCount
+                && now.isBefore(_listedAt.plus(_maxAge))
+                && !_listing.toCompletableFuture().isCompletedExceptionally();
+        _periodicMetrics.recordCounter("rollup/partition/metric_names/shared", shared ? 1 : 0);
+        if (!shared) {
+            _listedAt = now;
+            _partitionCount = partitionCount;
+            _listing = _kairosDbClient.queryMetricNames()
+                    .thenApply(response -> Multimaps.index(
+                            response.getResults(),
+                            name -> RollupPartition.partitionOf(name, partitionCount)));
+        }
+        return _listing.thenApply(names -> new KairosMetricNamesQueryResponse.Builder()
+                .setResults(names.get(partition))
+                .build());
+    }
+
+    private final KairosDbClient _kairosDbClient;
+    private final PeriodicMetrics _periodicMetrics;
+    private final Clock _clock;
+    private final Duration _maxAge;
+    private CompletionStage<ImmutableListMultimap<Integer, String>> _listing;
+    private Instant _listedAt = Instant.EPOCH;
+    private int _partitionCount;
+}
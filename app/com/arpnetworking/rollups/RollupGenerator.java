@@ -17,6 +17,7 @@ package com.arpnetworking.rollups;
 
 import akka.actor.AbstractActorWithTimers;
 import akka.actor.ActorRef;
+import akka.actor.Props;
 import akka.japi.pf.ReceiveBuilder;
 import akka.pattern.PatternsCS;
 import com.arpnetworking.kairos.client.KairosDbClient;
@@ -32,17 +33,25 @@ import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.typesafe.config.Config;
 import scala.concurrent.duration.FiniteDuration;
 
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletionStage;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -51,6 +60,30 @@ import javax.inject.Named;
 /**
  * Actor for performing rollups for individual source metrics.
  *
+ * Metric names are leased from the metrics discovery actor in batches and up to a configured
+ * number of metrics are rolled up concurrently. Each leased metric is released once all of its
+ * periods have finished.
+ *
+ * The last rolled up data point of each period is taken from the persisted rollup watermark when
+ * one is available and plausible; KairosDB is only probed for it when the watermark is missing or
+ * suspect. Watermarks are advanced as rollups complete. The watermark repository is only called on
+ * the {@link RollupWatermarkExecutor}; loaded watermarks are piped back to the actor.
+ *
+ * Rollups are generated hierarchically. Periods computed from the raw data are started first and
+ * each other period is started once its source period has finished, so that it can be merged from
+ * the source rollup series wherever that series is complete instead of from the raw data.
+ *
+ * Backfills are split into chunks of a bounded number of periods that run oldest first. The end of
+ * each completed chunk is recorded as the watermark so that an interrupted backfill resumes where it
+ * stopped.
+ *
+ * Tag names are discovered over the time range that remains to be rolled up by the finest period
+ * that still needs a backfill rather than the whole history of the metric, and are cached across
+ * rollup cycles by a {@link RollupTagCache}.
+ *
+ * Rollup queries are subject to a {@link RollupQueryLimiter} shared by the workers of the node; a
+ * period whose query is rejected by the limiter is retried after a short delay.
+ *
  * @author Gilligan Markham (gmarkham at dropbox dot com)
  */
 public class RollupGenerator extends AbstractActorWithTimers {
@@ -58,7 +91,10 @@ public class RollupGenerator extends AbstractActorWithTimers {
     public Receive createReceive() {
         return new ReceiveBuilder()
                 .matchEquals(FETCH_METRIC, this::handleFetchMetrics)
-                .match(String.class, this::fetchMetricTags)
+                .match(MetricLease.class, this::handleMetricLease)
+                .matchEquals(LEASE_REQUEST_TIMEOUT, this::handleLeaseRequestTimeout)
+                .match(String.class, this::startMetric)
+                .match(WatermarksMessage.class, this::handleWatermarksMessage)
                 .match(TagNamesMessage.class, this::handleTagNamesMessage)
                 .match(LastDataPointMessage.class, this::handleLastDataPointMessage)
                 .match(FinishRollupMessage.class, this::handleFinishRollupMessage)
@@ -75,6 +111,10 @@ public class RollupGenerator extends AbstractActorWithTimers {
      * @param kairosDbClient kairosdb client
      * @param clock clock to use for time calculations
      * @param metrics periodic metrics instance
+     * @param watermarkRepository repository of rollup watermarks
+     * @param watermarkExecutor executor of the blocking watermark repository calls
+     * @param limiter limiter of concurrent rollup queries
+     * @param tagCache cache of the tag names of source metrics
      */
     @Inject
     public RollupGenerator(
@@ -82,13 +122,63 @@ public class RollupGenerator extends AbstractActorWithTimers {
             @Named("RollupsMetricsDiscovery") final ActorRef metricsDiscovery,
             final KairosDbClient kairosDbClient,
             final Clock clock,
-            final PeriodicMetrics metrics) {
+            final PeriodicMetrics metrics,
+            final RollupWatermarkRepository watermarkRepository,
+            final RollupWatermarkExecutor watermarkExecutor,
+            final RollupQueryLimiter limiter,
+            final RollupTagCache tagCache) {
         _metricsDiscovery = metricsDiscovery;
         _kairosDbClient = kairosDbClient;
         _clock = clock;
         _metrics = metrics;
-        _maxBackFillPeriods = configuration.getInt("rollup.maxBackFill.periods");
+        _watermarkRepository = watermarkRepository;
+        _watermarkExecutor = watermarkExecutor;
+        _limiter = limiter;
+        _tagCache = tagCache;
+        _maxBackFillPeriods = maxBackFillPeriods(configuration);
+        _backFillChunkPeriods = Math.max(1, configuration.getInt("rollup.backFill.chunkPeriods"));
         _fetchBackoff = ConfigurationHelper.getFiniteDuration(configuration, "rollup.fetch.backoff");
+        _leaseBatchSize = configuration.getInt("rollup.worker.leaseBatchSize");
+        _concurrency = configuration.getInt("rollup.worker.concurrency");
+        _tagCardinalityWarning = configuration.getInt("rollup.tags.cardinalityWarning");
+    }
+
+    /**
+     * Creates a {@link Props} for a RollupGenerator actor.
+     *
+     * @param configuration play configuration
+     * @param metricsDiscovery actor ref to metrics discovery actor
+     * @param kairosDbClient kairosdb client
+     * @param clock clock to use for time calculations
+     * @param metrics periodic metrics instance
+     * @param watermarkRepository repository of rollup watermarks
+     * @param watermarkExecutor executor of the blocking watermark repository calls
+     * @param limiter limiter of concurrent rollup queries
+     * @param tagCache cache of the tag names of source metrics
+     * @return a new {@link Props}
+     */
+    public static Props props(
+            final Config configuration,
+            final ActorRef metricsDiscovery,
+            final KairosDbClient kairosDbClient,
+            final Clock clock,
+            final PeriodicMetrics metrics,
+            final RollupWatermarkRepository watermarkRepository,
+            final RollupWatermarkExecutor watermarkExecutor,
+            final RollupQueryLimiter limiter,
+            final RollupTagCache tagCache) {
+        return Props.create(
+                RollupGenerator.class,
+                () -> new RollupGenerator(
+                        configuration,
+                        metricsDiscovery,
+                        kairosDbClient,
+                        clock,
+                        metrics,
+                        watermarkRepository,
+                        watermarkExecutor,
+                        limiter,
+                        tagCache));
     }
 
     @Override
@@ -99,15 +189,105 @@ public class RollupGenerator extends AbstractActorWithTimers {
 
     private void handleFetchMetrics(final Object fetch) {
         _metrics.recordCounter("rollup/fetch_metrics/received", 1);
-        _metricsDiscovery.tell(MetricFetch.getInstance(), getSelf());
+        while (_metricsInFlight.size() < _concurrency && !_leasedMetrics.isEmpty()) {
+            startMetric(_leasedMetrics.removeFirst());
+        }
+        if (_metricsInFlight.size() < _concurrency && !_leaseRequested) {
+            _leaseRequested = true;
+            _metricsDiscovery.tell(new MetricLeaseRequest(_leaseBatchSize), getSelf());
+            // The request or its response may be lost while the discovery singleton moves
+            timers().startSingleTimer(LEASE_REQUEST_TIMER, LEASE_REQUEST_TIMEOUT, _fetchBackoff);
+        }
+        _metrics.recordGauge("rollup/metrics_in_flight", _metricsInFlight.size());
     }
 
-    private void fetchMetricTags(final String metricName) {
+    private void handleMetricLease(final MetricLease lease) {
+        _metrics.recordCounter("rollup/metric_lease/received", 1);
+        _metrics.recordCounter("rollup/metric_lease/metrics", lease.getMetricNames().size());
+        _leaseRequested = false;
+        timers().cancel(LEASE_REQUEST_TIMER);
+        _leasedMetrics.addAll(lease.getMetricNames());
+        _releaseOnFinish.addAll(lease.getMetricNames());
+        getSelf().tell(FETCH_METRIC, ActorRef.noSender());
+    }
+
+    private void handleLeaseRequestTimeout(final Object timeout) {
+        _metrics.recordCounter("rollup/metric_lease/timeout", 1);
+        _leaseRequested = false;
+        getSelf().tell(FETCH_METRIC, ActorRef.noSender());
+    }
+
+    private void startMetric(final String metricName) {
         _metrics.recordCounter("rollup/metric_name/received", 1);
+        _metricsInFlight.put(metricName, Collections.emptyList());
+        // Watermarks bound the time range the tag names are discovered over, so they are loaded first
+        PatternsCS.pipe(
+                _watermarkExecutor.submit("load", () -> _watermarkRepository.getWatermarks(metricName))
+                        .handle((watermarks, failure) -> new WatermarksMessage.Builder()
+                                .setMetricName(metricName)
+                                .setWatermarks(failure == null ? ImmutableMap.copyOf(watermarks) : ImmutableMap.of())
+                                .setFailure(failure)
+                                .build()),
+                getContext().dispatcher())
+                .to(getSelf());
+    }
+
+    private void handleWatermarksMessage(final WatermarksMessage message) {
+        final String metricName = message.getMetricName();
+        _metrics.recordCounter("rollup/watermark/load/success", message.isFailure() ? 0 : 1);
+        if (message.isFailure()) {
+            // Failing to read watermarks only means probing KairosDB instead
+            LOGGER.warn()
+                    .setMessage("Failed to load rollup watermarks for metric.")
+                    .addData("metricName", metricName)
+                    .setThrowable(message.getFailure().get())
+                    .log();
+        }
+        if (!_metricsInFlight.containsKey(metricName)) {
+            return;
+        }
+        final Map<RollupPeriod, Instant> watermarks = Maps.newEnumMap(RollupPeriod.class);
+        watermarks.putAll(message.getWatermarks());
+        _watermarks.put(metricName, watermarks);
+        fetchMetricTags(metricName);
+    }
+
+    private void finishMetric(final String metricName) {
+        _metricsInFlight.remove(metricName);
+        _tagNames.remove(metricName);
+        _watermarks.remove(metricName);
+        final boolean failed = _failedMetrics.remove(metricName);
+        if (_releaseOnFinish.remove(metricName)) {
+            _metricsDiscovery.tell(new MetricLeaseRelease(metricName, failed), getSelf());
+        }
+        // Start the next metric
+        getSelf().tell(FETCH_METRIC, ActorRef.noSender());
+    }
+
+    private void fetchMetricTags(final String metricName) {
+        final Instant now = _clock.instant();
+        final Instant windowStart = tagWindowStart(metricName, now);
+        final Optional<RollupTagCache.Entry> cached = _tagCache.get(metricName, windowStart);
+        if (cached.isPresent() && _tagCache.isFresh(cached.get(), now)) {
+            _metrics.recordCounter("rollup/tag_names/cache/hit", 1);
+            getSelf().tell(
+                    new TagNamesMessage.Builder()
+                            .setMetricName(metricName)
+                            .setTagNames(cached.get().getTagNames())
+                            .build(),
+                    ActorRef.noSender());
+            return;
+        }
+        _metrics.recordCounter("rollup/tag_names/cache/hit", 0);
+        _metrics.recordCounter("rollup/tag_names/cache/incremental", cached.isPresent() ? 1 : 0);
+
+        // A stale cached tag set only needs the tag names written since it was fetched
+        final Instant queryStartTime = cached.map(RollupTagCache.Entry::getCoveredUntil).orElse(windowStart);
         final long startTime = System.nanoTime();
         PatternsCS.pipe(_kairosDbClient.queryMetricTags(
                 new MetricsQuery.Builder()
-                        .setStartTime(Instant.ofEpochMilli(0))
+                        .setStartTime(queryStartTime)
+                        .setEndTime(now)
                         .setMetrics(ImmutableList.of(
                                 new Metric.Builder()
                                         .setName(metricName)
@@ -132,9 +312,18 @@ public class RollupGenerator extends AbstractActorWithTimers {
                                             .setFailure(new Exception("Unexpected query result."))
                                             .build();
                                 } else {
+                                    final ImmutableMultimap<String, String> tags =
+                                            response.getQueries().get(0).getResults().get(0).getTags();
+                                    recordTagCardinality(metricName, tags);
+                                    final RollupTagCache.Entry merged = _tagCache.merge(
+                                            metricName,
+                                            cached,
+                                            tags.keySet(),
+                                            windowStart,
+                                            now);
                                     return new TagNamesMessage.Builder()
                                             .setMetricName(metricName)
-                                            .setTagNames(response.getQueries().get(0).getResults().get(0).getTags().keySet())
+                                            .setTagNames(merged.getTagNames())
                                             .build();
                                 }
                             }
@@ -144,6 +333,38 @@ public class RollupGenerator extends AbstractActorWithTimers {
 
     }
 
+    private Instant tagWindowStart(final String metricName, final Instant now) {
+        // Tags are only needed for the data that will be rolled up. Coarse periods backfill far
+        // further back than fine ones, so the window stops at the finest period that is behind.
+        final Map<RollupPeriod, Instant> watermarks = _watermarks.getOrDefault(metricName, Collections.emptyMap());
+        Instant windowStart = now;
+        for (final RollupPeriod period : RollupPeriod.values()) {
+            final Instant oldestBackfillPoint = oldestBackfillPoint(period, now);
+            final Instant watermark = watermarks.get(period);
+            final Instant periodStart = watermark == null || isSuspect(watermark, period) || watermark.isBefore(oldestBackfillPoint)
+                    ? oldestBackfillPoint
+                    : watermark;
+            windowStart = min(windowStart, periodStart);
+            if (periodStart.isBefore(period.recentEndTime(now))) {
+                break;
+            }
+        }
+        return windowStart;
+    }
+
+    private void recordTagCardinality(final String metricName, final ImmutableMultimap<String, String> tags) {
+        _metrics.recordGauge("rollup/tag_names/cardinality", tags.keySet().size());
+        _metrics.recordGauge("rollup/tag_values/cardinality", tags.size());
+        if (tags.size() > _tagCardinalityWarning) {
+            LOGGER.warn()
+                    .setMessage("Metric has high tag cardinality")
+                    .addData("metricName", metricName)
+                    .addData("tagNames", tags.keySet().size())
+                    .addData("tagValues", tags.size())
+                    .log();
+        }
+    }
+
     private void handleTagNamesMessage(final TagNamesMessage message) {
         _metrics.recordCounter("rollup/tag_names_message/received", 1);
         if (message.isFailure()) {
@@ -154,31 +375,53 @@ public class RollupGenerator extends AbstractActorWithTimers {
                     .setThrowable(message.getFailure().get())
                     .log();
 
-            // Get the next metric
-            getSelf().tell(FETCH_METRIC, ActorRef.noSender());
+            _failedMetrics.add(message.getMetricName());
+            finishMetric(message.getMetricName());
         } else {
             _metrics.recordCounter("rollup/tag_names_message/success", 1);
-            _periodsInFlight = Lists.newArrayList(RollupPeriod.values());
             final String metricName = message.getMetricName();
-            final long startTime = System.nanoTime();
+            _metricsInFlight.put(metricName, Lists.newArrayList(RollupPeriod.values()));
+            _tagNames.put(metricName, message.getTagNames());
+            _watermarks.computeIfAbsent(metricName, name -> Maps.newEnumMap(RollupPeriod.class));
             for (final RollupPeriod period : RollupPeriod.values()) {
-                PatternsCS.pipe(
-                        fetchLastDataPoint(metricName + period.getSuffix(), period)
-                                .handle((response, failure) -> {
-                                    final String baseMetricName = "rollup/last_data_point_"
-                                            + period.name().toLowerCase(Locale.getDefault());
-                                    _metrics.recordCounter(baseMetricName + "/success", failure == null ? 1 : 0);
-                                    _metrics.recordTimer(
-                                            baseMetricName + "/request",
-                                            System.nanoTime() - startTime,
-                                            Optional.of(Units.NANOSECOND));
-                                    return buildLastDataPointResponse(metricName, period, message.getTagNames(), response, failure);
-                                }), getContext().dispatcher())
-                        .to(getSelf());
+                if (!period.getSourcePeriod().isPresent()) {
+                    startPeriod(metricName, period, message.getTagNames());
+                }
             }
         }
     }
 
+    private void startPeriod(final String metricName, final RollupPeriod period, final ImmutableSet<String> tagNames) {
+        final Instant watermark = _watermarks.getOrDefault(metricName, Collections.emptyMap()).get(period);
+        if (watermark != null && !isSuspect(watermark, period)) {
+            _metrics.recordCounter("rollup/watermark/hit", 1);
+            getSelf().tell(
+                    new LastDataPointMessage.Builder()
+                            .setMetricName(metricName)
+                            .setPeriod(period)
+                            .setTags(tagNames)
+                            .setLastDataPointTime(watermark)
+                            .build(),
+                    ActorRef.noSender());
+            return;
+        }
+        _metrics.recordCounter("rollup/watermark/hit", 0);
+        final long startTime = System.nanoTime();
+        PatternsCS.pipe(
+                fetchLastDataPoint(metricName + period.getSuffix(), period)
+                        .handle((response, failure) -> {
+                            final String baseMetricName = "rollup/last_data_point_"
+                                    + period.name().toLowerCase(Locale.getDefault());
+                            _metrics.recordCounter(baseMetricName + "/success", failure == null ? 1 : 0);
+                            _metrics.recordTimer(
+                                    baseMetricName + "/request",
+                                    System.nanoTime() - startTime,
+                                    Optional.of(Units.NANOSECOND));
+                            return buildLastDataPointResponse(metricName, period, tagNames, response, failure);
+                        }), getContext().dispatcher())
+                .to(getSelf());
+    }
+
     private void handleLastDataPointMessage(final LastDataPointMessage message) {
         _metrics.recordCounter("rollup/last_data_point_message/received", 1);
         if (message.isFailure()) {
@@ -193,30 +436,73 @@ public class RollupGenerator extends AbstractActorWithTimers {
                     new FinishRollupMessage.Builder()
                             .setMetricName(message.getMetricName())
                             .setPeriod(message.getPeriod())
+                            .setFailure(message.getFailure().get())
                             .build(),
                     ActorRef.noSender());
         } else {
             _metrics.recordCounter("rollup/last_data_point_message/success", 1);
-            final Instant recentPeriodEndTime = message.getPeriod()
-                    .recentEndTime(_clock.instant());
+            final RollupPeriod period = message.getPeriod();
+            // The last data point is the rollup progress, whether it was probed or is the end of a completed chunk
+            message.getLastDataPointTime().ifPresent(time -> updateWatermark(message.getMetricName(), period, time));
+            final Instant now = _clock.instant();
+            final Instant lastDataPoint = message.getLastDataPointTime().orElse(Instant.EPOCH);
+            final Instant oldestBackfillPoint = oldestBackfillPoint(period, now);
+            final Instant rollupStartTime = lastDataPoint.isBefore(oldestBackfillPoint) ? oldestBackfillPoint : lastDataPoint;
+
+            // A source rollup series that is complete from the start time is read up to its watermark
+            // instead of the raw data; otherwise the raw data is read up to the most recent period end
+            final Optional<RollupPeriod> sourcePeriod = period.getSourcePeriod()
+                    .filter(source -> isSourceComplete(message.getMetricName(), source, rollupStartTime, now));
+            final Instant recentPeriodEndTime = sourcePeriod
+                    .map(source -> period.recentEndTime(min(
+                            period.recentEndTime(now),
+                            _watermarks.get(message.getMetricName()).get(source))))
+                    .orElse(period.recentEndTime(now));
+            _metrics.recordCounter("rollup/perform_rollup/from_source", sourcePeriod.isPresent() ? 1 : 0);
 
             final long startTime = System.nanoTime();
             // If the most recent period aligned end time is after the most recent datapoint then
             // we need to run the rollup, otherwise we can skip this and just send a finish message.
-            if (recentPeriodEndTime.isAfter(message.getLastDataPointTime().orElse(Instant.EPOCH))) {
+            if (recentPeriodEndTime.isAfter(rollupStartTime)) {
+                final Optional<RollupQueryLimiter.Permit> permit = _limiter.tryAcquire();
+                if (!permit.isPresent()) {
+                    // KairosDB is at the adaptive limit; try the period again once queries have drained
+                    timers().startSingleTimer(
+                            "limiter_" + message.getMetricName() + period.getSuffix(),
+                            message,
+                            _limiter.getRetryDelay());
+                    return;
+                }
+                final Instant chunkEndTime = min(
+                        recentPeriodEndTime,
+                        rollupStartTime.plus(period.periodCountToDuration(_backFillChunkPeriods)));
+                final long chunkPeriods = Duration.between(rollupStartTime, chunkEndTime).toMillis()
+                        / period.periodCountToDuration(1).toMillis();
+                final String baseMetricName = "rollup/perform_rollup_" + period.name().toLowerCase(Locale.getDefault());
+                _metrics.recordCounter(baseMetricName + "/chunk_periods", chunkPeriods);
+                _metrics.recordCounter(baseMetricName + "/backfill", chunkEndTime.isBefore(recentPeriodEndTime) ? 1 : 0);
                 PatternsCS.pipe(
-                        runRollupQuery(message)
+                        runRollupQuery(message, sourcePeriod, rollupStartTime, chunkEndTime)
                                 .handle((response, failure) -> {
-                                    final String baseMetricName = "rollup/perform_rollup_"
-                                            + message.getPeriod().name().toLowerCase(Locale.getDefault());
+                                    _limiter.release(permit.get(), failure);
                                     _metrics.recordCounter(baseMetricName + "/success", failure == null ? 1 : 0);
                                     _metrics.recordTimer(
                                             baseMetricName + "/request",
                                             System.nanoTime() - startTime,
                                             Optional.of(Units.NANOSECOND));
+                                    if (failure == null && chunkEndTime.isBefore(recentPeriodEndTime)) {
+                                        // Continue with the next chunk of the backfill
+                                        return new LastDataPointMessage.Builder()
+                                                .setMetricName(message.getMetricName())
+                                                .setPeriod(period)
+                                                .setTags(message.getTags())
+                                                .setLastDataPointTime(chunkEndTime)
+                                                .build();
+                                    }
                                     return new FinishRollupMessage.Builder()
                                             .setMetricName(message.getMetricName())
-                                            .setPeriod(message.getPeriod())
+                                            .setPeriod(period)
+                                            .setWatermark(failure == null ? chunkEndTime : null)
                                             .setFailure(failure)
                                             .build();
                                 }), getContext().dispatcher())
@@ -226,6 +512,7 @@ public class RollupGenerator extends AbstractActorWithTimers {
                         new FinishRollupMessage.Builder()
                                 .setMetricName(message.getMetricName())
                                 .setPeriod(message.getPeriod())
+                                .setWatermark(message.getLastDataPointTime().orElse(null))
                                 .build(),
                         ActorRef.noSender()
                 );
@@ -235,18 +522,109 @@ public class RollupGenerator extends AbstractActorWithTimers {
 
     private void handleFinishRollupMessage(final FinishRollupMessage message) {
         _metrics.recordCounter("rollup/finish_rollup_message/received", 1);
-        _periodsInFlight.remove(message.getPeriod());
-        if (_periodsInFlight.isEmpty()) {
-            getSelf().tell(FETCH_METRIC, ActorRef.noSender());
+        if (!message.isFailure() && message.getWatermark().isPresent()) {
+            updateWatermark(message.getMetricName(), message.getPeriod(), message.getWatermark().get());
+        }
+        final List<RollupPeriod> periodsInFlight = _metricsInFlight.get(message.getMetricName());
+        if (periodsInFlight != null && periodsInFlight.remove(message.getPeriod())) {
+            if (message.isFailure()) {
+                _failedMetrics.add(message.getMetricName());
+            }
+            // Start the periods computed from the finished period
+            final ImmutableSet<String> tagNames = _tagNames.get(message.getMetricName());
+            if (tagNames != null) {
+                for (final RollupPeriod period : RollupPeriod.values()) {
+                    if (period.getSourcePeriod().equals(Optional.of(message.getPeriod())) && periodsInFlight.contains(period)) {
+                        startPeriod(message.getMetricName(), period, tagNames);
+                    }
+                }
+            }
+            if (periodsInFlight.isEmpty()) {
+                finishMetric(message.getMetricName());
+            }
         }
     }
 
     private void handleNoMoreMetricsMessage(final NoMoreMetrics message) {
         _metrics.recordCounter("rollup/no_more_metrics/received", 1);
         _metrics.recordGauge("rollup/next_refresh", message.getNextRefreshMillis());
+        _leaseRequested = false;
+        timers().cancel(LEASE_REQUEST_TIMER);
         timers().startSingleTimer("sleepTimer", FETCH_METRIC, _fetchBackoff);
     }
 
+    private void updateWatermark(final String metricName, final RollupPeriod period, final Instant watermark) {
+        final Map<RollupPeriod, Instant> known = _watermarks.get(metricName);
+        if (known != null) {
+            final Instant previous = known.get(period);
+            if (watermark.equals(previous)) {
+                // Nothing new was rolled up
+                return;
+            }
+            // Periods computed from this one read its rollup series up to the watermark
+            known.put(period, previous == null ? watermark : max(previous, watermark));
+        }
+        // Nothing waits for the update; a lost update only costs a KairosDB probe on the next pass
+        _watermarkExecutor.<Void>submit("update", () -> {
+            _watermarkRepository.updateWatermark(metricName, period, watermark);
+            return null;
+        }).whenComplete((ignored, failure) -> {
+            _metrics.recordCounter("rollup/watermark/update/success", failure == null ? 1 : 0);
+            if (failure != null) {
+                LOGGER.warn()
+                        .setMessage("Failed to update rollup watermark for metric.")
+                        .addData("metricName", metricName)
+                        .addData("period", period)
+                        .addData("watermark", watermark)
+                        .setThrowable(failure)
+                        .log();
+            }
+        });
+    }
+
+    private boolean isSourceComplete(
+            final String metricName,
+            final RollupPeriod sourcePeriod,
+            final Instant startTime,
+            final Instant now) {
+        final Map<RollupPeriod, Instant> watermarks = _watermarks.get(metricName);
+        if (watermarks == null || !watermarks.containsKey(sourcePeriod)) {
+            return false;
+        }
+        // The source series is only backfilled over its own window, which may be shorter
+        return !startTime.isBefore(oldestBackfillPoint(sourcePeriod, now));
+    }
+
+    private Instant oldestBackfillPoint(final RollupPeriod period, final Instant now) {
+        return period.recentEndTime(now).minus(period.periodCountToDuration(_maxBackFillPeriods.get(period)));
+    }
+
+    private static ImmutableMap<RollupPeriod, Integer> maxBackFillPeriods(final Config configuration) {
+        // A single count of periods reaches back decades for coarse periods, so each period may set its own
+        final int defaultPeriods = configuration.getInt("rollup.maxBackFill.periods");
+        final Map<RollupPeriod, Integer> maxBackFillPeriods = Maps.newEnumMap(RollupPeriod.class);
+        for (final RollupPeriod period : RollupPeriod.values()) {
+            final String path = "rollup.maxBackFill.byPeriod." + period.name().toLowerCase(Locale.getDefault());
+            maxBackFillPeriods.put(period, configuration.hasPath(path) ? configuration.getInt(path) : defaultPeriods);
+        }
+        return Maps.immutableEnumMap(maxBackFillPeriods);
+    }
+
+    private static Instant min(final Instant a, final Instant b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    private static Instant max(final Instant a, final Instant b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    private boolean isSuspect(final Instant watermark, final RollupPeriod period) {
+        // Rollup data points are aligned to period boundaries and cannot be newer than the most
+        // recent period end; anything else was not written by a completed rollup
+        return watermark.isAfter(period.recentEndTime(_clock.instant()))
+                || !period.recentEndTime(watermark).equals(watermark);
+    }
+
     private LastDataPointMessage buildLastDataPointResponse(
             final String metricName,
             final RollupPeriod period,
@@ -275,7 +653,7 @@ public class RollupGenerator extends AbstractActorWithTimers {
     private CompletionStage<MetricsQueryResponse> fetchLastDataPoint(final String metricName, final RollupPeriod period) {
         return _kairosDbClient.queryMetrics(
                 new MetricsQuery.Builder()
-                        .setStartTime(period.recentEndTime(_clock.instant()).minus(period.periodCountToDuration(_maxBackFillPeriods)))
+                        .setStartTime(oldestBackfillPoint(period, _clock.instant()))
                         .setMetrics(ImmutableList.of(
                                 new Metric.Builder()
                                         .setName(metricName)
@@ -290,23 +668,39 @@ public class RollupGenerator extends AbstractActorWithTimers {
                         )).build());
     }
 
-    private CompletionStage<MetricsQueryResponse> runRollupQuery(final LastDataPointMessage message) {
+    private CompletionStage<MetricsQueryResponse> runRollupQuery(
+            final LastDataPointMessage message,
+            final Optional<RollupPeriod> sourcePeriod,
+            final Instant startTime,
+            final Instant endTime) {
         final MetricsQuery.Builder queryBuilder = new MetricsQuery.Builder();
         final Metric.Builder metricBuilder = new Metric.Builder();
-        final String rollupMetricName = message.getMetricName() + message.getPeriod().getSuffix();
         final RollupPeriod period = message.getPeriod();
+        final String rollupMetricName = message.getMetricName() + period.getSuffix();
+        final Sampling sampling = new Sampling.Builder()
+                .setValue(period.getSamplingValue())
+                .setUnit(period.getSamplingUnit())
+                .build();
+        final ImmutableList.Builder<Aggregator> aggregators = ImmutableList.builder();
 
-        final Instant lastDataPoint = message.getLastDataPointTime().orElse(Instant.EPOCH);
-        final Instant oldestBackfillPoint = period.recentEndTime(_clock.instant()).minus(period.periodCountToDuration(_maxBackFillPeriods));
-        if (lastDataPoint.isBefore(oldestBackfillPoint)) {
-            queryBuilder.setStartTime(oldestBackfillPoint);
+        if (sourcePeriod.isPresent()) {
+            // Source rollup data points are timestamped at the end of the period they cover, so the
+            // windows start one millisecond after each period start and are stamped with their start;
+            // the second merge moves each single merged data point to the end of its period.
+            metricBuilder.setName(message.getMetricName() + sourcePeriod.get().getSuffix());
+            queryBuilder.setStartTime(startTime.plusMillis(1));
+            aggregators.add(new Aggregator.Builder()
+                    .setName("merge")
+                    .setSampling(sampling)
+                    .setAlignSampling(false)
+                    .setAlignStartTime(true)
+                    .build());
         } else {
-            queryBuilder.setStartTime(lastDataPoint);
+            metricBuilder.setName(message.getMetricName());
+            queryBuilder.setStartTime(startTime);
         }
+        queryBuilder.setEndTime(endTime);
 
-        queryBuilder.setEndTime(period.recentEndTime(_clock.instant()));
-
-        metricBuilder.setName(message.getMetricName());
         if (!message.getTags().isEmpty()) {
             metricBuilder.setGroupBy(ImmutableList.of(
                     new MetricsQuery.GroupBy.Builder()
@@ -314,21 +708,18 @@ public class RollupGenerator extends AbstractActorWithTimers {
                     .build()
             ));
         }
-        metricBuilder.setAggregators(ImmutableList.of(
+        aggregators.add(
                 new Aggregator.Builder()
                         .setName("merge")
-                        .setSampling(new Sampling.Builder()
-                                        .setValue(1)
-                                        .setUnit(message.getPeriod().getSamplingUnit())
-                                        .build())
+                        .setSampling(sampling)
                         .setAlignSampling(true)
                         .setAlignEndTime(true)
                         .build(),
                 new Aggregator.Builder()
                         .setName("save_as")
                         .setOtherArgs(ImmutableMap.of("metric_name", rollupMetricName))
-                        .build()
-        ));
+                        .build());
+        metricBuilder.setAggregators(aggregators.build());
 
         return _kairosDbClient.queryMetrics(
                 queryBuilder.setMetrics(ImmutableList.of(metricBuilder.build()))
@@ -337,12 +728,28 @@ public class RollupGenerator extends AbstractActorWithTimers {
 
     private final ActorRef _metricsDiscovery;
     private final KairosDbClient _kairosDbClient;
-    private final int _maxBackFillPeriods;
+    private final ImmutableMap<RollupPeriod, Integer> _maxBackFillPeriods;
+    private final int _backFillChunkPeriods;
     private final FiniteDuration _fetchBackoff;
     private final Clock _clock;
     private final PeriodicMetrics _metrics;
-    private List<RollupPeriod> _periodsInFlight = Collections.emptyList();
+    private final RollupWatermarkRepository _watermarkRepository;
+    private final RollupWatermarkExecutor _watermarkExecutor;
+    private final RollupQueryLimiter _limiter;
+    private final RollupTagCache _tagCache;
+    private final int _leaseBatchSize;
+    private final int _concurrency;
+    private final int _tagCardinalityWarning;
+    private final Map<String, List<RollupPeriod>> _metricsInFlight = Maps.newHashMap();
+    private final Map<String, ImmutableSet<String>> _tagNames = Maps.newHashMap();
+    private final Map<String, Map<RollupPeriod, Instant>> _watermarks = Maps.newHashMap();
+    private final Deque<String> _leasedMetrics = new ArrayDeque<>();
+    private final Set<String> _releaseOnFinish = Sets.newHashSet();
+    private final Set<String> _failedMetrics = Sets.newHashSet();
+    private boolean _leaseRequested;
 
     static final Object FETCH_METRIC = new Object();
+    private static final Object LEASE_REQUEST_TIMEOUT = new Object();
+    private static final String LEASE_REQUEST_TIMER = "leaseRequestTimer";
     private static final Logger LOGGER = LoggerFactory.getLogger(RollupGenerator.class);
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.rollups;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import com.arpnetworking.kairos.client.KairosDbClient;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.google.common.hash.Hashing;
+import com.google.inject.Injector;
+import com.typesafe.config.Config;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.Optional;
+
+/**
+ * Actor that performs discovery and rollups for a single partition of the metric names.
+ *
+ * Partitions are entities of a cluster sharded region so that they are spread across the nodes
+ * of the cluster and rebalanced as nodes join and leave. Each partition is started by a
+ * {@link Start} message and owns a {@link MetricsDiscovery} that only tracks the metric names
+ * hashing to the partition, as handed out by the node's {@link PartitionedMetricNames}, together
+ * with the {@link RollupGenerator} workers that lease from it.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class RollupPartition extends AbstractActor {
+
+    /**
+     * Props factory.
+     *
+     * @param injector the Guice injector to load the rollup dependencies from
+     * @param clock the clock the rollup workers use for time calculations
+     * @param periodicMetrics the {@link PeriodicMetrics} the partition reports to
+     * @return A new props to create this actor.
+     */
+    public static Props props(final Injector injector, final Clock clock, final PeriodicMetrics periodicMetrics) {
+        return Props.create(RollupPartition.class, () -> new RollupPartition(injector, clock, periodicMetrics));
+    }
+
+    /**
+     * Returns the partition a metric name belongs to.
+     *
+     * Consistent hashing keeps most metric names in their partition when the number of partitions
+     * changes.
+     *
+     * @param metricName the metric name
+     * @param partitionCount the total number of partitions
+     * @return the partition of the metric name, in {@code [0, partitionCount)}
+     */
+    public static int partitionOf(final String metricName, final int partitionCount) {
+        return Hashing.consistentHash(Hashing.murmur3_32().hashString(metricName, StandardCharsets.UTF_8), partitionCount);
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Start.class, this::start)
+                .build();
+    }
+
+    private RollupPartition(final Injector injector, final Clock clock, final PeriodicMetrics periodicMetrics) {
+        _injector = injector;
+        _clock = clock;
+        _periodicMetrics = periodicMetrics;
+    }
+
+    private void start(final Start message) {
+        if (_partition.isPresent()) {
+            // Start messages are resent periodically to restart partitions that moved
+            return;
+        }
+        final int partition = message.getPartition();
+        final int partitionCount = message.getPartitionCount();
+        _partition = Optional.of(partition);
+
+        final Config configuration = _injector.getInstance(Config.class);
+        final KairosDbClient kairosDbClient = _injector.getInstance(KairosDbClient.class);
+        final RollupWatermarkRepository watermarkRepository = _injector.getInstance(RollupWatermarkRepository.class);
+        final RollupWatermarkExecutor watermarkExecutor = _injector.getInstance(RollupWatermarkExecutor.class);
+        final PartitionedMetricNames metricNames = _injector.getInstance(PartitionedMetricNames.class);
+        final ActorRef discovery = getContext().actorOf(
+                MetricsDiscovery.props(
+                        configuration,
+                        () -> metricNames.getMetricNames(partition, partitionCount),
+                        _periodicMetrics,
+                        watermarkRepository,
+                        watermarkExecutor,
+                        _clock),
+                "discovery");
+        final int workerCount = configuration.getInt("rollup.sharding.workersPerPartition");
+        for (int i = 0; i < workerCount; ++i) {
+            getContext().actorOf(
+                    RollupGenerator.props(
+                            configuration,
+                            discovery,
+                            kairosDbClient,
+                            _clock,
+                            _periodicMetrics,
+                            watermarkRepository,
+                            watermarkExecutor,
+                            _injector.getInstance(RollupQueryLimiter.class),
+                            _injector.getInstance(RollupTagCache.class)),
+                    "generator-" + i);
+        }
+
+        _periodicMetrics.recordCounter("rollup/partition/started", 1);
+        LOGGER.info()
+                .setMessage("Started rollup partition")
+                .addData("partition", partition)
+                .addData("partitionCount", partitionCount)
+                .addData("workers", workerCount)
+                .log();
+    }
+
+    private final Injector _injector;
+    private final Clock _clock;
+    private final PeriodicMetrics _periodicMetrics;
+    private Optional<Integer> _partition = Optional.empty();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RollupPartition.class);
+
+    /**
+     * Message that starts a rollup partition if it is not already running.
+     */
+    public static final class Start implements Serializable {
+        /**
+         * Public constructor.
+         *
+         * @param partition the partition to start
+         * @param partitionCount the total number of partitions
+         */
+        public Start(final int partition, final int partitionCount) {
+            _partition = partition;
+            _partitionCount = partitionCount;
+        }
+
+        public int getPartition() {
+            return _partition;
+        }
+
+        public int getPartitionCount() {
+            return _partitionCount;
+        }
+
+        private final int _partition;
+        private final int _partitionCount;
+        private static final long serialVersionUID = 6154782190374621937L;
+    }
+}
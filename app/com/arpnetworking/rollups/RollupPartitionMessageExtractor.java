@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.rollups;
+
+import akka.cluster.sharding.ShardRegion;
+
+import javax.annotation.Nullable;
+
+/**
+ * Extracts data from messages to setup rollup partitions.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class RollupPartitionMessageExtractor extends ShardRegion.HashCodeMessageExtractor {
+    /**
+     * Public constructor.
+     *
+     * @param maxShards the maximum number of shards; at most the number of partitions is useful
+     */
+    public RollupPartitionMessageExtractor(final int maxShards) {
+        super(maxShards);
+    }
+
+    @Override
+    @Nullable
+    public String entityId(final Object message) {
+        if (message instanceof RollupPartition.Start) {
+            return Integer.toString(((RollupPartition.Start) message).getPartition());
+        }
+        return null;
+    }
+
+    @Override
+    @Nullable
+    public Object entityMessage(final Object message) {
+        return message;
+    }
+}
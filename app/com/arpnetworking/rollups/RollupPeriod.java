@@ -19,22 +19,36 @@ import com.arpnetworking.kairos.client.models.SamplingUnit;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+import javax.annotation.Nullable;
 
 /**
  * Enumeration representing rollup periods.
  *
+ * Rollup periods form a hierarchy: each period other than the finest is computed from the rollup
+ * series of its source period rather than from the raw data, e.g. daily rollups are merged from
+ * hourly rollups. Periods are declared from finest to coarsest so that a source period always
+ * precedes the periods derived from it.
+ *
  * @author Gilligan Markham (gmarkham at dropbox dot com)
  */
 public enum RollupPeriod {
+    /**
+     * Five minute rollup period.
+     */
+    FIVE_MINUTES("_5m", Duration.ofMinutes(5), 5, SamplingUnit.MINUTES, Instant.EPOCH, null),
     /**
      * Hourly rollup period.
      */
-    HOURLY("_1h", ChronoUnit.HOURS, SamplingUnit.HOURS),
+    HOURLY("_1h", Duration.ofHours(1), 1, SamplingUnit.HOURS, Instant.EPOCH, FIVE_MINUTES),
     /**
      * Daily rollup period.
      */
-    DAILY("_1d", ChronoUnit.DAYS, SamplingUnit.DAYS);
+    DAILY("_1d", Duration.ofDays(1), 1, SamplingUnit.DAYS, Instant.EPOCH, HOURLY),
+    /**
+     * Weekly rollup period. Weeks start on Monday, as KairosDB aligns week samplings.
+     */
+    WEEKLY("_1w", Duration.ofDays(7), 1, SamplingUnit.WEEKS, Instant.parse("1969-12-29T00:00:00Z"), DAILY);
 
 
     public String getSuffix() {
@@ -48,7 +62,9 @@ public enum RollupPeriod {
      * @return most recent end time for supplied instant
      */
     public Instant recentEndTime(final Instant time) {
-        return time.truncatedTo(_truncationUnit);
+        final long periodMillis = _duration.toMillis();
+        final long offsetMillis = time.toEpochMilli() - _origin.toEpochMilli();
+        return _origin.plusMillis(Math.floorDiv(offsetMillis, periodMillis) * periodMillis);
     }
 
     /**
@@ -58,8 +74,7 @@ public enum RollupPeriod {
      * @return next period start to for supplied instant
      */
     public Instant nextPeriodStart(final Instant time) {
-        return time.truncatedTo(_truncationUnit)
-                .plus(1, _truncationUnit);
+        return recentEndTime(time).plus(_duration);
     }
 
     /**
@@ -69,20 +84,55 @@ public enum RollupPeriod {
      * @return duration of count periods
      */
     public Duration periodCountToDuration(final int count) {
-        return _truncationUnit.getDuration().multipliedBy(count);
+        return _duration.multipliedBy(count);
+    }
+
+    /**
+     * The instant period boundaries are aligned to. Periods other than weeks are aligned to the epoch.
+     *
+     * @return the origin of the period boundaries
+     */
+    public Instant getOrigin() {
+        return _origin;
     }
 
     public SamplingUnit getSamplingUnit() {
         return _samplingUnit;
     }
 
-    RollupPeriod(final String suffix, final ChronoUnit truncationUnit, final SamplingUnit samplingUnit) {
+    public int getSamplingValue() {
+        return _samplingValue;
+    }
+
+    /**
+     * The finer period whose rollup series this period is computed from.
+     *
+     * @return the source period, or empty if this period is computed from the raw data
+     */
+    public Optional<RollupPeriod> getSourcePeriod() {
+        return Optional.ofNullable(_sourcePeriod);
+    }
+
+    RollupPeriod(
+            final String suffix,
+            final Duration duration,
+            final int samplingValue,
+            final SamplingUnit samplingUnit,
+            final Instant origin,
+            @Nullable final RollupPeriod sourcePeriod) {
         _suffix = suffix;
-        _truncationUnit = truncationUnit;
+        _duration = duration;
+        _samplingValue = samplingValue;
         _samplingUnit = samplingUnit;
+        _origin = origin;
+        _sourcePeriod = sourcePeriod;
     }
 
     private final String _suffix;
-    private final ChronoUnit _truncationUnit;
+    private final Duration _duration;
+    private final int _samplingValue;
     private final SamplingUnit _samplingUnit;
+    private final Instant _origin;
+    @Nullable
+    private final RollupPeriod _sourcePeriod;
 }
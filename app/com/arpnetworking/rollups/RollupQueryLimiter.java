@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.rollups;
+
+import com.arpnetworking.kairos.client.KairosDbRequestException;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.play.configuration.ConfigurationHelper;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Limits the number of concurrent rollup queries sent to KairosDB from this node.
+ *
+ * The limit adapts to KairosDB health with additive increase and multiplicative decrease. Each
+ * query that completes faster than the latency threshold while the limit is in use grows the limit
+ * by roughly one per limit's worth of queries. A query that reaches the threshold, or that fails
+ * for a reason other than a client error, shrinks the limit by the backoff ratio. Queries that were
+ * already in flight when the limit shrank do not shrink it again, so that a single burst of slow
+ * responses is only counted once.
+ *
+ * The limiter is shared by all rollup workers on the node.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+@Singleton
+public final class RollupQueryLimiter {
+
+    /**
+     * Public constructor.
+     *
+     * @param configuration play configuration
+     * @param metrics periodic metrics instance
+     */
+    @Inject
+    public RollupQueryLimiter(final Config configuration, final PeriodicMetrics metrics) {
+        _metrics = metrics;
+        _enabled = configuration.getBoolean("rollup.limiter.enabled");
+        _minLimit = Math.max(1, configuration.getInt("rollup.limiter.minLimit"));
+        _maxLimit = Math.max(_minLimit, configuration.getInt("rollup.limiter.maxLimit"));
+        _limit = Math.min(_maxLimit, Math.max(_minLimit, configuration.getInt("rollup.limiter.initialLimit")));
+        _backoffRatio = configuration.getDouble("rollup.limiter.backoffRatio");
+        _latencyThresholdNanos = ConfigurationHelper.getFiniteDuration(configuration, "rollup.limiter.latencyThreshold").toNanos();
+        _retryDelay = ConfigurationHelper.getFiniteDuration(configuration, "rollup.limiter.retryDelay");
+    }
+
+    /**
+     * Acquires a permit to send a rollup query if the limit allows it.
+     *
+     * @return the permit to release once the query completes, or empty if the query should be retried later
+     */
+    public synchronized Optional<Permit> tryAcquire() {
+        if (_enabled && _inFlight >= (int) _limit) {
+            _metrics.recordCounter("rollup/limiter/rejected", 1);
+            return Optional.empty();
+        }
+        _metrics.recordCounter("rollup/limiter/rejected", 0);
+        ++_inFlight;
+        _metrics.recordGauge("rollup/limiter/in_flight", _inFlight);
+        return Optional.of(new Permit(System.nanoTime()));
+    }
+
+    /**
+     * Releases a permit and adjusts the limit based on the outcome of its query.
+     *
+     * @param permit the permit returned by {@link #tryAcquire()}
+     * @param failure the failure of the query, if it failed
+     */
+    public synchronized void release(final Permit permit, @Nullable final Throwable failure) {
+        final long now = System.nanoTime();
+        final boolean inUse = _inFlight >= _limit / 2;
+        --_inFlight;
+        if (isOverloaded(now - permit.getStartNanos(), failure)) {
+            if (permit.getStartNanos() >= _lastDecreaseNanos) {
+                _limit = Math.max(_minLimit, _limit * _backoffRatio);
+                _lastDecreaseNanos = now;
+                _metrics.recordCounter("rollup/limiter/decreased", 1);
+            }
+        } else if (inUse) {
+            // Only grow the limit when queries are actually using it
+            _limit = Math.min(_maxLimit, _limit + 1.0 / _limit);
+        }
+        _metrics.recordGauge("rollup/limiter/limit", (long) _limit);
+        _metrics.recordGauge("rollup/limiter/in_flight", _inFlight);
+    }
+
+    /**
+     * Returns the delay after which a rejected query should be retried.
+     *
+     * @return the retry delay
+     */
+    public FiniteDuration getRetryDelay() {
+        return _retryDelay;
+    }
+
+    synchronized int getLimit() {
+        return _enabled ? (int) _limit : Integer.MAX_VALUE;
+    }
+
+    private boolean isOverloaded(final long latencyNanos, @Nullable final Throwable failure) {
+        if (failure != null) {
+            final Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                    ? failure.getCause()
+                    : failure;
+            // A rejected query says nothing about the health of KairosDB
+            return !(cause instanceof KairosDbRequestException) || ((KairosDbRequestException) cause).getHttpStatus() >= 500;
+        }
+        return latencyNanos >= _latencyThresholdNanos;
+    }
+
+    private final PeriodicMetrics _metrics;
+    private final boolean _enabled;
+    private final int _minLimit;
+    private final int _maxLimit;
+    private final double _backoffRatio;
+    private final long _latencyThresholdNanos;
+    private final FiniteDuration _retryDelay;
+    private double _limit;
+    private int _inFlight;
+    private long _lastDecreaseNanos = System.nanoTime();
+
+    /**
+     * A permit for a single rollup query.
+     */
+    public static final class Permit {
+        private Permit(final long startNanos) {
+            _startNanos = startNanos;
+        }
+
+        long getStartNanos() {
+            return _startNanos;
+        }
+
+        private final long _startNanos;
+    }
+}
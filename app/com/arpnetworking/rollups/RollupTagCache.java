@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.rollups;
+
+import com.arpnetworking.play.configuration.ConfigurationHelper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.typesafe.config.Config;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Cache of the tag names of the source metrics being rolled up.
+ *
+ * Each entry records the time range its tag names were discovered over. An entry is fresh for a
+ * configured time after it was fetched and is used as is. Once it is stale only the time since it
+ * was fetched needs to be scanned, and the tag names found are merged into the entry. Entries are
+ * evicted entirely after a longer maximum age so that tag names that are no longer written are
+ * eventually dropped.
+ *
+ * The cache is shared by all rollup workers on the node.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+@Singleton
+public final class RollupTagCache {
+
+    /**
+     * Public constructor.
+     *
+     * @param configuration play configuration
+     */
+    @Inject
+    public RollupTagCache(final Config configuration) {
+        _ttl = Duration.ofMillis(ConfigurationHelper.getFiniteDuration(configuration, "rollup.tags.ttl").toMillis());
+        _entries = CacheBuilder.newBuilder()
+                .expireAfterWrite(
+                        ConfigurationHelper.getFiniteDuration(configuration, "rollup.tags.maxAge").toMillis(),
+                        TimeUnit.MILLISECONDS)
+                .maximumSize(configuration.getLong("rollup.tags.maxEntries"))
+                .build();
+    }
+
+    /**
+     * Returns the cached tag names of a metric if they cover a time range starting no later than a given time.
+     *
+     * @param metricName the name of the source metric
+     * @param startTime the start of the time range the tag names must cover
+     * @return the cached entry, if any covers the start time
+     */
+    public Optional<Entry> get(final String metricName, final Instant startTime) {
+        return Optional.ofNullable(_entries.getIfPresent(metricName))
+                .filter(entry -> !entry.getCoveredFrom().isAfter(startTime));
+    }
+
+    /**
+     * Determines whether an entry can be used without scanning for new tag names.
+     *
+     * @param entry the cached entry
+     * @param now the current time
+     * @return true if the entry was fetched within the time to live
+     */
+    public boolean isFresh(final Entry entry, final Instant now) {
+        return entry.getCoveredUntil().plus(_ttl).isAfter(now);
+    }
+
+    /**
+     * Merges newly discovered tag names into the cache.
+     *
+     * @param metricName the name of the source metric
+     * @param previous the entry the tag names were discovered incrementally from, if any
+     * @param tagNames the tag names discovered
+     * @param coveredFrom the start of the time range the tag names were discovered over, when not incremental
+     * @param coveredUntil the end of the time range the tag names were discovered over
+     * @return the merged entry
+     */
+    public Entry merge(
+            final String metricName,
+            final Optional<Entry> previous,
+            final Set<String> tagNames,
+            final Instant coveredFrom,
+            final Instant coveredUntil) {
+        final Entry merged = previous
+                .map(entry -> new Entry(
+                        ImmutableSet.<String>builder().addAll(entry.getTagNames()).addAll(tagNames).build(),
+                        entry.getCoveredFrom(),
+                        coveredUntil))
+                .orElseGet(() -> new Entry(ImmutableSet.copyOf(tagNames), coveredFrom, coveredUntil));
+        _entries.put(metricName, merged);
+        return merged;
+    }
+
+    private final Duration _ttl;
+    private final Cache<String, Entry> _entries;
+
+    /**
+     * The tag names of a metric discovered over a time range.
+     */
+    public static final class Entry {
+        Entry(final ImmutableSet<String> tagNames, final Instant coveredFrom, final Instant coveredUntil) {
+            _tagNames = tagNames;
+            _coveredFrom = coveredFrom;
+            _coveredUntil = coveredUntil;
+        }
+
+        public ImmutableSet<String> getTagNames() {
+            return _tagNames;
+        }
+
+        public Instant getCoveredFrom() {
+            return _coveredFrom;
+        }
+
+        public Instant getCoveredUntil() {
+            return _coveredUntil;
+        }
+
+        private final ImmutableSet<String> _tagNames;
+        private final Instant _coveredFrom;
+        private final Instant _coveredUntil;
+    }
+}
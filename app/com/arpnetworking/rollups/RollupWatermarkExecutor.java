@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.rollups;
+
+import com.arpnetworking.metrics.Units;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.typesafe.config.Config;
+
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs blocking {@link RollupWatermarkRepository} calls on a dedicated, bounded thread pool.
+ *
+ * Watermark repositories backed by a database block the calling thread for the duration of each
+ * transaction. Running them here keeps a slow database from stalling the rollup actors. The pool has
+ * a fixed number of threads and a bounded queue; a call submitted while the queue is full fails with
+ * a {@link RejectedExecutionException} instead of waiting.
+ *
+ * Each call records the time it waited in the queue and the time it took to execute, under
+ * {@code rollup/watermark/<operation>/queue_time} and {@code rollup/watermark/<operation>/execution_time}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class RollupWatermarkExecutor {
+
+    /**
+     * Public constructor.
+     *
+     * @param configuration play configuration
+     * @param periodicMetrics the {@link PeriodicMetrics} to record to
+     */
+    public RollupWatermarkExecutor(final Config configuration, final PeriodicMetrics periodicMetrics) {
+        _periodicMetrics = periodicMetrics;
+        final int threads = configuration.getInt("rollup.watermark.threads");
+        _executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(configuration.getInt("rollup.watermark.queueSize")),
+                new ThreadFactoryBuilder().setNameFormat("rollup-watermark-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Runs a blocking watermark repository call.
+     *
+     * @param operation the name of the operation, used in the recorded metric names
+     * @param call the blocking call
+     * @param <R> the type of the result of the call
+     * @return the result of the call, or its failure
+     */
+    public <R> CompletionStage<R> submit(final String operation, final Supplier<R> call) {
+        final CompletableFuture<R> result = new CompletableFuture<>();
+        final long submittedAt = System.nanoTime();
+        try {
+            _executor.execute(() -> {
+                final long startedAt = System.nanoTime();
+                _periodicMetrics.recordTimer(
+                        "rollup/watermark/" + operation + "/queue_time",
+                        startedAt - submittedAt,
+                        Optional.of(Units.NANOSECOND));
+                try {
+                    result.complete(call.get());
+                    // CHECKSTYLE.OFF: IllegalCatch - The failure is handed to the caller through the result
+                } catch (final RuntimeException e) {
+                    // CHECKSTYLE.ON: IllegalCatch
+                    result.completeExceptionally(e);
+                }
+                _periodicMetrics.recordTimer(
+                        "rollup/watermark/" + operation + "/execution_time",
+                        System.nanoTime() - startedAt,
+                        Optional.of(Units.NANOSECOND));
+            });
+            _periodicMetrics.recordCounter("rollup/watermark/rejected", 0);
+        } catch (final RejectedExecutionException e) {
+            _periodicMetrics.recordCounter("rollup/watermark/rejected", 1);
+            result.completeExceptionally(e);
+        }
+        _periodicMetrics.recordGauge("rollup/watermark/queue_depth", _executor.getQueue().size());
+        return result;
+    }
+
+    /**
+     * Stops accepting calls. Calls already submitted still run.
+     */
+    public void shutdown() {
+        _executor.shutdown();
+    }
+
+    private final PeriodicMetrics _periodicMetrics;
+    private final ThreadPoolExecutor _executor;
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.rollups;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A repository for the rollup watermarks of source metrics.
+ *
+ * The watermark of a metric and period is the end time of the most recent rollup known to be
+ * complete. It lets the rollup generator skip querying KairosDB for the last rolled up data point.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public interface RollupWatermarkRepository {
+    /**
+     * Open the {@code RollupWatermarkRepository}.
+     */
+    void open();
+
+    /**
+     * Close the {@code RollupWatermarkRepository}.
+     */
+    void close();
+
+    /**
+     * Get the watermarks of a source metric.
+     *
+     * @param metricName The name of the source metric.
+     * @return The watermark of each period that has one.
+     */
+    Map<RollupPeriod, Instant> getWatermarks(String metricName);
+
+    /**
+     * Get the watermarks of many source metrics at once.
+     *
+     * @param metricNames The names of the source metrics.
+     * @return The watermarks of each source metric that has any, keyed by metric name.
+     */
+    Map<String, Map<RollupPeriod, Instant>> getWatermarks(Collection<String> metricNames);
+
+    /**
+     * Advance the watermark of a source metric and period. A watermark never moves backwards.
+     *
+     * @param metricName The name of the source metric.
+     * @param period The rollup period.
+     * @param watermark The end time of the most recent complete rollup.
+     */
+    void updateWatermark(String metricName, RollupPeriod period, Instant watermark);
+}
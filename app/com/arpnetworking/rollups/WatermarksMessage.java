@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.rollups;
+
+import com.google.common.collect.ImmutableMap;
+import net.sf.oval.constraint.NotEmpty;
+import net.sf.oval.constraint.NotNull;
+
+import java.time.Instant;
+
+/**
+ * Message containing the rollup watermarks loaded for a metric.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class WatermarksMessage extends FailableMessage {
+
+    public String getMetricName() {
+        return _metricName;
+    }
+
+    public ImmutableMap<RollupPeriod, Instant> getWatermarks() {
+        return _watermarks;
+    }
+
+    private WatermarksMessage(final Builder builder) {
+        super(builder);
+        _metricName = builder._metricName;
+        _watermarks = builder._watermarks;
+    }
+
+    private final String _metricName;
+    private final ImmutableMap<RollupPeriod, Instant> _watermarks;
+    private static final long serialVersionUID = 2296171378421548706L;
+
+    /**
+     * Builder class for WatermarksMessage.
+     */
+    public static final class Builder extends FailableMessage.Builder<Builder, WatermarksMessage> {
+
+        /**
+         * Constructs a WatermarksMessage builder.
+         */
+        public Builder() {
+            super(WatermarksMessage::new);
+        }
+
+        /**
+         * Sets the metric name for this message.
+         *
+         * @param value metric name
+         * @return this builder
+         */
+        public Builder setMetricName(final String value) {
+            _metricName = value;
+            return this;
+        }
+
+        /**
+         * Sets the watermark of each period that has one.
+         *
+         * @param value watermarks
+         * @return this builder
+         */
+        public Builder setWatermarks(final ImmutableMap<RollupPeriod, Instant> value) {
+            _watermarks = value;
+            return this;
+        }
+
+        @Override
+        protected void reset() {
+            super.reset();
+            _watermarks = ImmutableMap.of();
+            _metricName = null;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @NotNull
+        @NotEmpty
+        private String _metricName;
+        @NotNull
+        private ImmutableMap<RollupPeriod, Instant> _watermarks = ImmutableMap.of();
+    }
+}
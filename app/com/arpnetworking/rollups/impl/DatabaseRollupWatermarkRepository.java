@@ -0,0 +1,166 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.rollups.impl;
+
+import com.arpnetworking.rollups.RollupPeriod;
+import com.arpnetworking.rollups.RollupWatermarkRepository;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.typesafe.config.Config;
+import io.ebean.EbeanServer;
+import models.ebean.RollupWatermark;
+import play.Environment;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Implementation of {@link RollupWatermarkRepository} using a SQL database.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class DatabaseRollupWatermarkRepository implements RollupWatermarkRepository {
+    /**
+     * Public constructor.
+     *
+     * @param environment Play's {@code Environment} instance.
+     * @param config Play's {@code Configuration} instance.
+     * @param ebeanServer Play's {@code EbeanServer} for this repository.
+     */
+    @Inject
+    public DatabaseRollupWatermarkRepository(
+            final Environment environment,
+            final Config config,
+            @Named("metrics_portal") final EbeanServer ebeanServer) {
+        this(ebeanServer);
+    }
+
+    /**
+     * Public constructor for manual configuration. This is intended for testing.
+     *
+     * @param ebeanServer Play's {@code EbeanServer} for this repository.
+     */
+    public DatabaseRollupWatermarkRepository(final EbeanServer ebeanServer) {
+        _ebeanServer = ebeanServer;
+    }
+
+    @Override
+    public void open() {
+        assertIsOpen(false);
+        LOGGER.debug().setMessage("Opening DatabaseRollupWatermarkRepository").log();
+        _isOpen.set(true);
+    }
+
+    @Override
+    public void close() {
+        assertIsOpen();
+        LOGGER.debug().setMessage("Closing DatabaseRollupWatermarkRepository").log();
+        _isOpen.set(false);
+    }
+
+    @Override
+    public Map<RollupPeriod, Instant> getWatermarks(final String metricName) {
+        assertIsOpen();
+        final Map<RollupPeriod, Instant> watermarks = Maps.newEnumMap(RollupPeriod.class);
+        for (final RollupWatermark watermark : _ebeanServer.createQuery(RollupWatermark.class)
+                .where()
+                .eq("metric_name", metricName)
+                .findList()) {
+            final RollupPeriod period = PERIODS.get(watermark.getPeriod());
+            // Rows of periods that are no longer configured are ignored
+            if (period != null) {
+                watermarks.put(period, watermark.getWatermark());
+            }
+        }
+        return watermarks;
+    }
+
+    @Override
+    public Map<String, Map<RollupPeriod, Instant>> getWatermarks(final Collection<String> metricNames) {
+        assertIsOpen();
+        final Map<String, Map<RollupPeriod, Instant>> watermarks = Maps.newHashMap();
+        // Bound the size of each IN clause
+        for (final List<String> batch : Iterables.partition(metricNames, MAX_METRIC_NAMES_PER_QUERY)) {
+            for (final RollupWatermark watermark : _ebeanServer.createQuery(RollupWatermark.class)
+                    .where()
+                    .in("metric_name", batch)
+                    .findList()) {
+                final RollupPeriod period = PERIODS.get(watermark.getPeriod());
+                if (period != null) {
+                    watermarks.computeIfAbsent(watermark.getMetricName(), name -> Maps.newEnumMap(RollupPeriod.class))
+                            .put(period, watermark.getWatermark());
+                }
+            }
+        }
+        return watermarks;
+    }
+
+    @Override
+    public void updateWatermark(final String metricName, final RollupPeriod period, final Instant watermark) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Updating rollup watermark")
+                .addData("metricName", metricName)
+                .addData("period", period)
+                .addData("watermark", watermark)
+                .log();
+        // Concurrent workers may finish the same metric out of order; only ever advance the watermark
+        _ebeanServer.createSqlUpdate(
+                "INSERT INTO portal.rollup_watermarks (metric_name, period, watermark, updated_at) "
+                        + "VALUES (:metric_name, :period, :watermark, now()) "
+                        + "ON CONFLICT (metric_name, period) DO UPDATE SET "
+                        + "watermark = GREATEST(portal.rollup_watermarks.watermark, EXCLUDED.watermark), "
+                        + "updated_at = now()")
+                .setParameter("metric_name", metricName)
+                .setParameter("period", period.name())
+                .setParameter("watermark", Timestamp.from(watermark))
+                .execute();
+    }
+
+    private void assertIsOpen() {
+        assertIsOpen(true);
+    }
+
+    private void assertIsOpen(final boolean expectedState) {
+        if (_isOpen.get() != expectedState) {
+            throw new IllegalStateException(String.format("Rollup watermark repository is not %s", expectedState ? "open" : "closed"));
+        }
+    }
+
+    private final AtomicBoolean _isOpen = new AtomicBoolean(false);
+    private final EbeanServer _ebeanServer;
+
+    private static final Map<String, RollupPeriod> PERIODS;
+    private static final int MAX_METRIC_NAMES_PER_QUERY = 1000;
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseRollupWatermarkRepository.class);
+
+    static {
+        final Map<String, RollupPeriod> periods = Maps.newHashMap();
+        for (final RollupPeriod period : RollupPeriod.values()) {
+            periods.put(period.name(), period);
+        }
+        PERIODS = Collections.unmodifiableMap(periods);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.rollups.impl;
+
+import com.arpnetworking.rollups.RollupPeriod;
+import com.arpnetworking.rollups.RollupWatermarkRepository;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.google.common.collect.ImmutableMap;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An empty {@code RollupWatermarkRepository}. Every rollup probes KairosDB for its last data point.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class NoRollupWatermarkRepository implements RollupWatermarkRepository {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NoRollupWatermarkRepository.class);
+    private final AtomicBoolean _isOpen = new AtomicBoolean(false);
+
+    /**
+     * Default constructor.
+     */
+    public NoRollupWatermarkRepository() {}
+
+    @Override
+    public void open() {
+        assertIsOpen(false);
+        LOGGER.debug().setMessage("Opening NoRollupWatermarkRepository").log();
+        _isOpen.set(true);
+    }
+
+    @Override
+    public void close() {
+        assertIsOpen();
+        LOGGER.debug().setMessage("Closing NoRollupWatermarkRepository").log();
+        _isOpen.set(false);
+    }
+
+    @Override
+    public Map<RollupPeriod, Instant> getWatermarks(final String metricName) {
+        assertIsOpen();
+        return ImmutableMap.of();
+    }
+
+    @Override
+    public Map<String, Map<RollupPeriod, Instant>> getWatermarks(final Collection<String> metricNames) {
+        assertIsOpen();
+        return ImmutableMap.of();
+    }
+
+    @Override
+    public void updateWatermark(final String metricName, final RollupPeriod period, final Instant watermark) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Updating rollup watermark")
+                .addData("metricName", metricName)
+                .addData("period", period)
+                .addData("watermark", watermark)
+                .log();
+    }
+
+    private void assertIsOpen() {
+        assertIsOpen(true);
+    }
+
+    private void assertIsOpen(final boolean expectedState) {
+        if (_isOpen.get() != expectedState) {
+            throw new IllegalStateException(String.format("Rollup watermark repository is not %s", expectedState ? "open" : "closed"));
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel holding one deadline per key.
+ *
+ * Time is divided into ticks of a fixed duration. The lowest level has one slot per tick for the
+ * next {@code 64} ticks; each higher level has one slot per {@code 64} slots of the level below.
+ * A key is placed on the lowest level whose range covers its deadline and is moved down a level
+ * each time the level above reaches its slot, so that scheduling, rescheduling and cancelling a
+ * key are constant time and advancing the wheel only touches the keys that are due (plus the keys
+ * moved down a level). Deadlines beyond the range of the highest level are parked in its furthest
+ * slot until they come within range.
+ *
+ * A key fires on the first tick that starts at or after its deadline, so it is never early and at
+ * most one tick late relative to the time the wheel is advanced to.
+ *
+ * This class is not thread safe; it is meant to be owned by a single actor.
+ *
+ * @param <K> the type of the keys
+ *
+ * @author Spencer Pearson (spencerpearson at dropbox dot com)
+ */
+public final class HierarchicalTimingWheel<K> {
+
+    /**
+     * Public constructor.
+     *
+     * @param tickMillis the duration of a tick in milliseconds
+     * @param startMillis the time the wheel starts at, in milliseconds since the epoch
+     */
+    public HierarchicalTimingWheel(final long tickMillis, final long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        _tickMillis = tickMillis;
+        _currentTick = Math.floorDiv(startMillis, tickMillis);
+        for (int level = 0; level < LEVELS; ++level) {
+            for (int slot = 0; slot < SLOTS; ++slot) {
+                _slots[level][slot] = new Entry<>(null, 0);
+            }
+        }
+    }
+
+    /**
+     * Schedules a key to fire at a deadline, replacing its previous deadline if it has one.
+     *
+     * @param key the key
+     * @param deadlineMillis the deadline, in milliseconds since the epoch
+     * @return false if the deadline has already passed, in which case the key is not scheduled and should fire now
+     */
+    public boolean schedule(final K key, final long deadlineMillis) {
+        cancel(key);
+        final long deadlineTick = ceilDiv(deadlineMillis, _tickMillis);
+        if (deadlineTick <= _currentTick) {
+            return false;
+        }
+        final Entry<K> entry = new Entry<>(key, deadlineTick);
+        _entries.put(key, entry);
+        place(entry);
+        return true;
+    }
+
+    /**
+     * Cancels the deadline of a key.
+     *
+     * @param key the key
+     * @return true if the key had a deadline
+     */
+    public boolean cancel(final K key) {
+        final Entry<K> entry = _entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        unlink(entry);
+        return true;
+    }
+
+    /**
+     * Advances the wheel, firing every key whose deadline has been reached.
+     *
+     * @param nowMillis the time to advance to, in milliseconds since the epoch
+     * @param fire invoked with each key that fires; a fired key no longer has a deadline
+     * @return the number of keys fired
+     */
+    public int advanceTo(final long nowMillis, final Consumer<K> fire) {
+        final long targetTick = Math.floorDiv(nowMillis, _tickMillis);
+        if (_entries.isEmpty()) {
+            _currentTick = Math.max(_currentTick, targetTick);
+            return 0;
+        }
+        int fired = 0;
+        while (_currentTick < targetTick) {
+            // Nothing fires or moves before the next slot of the lowest level holding any keys, so skip ahead to it
+            int lowest = 0;
+            while (_levelSizes[lowest] == 0) {
+                ++lowest;
+            }
+            final long span = 1L << (BITS * lowest);
+            final long next = (Math.floorDiv(_currentTick, span) + 1) * span;
+            if (next > targetTick) {
+                _currentTick = targetTick;
+                break;
+            }
+            _currentTick = next;
+
+            // Move the keys of any higher level slot that starts at this tick down a level, highest first
+            for (int level = LEVELS - 1; level > 0; --level) {
+                if ((_currentTick & ((1L << (BITS * level)) - 1)) == 0) {
+                    final Entry<K> head = _slots[level][slotIndex(_currentTick, level)];
+                    while (head._next != head) {
+                        final Entry<K> entry = head._next;
+                        unlink(entry);
+                        place(entry);
+                    }
+                }
+            }
+            final Entry<K> head = _slots[0][slotIndex(_currentTick, 0)];
+            while (head._next != head) {
+                final Entry<K> entry = head._next;
+                unlink(entry);
+                _entries.remove(entry._key);
+                fire.accept(entry._key);
+                ++fired;
+            }
+            if (_entries.isEmpty()) {
+                _currentTick = targetTick;
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * Returns the number of keys with a deadline.
+     *
+     * @return the number of keys
+     */
+    public int size() {
+        return _entries.size();
+    }
+
+    private void place(final Entry<K> entry) {
+        // Keys moved down onto the current tick are due now and go into the slot being expired
+        final long tick = Math.max(entry._deadlineTick, _currentTick);
+        final long delta = tick - _currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+            ++level;
+        }
+        // Beyond the highest level, park the key in the furthest slot and place it again once it is reached
+        final long placedTick = Math.min(tick, _currentTick + (1L << (BITS * LEVELS)) - 1);
+        entry.linkBefore(_slots[level][slotIndex(placedTick, level)]);
+        entry._level = level;
+        ++_levelSizes[level];
+    }
+
+    private void unlink(final Entry<K> entry) {
+        entry.unlink();
+        --_levelSizes[entry._level];
+    }
+
+    private static int slotIndex(final long tick, final int level) {
+        return (int) ((tick >>> (BITS * level)) & (SLOTS - 1));
+    }
+
+    private static long ceilDiv(final long dividend, final long divisor) {
+        return -Math.floorDiv(-dividend, divisor);
+    }
+
+    private final long _tickMillis;
+    private long _currentTick;
+    private final Map<K, Entry<K>> _entries = new HashMap<>();
+    private final int[] _levelSizes = new int[LEVELS];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Entry<K>[][] _slots = new Entry[LEVELS][SLOTS];
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int LEVELS = 5;
+
+    /**
+     * A key in a slot, linked into the slot's circular list. Each slot's list has a sentinel entry without a key.
+     */
+    private static final class Entry<K> {
+        Entry(final K key, final long deadlineTick) {
+            _key = key;
+            _deadlineTick = deadlineTick;
+            _previous = this;
+            _next = this;
+        }
+
+        void linkBefore(final Entry<K> head) {
+            _previous = head._previous;
+            _next = head;
+            head._previous._next = this;
+            head._previous = this;
+        }
+
+        void unlink() {
+            _previous._next = _next;
+            _next._previous = _previous;
+            _previous = this;
+            _next = this;
+        }
+
+        private final K _key;
+        private final long _deadlineTick;
+        private int _level;
+        private Entry<K> _previous;
+        private Entry<K> _next;
+    }
+}
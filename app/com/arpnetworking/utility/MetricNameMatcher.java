@@ -0,0 +1,337 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Matches metric names against a set of regular expressions in a single pass.
+ *
+ * A name matches if any of the regular expressions is found in it, exactly as if it were tested
+ * with {@link Pattern#asPredicate()} for each expression in turn. Expressions that are plain
+ * literals, optionally anchored at the start or end of the name, are not run as regular
+ * expressions at all:
+ * <ul>
+ *     <li>{@code ^literal$} is looked up in a hash set</li>
+ *     <li>{@code ^literal} is looked up in a trie of prefixes</li>
+ *     <li>{@code literal$} is looked up in a trie of reversed suffixes</li>
+ *     <li>{@code literal} is searched for with an Aho-Corasick automaton</li>
+ * </ul>
+ * Leading and trailing {@code .*} do not change whether an expression is found and are ignored.
+ * The remaining expressions are combined into one alternation so that only a single regular
+ * expression is run per name.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class MetricNameMatcher implements Predicate<String> {
+
+    /**
+     * Compiles a set of regular expressions into a matcher.
+     *
+     * @param regexes the regular expressions to match
+     * @return a matcher accepting the names any of the regular expressions is found in
+     * @throws java.util.regex.PatternSyntaxException if any of the regular expressions is invalid
+     */
+    public static MetricNameMatcher compile(final Collection<String> regexes) {
+        return new MetricNameMatcher(regexes);
+    }
+
+    /**
+     * Escapes a string so that it is matched literally, keeping it eligible for the literal lookups.
+     *
+     * @param literal the string to escape
+     * @return a regular expression matching the string
+     */
+    public static String escape(final String literal) {
+        final StringBuilder escaped = new StringBuilder(literal.length());
+        for (int i = 0; i < literal.length(); ++i) {
+            final char c = literal.charAt(i);
+            if (METACHARACTERS.indexOf(c) >= 0) {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    @Override
+    public boolean test(final String name) {
+        if (_matchesAll) {
+            return true;
+        }
+        if (hasLineTerminator(name)) {
+            // Anchors and dots treat line terminators specially; only the expressions themselves get that right
+            return _original.stream().anyMatch(pattern -> pattern.matcher(name).find());
+        }
+        return _exact.contains(name)
+                || _prefixes.matchesPrefixOf(name, false)
+                || _suffixes.matchesPrefixOf(name, true)
+                || _substrings.occursIn(name)
+                || _combined.map(pattern -> pattern.matcher(name).find()).orElse(false)
+                || _uncombinable.stream().anyMatch(pattern -> pattern.matcher(name).find());
+    }
+
+    /**
+     * Returns a predicate that remembers the decisions of this matcher for recently tested names.
+     *
+     * @param maxEntries the maximum number of names to remember
+     * @return the memoizing predicate
+     */
+    public Predicate<String> memoized(final long maxEntries) {
+        final LoadingCache<String, Boolean> decisions = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .build(CacheLoader.from(this::test));
+        return decisions::getUnchecked;
+    }
+
+    private MetricNameMatcher(final Collection<String> regexes) {
+        // Compile each expression on its own first so that an invalid expression is reported as such
+        _original = regexes.stream().map(Pattern::compile).collect(ImmutableList.toImmutableList());
+
+        final ImmutableSet.Builder<String> exact = ImmutableSet.builder();
+        final List<String> combinable = new ArrayList<>();
+        final ImmutableList.Builder<Pattern> uncombinable = ImmutableList.builder();
+        boolean matchesAll = false;
+        for (final String regex : regexes) {
+            final Optional<Literal> literal = Literal.parse(regex);
+            if (literal.isPresent()) {
+                final Literal value = literal.get();
+                if (value.isStartAnchored() && value.isEndAnchored()) {
+                    exact.add(value.getText());
+                } else if (value.getText().isEmpty()) {
+                    matchesAll = true;
+                } else if (value.isStartAnchored()) {
+                    _prefixes.add(value.getText(), false);
+                } else if (value.isEndAnchored()) {
+                    _suffixes.add(value.getText(), true);
+                } else {
+                    _substrings.add(value.getText(), false);
+                }
+            } else if (NOT_COMBINABLE.matcher(regex).find()) {
+                uncombinable.add(Pattern.compile(regex));
+            } else {
+                combinable.add(regex);
+            }
+        }
+        _substrings.buildFailureLinks();
+        _matchesAll = matchesAll;
+        _exact = exact.build();
+        _combined = combinable.isEmpty()
+                ? Optional.empty()
+                : Optional.of(Pattern.compile(combinable.stream().map(regex -> "(?:" + regex + ")").collect(Collectors.joining("|"))));
+        _uncombinable = uncombinable.build();
+    }
+
+    private static boolean hasLineTerminator(final String name) {
+        for (int i = 0; i < name.length(); ++i) {
+            final char c = name.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final ImmutableList<Pattern> _original;
+    private final boolean _matchesAll;
+    private final Set<String> _exact;
+    private final Trie _prefixes = new Trie();
+    private final Trie _suffixes = new Trie();
+    private final Trie _substrings = new Trie();
+    private final Optional<Pattern> _combined;
+    private final ImmutableList<Pattern> _uncombinable;
+
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+    // Quoting, back references, named groups and comments do not survive being wrapped into an alternation
+    private static final Pattern NOT_COMBINABLE = Pattern.compile("\\\\[QEk1-9]|\\(\\?<[a-zA-Z]|#");
+
+    /**
+     * A regular expression that only matches a literal string.
+     */
+    private static final class Literal {
+        static Optional<Literal> parse(final String regex) {
+            int start = 0;
+            int end = regex.length();
+            boolean startAnchored = false;
+            boolean endAnchored = false;
+            if (start < end && regex.charAt(start) == '^') {
+                startAnchored = true;
+                ++start;
+            }
+            while (regex.startsWith(".*", start)) {
+                startAnchored = false;
+                start += 2;
+            }
+            if (end > start && regex.charAt(end - 1) == '$' && !isEscaped(regex, start, end - 1)) {
+                endAnchored = true;
+                --end;
+            }
+            while (end - start >= 2 && regex.startsWith(".*", end - 2) && !isEscaped(regex, start, end - 2)) {
+                endAnchored = false;
+                end -= 2;
+            }
+
+            final StringBuilder text = new StringBuilder(end - start);
+            for (int i = start; i < end; ++i) {
+                final char c = regex.charAt(i);
+                if (c == '\\') {
+                    // Only escaped punctuation is a literal; escaped letters and digits are classes or references
+                    if (i + 1 >= end || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                        return Optional.empty();
+                    }
+                    text.append(regex.charAt(++i));
+                } else if (METACHARACTERS.indexOf(c) >= 0) {
+                    return Optional.empty();
+                } else {
+                    text.append(c);
+                }
+            }
+            return Optional.of(new Literal(text.toString(), startAnchored, endAnchored));
+        }
+
+        String getText() {
+            return _text;
+        }
+
+        boolean isStartAnchored() {
+            return _startAnchored;
+        }
+
+        boolean isEndAnchored() {
+            return _endAnchored;
+        }
+
+        private Literal(final String text, final boolean startAnchored, final boolean endAnchored) {
+            _text = text;
+            _startAnchored = startAnchored;
+            _endAnchored = endAnchored;
+        }
+
+        private static boolean isEscaped(final String regex, final int start, final int index) {
+            int backslashes = 0;
+            for (int i = index - 1; i >= start && regex.charAt(i) == '\\'; --i) {
+                ++backslashes;
+            }
+            return backslashes % 2 == 1;
+        }
+
+        private final String _text;
+        private final boolean _startAnchored;
+        private final boolean _endAnchored;
+    }
+
+    /**
+     * A character trie, optionally with Aho-Corasick failure links for substring search.
+     */
+    private static final class Trie {
+        void add(final String text, final boolean reversed) {
+            Node node = _root;
+            for (int i = 0; i < text.length(); ++i) {
+                final char c = text.charAt(reversed ? text.length() - 1 - i : i);
+                node = node._children.computeIfAbsent(c, key -> new Node());
+            }
+            node._terminal = true;
+            _empty = false;
+        }
+
+        boolean matchesPrefixOf(final String name, final boolean reversed) {
+            if (_empty) {
+                return false;
+            }
+            Node node = _root;
+            for (int i = 0; i < name.length(); ++i) {
+                node = node._children.get(name.charAt(reversed ? name.length() - 1 - i : i));
+                if (node == null) {
+                    return false;
+                }
+                if (node._terminal) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void buildFailureLinks() {
+            final Queue<Node> queue = new ArrayDeque<>();
+            _root._failure = _root;
+            for (final Node child : _root._children.values()) {
+                child._failure = _root;
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                final Node node = queue.remove();
+                for (final Map.Entry<Character, Node> entry : node._children.entrySet()) {
+                    final Node child = entry.getValue();
+                    Node failure = node._failure;
+                    while (failure != _root && !failure._children.containsKey(entry.getKey())) {
+                        failure = failure._failure;
+                    }
+                    final Node target = failure._children.get(entry.getKey());
+                    child._failure = target != null ? target : _root;
+                    // A node also matches if any string ending at its failure node does
+                    child._terminal |= child._failure._terminal;
+                    queue.add(child);
+                }
+            }
+        }
+
+        boolean occursIn(final String name) {
+            if (_empty) {
+                return false;
+            }
+            Node node = _root;
+            for (int i = 0; i < name.length(); ++i) {
+                final char c = name.charAt(i);
+                Node next = node._children.get(c);
+                while (next == null && node != _root) {
+                    node = node._failure;
+                    next = node._children.get(c);
+                }
+                node = next == null ? _root : next;
+                if (node._terminal) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private final Node _root = new Node();
+        private boolean _empty = true;
+    }
+
+    private static final class Node {
+        private final Map<Character, Node> _children = new HashMap<>();
+        private Node _failure;
+        private boolean _terminal;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent executions of the same operation. While an operation for a key is in flight, every
+ * other caller for that key receives the result of the in-flight operation instead of starting its own.
+ * Once the operation completes the key is released, so results are never reused after the fact.
+ *
+ * Each call records to two counters so that the coalescing ratio can be derived:
+ * <ul>
+ *     <li>{@code <prefix>/requests} - one per call</li>
+ *     <li>{@code <prefix>/coalesced} - one if the call joined an in-flight operation, zero otherwise</li>
+ * </ul>
+ *
+ * @param <K> the type of the key identifying the operation
+ * @param <V> the type of the result of the operation
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class SingleFlight<K, V> {
+    /**
+     * Public constructor.
+     *
+     * @param metrics periodic metrics instance to record to
+     * @param metricPrefix prefix for the recorded metric names
+     */
+    public SingleFlight(final PeriodicMetrics metrics, final String metricPrefix) {
+        _metrics = metrics;
+        _metricPrefix = metricPrefix;
+    }
+
+    /**
+     * Executes an operation unless an operation for the same key is already in flight.
+     *
+     * @param key the key identifying the operation
+     * @param operation supplier starting the operation
+     * @return the result of the operation
+     */
+    public CompletionStage<V> execute(final K key, final Supplier<? extends CompletionStage<V>> operation) {
+        final CompletableFuture<V> promise = new CompletableFuture<>();
+        final CompletableFuture<V> inFlight = _inFlight.putIfAbsent(key, promise);
+        _metrics.recordCounter(_metricPrefix + "/requests", 1);
+        if (inFlight != null) {
+            _metrics.recordCounter(_metricPrefix + "/coalesced", 1);
+            return copy(inFlight);
+        }
+        _metrics.recordCounter(_metricPrefix + "/coalesced", 0);
+
+        final CompletionStage<V> result;
+        try {
+            result = operation.get();
+            // CHECKSTYLE.OFF: IllegalCatch - The key must be released no matter what
+        } catch (final RuntimeException e) {
+            // CHECKSTYLE.ON: IllegalCatch
+            _inFlight.remove(key, promise);
+            promise.completeExceptionally(e);
+            throw e;
+        }
+        result.whenComplete((value, failure) -> {
+            _inFlight.remove(key, promise);
+            if (failure != null) {
+                promise.completeExceptionally(failure);
+            } else {
+                promise.complete(value);
+            }
+        });
+        return copy(promise);
+    }
+
+    private static <V> CompletionStage<V> copy(final CompletableFuture<V> future) {
+        // Hand each caller its own future so that one caller completing or cancelling it cannot affect the others
+        final CompletableFuture<V> copy = new CompletableFuture<>();
+        future.whenComplete((value, failure) -> {
+            if (failure != null) {
+                copy.completeExceptionally(failure);
+            } else {
+                copy.complete(value);
+            }
+        });
+        return copy;
+    }
+
+    private final ConcurrentMap<K, CompletableFuture<V>> _inFlight = new ConcurrentHashMap<>();
+    private final PeriodicMetrics _metrics;
+    private final String _metricPrefix;
+}
@@ -15,20 +15,36 @@
  */
 package controllers;
 
-import akka.stream.javadsl.StreamConverters;
-import com.arpnetworking.kairos.client.KairosDbClient;
+import akka.Done;
+import akka.stream.Attributes;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.SinkQueueWithCancel;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.arpnetworking.kairos.client.KairosDbEndpoints;
+import com.arpnetworking.kairos.client.KairosDbRequestException;
 import com.arpnetworking.kairos.client.models.KairosMetricNamesQueryResponse;
+import com.arpnetworking.kairos.client.models.MetricsQuery;
+import com.arpnetworking.kairos.client.models.MetricsQueryResponse;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.metrics.portal.query.MetricNameCatalog;
+import com.arpnetworking.metrics.portal.query.QueryResultCache;
+import com.arpnetworking.metrics.portal.query.RollupQueryRewriter;
+import com.arpnetworking.play.MeteredPublisher;
 import com.arpnetworking.play.ProxyClient;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.utility.SingleFlight;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.inject.Singleton;
 import com.typesafe.config.Config;
+import net.sf.oval.exception.ConstraintsViolatedException;
+import org.reactivestreams.Publisher;
 import play.http.HttpEntity;
 import play.libs.ws.WSClient;
 import play.mvc.Controller;
@@ -36,26 +52,22 @@ import play.mvc.Http;
 import play.mvc.Result;
 import play.mvc.Results;
 import play.shaded.ahc.io.netty.handler.codec.http.HttpHeaders;
-import play.shaded.ahc.org.asynchttpclient.AsyncCompletionHandler;
 import play.shaded.ahc.org.asynchttpclient.HttpResponseBodyPart;
 import play.shaded.ahc.org.asynchttpclient.HttpResponseHeaders;
 import play.shaded.ahc.org.asynchttpclient.HttpResponseStatus;
-import play.shaded.ahc.org.asynchttpclient.Response;
+import play.shaded.ahc.org.asynchttpclient.handler.StreamedAsyncHandler;
 
 import java.io.IOException;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.net.URI;
-import java.util.List;
-import java.util.Locale;
+import java.time.Clock;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Predicate;
-import java.util.stream.Collector;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 
@@ -69,21 +81,42 @@ public class KairosDbProxy extends Controller {
     /**
      * Public constructor.
      *
-     * @param configuration Play configuration to configure the proxy
      * @param client ws client to use
-     * @param kairosDbClient a KairosDBClient
      * @param mapper ObjectMapper to use for JSON serialization
+     * @param metrics periodic metrics instance
+     * @param queryResultCache cache for datapoint query results
+     * @param materializer materializer used to buffer coalesced responses
+     * @param metricNameCatalog catalog of metric names
+     * @param rollupQueryRewriter rewriter of datapoint queries to rollup series
+     * @param endpoints KairosDB endpoints to balance proxied requests across
+     * @param clock clock to resolve relative query times against
+     * @param configuration Play configuration to configure the proxy
      */
     @Inject
     public KairosDbProxy(
-            final Config configuration,
             final WSClient client,
-            final KairosDbClient kairosDbClient,
-            final ObjectMapper mapper) {
-        final URI kairosURL = URI.create(configuration.getString("kairosdb.uri"));
-        _client = new ProxyClient(kairosURL, client);
-        _kairosDbClient = kairosDbClient;
+            final ObjectMapper mapper,
+            final PeriodicMetrics metrics,
+            final QueryResultCache queryResultCache,
+            final Materializer materializer,
+            final MetricNameCatalog metricNameCatalog,
+            final RollupQueryRewriter rollupQueryRewriter,
+            final KairosDbEndpoints endpoints,
+            final Clock clock,
+            final Config configuration) {
+        final Map<KairosDbEndpoints.Endpoint, ProxyClient> clients = Maps.newHashMap();
+        endpoints.getEndpoints().forEach(endpoint -> clients.put(endpoint, new ProxyClient(endpoint.getUri(), client)));
+        _clients = ImmutableMap.copyOf(clients);
+        _endpoints = endpoints;
         _mapper = mapper;
+        _metrics = metrics;
+        _queryResultCache = queryResultCache;
+        _materializer = materializer;
+        _metricNameCatalog = metricNameCatalog;
+        _rollupQueryRewriter = rollupQueryRewriter;
+        _clock = clock;
+        _queryFlights = new SingleFlight<>(metrics, "kairos_proxy/query");
+        _maxCoalescedResponseBytes = configuration.getBytes("kairosdb.proxy.coalescing.maxResponseSize");
     }
 
     /**
@@ -92,7 +125,7 @@ public class KairosDbProxy extends Controller {
      * @return Proxied status response.
      */
     public CompletionStage<Result> status() {
-        return proxy();
+        return proxy(request(), response(), STATUS_CLASS, true);
     }
 
     /**
@@ -101,7 +134,7 @@ public class KairosDbProxy extends Controller {
      * @return Proxied health check response.
      */
     public CompletionStage<Result> healthCheck() {
-        return proxy();
+        return proxy(request(), response(), HEALTH_CHECK_CLASS, true);
     }
 
     /**
@@ -110,7 +143,7 @@ public class KairosDbProxy extends Controller {
      * @return Proxied tagNames response.
      */
     public CompletionStage<Result> tagNames() {
-        return proxy();
+        return proxy(request(), response(), TAG_NAMES_CLASS, true);
     }
 
     /**
@@ -119,7 +152,7 @@ public class KairosDbProxy extends Controller {
      * @return Proxied tagValues response.
      */
     public CompletionStage<Result> tagValues() {
-        return proxy();
+        return proxy(request(), response(), TAG_VALUES_CLASS, true);
     }
 
     /**
@@ -128,16 +161,32 @@ public class KairosDbProxy extends Controller {
      * @return Proxied queryTags response.
      */
     public CompletionStage<Result> queryTags() {
-        return proxy();
+        return proxy(request(), response(), QUERY_TAGS_CLASS, true);
     }
 
     /**
-     * Proxied queryMetrics call.
+     * Proxied queryMetrics call. Queries that can be answered from rollup series are rewritten
+     * by the {@link RollupQueryRewriter}, queries that can be split on time bucket boundaries are
+     * answered through the {@link QueryResultCache}, and identical concurrent requests for all
+     * other queries share a single upstream request.
      *
      * @return Proxied queryMetrics response.
      */
     public CompletionStage<Result> queryMetrics() {
-        return proxy();
+        final Optional<MetricsQuery> query = parseMetricsQuery(request());
+        final CompletionStage<MetricsQueryResponse> response;
+        if (query.isPresent() && _rollupQueryRewriter.isRewritable(query.get())) {
+            response = _rollupQueryRewriter.queryMetrics(query.get());
+        } else if (query.isPresent() && _queryResultCache.isCacheable(query.get())) {
+            response = _queryResultCache.queryMetrics(query.get());
+        } else {
+            // Unparseable queries may save their results, so only queries known to be reads are hedged
+            return coalescedProxy(query.isPresent() && !query.get().hasSideEffects());
+        }
+        return response
+                .<JsonNode>thenApply(_mapper::valueToTree)
+                .thenApply(Results::ok)
+                .exceptionally(KairosDbProxy::errorResult);
     }
 
     /**
@@ -146,167 +195,318 @@ public class KairosDbProxy extends Controller {
      * @return Proxied version response.
      */
     public CompletionStage<Result> version() {
-        return proxy();
+        return proxy(request(), response(), VERSION_CLASS, true);
     }
 
     /**
-     * Caching metricNames call.
+     * Indexed metricNames call.
      *
      * @param containing simple string match filter for metric names
-     * @return Cached metric names, filtered by the query string.
+     * @param limit maximum number of filtered metric names to return
+     * @return Metric names from the catalog, filtered by the query string.
      */
-    public CompletionStage<Result> metricNames(final String containing) {
-        final List<String> metrics = _cache.getIfPresent(METRICS_KEY);
+    public CompletionStage<Result> metricNames(@Nullable final String containing, @Nullable final Integer limit) {
+        return _metricNameCatalog.find(containing, Optional.ofNullable(limit))
+                .thenApply(list -> new KairosMetricNamesQueryResponse.Builder().setResults(list).build())
+                .<JsonNode>thenApply(_mapper::valueToTree)
+                .thenApply(Results::ok);
+    }
 
-        final CompletionStage<List<String>> response;
-        if (metrics != null) {
-            response = CompletableFuture.completedFuture(metrics);
-        } else {
-            // TODO(brandon): Investigate refreshing eagerly or in the background
-            // Refresh the cache
-            final CompletionStage<List<String>> queryResponse = _kairosDbClient.queryMetricNames()
-                    .thenApply(KairosMetricNamesQueryResponse::getResults)
-                    .thenApply(list -> {
-                        _cache.put(METRICS_KEY, list);
-                        _metricsList.set(list);
-                        return list;
-                    });
-
-            final List<String> metricsList = _metricsList.get();
-            if (metricsList != null) {
-                response = CompletableFuture.completedFuture(metricsList);
-            } else {
-                response = queryResponse;
+    private Optional<MetricsQuery> parseMetricsQuery(final Http.Request request) {
+        try {
+            final JsonNode json = request.body().asJson();
+            if (json != null) {
+                return Optional.of(_mapper.readerForUpdating(newMetricsQueryBuilder()).<MetricsQuery.Builder>readValue(json).build());
+            }
+            final ByteString bytes = request.body().asBytes();
+            if (bytes != null && bytes.nonEmpty()) {
+                return Optional.of(
+                        _mapper.readerForUpdating(newMetricsQueryBuilder()).<MetricsQuery.Builder>readValue(bytes.toArray()).build());
             }
+        } catch (final IOException | ConstraintsViolatedException e) {
+            // Queries KairosDB would reject, such as ones without a start time, are proxied for KairosDB to report
+            LOGGER.debug()
+                    .setMessage("Unable to parse metrics query, proxying unchanged")
+                    .setThrowable(e)
+                    .log();
         }
+        return Optional.empty();
+    }
 
-        return response
-                .thenApply(list -> filterMetricNames(list, containing))
-                .thenApply(list -> new KairosMetricNamesQueryResponse.Builder().setResults(list).build())
-                .<JsonNode>thenApply(_mapper::valueToTree)
-                .thenApply(Results::ok);
+    private MetricsQuery.Builder newMetricsQueryBuilder() {
+        // Relative times are resolved against the same clock that the result cache closes its buckets with
+        return new MetricsQuery.Builder().setClock(_clock);
     }
 
-    private static ImmutableList<String> filterMetricNames(final List<String> metricNames, @Nullable final String containing) {
-        if (containing == null || containing.isEmpty()) {
-            return ImmutableList.copyOf(metricNames);
+    private static Result errorResult(final Throwable throwable) {
+        final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+        if (cause instanceof KairosDbRequestException) {
+            final KairosDbRequestException requestException = (KairosDbRequestException) cause;
+            return Results.status(requestException.getHttpStatus(), requestException.getHttpMessage());
         }
+        LOGGER.error()
+                .setMessage("Failed to execute metrics query")
+                .setThrowable(cause)
+                .log();
+        return Results.internalServerError();
+    }
 
-        final String lowerContaining = containing.toLowerCase(Locale.ENGLISH);
-        final Predicate<String> containsPredicate = s -> s.toLowerCase(Locale.getDefault()).contains(lowerContaining);
-
-        return metricNames.stream()
-                .filter(IS_PT1M.negate())
-                .filter(containsPredicate)
-                .collect(Collector.of(
-                        ImmutableList::<String>builder,
-                        ImmutableList.Builder::add,
-                        (a, b) -> a.addAll(b.build()),
-                        ImmutableList.Builder::build));
+    /**
+     * Proxy a request, sharing the upstream request with any identical requests already in flight.
+     * Responses of up to {@code kairosdb.proxy.coalescing.maxResponseSize} bytes are buffered so that every
+     * waiter receives the complete body. Larger responses are streamed to one waiter only; the other waiters
+     * each stream their own upstream response, so that large responses are never held in memory.
+     *
+     * @param hedge whether the request is idempotent and may be hedged
+     * @return the proxied {@link Result}
+     */
+    private CompletionStage<Result> coalescedProxy(final boolean hedge) {
+        final Http.Request request = request();
+        final Http.Response response = response();
+        final ByteString body = request.body().asBytes();
+        final JsonNode json = request.body().asJson();
+        final String key = String.join(
+                "\n",
+                request.method(),
+                request.uri(),
+                request.version(),
+                request.getHeaders().get(ACCEPT_ENCODING).orElse(""),
+                body != null ? body.utf8String() : json != null ? json.toString() : "");
+        // Completions run off the request thread, so the request and response are captured here rather than
+        // read from the thread local context
+        return _queryFlights.execute(
+                key,
+                () -> proxy(request, response, QUERY_CLASS, hedge).thenCompose(result -> bufferUpTo(result, response.getHeaders())))
+                .thenCompose(coalesced -> {
+                    final Optional<Result> result = coalesced.toResult(response);
+                    if (result.isPresent()) {
+                        return CompletableFuture.completedFuture(result.get());
+                    }
+                    _metrics.recordCounter("kairos_proxy/query/uncoalesced", 1);
+                    return proxy(request, response, QUERY_CLASS, hedge);
+                });
+    }
+
+    private CompletionStage<CoalescedResponse> bufferUpTo(final Result result, final Map<String, String> headers) {
+        final Optional<Long> contentLength = result.body().contentLength();
+        if (contentLength.isPresent() && contentLength.get() > _maxCoalescedResponseBytes) {
+            return CompletableFuture.completedFuture(new CoalescedResponse(result, headers, result.body().dataStream()));
+        }
+        // The queue only pulls from upstream as the body is read, so the response stays backpressured
+        final SinkQueueWithCancel<ByteString> queue = result.body().dataStream()
+                .runWith(Sink.<ByteString>queue().withAttributes(Attributes.inputBuffer(1, 1)), _materializer);
+        return pullUpTo(queue, ByteString.empty(), result, headers);
+    }
+
+    private CompletionStage<CoalescedResponse> pullUpTo(
+            final SinkQueueWithCancel<ByteString> queue,
+            final ByteString buffered,
+            final Result result,
+            final Map<String, String> headers) {
+        return queue.pull().thenCompose(next -> {
+            if (!next.isPresent()) {
+                return CompletableFuture.completedFuture(new CoalescedResponse(result, headers, buffered));
+            }
+            final ByteString consumed = buffered.concat(next.get());
+            if (consumed.size() > _maxCoalescedResponseBytes) {
+                final Source<ByteString, ?> rest = Source.unfoldResourceAsync(
+                        () -> CompletableFuture.completedFuture(queue),
+                        SinkQueueWithCancel::pull,
+                        q -> {
+                            q.cancel();
+                            return CompletableFuture.completedFuture(Done.getInstance());
+                        });
+                return CompletableFuture.completedFuture(
+                        new CoalescedResponse(result, headers, Source.single(consumed).concat(rest)));
+            }
+            return pullUpTo(queue, consumed, result, headers);
+        });
     }
 
     /**
-     * Proxy a request.
+     * Proxy a request. Idempotent requests are hedged against a second endpoint if the selected endpoint
+     * is slow to respond; the losing attempt is aborted, or its response body cancelled if it already
+     * has one.
      *
+     * @param request the request to proxy
+     * @param configResponse the response to apply the upstream headers to
+     * @param requestClass the class of the request, which hedge delays and endpoint latencies are kept by
+     * @param hedge whether the request is idempotent and may be hedged
      * @return the proxied {@link Result}
      */
-    private CompletionStage<Result> proxy() {
-        final String path = request().uri();
+    private CompletionStage<Result> proxy(
+            final Http.Request request,
+            final Http.Response configResponse,
+            final String requestClass,
+            final boolean hedge) {
+        final String path = request.uri();
         LOGGER.debug().setMessage("proxying call to kairosdb")
                 .addData("from", path)
                 .log();
-        final CompletableFuture<Result> promise = new CompletableFuture<>();
-        final Http.Request request = request();
         final boolean isHttp10 = request.version().equals("HTTP/1.0");
-        final Http.Response configResponse = response();
-        _client.proxy(
-                path.startsWith("/") ? path : "/" + path,
-                request,
-                new ResponseHandler(configResponse, promise, isHttp10));
-        return promise;
+        final Function<KairosDbEndpoints.Endpoint, CompletionStage<ProxiedResponse>> attempt = endpoint -> {
+            final CompletableFuture<ProxiedResponse> promise = new CompletableFuture<>();
+            _clients.get(endpoint).proxy(
+                    path.startsWith("/") ? path : "/" + path,
+                    request,
+                    new ResponseHandler(promise, isHttp10, _metrics));
+            return promise;
+        };
+        final CompletionStage<ProxiedResponse> proxied = hedge
+                ? _endpoints.executeHedged(
+                        requestClass,
+                        attempt,
+                        response -> response.getResult().status() >= 500,
+                        response -> response.getResult().body().dataStream().runWith(Sink.cancelled(), _materializer))
+                : _endpoints.execute(requestClass, attempt);
+        return proxied.thenApply(response -> response.toResult(configResponse));
     }
 
 
-    private final ProxyClient _client;
-    private final KairosDbClient _kairosDbClient;
+    private final ImmutableMap<KairosDbEndpoints.Endpoint, ProxyClient> _clients;
+    private final KairosDbEndpoints _endpoints;
     private final ObjectMapper _mapper;
-    private final Cache<String, List<String>> _cache = CacheBuilder.newBuilder().expireAfterWrite(1, TimeUnit.MINUTES).build();
-    private final AtomicReference<List<String>> _metricsList = new AtomicReference<>(null);
-
+    private final PeriodicMetrics _metrics;
+    private final QueryResultCache _queryResultCache;
+    private final Materializer _materializer;
+    private final MetricNameCatalog _metricNameCatalog;
+    private final RollupQueryRewriter _rollupQueryRewriter;
+    private final Clock _clock;
+    private final SingleFlight<String, CoalescedResponse> _queryFlights;
+    private final long _maxCoalescedResponseBytes;
+
+    private static final String STATUS_CLASS = "proxy_status";
+    private static final String HEALTH_CHECK_CLASS = "proxy_health_check";
+    private static final String TAG_NAMES_CLASS = "proxy_tag_names";
+    private static final String TAG_VALUES_CLASS = "proxy_tag_values";
+    private static final String QUERY_TAGS_CLASS = "proxy_query_tags";
+    private static final String QUERY_CLASS = "proxy_query";
+    private static final String VERSION_CLASS = "proxy_version";
     private static final Logger LOGGER = LoggerFactory.getLogger(KairosDbProxy.class);
-    private static final String METRICS_KEY = "METRICNAMES";
-    private static final Predicate<String> IS_PT1M = s -> s.startsWith("PT1M/");
 
-    private static class ResponseHandler extends AsyncCompletionHandler<Void> {
-        ResponseHandler(
-                final Http.Response response,
-                final CompletableFuture<Result> promise,
-                final boolean isHttp10) {
-            try {
-                _outputStream = new PipedOutputStream();
-                _inputStream = new PipedInputStream(_outputStream);
-                _response = response;
-                _promise = promise;
-                _isHttp10 = isHttp10;
-            } catch (final IOException ex) {
-                throw new RuntimeException(ex);
+    /**
+     * The response of a coalesced request: either a buffered body shared by every waiter, or a body too large to
+     * buffer that can only be streamed to the first waiter to claim it.
+     */
+    private static final class CoalescedResponse {
+        CoalescedResponse(final Result result, final Map<String, String> headers, final ByteString body) {
+            this(result, headers, Optional.of(body), Optional.empty());
+        }
+
+        CoalescedResponse(final Result result, final Map<String, String> headers, final Source<ByteString, ?> body) {
+            this(result, headers, Optional.empty(), Optional.of(body));
+        }
+
+        private CoalescedResponse(
+                final Result result,
+                final Map<String, String> headers,
+                final Optional<ByteString> buffered,
+                final Optional<Source<ByteString, ?>> streamed) {
+            _status = result.status();
+            _contentType = result.body().contentType();
+            _contentLength = result.body().contentLength();
+            _headers = ImmutableMap.copyOf(headers);
+            _buffered = buffered;
+            _streamed = streamed;
+        }
+
+        /**
+         * Creates the result for a waiter.
+         *
+         * @param response the response of the waiter, to apply the upstream headers to
+         * @return the result, or empty if the body was streamed to another waiter
+         */
+        Optional<Result> toResult(final Http.Response response) {
+            final HttpEntity entity;
+            if (_buffered.isPresent()) {
+                entity = new HttpEntity.Strict(_buffered.get(), _contentType);
+            } else if (_claimed.compareAndSet(false, true)) {
+                entity = new HttpEntity.Streamed(_streamed.get(), _contentLength, _contentType);
+            } else {
+                return Optional.empty();
             }
+            _headers.forEach(response::setHeader);
+            return Optional.of(Results.status(_status).sendEntity(entity));
         }
 
-        @Override
-        public State onStatusReceived(final HttpResponseStatus status) {
-            _status = status.getStatusCode();
-            return State.CONTINUE;
+        private final int _status;
+        private final Optional<String> _contentType;
+        private final Optional<Long> _contentLength;
+        private final ImmutableMap<String, String> _headers;
+        private final Optional<ByteString> _buffered;
+        private final Optional<Source<ByteString, ?>> _streamed;
+        private final AtomicBoolean _claimed = new AtomicBoolean(false);
+    }
+
+    /* package private */ static final class ProxiedResponse {
+        ProxiedResponse(final Result result, final Map<String, String> headers) {
+            _result = result;
+            _headers = headers;
         }
 
-        @Override
-        public State onBodyPartReceived(final HttpResponseBodyPart content) throws Exception {
-            _outputStream.write(content.getBodyPartBytes());
+        Result getResult() {
+            return _result;
+        }
+
+        Result toResult(final Http.Response response) {
+            _headers.forEach(response::setHeader);
+            return _result;
+        }
+
+        private final Result _result;
+        private final Map<String, String> _headers;
+    }
 
-            if (content.isLast()) {
-                _outputStream.flush();
-                _outputStream.close();
+    /* package private */ static class ResponseHandler implements StreamedAsyncHandler<Void> {
+        ResponseHandler(
+                final CompletableFuture<ProxiedResponse> promise,
+                final boolean isHttp10,
+                final PeriodicMetrics metrics) {
+            _promise = promise;
+            _isHttp10 = isHttp10;
+            _metrics = metrics;
+        }
+
+        @Override
+        public State onStatusReceived(final HttpResponseStatus status) {
+            if (_promise.isCancelled()) {
+                // The attempt lost a hedged race; close the connection rather than read the response
+                return State.ABORT;
             }
+            _status = status.getStatusCode();
             return State.CONTINUE;
         }
 
         @Override
         public State onHeadersReceived(final HttpResponseHeaders headers) {
+            if (_promise.isCancelled()) {
+                return State.ABORT;
+            }
             try {
                 final HttpHeaders entries = headers.getHeaders();
-                Optional<Long> length = Optional.empty();
                 if (entries.contains(CONTENT_LENGTH)) {
                     final String clen = entries.get(CONTENT_LENGTH);
-                    length = Optional.of(Long.parseLong(clen));
+                    _length = Optional.of(Long.parseLong(clen));
                 }
-                final String contentType;
                 if (entries.get(CONTENT_TYPE) != null) {
-                    contentType = entries.get(CONTENT_TYPE);
-                } else if (length.isPresent() && length.get() == 0) {
-                    contentType = "text/html";
-                } else {
-                    contentType = null;
+                    _contentType = Optional.of(entries.get(CONTENT_TYPE));
+                } else if (_length.isPresent() && _length.get() == 0) {
+                    _contentType = Optional.of("text/html");
                 }
 
                 entries.entries()
                         .stream()
                         .filter(entry -> !FILTERED_HEADERS.contains(entry.getKey()))
-                        .forEach(entry -> _response.setHeader(entry.getKey(), entry.getValue()));
+                        .forEach(entry -> _headers.put(entry.getKey(), entry.getValue()));
 
                 if (_isHttp10) {
                     // Strip the transfer encoding header as chunked isn't supported in 1.0
-                    _response.getHeaders().remove(TRANSFER_ENCODING);
+                    _headers.remove(TRANSFER_ENCODING);
                     // Strip the connection header since we don't support keep-alives in 1.0
-                    _response.getHeaders().remove(CONNECTION);
+                    _headers.remove(CONNECTION);
                 }
-
-                final play.mvc.Result result = Results.status(_status).sendEntity(
-                        new HttpEntity.Streamed(
-                                StreamConverters.fromInputStream(() -> _inputStream, DEFAULT_CHUNK_SIZE),
-                                length,
-                                Optional.ofNullable(contentType)));
-
-                _promise.complete(result);
                 return State.CONTINUE;
                 // CHECKSTYLE.OFF: IllegalCatch - We need to return a response no matter what
             } catch (final Throwable e) {
@@ -317,34 +517,57 @@ public class KairosDbProxy extends Controller {
         }
 
         @Override
-        public void onThrowable(final Throwable t) {
-            try {
-                _outputStream.close();
-                _promise.completeExceptionally(t);
-            } catch (final IOException e) {
-                throw new RuntimeException(e);
+        public State onStream(final Publisher<HttpResponseBodyPart> publisher) {
+            if (_promise.isCancelled()) {
+                return State.ABORT;
             }
-            super.onThrowable(t);
+            // The body parts are pulled from the upstream connection only as the client consumes
+            // them; the AHC publisher stops reading from the socket while there is no demand.
+            final Source<ByteString, ?> body = Source.fromPublisher(
+                    new MeteredPublisher<>(
+                            publisher,
+                            HttpResponseBodyPart::length,
+                            _metrics,
+                            "kairos_proxy/response"))
+                    .map(part -> ByteString.fromArray(part.getBodyPartBytes()));
+            completeWith(body);
+            return State.CONTINUE;
         }
 
         @Override
-        public Void onCompleted(final Response response) throws Exception {
-            try {
-                _outputStream.flush();
-                _outputStream.close();
-            } catch (final IOException e) {
-                throw new RuntimeException(e);
-            }
+        public State onBodyPartReceived(final HttpResponseBodyPart content) {
+            // All body parts are delivered through the publisher handed to onStream
+            throw new IllegalStateException("Unexpected body part received outside of the response stream");
+        }
+
+        @Override
+        public void onThrowable(final Throwable t) {
+            _promise.completeExceptionally(t);
+        }
+
+        @Override
+        public Void onCompleted() {
+            // Responses without a body (e.g. 204) never produce a stream
+            completeWith(Source.empty());
             return null;
         }
 
+        private void completeWith(final Source<ByteString, ?> body) {
+            if (!_promise.isDone()) {
+                // Headers are only applied to the client response by the attempt that wins
+                _promise.complete(new ProxiedResponse(
+                        Results.status(_status).sendEntity(new HttpEntity.Streamed(body, _length, _contentType)),
+                        _headers));
+            }
+        }
+
         private int _status;
-        private final PipedOutputStream _outputStream;
-        private final Http.Response _response;
-        private final PipedInputStream _inputStream;
-        private final CompletableFuture<Result> _promise;
+        private Optional<Long> _length = Optional.empty();
+        private Optional<String> _contentType = Optional.empty();
+        private final Map<String, String> _headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final CompletableFuture<ProxiedResponse> _promise;
         private final boolean _isHttp10;
-        private static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+        private final PeriodicMetrics _metrics;
         private static final Set<String> FILTERED_HEADERS = Sets.newHashSet(CONTENT_TYPE, CONTENT_LENGTH, TRANSFER_ENCODING);
     }
 }
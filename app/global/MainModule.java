@@ -30,8 +30,10 @@ import akka.cluster.singleton.ClusterSingletonProxySettings;
 import com.arpnetworking.commons.akka.GuiceActorCreator;
 import com.arpnetworking.commons.akka.ParallelLeastShardAllocationStrategy;
 import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
+import com.arpnetworking.kairos.client.BatchingKairosDbClient;
 import com.arpnetworking.kairos.client.KairosDbClient;
 import com.arpnetworking.kairos.client.KairosDbClientImpl;
+import com.arpnetworking.kairos.client.KairosDbEndpoints;
 import com.arpnetworking.metrics.MetricsFactory;
 import com.arpnetworking.metrics.impl.ApacheHttpSink;
 import com.arpnetworking.metrics.impl.TsdMetricsFactory;
@@ -42,18 +44,27 @@ import com.arpnetworking.metrics.portal.health.HealthProvider;
 import com.arpnetworking.metrics.portal.hosts.HostRepository;
 import com.arpnetworking.metrics.portal.hosts.impl.HostProviderFactory;
 import com.arpnetworking.metrics.portal.organizations.OrganizationRepository;
+import com.arpnetworking.metrics.portal.query.SlicingKairosDbClient;
 import com.arpnetworking.metrics.portal.reports.ReportRepository;
 import com.arpnetworking.metrics.portal.scheduling.JobCoordinator;
+import com.arpnetworking.metrics.portal.scheduling.JobDispatcher;
 import com.arpnetworking.metrics.portal.scheduling.JobExecutorActor;
 import com.arpnetworking.metrics.portal.scheduling.JobMessageExtractor;
+import com.arpnetworking.metrics.portal.scheduling.JobRepositoryExecutor;
+import com.arpnetworking.metrics.portal.scheduling.JobTimingWheel;
 import com.arpnetworking.play.configuration.ConfigurationHelper;
 import com.arpnetworking.rollups.MetricsDiscovery;
 import com.arpnetworking.rollups.RollupGenerator;
+import com.arpnetworking.rollups.RollupPartition;
+import com.arpnetworking.rollups.RollupPartitionMessageExtractor;
+import com.arpnetworking.rollups.RollupWatermarkExecutor;
+import com.arpnetworking.rollups.RollupWatermarkRepository;
 import com.arpnetworking.utility.ConfigTypedProvider;
 import com.datastax.driver.core.CodecRegistry;
 import com.datastax.driver.extras.codecs.enums.EnumNameCodec;
 import com.datastax.driver.extras.codecs.jdk8.InstantCodec;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
 import com.google.inject.AbstractModule;
 import com.google.inject.Injector;
 import com.google.inject.Provider;
@@ -79,6 +90,7 @@ import scala.concurrent.duration.FiniteDuration;
 
 import java.net.URI;
 import java.time.Clock;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -121,6 +133,9 @@ public class MainModule extends AbstractModule {
         bind(ReportRepository.class)
                 .toProvider(ReportRepositoryProvider.class)
                 .asEagerSingleton();
+        bind(RollupWatermarkRepository.class)
+                .toProvider(RollupWatermarkRepositoryProvider.class)
+                .asEagerSingleton();
 
         // Background tasks
         bind(ActorRef.class)
@@ -143,6 +158,10 @@ public class MainModule extends AbstractModule {
                 .annotatedWith(Names.named("RollupGenerator"))
                 .toProvider(RollupGeneratorProvider.class)
                 .asEagerSingleton();
+        bind(ActorRef.class)
+                .annotatedWith(Names.named("RollupPartitionRegion"))
+                .toProvider(RollupPartitionRegionProvider.class)
+                .asEagerSingleton();
     }
 
     @Singleton
@@ -185,19 +204,52 @@ public class MainModule extends AbstractModule {
         return registry;
     }
 
+    @Provides
+    @Singleton
+    @SuppressFBWarnings("UPM_UNCALLED_PRIVATE_METHOD") // Invoked reflectively by Guice
+    private KairosDbEndpoints provideKairosDbEndpoints(
+            final ActorSystem actorSystem,
+            final Config configuration,
+            final Clock clock,
+            final PeriodicMetrics metrics) {
+        return new KairosDbEndpoints.Builder()
+                .setUris(configuration.getStringList("kairosdb.uris")
+                        .stream()
+                        .map(URI::create)
+                        .collect(ImmutableList.toImmutableList()))
+                .setActorSystem(actorSystem)
+                .setMetrics(metrics)
+                .setClock(clock)
+                .setEwmaWeight(configuration.getDouble("kairosdb.endpoints.ewmaWeight"))
+                .setHedgingEnabled(configuration.getBoolean("kairosdb.endpoints.hedging.enabled"))
+                .setHedgePercentile(configuration.getDouble("kairosdb.endpoints.hedging.percentile"))
+                .setMinHedgeDelay(ConfigurationHelper.getFiniteDuration(configuration, "kairosdb.endpoints.hedging.minDelay"))
+                .setMinHedgeSamples(configuration.getInt("kairosdb.endpoints.hedging.minSamples"))
+                .setEjectionConsecutiveFailures(configuration.getInt("kairosdb.endpoints.ejection.consecutiveFailures"))
+                .setEjectionLatencyFactor(configuration.getDouble("kairosdb.endpoints.ejection.latencyFactor"))
+                .setEjectionDuration(ConfigurationHelper.getFiniteDuration(configuration, "kairosdb.endpoints.ejection.duration"))
+                .build();
+    }
+
     @Provides
     @Singleton
     @SuppressFBWarnings("UPM_UNCALLED_PRIVATE_METHOD") // Invoked reflectively by Guice
     private KairosDbClient provideKairosDbClient(
             final ActorSystem actorSystem,
             final ObjectMapper mapper,
-            final Config configuration) {
-        return new KairosDbClientImpl.Builder()
+            final Config configuration,
+            final Clock clock,
+            final PeriodicMetrics metrics,
+            final KairosDbEndpoints endpoints) {
+        final KairosDbClient client = new KairosDbClientImpl.Builder()
                 .setActorSystem(actorSystem)
                 .setMapper(mapper)
-                .setUri(URI.create(configuration.getString("kairosdb.uri")))
+                .setMetrics(metrics)
+                .setEndpoints(endpoints)
                 .setReadTimeout(ConfigurationHelper.getFiniteDuration(configuration, "kairosdb.timeout"))
                 .build();
+        final KairosDbClient batchingClient = new BatchingKairosDbClient(client, actorSystem, mapper, configuration, metrics);
+        return new SlicingKairosDbClient(batchingClient, configuration, clock, metrics);
     }
 
     //Note: This is essentially the same as Play's ObjectMapperModule, but uses the Commons ObjectMapperFactory
@@ -224,6 +276,76 @@ public class MainModule extends AbstractModule {
         return Clock.systemUTC();
     }
 
+    @Provides
+    @Singleton
+    @SuppressFBWarnings("UPM_UNCALLED_PRIVATE_METHOD") // Invoked reflectively by Guice
+    private JobRepositoryExecutor provideJobRepositoryExecutor(
+            final Config configuration,
+            final PeriodicMetrics periodicMetrics,
+            final ApplicationLifecycle lifecycle) {
+        final JobRepositoryExecutor executor = new JobRepositoryExecutor(configuration, periodicMetrics);
+        lifecycle.addStopHook(() -> {
+            executor.shutdown();
+            return CompletableFuture.completedFuture(null);
+        });
+        return executor;
+    }
+
+    @Provides
+    @Singleton
+    @SuppressFBWarnings("UPM_UNCALLED_PRIVATE_METHOD") // Invoked reflectively by Guice
+    private RollupWatermarkExecutor provideRollupWatermarkExecutor(
+            final Config configuration,
+            final PeriodicMetrics periodicMetrics,
+            final ApplicationLifecycle lifecycle) {
+        final RollupWatermarkExecutor executor = new RollupWatermarkExecutor(configuration, periodicMetrics);
+        lifecycle.addStopHook(() -> {
+            executor.shutdown();
+            return CompletableFuture.completedFuture(null);
+        });
+        return executor;
+    }
+
+    @Provides
+    @Singleton
+    @Named(JobExecutorActor.TIMING_WHEEL_NAME)
+    @SuppressFBWarnings("UPM_UNCALLED_PRIVATE_METHOD") // Invoked reflectively by Guice
+    private ActorRef provideJobTimingWheel(
+            final ActorSystem system,
+            final Config configuration,
+            final Clock clock,
+            final PeriodicMetrics periodicMetrics) {
+        return system.actorOf(
+                JobTimingWheel.props(
+                        clock,
+                        ConfigurationHelper.getFiniteDuration(configuration, "scheduling.wheel.tickDuration"),
+                        periodicMetrics),
+                "job-timing-wheel");
+    }
+
+    @Provides
+    @Singleton
+    @Named(JobExecutorActor.DISPATCHER_NAME)
+    @SuppressFBWarnings("UPM_UNCALLED_PRIVATE_METHOD") // Invoked reflectively by Guice
+    private ActorRef provideJobDispatcher(
+            final ActorSystem system,
+            final Config configuration,
+            final Clock clock,
+            final PeriodicMetrics periodicMetrics) {
+        final Duration jitterWindow = Duration.ofMillis(
+                ConfigurationHelper.getFiniteDuration(configuration, "scheduling.dispatch.jitterWindow").toMillis());
+        return system.actorOf(
+                JobDispatcher.props(
+                        clock,
+                        ConfigurationHelper.getFiniteDuration(configuration, "scheduling.wheel.tickDuration"),
+                        configuration.getDouble("scheduling.dispatch.ratePerSecond"),
+                        configuration.getInt("scheduling.dispatch.burst"),
+                        configuration.getInt("scheduling.dispatch.maxQueued"),
+                        jitterWindow,
+                        periodicMetrics),
+                "job-dispatcher");
+    }
+
     @Provides
     @Singleton
     @Named("job-execution-shard-region")
@@ -233,11 +355,14 @@ public class MainModule extends AbstractModule {
             final Injector injector,
             final JobMessageExtractor extractor,
             final Clock clock,
+            final Config configuration,
             final PeriodicMetrics periodicMetrics) {
         final ClusterSharding clusterSharding = ClusterSharding.get(system);
+        final Duration passivationThreshold = Duration.ofMillis(
+                ConfigurationHelper.getFiniteDuration(configuration, "scheduling.passivation.threshold").toMillis());
         return clusterSharding.start(
                 "JobExecutor",
-                JobExecutorActor.props(injector, clock, periodicMetrics),
+                JobExecutorActor.props(injector, clock, passivationThreshold, periodicMetrics),
                 ClusterShardingSettings.create(system).withRememberEntities(true),
                 extractor,
                 new ParallelLeastShardAllocationStrategy(
@@ -405,6 +530,41 @@ public class MainModule extends AbstractModule {
         private final ApplicationLifecycle _lifecycle;
     }
 
+    private static final class RollupWatermarkRepositoryProvider implements Provider<RollupWatermarkRepository> {
+        @Inject
+        RollupWatermarkRepositoryProvider(
+                final Injector injector,
+                final Environment environment,
+                final Config configuration,
+                final ApplicationLifecycle lifecycle) {
+            _injector = injector;
+            _environment = environment;
+            _configuration = configuration;
+            _lifecycle = lifecycle;
+        }
+
+        @Override
+        public RollupWatermarkRepository get() {
+            final RollupWatermarkRepository rollupWatermarkRepository = _injector.getInstance(
+                    ConfigurationHelper.<RollupWatermarkRepository>getType(
+                            _environment,
+                            _configuration,
+                            "rollupWatermarkRepository.type"));
+            rollupWatermarkRepository.open();
+            _lifecycle.addStopHook(
+                    () -> {
+                        rollupWatermarkRepository.close();
+                        return CompletableFuture.completedFuture(null);
+                    });
+            return rollupWatermarkRepository;
+        }
+
+        private final Injector _injector;
+        private final Environment _environment;
+        private final Config _configuration;
+        private final ApplicationLifecycle _lifecycle;
+    }
+
     private static final class HostProviderProvider implements Provider<ActorRef> {
         @Inject
         HostProviderProvider(
@@ -439,12 +599,14 @@ public class MainModule extends AbstractModule {
         ReportRepositoryJobCoordinatorProvider(
                 final ActorSystem system,
                 final Injector injector,
+                final Config configuration,
                 final OrganizationRepository organizationRepository,
                 @Named("job-execution-shard-region")
                 final ActorRef executorRegion,
                 final PeriodicMetrics periodicMetrics) {
             _system = system;
             _injector = injector;
+            _configuration = configuration;
             _organizationRepository = organizationRepository;
             _executorRegion = executorRegion;
             _periodicMetrics = periodicMetrics;
@@ -456,7 +618,13 @@ public class MainModule extends AbstractModule {
             // Start a singleton instance of the scheduler on a "host_indexer" node in the cluster.
             if (cluster.selfRoles().contains(ANTI_ENTROPY_ROLE)) {
                 return _system.actorOf(ClusterSingletonManager.props(
-                        JobCoordinator.props(_injector, ReportRepository.class, _organizationRepository, _executorRegion, _periodicMetrics),
+                        JobCoordinator.props(
+                                _injector,
+                                _configuration,
+                                ReportRepository.class,
+                                _organizationRepository,
+                                _executorRegion,
+                                _periodicMetrics),
                         PoisonPill.getInstance(),
                         ClusterSingletonManagerSettings.create(_system).withRole(ANTI_ENTROPY_ROLE)),
                         "ReportJobCoordinator");
@@ -466,6 +634,7 @@ public class MainModule extends AbstractModule {
 
         private final ActorSystem _system;
         private final Injector _injector;
+        private final Config _configuration;
         private final OrganizationRepository _organizationRepository;
         private final ActorRef _executorRegion;
         private final PeriodicMetrics _periodicMetrics;
@@ -483,7 +652,7 @@ public class MainModule extends AbstractModule {
             _injector = injector;
             _system = system;
             _configuration = configuration;
-            _enabled = features.isRollupsEnabled();
+            _enabled = features.isRollupsEnabled() && !configuration.getBoolean("rollup.sharding.enabled");
         }
 
         @Override
@@ -509,10 +678,12 @@ public class MainModule extends AbstractModule {
         RollupMetricsDiscoveryProvider(
                 final Injector injector,
                 final ActorSystem system,
+                final Config configuration,
                 final Features features) {
             _injector = injector;
             _system = system;
-            _enabled = features.isRollupsEnabled();
+            // Sharded rollup partitions each run their own discovery
+            _enabled = features.isRollupsEnabled() && !configuration.getBoolean("rollup.sharding.enabled");
         }
 
         @Override
@@ -539,6 +710,62 @@ public class MainModule extends AbstractModule {
         static final String ROLLUP_METRICS_DISCOVERY_ROLE = "rollup_metrics_discovery";
     }
 
+    private static final class RollupPartitionRegionProvider implements Provider<ActorRef> {
+        @Inject
+        RollupPartitionRegionProvider(
+                final Injector injector,
+                final ActorSystem system,
+                final Config configuration,
+                final Features features,
+                final Clock clock,
+                final PeriodicMetrics periodicMetrics) {
+            _injector = injector;
+            _system = system;
+            _configuration = configuration;
+            _clock = clock;
+            _periodicMetrics = periodicMetrics;
+            _enabled = features.isRollupsEnabled() && configuration.getBoolean("rollup.sharding.enabled");
+        }
+
+        @Override
+        public ActorRef get() {
+            final Cluster cluster = Cluster.get(_system);
+            final String role = RollupMetricsDiscoveryProvider.ROLLUP_METRICS_DISCOVERY_ROLE;
+            if (_enabled && cluster.selfRoles().contains(role)) {
+                final int partitionCount = _configuration.getInt("rollup.sharding.partitions");
+                final ActorRef region = ClusterSharding.get(_system).start(
+                        "RollupPartition",
+                        RollupPartition.props(_injector, _clock, _periodicMetrics),
+                        ClusterShardingSettings.create(_system).withRole(role),
+                        new RollupPartitionMessageExtractor(partitionCount),
+                        new ParallelLeastShardAllocationStrategy(
+                                _configuration.getInt("rollup.sharding.rebalanceThreshold"),
+                                3,
+                                Optional.empty()),
+                        PoisonPill.getInstance());
+                // Partitions are (re)started by messages; resending them restarts partitions after a rebalance
+                _system.scheduler().schedule(
+                        FiniteDuration.Zero(),
+                        ConfigurationHelper.getFiniteDuration(_configuration, "rollup.sharding.startInterval"),
+                        () -> {
+                            for (int partition = 0; partition < partitionCount; ++partition) {
+                                region.tell(new RollupPartition.Start(partition, partitionCount), ActorRef.noSender());
+                            }
+                        },
+                        _system.dispatcher());
+                return region;
+            }
+            return null;
+        }
+
+        private final Injector _injector;
+        private final ActorSystem _system;
+        private final Config _configuration;
+        private final Clock _clock;
+        private final PeriodicMetrics _periodicMetrics;
+        private final boolean _enabled;
+    }
+
     private static final class JvmMetricsCollectorProvider implements Provider<ActorRef> {
         @Inject
         JvmMetricsCollectorProvider(final Injector injector, final ActorSystem system) {
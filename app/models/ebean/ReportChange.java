@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.ebean;
+
+import java.util.UUID;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * The latest change to a {@link Report}.
+ *
+ * Rows are only written by a trigger on the reports table, which versions each insert or update of
+ * a report with the id of its transaction. Only the latest change of each report is kept.
+ *
+ * NOTE: This class is enhanced by Ebean to do things like lazy loading and
+ * resolving relationships between beans. Therefore, including functionality
+ * which serializes the state of the object can be dangerous (e.g. {@code toString},
+ * {@code @Loggable}, etc.).
+ *
+ * @author Spencer Pearson (spencerpearson at dropbox dot com)
+ */
+// CHECKSTYLE.OFF: MemberNameCheck
+@Entity
+@Table(name = "report_changes", schema = "portal")
+public final class ReportChange {
+    @Id
+    @Column(name = "report_uuid")
+    private UUID report_uuid;
+    @Column(name = "organization_uuid")
+    private UUID organization_uuid;
+    @Column(name = "version")
+    private Long version;
+
+    public UUID getReportUuid() {
+        return report_uuid;
+    }
+
+    public void setReportUuid(final UUID value) {
+        report_uuid = value;
+    }
+
+    public UUID getOrganizationUuid() {
+        return organization_uuid;
+    }
+
+    public void setOrganizationUuid(final UUID value) {
+        organization_uuid = value;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(final Long value) {
+        version = value;
+    }
+}
+// CHECKSTYLE.ON: MemberNameCheck
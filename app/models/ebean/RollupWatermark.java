@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package models.ebean;
+
+import io.ebean.annotation.UpdatedTimestamp;
+
+import java.time.Instant;
+import java.util.Objects;
+import javax.annotation.Nullable;
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+
+/**
+ * The rollup watermark of a source metric for one rollup period.
+ *
+ * NOTE: This class is enhanced by Ebean to do things like lazy loading and
+ * resolving relationships between beans. Therefore, including functionality
+ * which serializes the state of the object can be dangerous (e.g. {@code toString},
+ * {@code @Loggable}, etc.).
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+// CHECKSTYLE.OFF: MemberNameCheck
+@Entity
+@Table(name = "rollup_watermarks", schema = "portal")
+@IdClass(RollupWatermark.Key.class)
+public final class RollupWatermark {
+    @Id
+    @Column(name = "metric_name")
+    private String metric_name;
+    @Id
+    @Column(name = "period")
+    private String period;
+    @Column(name = "watermark")
+    private Instant watermark;
+    @UpdatedTimestamp
+    @Column(name = "updated_at")
+    private Instant updated_at;
+
+    public String getMetricName() {
+        return metric_name;
+    }
+
+    public void setMetricName(final String value) {
+        metric_name = value;
+    }
+
+    public String getPeriod() {
+        return period;
+    }
+
+    public void setPeriod(final String value) {
+        period = value;
+    }
+
+    public Instant getWatermark() {
+        return watermark;
+    }
+
+    public void setWatermark(final Instant value) {
+        watermark = value;
+    }
+
+    public Instant getUpdatedAt() {
+        return updated_at;
+    }
+
+    public void setUpdatedAt(final Instant value) {
+        updated_at = value;
+    }
+
+    /**
+     * Primary Key for a {@link RollupWatermark}.
+     */
+    @Embeddable
+    protected static final class Key {
+        @Nullable
+        @Column(name = "metric_name")
+        private String metric_name;
+
+        @Nullable
+        @Column(name = "period")
+        private String period;
+
+        /**
+         * Default constructor, required by Ebean.
+         */
+        public Key() {
+            metric_name = null;
+            period = null;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return Objects.equals(metric_name, key.metric_name) && Objects.equals(period, key.period);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(metric_name, period);
+        }
+    }
+}
+// CHECKSTYLE.ON: MemberNameCheck
@@ -24,6 +24,7 @@ import models.internal.QueryResult;
 import models.internal.scheduling.Job;
 
 import java.util.Optional;
+import java.util.UUID;
 import javax.annotation.Nullable;
 
 /**
@@ -42,6 +43,8 @@ public final class DefaultJobQuery<T> implements JobQuery<T> {
     private int _limit = DEFAULT_LIMIT;
     @Nullable
     private Integer _offset;
+    @Nullable
+    private UUID _afterId;
 
     /**
      * Public constructor.
@@ -66,6 +69,12 @@ public final class DefaultJobQuery<T> implements JobQuery<T> {
         return this;
     }
 
+    @Override
+    public JobQuery<T> afterId(final UUID afterId) {
+        _afterId = afterId;
+        return this;
+    }
+
     @Override
     public QueryResult<Job<T>> execute() {
         return _repository.queryJobs(this);
@@ -86,6 +95,11 @@ public final class DefaultJobQuery<T> implements JobQuery<T> {
         return Optional.ofNullable(_offset);
     }
 
+    @Override
+    public Optional<UUID> getAfterId() {
+        return Optional.ofNullable(_afterId);
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
@@ -94,6 +108,7 @@ public final class DefaultJobQuery<T> implements JobQuery<T> {
                 .add("repository", _repository)
                 .add("limit", _limit)
                 .add("offset", _offset)
+                .add("afterId", _afterId)
                 .toString();
     }
 }
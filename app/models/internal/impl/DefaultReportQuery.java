@@ -25,6 +25,7 @@ import models.internal.QueryResult;
 import models.internal.reports.Report;
 
 import java.util.Optional;
+import java.util.UUID;
 
 // CHECKSTYLE.OFF: JavadocTypeCheck - Checkstyle does not recognize implNote.
 /**
@@ -83,6 +84,12 @@ public final class DefaultReportQuery implements ReportQuery {
         return this;
     }
 
+    @Override
+    public ReportQuery afterId(final UUID afterId) {
+        _jobQuery.afterId(afterId);
+        return this;
+    }
+
     @Override
     public Organization getOrganization() {
         return _jobQuery.getOrganization();
@@ -98,6 +105,11 @@ public final class DefaultReportQuery implements ReportQuery {
         return _jobQuery.getOffset();
     }
 
+    @Override
+    public Optional<UUID> getAfterId() {
+        return _jobQuery.getAfterId();
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
@@ -0,0 +1,46 @@
+-- Copyright 2019 Dropbox, Inc.
+--
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- The latest change to each report, so that report job executors can be reloaded
+-- as soon as their report changes. The version of a change is the id of the transaction
+-- that made it. Readers poll for versions after the last one seen, but only below the
+-- oldest transaction still in progress, since transactions commit out of order.
+CREATE TABLE portal.report_changes (
+    report_uuid UUID PRIMARY KEY,
+    organization_uuid UUID NOT NULL,
+    version BIGINT NOT NULL
+);
+
+CREATE INDEX report_changes_version_idx ON portal.report_changes (version);
+
+CREATE OR REPLACE FUNCTION record_report_change() RETURNS TRIGGER AS $record_report_change$
+BEGIN
+  INSERT INTO portal.report_changes (report_uuid, organization_uuid, version)
+    SELECT NEW.uuid, o.uuid, txid_current()
+    FROM portal.organizations o
+    WHERE o.id = NEW.organization_id
+  ON CONFLICT (report_uuid) DO UPDATE
+    SET organization_uuid = EXCLUDED.organization_uuid, version = EXCLUDED.version;
+  RETURN NEW;
+END;
+$record_report_change$ LANGUAGE 'plpgsql';
+
+-- Deleting a report only sets its deleted flag, so updates cover deletions too
+CREATE TRIGGER record_report_change_trigger AFTER INSERT OR UPDATE ON portal.reports
+  FOR EACH ROW EXECUTE PROCEDURE record_report_change();
+
+INSERT INTO portal.report_changes (report_uuid, organization_uuid, version)
+  SELECT r.uuid, o.uuid, txid_current()
+  FROM portal.reports r
+  JOIN portal.organizations o ON o.id = r.organization_id;
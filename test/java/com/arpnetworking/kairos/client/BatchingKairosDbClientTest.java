@@ -0,0 +1,207 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.kairos.client;
+
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
+import com.arpnetworking.kairos.client.models.Metric;
+import com.arpnetworking.kairos.client.models.MetricsQuery;
+import com.arpnetworking.kairos.client.models.MetricsQueryResponse;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test cases for {@link BatchingKairosDbClient}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public class BatchingKairosDbClientTest {
+    @Mock
+    private KairosDbClient _delegate;
+    @Mock
+    private PeriodicMetrics _metrics;
+    private ActorSystem _actorSystem;
+
+    private static final Instant START = Instant.parse("2019-01-01T00:00:00Z");
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        _actorSystem = ActorSystem.create();
+        when(_delegate.queryMetrics(any())).thenAnswer(invocation -> {
+            final MetricsQuery query = (MetricsQuery) invocation.getArguments()[0];
+            return CompletableFuture.completedFuture(respond(query));
+        });
+    }
+
+    @After
+    public void tearDown() {
+        TestKit.shutdownActorSystem(_actorSystem);
+    }
+
+    @Test
+    public void testMergesQueriesWithinLinger() throws InterruptedException, ExecutionException, TimeoutException {
+        final BatchingKairosDbClient client = createClient("200 milliseconds", 10);
+
+        final CompletionStage<MetricsQueryResponse> first = client.queryMetrics(query(START, "foo"));
+        final CompletionStage<MetricsQueryResponse> second = client.queryMetrics(query(START, "bar", "baz"));
+
+        assertEquals(ImmutableList.of("foo"), names(first));
+        assertEquals(ImmutableList.of("bar", "baz"), names(second));
+        final ArgumentCaptor<MetricsQuery> captor = ArgumentCaptor.forClass(MetricsQuery.class);
+        verify(_delegate).queryMetrics(captor.capture());
+        assertEquals(3, captor.getValue().getMetrics().size());
+    }
+
+    @Test
+    public void testQueriesIdenticalMetricsOnce() throws InterruptedException, ExecutionException, TimeoutException {
+        final BatchingKairosDbClient client = createClient("200 milliseconds", 10);
+
+        final CompletionStage<MetricsQueryResponse> first = client.queryMetrics(query(START, "foo"));
+        final CompletionStage<MetricsQueryResponse> second = client.queryMetrics(query(START, "bar", "foo"));
+
+        assertEquals(ImmutableList.of("foo"), names(first));
+        assertEquals(ImmutableList.of("bar", "foo"), names(second));
+        final ArgumentCaptor<MetricsQuery> captor = ArgumentCaptor.forClass(MetricsQuery.class);
+        verify(_delegate).queryMetrics(captor.capture());
+        assertEquals(
+                ImmutableList.of("foo", "bar"),
+                captor.getValue().getMetrics().stream().map(Metric::getName).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testDoesNotMergeDifferentTimeRanges() throws InterruptedException, ExecutionException, TimeoutException {
+        final BatchingKairosDbClient client = createClient("50 milliseconds", 10);
+
+        final CompletionStage<MetricsQueryResponse> first = client.queryMetrics(query(START, "foo"));
+        final CompletionStage<MetricsQueryResponse> second = client.queryMetrics(query(START.plusSeconds(1), "bar"));
+
+        assertEquals(ImmutableList.of("foo"), names(first));
+        assertEquals(ImmutableList.of("bar"), names(second));
+        verify(_delegate, times(2)).queryMetrics(any());
+    }
+
+    @Test
+    public void testSendsFullBatchImmediately() throws InterruptedException, ExecutionException, TimeoutException {
+        final BatchingKairosDbClient client = createClient("1 hour", 2);
+
+        final CompletionStage<MetricsQueryResponse> first = client.queryMetrics(query(START, "foo"));
+        final CompletionStage<MetricsQueryResponse> second = client.queryMetrics(query(START, "bar"));
+
+        assertEquals(ImmutableList.of("foo"), names(first));
+        assertEquals(ImmutableList.of("bar"), names(second));
+        verify(_delegate, times(1)).queryMetrics(any());
+    }
+
+    @Test
+    public void testRetriesIndividuallyOnBadRequest() throws InterruptedException, ExecutionException, TimeoutException {
+        when(_delegate.queryMetrics(any())).thenAnswer(invocation -> {
+            final MetricsQuery query = (MetricsQuery) invocation.getArguments()[0];
+            if (query.getMetrics().stream().anyMatch(metric -> metric.getName().equals("bad"))) {
+                final CompletableFuture<MetricsQueryResponse> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new KairosDbRequestException(400, "Bad Request", URI.create("/")));
+                return failed;
+            }
+            return CompletableFuture.completedFuture(respond(query));
+        });
+        final BatchingKairosDbClient client = createClient("1 hour", 2);
+
+        final CompletionStage<MetricsQueryResponse> good = client.queryMetrics(query(START, "good"));
+        final CompletionStage<MetricsQueryResponse> bad = client.queryMetrics(query(START, "bad"));
+
+        assertEquals(ImmutableList.of("good"), names(good));
+        try {
+            bad.toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("Expected KairosDbRequestException to be thrown");
+        } catch (final ExecutionException e) {
+            assertEquals(KairosDbRequestException.class, e.getCause().getClass());
+        }
+        verify(_delegate, timeout(5000).times(3)).queryMetrics(any());
+    }
+
+    private BatchingKairosDbClient createClient(final String linger, final int maxBatchSize) {
+        return new BatchingKairosDbClient(
+                _delegate,
+                _actorSystem,
+                ObjectMapperFactory.createInstance(),
+                ConfigFactory.parseString(String.format(
+                        "kairosdb.batching { enabled = true, linger = \"%s\", maxBatchSize = %d }",
+                        linger,
+                        maxBatchSize)),
+                _metrics);
+    }
+
+    private static List<String> names(final CompletionStage<MetricsQueryResponse> response)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return response.toCompletableFuture()
+                .get(5, TimeUnit.SECONDS)
+                .getQueries()
+                .stream()
+                .map(query -> query.getResults().get(0).getName())
+                .collect(Collectors.toList());
+    }
+
+    private static MetricsQuery query(final Instant start, final String... names) {
+        final ImmutableList.Builder<Metric> metrics = ImmutableList.builder();
+        for (final String name : names) {
+            metrics.add(new Metric.Builder().setName(name).build());
+        }
+        return new MetricsQuery.Builder()
+                .setStartTime(start)
+                .setMetrics(metrics.build())
+                .build();
+    }
+
+    private static MetricsQueryResponse respond(final MetricsQuery query) {
+        final ImmutableList.Builder<MetricsQueryResponse.Query> queries = ImmutableList.builder();
+        for (final Metric metric : query.getMetrics()) {
+            queries.add(new MetricsQueryResponse.Query.Builder()
+                    .setResults(ImmutableList.of(new MetricsQueryResponse.QueryResult.Builder()
+                            .setName(metric.getName())
+                            .setTags(ImmutableMultimap.of())
+                            .build()))
+                    .build());
+        }
+        return new MetricsQueryResponse.Builder().setQueries(queries.build()).build();
+    }
+}
@@ -16,6 +16,8 @@
 package com.arpnetworking.kairos.client;
 
 import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
 import akka.testkit.javadsl.TestKit;
 import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
 import com.arpnetworking.kairos.client.models.Aggregator;
@@ -29,6 +31,7 @@ import com.arpnetworking.kairos.client.models.RollupResponse;
 import com.arpnetworking.kairos.client.models.RollupTask;
 import com.arpnetworking.kairos.client.models.Sampling;
 import com.arpnetworking.kairos.client.models.SamplingUnit;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import com.google.common.collect.ImmutableList;
@@ -41,6 +44,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.Mockito;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONCompareMode;
 import scala.concurrent.duration.FiniteDuration;
@@ -88,6 +92,7 @@ public class KairosDbClientImplTest {
                 .setUri(_baseURI)
                 .setActorSystem(_actorSystem)
                 .setMapper(OBJECT_MAPPER)
+                .setMetrics(Mockito.mock(PeriodicMetrics.class))
                 .setReadTimeout(new FiniteDuration(30, TimeUnit.SECONDS))
                 .build();
     }
@@ -146,6 +151,27 @@ public class KairosDbClientImplTest {
                 OBJECT_MAPPER.writeValueAsString(response), JSONCompareMode.STRICT);
     }
 
+    @Test
+    public void testStreamMetrics() throws Exception {
+        _wireMock.givenThat(
+                post(urlEqualTo(KairosDbClientImpl.METRICS_QUERY_PATH.toString()))
+                        .willReturn(aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withBody(readResource("testQueryMetric.response"))
+                        )
+        );
+
+        final List<MetricsQueryResponse.QueryResult> results = _kairosDbClient.streamMetrics(new MetricsQuery.Builder()
+                .setStartTime(Instant.parse("2019-02-01T00:00:00Z"))
+                .setMetrics(ImmutableList.of(new Metric.Builder().setName("metric.name").build()))
+                .build()
+        ).runWith(Sink.seq(), ActorMaterializer.create(_actorSystem)).toCompletableFuture().get();
+
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals("cmf/web_perf/time_to_interactive_1d", results.get(0).getName());
+        Assert.assertEquals(15, results.get(0).getValues().size());
+    }
+
     @Test
     public void testQueryMetricTags() throws Exception {
         _wireMock.givenThat(
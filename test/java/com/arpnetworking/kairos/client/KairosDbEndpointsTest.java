@@ -0,0 +1,263 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.kairos.client;
+
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.net.URI;
+import java.time.Clock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test cases for {@link KairosDbEndpoints}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public class KairosDbEndpointsTest {
+    @Mock
+    private PeriodicMetrics _metrics;
+    @Mock
+    private Clock _clock;
+    private ActorSystem _actorSystem;
+
+    private static final URI FIRST = URI.create("http://kairos-1:8080");
+    private static final URI SECOND = URI.create("http://kairos-2:8080");
+    private static final URI THIRD = URI.create("http://kairos-3:8080");
+    private static final String QUERY = "query";
+    private static final String MERGE = "merge";
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        _actorSystem = ActorSystem.create();
+        when(_clock.millis()).thenReturn(0L);
+    }
+
+    @After
+    public void tearDown() {
+        TestKit.shutdownActorSystem(_actorSystem);
+    }
+
+    @Test
+    public void testSelectsLowerLatencyEndpoint() {
+        final KairosDbEndpoints endpoints = builder(FIRST, SECOND).build();
+        endpoints.getEndpoints().get(0).recordSuccess(QUERY, TimeUnit.MILLISECONDS.toNanos(50));
+        endpoints.getEndpoints().get(1).recordSuccess(QUERY, TimeUnit.MILLISECONDS.toNanos(5));
+
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(SECOND, endpoints.select(QUERY).getUri());
+        }
+    }
+
+    @Test
+    public void testEjectsAfterConsecutiveFailures() {
+        final KairosDbEndpoints endpoints = builder(FIRST, SECOND).setEjectionConsecutiveFailures(2).build();
+        final KairosDbEndpoints.Endpoint first = endpoints.getEndpoints().get(0);
+        first.recordSuccess(QUERY, TimeUnit.MILLISECONDS.toNanos(1));
+        endpoints.getEndpoints().get(1).recordSuccess(QUERY, TimeUnit.MILLISECONDS.toNanos(50));
+
+        first.recordFailure();
+        assertFalse(first.isEjected(0));
+        first.recordFailure();
+        assertTrue(first.isEjected(0));
+        assertEquals(SECOND, endpoints.select(QUERY).getUri());
+
+        // The endpoint is probed again once the ejection expires
+        when(_clock.millis()).thenReturn(TimeUnit.SECONDS.toMillis(31));
+        assertEquals(FIRST, endpoints.select(QUERY).getUri());
+    }
+
+    @Test
+    public void testNeverEjectsLastHealthyEndpoint() {
+        final KairosDbEndpoints endpoints = builder(FIRST, SECOND).setEjectionConsecutiveFailures(1).build();
+        endpoints.getEndpoints().get(0).recordFailure();
+        endpoints.getEndpoints().get(1).recordFailure();
+
+        assertTrue(endpoints.getEndpoints().get(0).isEjected(0));
+        assertFalse(endpoints.getEndpoints().get(1).isEjected(0));
+    }
+
+    @Test
+    public void testEjectsLatencyOutlier() {
+        final KairosDbEndpoints endpoints = builder(FIRST, SECOND, THIRD).build();
+        for (int i = 0; i < 10; ++i) {
+            endpoints.getEndpoints().get(0).recordSuccess(QUERY, TimeUnit.MILLISECONDS.toNanos(10));
+            endpoints.getEndpoints().get(1).recordSuccess(QUERY, TimeUnit.MILLISECONDS.toNanos(12));
+        }
+        for (int i = 0; i < 10; ++i) {
+            endpoints.getEndpoints().get(2).recordSuccess(QUERY, TimeUnit.MILLISECONDS.toNanos(100));
+        }
+
+        assertFalse(endpoints.getEndpoints().get(0).isEjected(0));
+        assertFalse(endpoints.getEndpoints().get(1).isEjected(0));
+        assertTrue(endpoints.getEndpoints().get(2).isEjected(0));
+    }
+
+    @Test
+    public void testRejectedRequestsAreNotFailures() throws InterruptedException, TimeoutException {
+        final KairosDbEndpoints endpoints = builder(FIRST, SECOND).setEjectionConsecutiveFailures(1).build();
+        for (int i = 0; i < 5; ++i) {
+            final CompletionStage<Object> response = endpoints.execute(QUERY, endpoint -> {
+                final CompletableFuture<Object> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new KairosDbRequestException(400, "Bad Request", endpoint.getUri()));
+                return failed;
+            });
+            try {
+                response.toCompletableFuture().get(5, TimeUnit.SECONDS);
+            } catch (final ExecutionException e) {
+                assertEquals(KairosDbRequestException.class, e.getCause().getClass());
+            }
+        }
+
+        assertFalse(endpoints.getEndpoints().get(0).isEjected(0));
+        assertFalse(endpoints.getEndpoints().get(1).isEjected(0));
+    }
+
+    @Test
+    public void testHedgeDelay() {
+        assertFalse(builder(FIRST).setHedgingEnabled(true).setMinHedgeSamples(1).build().getHedgeDelay(QUERY).isPresent());
+
+        final KairosDbEndpoints endpoints = builder(FIRST, SECOND).setHedgingEnabled(true).setMinHedgeSamples(20).build();
+        for (int i = 1; i <= 19; ++i) {
+            endpoints.getEndpoints().get(0).recordSuccess(QUERY, TimeUnit.MILLISECONDS.toNanos(i * 10));
+        }
+        assertFalse(endpoints.getHedgeDelay(QUERY).isPresent());
+        endpoints.getEndpoints().get(0).recordSuccess(QUERY, TimeUnit.MILLISECONDS.toNanos(200));
+
+        assertEquals(FiniteDuration.apply(200, TimeUnit.MILLISECONDS), endpoints.getHedgeDelay(QUERY).get());
+    }
+
+    @Test
+    public void testHedgeDelayPerRequestClass() {
+        final KairosDbEndpoints endpoints = builder(FIRST, SECOND).setHedgingEnabled(true).setMinHedgeSamples(10).build();
+        for (int i = 0; i < 10; ++i) {
+            endpoints.getEndpoints().get(0).recordSuccess(QUERY, TimeUnit.MILLISECONDS.toNanos(20));
+            endpoints.getEndpoints().get(0).recordSuccess(MERGE, TimeUnit.SECONDS.toNanos(30));
+        }
+
+        // Slow merges must not push out the hedge delay of fast queries, nor the reverse
+        assertEquals(FiniteDuration.apply(20, TimeUnit.MILLISECONDS), endpoints.getHedgeDelay(QUERY).get());
+        assertEquals(FiniteDuration.apply(30, TimeUnit.SECONDS), endpoints.getHedgeDelay(MERGE).get());
+        assertFalse(endpoints.getHedgeDelay("tags").isPresent());
+    }
+
+    @Test
+    public void testLatencyOutliersJudgedPerRequestClass() {
+        final KairosDbEndpoints endpoints = builder(FIRST, SECOND).build();
+        for (int i = 0; i < 10; ++i) {
+            endpoints.getEndpoints().get(0).recordSuccess(MERGE, TimeUnit.SECONDS.toNanos(30));
+            endpoints.getEndpoints().get(1).recordSuccess(QUERY, TimeUnit.MILLISECONDS.toNanos(20));
+        }
+
+        // An endpoint serving slow requests is not an outlier compared to one serving fast requests
+        assertFalse(endpoints.getEndpoints().get(0).isEjected(0));
+        assertFalse(endpoints.getEndpoints().get(1).isEjected(0));
+    }
+
+    @Test
+    public void testCancelsLosingAttempt() throws InterruptedException, ExecutionException, TimeoutException {
+        final KairosDbEndpoints endpoints = builder(FIRST, SECOND).setHedgingEnabled(true).setMinHedgeSamples(1).build();
+        endpoints.getEndpoints().get(0).recordSuccess(QUERY, TimeUnit.MILLISECONDS.toNanos(1));
+        endpoints.getEndpoints().get(1).recordSuccess(QUERY, TimeUnit.MILLISECONDS.toNanos(2));
+
+        final CompletableFuture<String> slow = new CompletableFuture<>();
+        final CompletionStage<String> response = endpoints.executeHedged(
+                QUERY,
+                endpoint -> endpoint.getUri().equals(FIRST)
+                        ? slow
+                        : CompletableFuture.completedFuture(endpoint.getUri().toString()),
+                value -> false,
+                value -> { });
+
+        assertEquals(SECOND.toString(), response.toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertTrue(slow.isCancelled());
+        verify(_metrics).recordCounter("kairos_client/endpoints/hedge_cancelled", 1);
+        // The cancelled attempt is neither a failure nor a latency sample of its endpoint
+        assertEquals(0, endpoints.getEndpoints().get(0).getConsecutiveFailures());
+        assertEquals(1, endpoints.getEndpoints().get(0).getSamples(QUERY));
+    }
+
+    @Test
+    public void testExecuteDoesNotHedge() throws InterruptedException, ExecutionException, TimeoutException {
+        final KairosDbEndpoints endpoints = builder(FIRST, SECOND)
+                .setHedgingEnabled(true)
+                .setMinHedgeSamples(1)
+                .setMinHedgeDelay(FiniteDuration.apply(1, TimeUnit.MILLISECONDS))
+                .build();
+        endpoints.getEndpoints().get(0).recordSuccess(MERGE, TimeUnit.MILLISECONDS.toNanos(1));
+        endpoints.getEndpoints().get(1).recordSuccess(MERGE, TimeUnit.MILLISECONDS.toNanos(1));
+
+        final AtomicInteger attempts = new AtomicInteger();
+        final CompletableFuture<String> pending = new CompletableFuture<>();
+        final CompletionStage<String> response = endpoints.execute(MERGE, endpoint -> {
+            attempts.incrementAndGet();
+            return pending;
+        });
+        Thread.sleep(50);
+        pending.complete("done");
+
+        assertEquals("done", response.toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void testHedgesSlowRequest() throws InterruptedException, ExecutionException, TimeoutException {
+        final KairosDbEndpoints endpoints = builder(FIRST, SECOND).setHedgingEnabled(true).setMinHedgeSamples(1).build();
+        // Make the endpoint that never answers look like the better choice
+        endpoints.getEndpoints().get(0).recordSuccess(QUERY, TimeUnit.MILLISECONDS.toNanos(1));
+        endpoints.getEndpoints().get(1).recordSuccess(QUERY, TimeUnit.MILLISECONDS.toNanos(2));
+
+        final CompletionStage<String> response = endpoints.executeHedged(
+                QUERY,
+                endpoint -> endpoint.getUri().equals(FIRST)
+                        ? new CompletableFuture<>()
+                        : CompletableFuture.completedFuture(endpoint.getUri().toString()),
+                value -> false,
+                value -> { });
+
+        assertEquals(SECOND.toString(), response.toCompletableFuture().get(5, TimeUnit.SECONDS));
+        verify(_metrics).recordCounter("kairos_client/endpoints/hedged", 1);
+        verify(_metrics).recordCounter("kairos_client/endpoints/hedge_won", 1);
+    }
+
+    private KairosDbEndpoints.Builder builder(final URI... uris) {
+        return new KairosDbEndpoints.Builder()
+                .setUris(ImmutableList.copyOf(uris))
+                .setActorSystem(_actorSystem)
+                .setMetrics(_metrics)
+                .setClock(_clock);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.kairos.client;
+
+import akka.util.ByteString;
+import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
+import com.arpnetworking.kairos.client.models.MetricsQueryResponse;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for {@link StreamingJsonDecoder}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public class StreamingJsonDecoderTest {
+    private static final ObjectMapper OBJECT_MAPPER = ObjectMapperFactory.getInstance();
+    private static final String RESPONSE = "{\"queries\":["
+            + "{\"sample_size\":2,\"results\":["
+            + "{\"name\":\"foo\",\"tags\":{\"host\":[\"a\"]},\"values\":[[1000,1.5],[2000,2]]},"
+            + "{\"name\":\"bar\",\"tags\":{},\"values\":[]}]},"
+            + "{\"sample_size\":1,\"results\":["
+            + "{\"name\":\"baz\",\"tags\":{},\"values\":[[3000,3]]}]}]}";
+
+    @Test
+    public void testQueryResultsAcrossChunkBoundaries() throws IOException {
+        for (final int chunkSize : new int[]{1, 7, RESPONSE.length()}) {
+            final StreamingJsonDecoder<MetricsQueryResponse.QueryResult> decoder = new StreamingJsonDecoder<>(
+                    OBJECT_MAPPER,
+                    TypeFactory.defaultInstance().constructType(MetricsQueryResponse.QueryResult.class),
+                    StreamingJsonDecoder::queryResult);
+            final List<MetricsQueryResponse.QueryResult> results = decode(decoder, RESPONSE, chunkSize);
+
+            assertEquals(
+                    Lists.newArrayList("foo", "bar", "baz"),
+                    results.stream().map(MetricsQueryResponse.QueryResult::getName).collect(Collectors.toList()));
+            assertEquals(2, results.get(0).getValues().size());
+            assertEquals(1.5, results.get(0).getValues().get(0).getValue());
+        }
+    }
+
+    @Test
+    public void testQueries() throws IOException {
+        final StreamingJsonDecoder<MetricsQueryResponse.Query> decoder = new StreamingJsonDecoder<>(
+                OBJECT_MAPPER,
+                TypeFactory.defaultInstance().constructType(MetricsQueryResponse.Query.class),
+                StreamingJsonDecoder::query);
+        final List<MetricsQueryResponse.Query> queries = decode(decoder, RESPONSE, 3);
+
+        assertEquals(2, queries.size());
+        assertEquals(2L, queries.get(0).getSampleSize());
+        assertEquals(2, queries.get(0).getResults().size());
+        assertEquals("baz", queries.get(1).getResults().get(0).getName());
+    }
+
+    @Test
+    public void testRootValue() throws IOException {
+        final StreamingJsonDecoder<MetricsQueryResponse> decoder = new StreamingJsonDecoder<>(
+                OBJECT_MAPPER,
+                TypeFactory.defaultInstance().constructType(MetricsQueryResponse.class),
+                StreamingJsonDecoder::root);
+        final List<MetricsQueryResponse> responses = decode(decoder, RESPONSE, 5);
+
+        assertEquals(1, responses.size());
+        assertEquals(2, responses.get(0).getQueries().size());
+        assertEquals(2L, responses.get(0).getQueries().get(0).getSampleSize());
+    }
+
+    @Test
+    public void testEmptyDocument() throws IOException {
+        final StreamingJsonDecoder<MetricsQueryResponse> decoder = new StreamingJsonDecoder<>(
+                OBJECT_MAPPER,
+                TypeFactory.defaultInstance().constructType(MetricsQueryResponse.class),
+                StreamingJsonDecoder::root);
+        assertTrue(decoder.finish().isEmpty());
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void testTruncatedDocument() throws IOException {
+        final StreamingJsonDecoder<MetricsQueryResponse> decoder = new StreamingJsonDecoder<>(
+                OBJECT_MAPPER,
+                TypeFactory.defaultInstance().constructType(MetricsQueryResponse.class),
+                StreamingJsonDecoder::root);
+        decode(decoder, RESPONSE.substring(0, RESPONSE.length() / 2), 16);
+    }
+
+    private static <T> List<T> decode(final StreamingJsonDecoder<T> decoder, final String json, final int chunkSize)
+            throws IOException {
+        final List<T> values = Lists.newArrayList();
+        final ByteString bytes = ByteString.fromString(json);
+        for (int offset = 0; offset < bytes.size(); offset += chunkSize) {
+            values.addAll(decoder.feed(bytes.slice(offset, Math.min(offset + chunkSize, bytes.size()))));
+        }
+        values.addAll(decoder.finish());
+        return values;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.kairos.client.models;
+
+import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding data points into {@link DataPoints} against decoding them into a list of boxed
+ * {@link MetricsQueryResponse.DataPoint} instances.
+ *
+ * Run with {@link #main(String[])}; the GC profiler reports the bytes allocated per decoded series
+ * ({@code gc.alloc.rate.norm}) alongside the throughput. A decoded numeric series retains 16 bytes
+ * per data point in columnar form, compared to an {@link java.time.Instant}, a boxed value, a data
+ * point and a list slot (about 80 bytes) per data point in boxed form.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataPointsBenchmark {
+    @Param({"1000", "100000"})
+    private int _points;
+    private byte[] _json;
+
+    private static final ObjectMapper OBJECT_MAPPER = ObjectMapperFactory.getInstance();
+    private static final TypeReference<List<MetricsQueryResponse.DataPoint>> BOXED_TYPE =
+            new TypeReference<List<MetricsQueryResponse.DataPoint>>() { };
+
+    /**
+     * Generates a series of data points with a mix of integer and floating point values.
+     *
+     * @throws IOException if the series cannot be serialized
+     */
+    @Setup
+    public void setUp() throws IOException {
+        final Random random = new Random(0);
+        final DataPoints.Builder builder = new DataPoints.Builder(_points);
+        long time = 1546300800000L;
+        for (int i = 0; i < _points; ++i) {
+            if (random.nextInt(4) == 0) {
+                builder.add(time, (long) random.nextInt(1000));
+            } else {
+                builder.add(time, random.nextDouble() * 1000);
+            }
+            time += 60000;
+        }
+        _json = OBJECT_MAPPER.writeValueAsBytes(builder.build());
+    }
+
+    /**
+     * Decodes the series into columns.
+     *
+     * @return the decoded series
+     * @throws IOException if the series cannot be decoded
+     */
+    @Benchmark
+    public DataPoints columnar() throws IOException {
+        return OBJECT_MAPPER.readValue(_json, DataPoints.class);
+    }
+
+    /**
+     * Decodes the series into boxed data points.
+     *
+     * @return the decoded series
+     * @throws IOException if the series cannot be decoded
+     */
+    @Benchmark
+    public List<MetricsQueryResponse.DataPoint> boxed() throws IOException {
+        return OBJECT_MAPPER.readValue(_json, BOXED_TYPE);
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the command line arguments
+     * @throws RunnerException if the benchmark fails
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DataPointsBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.kairos.client.models;
+
+import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.skyscreamer.jsonassert.JSONAssert;
+import org.skyscreamer.jsonassert.JSONCompareMode;
+
+import java.io.IOException;
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for {@link DataPoints}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public class DataPointsTest {
+    private static final ObjectMapper OBJECT_MAPPER = ObjectMapperFactory.getInstance();
+
+    @Test
+    public void testIntegerValues() {
+        final DataPoints points = new DataPoints.Builder()
+                .add(1000, 1L)
+                .add(2000, 2L)
+                .build();
+
+        assertTrue(points.isNumeric());
+        assertEquals(2, points.size());
+        assertEquals(2000, points.getTimeMillis(1));
+        assertEquals(2L, points.getValue(1));
+        assertEquals(Instant.ofEpochMilli(1000), points.get(0).getTime());
+        assertEquals(1L, points.get(0).getValue());
+    }
+
+    @Test
+    public void testMixedNumbersKeepIntegers() {
+        final DataPoints points = new DataPoints.Builder()
+                .add(1000, 1L)
+                .add(2000, 2.5)
+                .add(3000, 3L)
+                .build();
+
+        assertTrue(points.isNumeric());
+        assertEquals(1L, points.getValue(0));
+        assertEquals(2.5, points.getValue(1));
+        assertEquals(3L, points.getValue(2));
+        assertEquals(3.0, points.getDouble(2), 0.0);
+    }
+
+    @Test
+    public void testLargeIntegersFallBackToObjects() {
+        final DataPoints points = new DataPoints.Builder()
+                .add(1000, Long.MAX_VALUE)
+                .add(2000, 2.5)
+                .build();
+
+        assertFalse(points.isNumeric());
+        assertEquals(Long.MAX_VALUE, points.getValue(0));
+        assertEquals(2.5, points.getValue(1));
+    }
+
+    @Test
+    public void testNonNumericValuesFallBackToObjects() {
+        final ImmutableMap<String, Object> histogram = ImmutableMap.of("bins", ImmutableMap.of("1.0", 2));
+        final DataPoints points = new DataPoints.Builder()
+                .add(1000, 1.5)
+                .add(2000, histogram)
+                .build();
+
+        assertFalse(points.isNumeric());
+        assertEquals(1.5, points.getValue(0));
+        assertEquals(histogram, points.getValue(1));
+    }
+
+    @Test
+    public void testCopyOf() {
+        final DataPoints points = DataPoints.copyOf(ImmutableList.of(
+                new MetricsQueryResponse.DataPoint.Builder().setTime(Instant.ofEpochMilli(1000)).setValue(1).build(),
+                new MetricsQueryResponse.DataPoint.Builder().setTime(Instant.ofEpochMilli(2000)).setValue(2.0).build()));
+
+        assertTrue(points.isNumeric());
+        assertEquals(1L, points.getValue(0));
+        assertEquals(2.0, points.getValue(1));
+        assertSame(points, DataPoints.copyOf(points));
+    }
+
+    @Test
+    public void testWithTimeOffset() {
+        final DataPoints points = new DataPoints.Builder().add(1000, 1L).build().withTimeOffset(-1);
+
+        assertEquals(999, points.getTimeMillis(0));
+        assertEquals(1L, points.getValue(0));
+    }
+
+    @Test
+    public void testJsonRoundTrip() throws IOException {
+        final String json = "{\"name\":\"foo\",\"tags\":{},\"values\":["
+                + "[1000,1],[2000,2.5],[3000,9007199254740993],[4000,{\"bins\":{\"1.0\":2}}],[5000,null]]}";
+
+        final MetricsQueryResponse.QueryResult result = OBJECT_MAPPER.readValue(json, MetricsQueryResponse.QueryResult.class);
+
+        final DataPoints points = result.getValues();
+        assertEquals(5, points.size());
+        assertFalse(points.isNumeric());
+        assertEquals(9007199254740993L, points.getValue(2));
+        JSONAssert.assertEquals(json, OBJECT_MAPPER.writeValueAsString(result), JSONCompareMode.STRICT);
+    }
+
+    @Test
+    public void testJsonNumericValues() throws IOException {
+        final String json = "{\"name\":\"foo\",\"tags\":{},\"values\":[[1000,1],[2000,2.5],[3000,3]]}";
+
+        final MetricsQueryResponse.QueryResult result = OBJECT_MAPPER.readValue(json, MetricsQueryResponse.QueryResult.class);
+
+        assertTrue(result.getValues().isNumeric());
+        assertEquals(
+                "[[1000,1],[2000,2.5],[3000,3]]",
+                OBJECT_MAPPER.writeValueAsString(result.getValues()));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.kairos.client.models;
+
+import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for {@link MetricsQuery}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public class MetricsQueryTest {
+    private static final ObjectMapper OBJECT_MAPPER = ObjectMapperFactory.getInstance();
+    private static final Instant NOW = Instant.parse("2019-06-05T10:30:00Z");
+    private static final Clock CLOCK = Clock.fixed(NOW, ZoneOffset.UTC);
+
+    @Test
+    public void testRelativeTimesResolvedAgainstClock() {
+        final MetricsQuery query = new MetricsQuery.Builder()
+                .setClock(CLOCK)
+                .setStartRelative(new Sampling.Builder().setValue(2).setUnit(SamplingUnit.HOURS).build())
+                .setEndRelative(new Sampling.Builder().setValue(5).setUnit(SamplingUnit.MINUTES).build())
+                .setMetrics(ImmutableList.of(new Metric.Builder().setName("foo").build()))
+                .build();
+
+        assertEquals(Instant.parse("2019-06-05T08:30:00Z"), query.getStartTime());
+        assertEquals(Optional.of(Instant.parse("2019-06-05T10:25:00Z")), query.getEndTime());
+    }
+
+    @Test
+    public void testDeserializedRelativeTimesResolvedAgainstClock() throws IOException {
+        final MetricsQuery query = OBJECT_MAPPER.readerForUpdating(new MetricsQuery.Builder().setClock(CLOCK))
+                .<MetricsQuery.Builder>readValue(
+                        "{\"start_relative\":{\"value\":1,\"unit\":\"days\"},\"metrics\":[{\"name\":\"foo\"}]}")
+                .build();
+
+        assertEquals(Instant.parse("2019-06-04T10:30:00Z"), query.getStartTime());
+        assertEquals(Optional.empty(), query.getEndTime());
+    }
+
+    @Test
+    public void testHasSideEffects() {
+        final Metric read = new Metric.Builder()
+                .setName("foo")
+                .setAggregators(ImmutableList.of(new Aggregator.Builder().setName("avg").build()))
+                .build();
+        final Metric save = new Metric.Builder()
+                .setName("foo")
+                .setAggregators(ImmutableList.of(new Aggregator.Builder().setName("save_as").addOtherArg("metric_name", "bar").build()))
+                .build();
+        final MetricsQuery.Builder builder = new MetricsQuery.Builder().setStartTime(NOW);
+
+        assertFalse(builder.setMetrics(ImmutableList.of(read)).build().hasSideEffects());
+        assertTrue(builder.setMetrics(ImmutableList.of(read, save)).build().hasSideEffects());
+    }
+}
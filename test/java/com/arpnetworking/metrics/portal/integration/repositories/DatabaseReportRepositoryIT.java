@@ -18,12 +18,14 @@ package com.arpnetworking.metrics.portal.integration.repositories;
 import com.arpnetworking.metrics.portal.TestBeanFactory;
 import com.arpnetworking.metrics.portal.integration.test.EbeanServerHelper;
 import com.arpnetworking.metrics.portal.reports.impl.DatabaseReportRepository;
+import com.arpnetworking.metrics.portal.scheduling.JobChange;
 import com.arpnetworking.metrics.portal.scheduling.JobQuery;
 import com.arpnetworking.metrics.portal.scheduling.Schedule;
 import com.arpnetworking.metrics.portal.scheduling.impl.PeriodicSchedule;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSetMultimap;
 import io.ebean.EbeanServer;
+import io.ebean.Transaction;
 import models.ebean.ReportExecution;
 import models.internal.Organization;
 import models.internal.QueryResult;
@@ -59,6 +61,8 @@ import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
@@ -501,6 +505,85 @@ public class DatabaseReportRepositoryIT {
         assertThat(results.total(), equalTo((long) reportCount));
     }
 
+    @Test
+    public void testJobQueryClauseWithAfterId() {
+        final int reportCount = 5;
+        final List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < reportCount; i++) {
+            final Report report = TestBeanFactory.createReportBuilder().build();
+            _repository.addOrUpdateReport(report, _organization);
+            ids.add(report.getId());
+        }
+
+        final List<UUID> pagedIds = new ArrayList<>();
+        Optional<UUID> afterId = Optional.empty();
+        while (true) {
+            final JobQuery<Report.Result> query = _repository.createJobQuery(_organization).limit(2);
+            afterId.ifPresent(query::afterId);
+            final List<? extends Job<Report.Result>> page = query.execute().values();
+            if (page.isEmpty()) {
+                break;
+            }
+            page.forEach(job -> pagedIds.add(job.getId()));
+            afterId = Optional.of(page.get(page.size() - 1).getId());
+        }
+        assertThat(pagedIds, hasSize(reportCount));
+        assertThat(pagedIds, containsInAnyOrder(ids.toArray()));
+    }
+
+    @Test
+    public void testJobChanges() {
+        final long initialVersion = _repository.getLatestJobChangeVersion();
+        final Report report = TestBeanFactory.createReportBuilder().build();
+        _repository.addOrUpdateReport(report, _organization);
+
+        final List<JobChange> changes = _repository.getJobChanges(initialVersion, 100);
+        assertThat(changes, hasSize(1));
+        assertThat(changes.get(0).getJobId(), equalTo(report.getId()));
+        assertThat(changes.get(0).getOrganization().getId(), equalTo(_organization.getId()));
+        final long createdVersion = changes.get(0).getVersion();
+        assertThat(createdVersion, greaterThan(initialVersion));
+        assertThat(_repository.getLatestJobChangeVersion(), greaterThanOrEqualTo(createdVersion));
+
+        // Only the latest change of each report is kept
+        _repository.deleteReport(report.getId(), _organization);
+        final List<JobChange> deleted = _repository.getJobChanges(initialVersion, 100);
+        assertThat(deleted, hasSize(1));
+        assertThat(deleted.get(0).getVersion(), greaterThan(createdVersion));
+        assertThat(_repository.getJobChanges(deleted.get(0).getVersion(), 100), empty());
+    }
+
+    @Test
+    public void testJobChangesOfOverlappingTransactions() {
+        final Report first = TestBeanFactory.createReportBuilder().build();
+        final Report second = TestBeanFactory.createReportBuilder().build();
+        _repository.addOrUpdateReport(first, _organization);
+        _repository.addOrUpdateReport(second, _organization);
+        final long initialVersion = _repository.getLatestJobChangeVersion();
+
+        // The first transaction to change a report is the last to commit
+        final Transaction earlier = _server.createTransaction();
+        final Transaction later = _server.createTransaction();
+        try {
+            renameReport(first, earlier);
+            renameReport(second, later);
+            later.commit();
+
+            // The committed change must not be read ahead of the uncommitted one, or the cursor would skip it
+            assertThat(_repository.getJobChanges(initialVersion, 100), empty());
+
+            earlier.commit();
+        } finally {
+            later.end();
+            earlier.end();
+        }
+
+        final List<JobChange> changes = _repository.getJobChanges(initialVersion, 100);
+        assertThat(
+                changes.stream().map(JobChange::getJobId).collect(Collectors.toList()),
+                containsInAnyOrder(first.getId(), second.getId()));
+    }
+
     @Test
     public void testJobQueryReturnsNothing() {
         final JobQuery<Report.Result> query = _repository.createJobQuery(_organization);
@@ -508,6 +591,14 @@ public class DatabaseReportRepositoryIT {
         assertThat(results, empty());
     }
 
+    private void renameReport(final Report report, final Transaction transaction) {
+        _server.execute(
+                _server.createSqlUpdate("UPDATE portal.reports SET name = :name WHERE uuid = :uuid")
+                        .setParameter("name", ALTERED_REPORT_NAME)
+                        .setParameter("uuid", report.getId()),
+                transaction);
+    }
+
     private Optional<ReportExecution> getExecution(final UUID reportId, final Organization organization, final Instant scheduled) {
         return _server.find(ReportExecution.class)
                 .where()
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.integration.repositories;
+
+import com.arpnetworking.metrics.portal.integration.test.EbeanServerHelper;
+import com.arpnetworking.rollups.RollupPeriod;
+import com.arpnetworking.rollups.impl.DatabaseRollupWatermarkRepository;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.ebean.EbeanServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Integration tests for {@code DatabaseRollupWatermarkRepository}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class DatabaseRollupWatermarkRepositoryIT {
+
+    @Before
+    public void setUp() {
+        _server = EbeanServerHelper.getMetricsDatabase();
+        _repository = new DatabaseRollupWatermarkRepository(_server);
+        _repository.open();
+        _metricName = "metric-" + UUID.randomUUID();
+    }
+
+    @After
+    public void tearDown() {
+        _repository.close();
+    }
+
+    @Test
+    public void testGetForNonexistentMetric() {
+        assertTrue(_repository.getWatermarks(_metricName).isEmpty());
+    }
+
+    @Test
+    public void testUpdateAndGet() {
+        _repository.updateWatermark(_metricName, RollupPeriod.HOURLY, HOUR);
+        _repository.updateWatermark(_metricName, RollupPeriod.DAILY, DAY);
+
+        final Map<RollupPeriod, Instant> watermarks = _repository.getWatermarks(_metricName);
+        assertEquals(2, watermarks.size());
+        assertEquals(HOUR, watermarks.get(RollupPeriod.HOURLY));
+        assertEquals(DAY, watermarks.get(RollupPeriod.DAILY));
+    }
+
+    @Test
+    public void testGetForManyMetrics() {
+        final String otherMetricName = _metricName + "-other";
+        _repository.updateWatermark(_metricName, RollupPeriod.HOURLY, HOUR);
+        _repository.updateWatermark(otherMetricName, RollupPeriod.DAILY, DAY);
+
+        final Map<String, Map<RollupPeriod, Instant>> watermarks = _repository.getWatermarks(
+                ImmutableList.of(_metricName, otherMetricName, _metricName + "-missing"));
+        assertEquals(2, watermarks.size());
+        assertEquals(ImmutableMap.of(RollupPeriod.HOURLY, HOUR), watermarks.get(_metricName));
+        assertEquals(ImmutableMap.of(RollupPeriod.DAILY, DAY), watermarks.get(otherMetricName));
+    }
+
+    @Test
+    public void testWatermarkNeverMovesBackwards() {
+        _repository.updateWatermark(_metricName, RollupPeriod.HOURLY, HOUR);
+        _repository.updateWatermark(_metricName, RollupPeriod.HOURLY, HOUR.minusSeconds(3600));
+        assertEquals(HOUR, _repository.getWatermarks(_metricName).get(RollupPeriod.HOURLY));
+
+        _repository.updateWatermark(_metricName, RollupPeriod.HOURLY, HOUR.plusSeconds(3600));
+        assertEquals(HOUR.plusSeconds(3600), _repository.getWatermarks(_metricName).get(RollupPeriod.HOURLY));
+    }
+
+    private EbeanServer _server;
+    private DatabaseRollupWatermarkRepository _repository;
+    private String _metricName;
+
+    private static final Instant HOUR = Instant.parse("2019-06-01T05:00:00Z");
+    private static final Instant DAY = Instant.parse("2019-06-01T00:00:00Z");
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.query;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test cases for {@link MetricNameIndex}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public class MetricNameIndexTest {
+    private static final ImmutableList<String> NAMES = ImmutableList.of(
+            "cpu/user",
+            "cpu/system",
+            "Memory/Used",
+            "PT1M/cpu/user",
+            "disk/used",
+            "cpu/user_1h",
+            "abc/bcd");
+    private static final MetricNameIndex INDEX = MetricNameIndex.build(NAMES, name -> name.startsWith("PT1M/"));
+
+    @Test
+    public void testAllIncludesHidden() {
+        assertEquals(NAMES, INDEX.all());
+    }
+
+    @Test
+    public void testAllDoesNotCopy() {
+        assertSame(INDEX.all(), INDEX.all());
+    }
+
+    @Test
+    public void testSearchIgnoresCase() {
+        assertEquals(ImmutableList.of("Memory/Used", "disk/used"), INDEX.search("USED", 10));
+    }
+
+    @Test
+    public void testSearchExcludesHidden() {
+        assertEquals(ImmutableList.of("cpu/user", "cpu/user_1h"), INDEX.search("cpu/user", 10));
+    }
+
+    @Test
+    public void testSearchShortString() {
+        assertEquals(ImmutableList.of("cpu/user", "cpu/system", "cpu/user_1h"), INDEX.search("cp", 10));
+    }
+
+    @Test
+    public void testSearchLimit() {
+        assertEquals(ImmutableList.of("cpu/user", "cpu/system"), INDEX.search("cpu", 2));
+        assertEquals(ImmutableList.of("cpu/user"), INDEX.search("c", 1));
+    }
+
+    @Test
+    public void testSearchVerifiesCandidates() {
+        // Both trigrams of "abcd" occur in "abc/bcd" but the string itself does not
+        assertEquals(ImmutableList.of(), INDEX.search("abcd", 10));
+        assertEquals(ImmutableList.of(), INDEX.search("nothing", 10));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.query;
+
+import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
+import com.arpnetworking.kairos.client.KairosDbClient;
+import com.arpnetworking.kairos.client.models.Aggregator;
+import com.arpnetworking.kairos.client.models.Metric;
+import com.arpnetworking.kairos.client.models.MetricsQuery;
+import com.arpnetworking.kairos.client.models.MetricsQueryResponse;
+import com.arpnetworking.kairos.client.models.Sampling;
+import com.arpnetworking.kairos.client.models.SamplingUnit;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test cases for {@link QueryResultCache}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public class QueryResultCacheTest {
+    @Mock
+    private KairosDbClient _kairosDbClient;
+    @Mock
+    private PeriodicMetrics _metrics;
+    private QueryResultCache _cache;
+
+    private static final Instant NOW = Instant.parse("2019-01-30T12:00:00Z");
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(_kairosDbClient.queryMetrics(any())).thenAnswer(invocation -> {
+            final MetricsQuery query = (MetricsQuery) invocation.getArguments()[0];
+            return CompletableFuture.completedFuture(hourlyResponse(query));
+        });
+        _cache = new QueryResultCache(
+                _kairosDbClient,
+                ConfigFactory.parseString(
+                        "kairosdb.proxy.cache { enabled = true, bucketSize = \"1 hour\", settle = \"5 minutes\", maxSize = \"1 MiB\" }"),
+                ObjectMapperFactory.createInstance(),
+                Clock.fixed(NOW, ZoneOffset.UTC),
+                _metrics);
+    }
+
+    @Test
+    public void testRepeatedQueryServedFromCache() throws ExecutionException, InterruptedException {
+        final MetricsQuery query = query(Instant.parse("2019-01-30T00:00:00Z"), Instant.parse("2019-01-30T05:59:59.999Z"), avg());
+
+        final MetricsQueryResponse first = _cache.queryMetrics(query).toCompletableFuture().get();
+        final MetricsQueryResponse second = _cache.queryMetrics(query).toCompletableFuture().get();
+
+        verify(_kairosDbClient, times(1)).queryMetrics(any());
+        assertEquals(6, first.getQueries().get(0).getResults().get(0).getValues().size());
+        assertEquals(6, second.getQueries().get(0).getResults().get(0).getValues().size());
+        assertEquals(
+                Instant.parse("2019-01-30T05:00:00Z"),
+                second.getQueries().get(0).getResults().get(0).getValues().get(5).getTime());
+    }
+
+    @Test
+    public void testOnlyFetchesUncachedRange() throws ExecutionException, InterruptedException {
+        final Instant start = Instant.parse("2019-01-30T00:00:00Z");
+        _cache.queryMetrics(query(start, Instant.parse("2019-01-30T05:59:59.999Z"), avg())).toCompletableFuture().get();
+        final MetricsQueryResponse response = _cache.queryMetrics(query(start, NOW, avg())).toCompletableFuture().get();
+
+        final ArgumentCaptor<MetricsQuery> captor = ArgumentCaptor.forClass(MetricsQuery.class);
+        verify(_kairosDbClient, times(2)).queryMetrics(captor.capture());
+        assertEquals(Instant.parse("2019-01-30T06:00:00Z"), captor.getAllValues().get(1).getStartTime());
+        assertEquals(13, response.getQueries().get(0).getResults().get(0).getValues().size());
+    }
+
+    @Test
+    public void testOpenBucketsNotCached() throws ExecutionException, InterruptedException {
+        final MetricsQuery query = query(Instant.parse("2019-01-30T11:00:00Z"), NOW, avg());
+        _cache.queryMetrics(query).toCompletableFuture().get();
+        _cache.queryMetrics(query).toCompletableFuture().get();
+
+        verify(_kairosDbClient, times(2)).queryMetrics(any());
+    }
+
+    @Test
+    public void testCacheability() {
+        final Instant start = Instant.parse("2019-01-30T00:00:00Z");
+        assertTrue(_cache.isCacheable(query(start, NOW, avg())));
+        assertTrue(_cache.isCacheable(query(start, NOW)));
+        assertFalse(_cache.isCacheable(query(
+                start,
+                NOW,
+                new Aggregator.Builder()
+                        .setName("rate")
+                        .setSampling(new Sampling.Builder().setUnit(SamplingUnit.MINUTES).build())
+                        .build())));
+        assertFalse(_cache.isCacheable(query(
+                start,
+                NOW,
+                new Aggregator.Builder()
+                        .setName("avg")
+                        .setSampling(new Sampling.Builder().setUnit(SamplingUnit.MINUTES).build())
+                        .build())));
+        assertFalse(_cache.isCacheable(query(
+                start,
+                NOW,
+                new Aggregator.Builder()
+                        .setName("avg")
+                        .setSampling(new Sampling.Builder().setUnit(SamplingUnit.MONTHS).build())
+                        .setAlignSampling(true)
+                        .build())));
+        assertFalse(_cache.isCacheable(new MetricsQuery.Builder()
+                .setStartTime(start)
+                .setMetrics(ImmutableList.of(new Metric.Builder().setName("foo").setLimit(10).build()))
+                .build()));
+    }
+
+    private static Aggregator avg() {
+        return new Aggregator.Builder()
+                .setName("avg")
+                .setSampling(new Sampling.Builder().setUnit(SamplingUnit.MINUTES).build())
+                .setAlignSampling(true)
+                .build();
+    }
+
+    private static MetricsQuery query(final Instant start, final Instant end, final Aggregator... aggregators) {
+        return new MetricsQuery.Builder()
+                .setStartTime(start)
+                .setEndTime(end)
+                .setMetrics(ImmutableList.of(new Metric.Builder()
+                        .setName("foo")
+                        .setAggregators(ImmutableList.copyOf(aggregators))
+                        .build()))
+                .build();
+    }
+
+    private static MetricsQueryResponse hourlyResponse(final MetricsQuery query) {
+        final ImmutableList.Builder<MetricsQueryResponse.DataPoint> values = ImmutableList.builder();
+        final Instant end = query.getEndTime().orElse(NOW);
+        for (Instant time = query.getStartTime().truncatedTo(ChronoUnit.HOURS); !time.isAfter(end); time = time.plus(1, ChronoUnit.HOURS)) {
+            if (!time.isBefore(query.getStartTime())) {
+                values.add(new MetricsQueryResponse.DataPoint.Builder().setTime(time).setValue(1.0).build());
+            }
+        }
+        return new MetricsQueryResponse.Builder()
+                .setQueries(ImmutableList.of(new MetricsQueryResponse.Query.Builder()
+                        .setSampleSize(1L)
+                        .setResults(ImmutableList.of(new MetricsQueryResponse.QueryResult.Builder()
+                                .setName("foo")
+                                .setTags(ImmutableMultimap.of("host", "a"))
+                                .setValues(values.build())
+                                .build()))
+                        .build()))
+                .build();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.query;
+
+import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
+import com.arpnetworking.kairos.client.KairosDbClient;
+import com.arpnetworking.kairos.client.models.Aggregator;
+import com.arpnetworking.kairos.client.models.Metric;
+import com.arpnetworking.kairos.client.models.MetricsQuery;
+import com.arpnetworking.kairos.client.models.MetricsQueryResponse;
+import com.arpnetworking.kairos.client.models.Sampling;
+import com.arpnetworking.kairos.client.models.SamplingUnit;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test cases for {@link RollupQueryRewriter}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public class RollupQueryRewriterTest {
+    @Mock
+    private KairosDbClient _kairosDbClient;
+    @Mock
+    private PeriodicMetrics _metrics;
+    private RollupQueryRewriter _rewriter;
+
+    private static final Instant NOW = Instant.parse("2019-01-20T00:00:00Z");
+    private static final Instant FIRST_ROLLUP = Instant.parse("2019-01-04T00:00:00Z");
+    private static final Instant LAST_ROLLUP = Instant.parse("2019-01-09T00:00:00Z");
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(_kairosDbClient.queryMetrics(any())).thenAnswer(invocation -> {
+            final MetricsQuery query = (MetricsQuery) invocation.getArguments()[0];
+            return CompletableFuture.completedFuture(respond(query));
+        });
+        final Config config = ConfigFactory.parseString(
+                "kairosdb.proxy.cache { enabled = false, bucketSize = \"1 hour\", settle = \"5 minutes\", maxSize = \"1 MiB\" }\n"
+                        + "kairosdb.proxy.rollups { enabled = true, coverageTtl = \"1 minute\", maxCoverageEntries = 100 }");
+        final Clock clock = Clock.fixed(NOW, ZoneOffset.UTC);
+        _rewriter = new RollupQueryRewriter(
+                _kairosDbClient,
+                new QueryResultCache(_kairosDbClient, config, ObjectMapperFactory.createInstance(), clock, _metrics),
+                config,
+                clock,
+                _metrics);
+    }
+
+    @Test
+    public void testRewritesCompleteRangeToRollup() throws ExecutionException, InterruptedException {
+        final MetricsQuery query = query("foo", aggregator("avg", SamplingUnit.DAYS));
+        assertTrue(_rewriter.isRewritable(query));
+
+        final MetricsQueryResponse response = _rewriter.queryMetrics(query).toCompletableFuture().get();
+
+        final ArgumentCaptor<MetricsQuery> captor = ArgumentCaptor.forClass(MetricsQuery.class);
+        verify(_kairosDbClient, times(4)).queryMetrics(captor.capture());
+        final List<MetricsQuery> dataQueries = captor.getAllValues()
+                .stream()
+                .filter(q -> !q.getMetrics().get(0).getLimit().isPresent())
+                .collect(Collectors.toList());
+        assertEquals(3, dataQueries.size());
+
+        final MetricsQuery rollupQuery = dataQueries.stream()
+                .filter(q -> q.getMetrics().get(0).getName().equals("foo_1d"))
+                .findFirst()
+                .get();
+        assertEquals(Instant.parse("2019-01-03T00:00:00.001Z"), rollupQuery.getStartTime());
+        assertEquals(LAST_ROLLUP, rollupQuery.getEndTime().get());
+        assertFalse(rollupQuery.getMetrics().get(0).getAggregators().get(0).getAlignSampling().get());
+
+        final MetricsQueryResponse.QueryResult result = response.getQueries().get(0).getResults().get(0);
+        assertEquals("foo", result.getName());
+        assertEquals(
+                ImmutableList.of(
+                        Instant.parse("2019-01-01T00:00:00Z"),
+                        Instant.parse("2019-01-03T00:00:00Z"),
+                        Instant.parse("2019-01-09T00:00:00Z")),
+                result.getValues().stream().map(MetricsQueryResponse.DataPoint::getTime).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testNotRewritable() {
+        assertFalse(_rewriter.isRewritable(query("foo", aggregator("avg", SamplingUnit.MINUTES))));
+        assertFalse(_rewriter.isRewritable(query("foo", aggregator("first", SamplingUnit.DAYS))));
+        assertFalse(_rewriter.isRewritable(query("foo_1h", aggregator("avg", SamplingUnit.DAYS))));
+        assertFalse(_rewriter.isRewritable(query("foo")));
+    }
+
+    @Test
+    public void testHourlySamplingUsesHourlyRollup() throws ExecutionException, InterruptedException {
+        _rewriter.queryMetrics(query("foo", aggregator("max", SamplingUnit.HOURS))).toCompletableFuture().get();
+
+        final ArgumentCaptor<MetricsQuery> captor = ArgumentCaptor.forClass(MetricsQuery.class);
+        verify(_kairosDbClient, times(4)).queryMetrics(captor.capture());
+        assertEquals("foo_1h", captor.getAllValues().get(0).getMetrics().get(0).getName());
+    }
+
+    private static Aggregator aggregator(final String name, final SamplingUnit unit) {
+        return new Aggregator.Builder()
+                .setName(name)
+                .setSampling(new Sampling.Builder().setUnit(unit).build())
+                .setAlignSampling(true)
+                .build();
+    }
+
+    private static MetricsQuery query(final String name, final Aggregator... aggregators) {
+        return new MetricsQuery.Builder()
+                .setStartTime(Instant.parse("2019-01-01T00:00:00Z"))
+                .setEndTime(Instant.parse("2019-01-10T23:59:59.999Z"))
+                .setMetrics(ImmutableList.of(new Metric.Builder()
+                        .setName(name)
+                        .setAggregators(ImmutableList.copyOf(aggregators))
+                        .build()))
+                .build();
+    }
+
+    private static MetricsQueryResponse respond(final MetricsQuery query) {
+        final ImmutableList.Builder<MetricsQueryResponse.Query> queries = ImmutableList.builder();
+        for (final Metric metric : query.getMetrics()) {
+            final Instant time;
+            if (metric.getLimit().isPresent()) {
+                time = metric.getOrder().get() == Metric.Order.ASC ? FIRST_ROLLUP : LAST_ROLLUP;
+            } else {
+                time = query.getStartTime();
+            }
+            queries.add(new MetricsQueryResponse.Query.Builder()
+                    .setSampleSize(1L)
+                    .setResults(ImmutableList.of(new MetricsQueryResponse.QueryResult.Builder()
+                            .setName(metric.getName())
+                            .setTags(ImmutableMultimap.of())
+                            .setValues(ImmutableList.of(new MetricsQueryResponse.DataPoint.Builder()
+                                    .setTime(time)
+                                    .setValue(1.0)
+                                    .build()))
+                            .build()))
+                    .build());
+        }
+        return new MetricsQueryResponse.Builder().setQueries(queries.build()).build();
+    }
+}
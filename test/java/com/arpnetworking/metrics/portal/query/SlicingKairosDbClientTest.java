@@ -0,0 +1,201 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.query;
+
+import com.arpnetworking.kairos.client.KairosDbClient;
+import com.arpnetworking.kairos.client.models.Aggregator;
+import com.arpnetworking.kairos.client.models.Metric;
+import com.arpnetworking.kairos.client.models.MetricsQuery;
+import com.arpnetworking.kairos.client.models.MetricsQueryResponse;
+import com.arpnetworking.kairos.client.models.Sampling;
+import com.arpnetworking.kairos.client.models.SamplingUnit;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test cases for {@link SlicingKairosDbClient}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public class SlicingKairosDbClientTest {
+    @Mock
+    private KairosDbClient _delegate;
+    @Mock
+    private PeriodicMetrics _metrics;
+    private SlicingKairosDbClient _client;
+
+    private static final Instant NOW = Instant.parse("2019-01-20T00:00:00Z");
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(_delegate.queryMetrics(any())).thenAnswer(invocation -> {
+            final MetricsQuery query = (MetricsQuery) invocation.getArguments()[0];
+            return CompletableFuture.completedFuture(respond(query));
+        });
+        final Config config = ConfigFactory.parseString(
+                "kairosdb.slicing { enabled = true, sliceDuration = \"1 day\", maxSlices = 4, parallelism = 2 }");
+        _client = new SlicingKairosDbClient(_delegate, config, Clock.fixed(NOW, ZoneOffset.UTC), _metrics);
+    }
+
+    @Test
+    public void testSlicesAlignToSampling() {
+        final List<MetricsQuery> slices = _client.slice(query(
+                Instant.parse("2019-01-01T00:30:00Z"),
+                Instant.parse("2019-01-03T23:59:59.999Z"),
+                aggregator("avg", SamplingUnit.HOURS)));
+
+        assertEquals(3, slices.size());
+        assertEquals(Instant.parse("2019-01-01T00:30:00Z"), slices.get(0).getStartTime());
+        assertEquals(Instant.parse("2019-01-01T23:59:59.999Z"), slices.get(0).getEndTime().get());
+        assertEquals(Instant.parse("2019-01-02T00:00:00Z"), slices.get(1).getStartTime());
+        assertEquals(Instant.parse("2019-01-02T23:59:59.999Z"), slices.get(1).getEndTime().get());
+        assertEquals(Instant.parse("2019-01-03T00:00:00Z"), slices.get(2).getStartTime());
+        assertEquals(Instant.parse("2019-01-03T23:59:59.999Z"), slices.get(2).getEndTime().get());
+    }
+
+    @Test
+    public void testSliceCountIsBounded() {
+        final List<MetricsQuery> slices = _client.slice(query(
+                Instant.parse("2019-01-01T00:00:00Z"),
+                null,
+                aggregator("max", SamplingUnit.DAYS)));
+
+        assertEquals(4, slices.size());
+        assertEquals(Instant.parse("2019-01-01T00:00:00Z"), slices.get(0).getStartTime());
+        assertEquals(Instant.parse("2019-01-05T23:59:59.999Z"), slices.get(0).getEndTime().get());
+        assertFalse(slices.get(3).getEndTime().isPresent());
+    }
+
+    @Test
+    public void testShortRangeNotSliced() {
+        final MetricsQuery query = query(
+                Instant.parse("2019-01-01T00:00:00Z"),
+                Instant.parse("2019-01-01T12:00:00Z"),
+                aggregator("avg", SamplingUnit.HOURS));
+        assertEquals(ImmutableList.of(query), _client.slice(query));
+    }
+
+    @Test
+    public void testUnsplittableAggregatorNotSliced() {
+        final MetricsQuery query = query(
+                Instant.parse("2019-01-01T00:00:00Z"),
+                Instant.parse("2019-01-10T00:00:00Z"),
+                new Aggregator.Builder().setName("rate").build());
+        assertEquals(ImmutableList.of(query), _client.slice(query));
+    }
+
+    @Test
+    public void testResponsesMergedInOrder() throws ExecutionException, InterruptedException {
+        final MetricsQuery query = query(
+                Instant.parse("2019-01-01T00:00:00Z"),
+                Instant.parse("2019-01-03T23:59:59.999Z"),
+                aggregator("sum", SamplingUnit.HOURS));
+
+        final MetricsQueryResponse response = _client.queryMetrics(query).toCompletableFuture().get();
+
+        final ArgumentCaptor<MetricsQuery> captor = ArgumentCaptor.forClass(MetricsQuery.class);
+        verify(_delegate, times(3)).queryMetrics(captor.capture());
+        assertEquals(1, response.getQueries().size());
+        final MetricsQueryResponse.Query merged = response.getQueries().get(0);
+        assertEquals(3L, merged.getSampleSize());
+        assertEquals(1, merged.getResults().size());
+        assertEquals(
+                ImmutableList.of(
+                        Instant.parse("2019-01-01T00:00:00Z"),
+                        Instant.parse("2019-01-02T00:00:00Z"),
+                        Instant.parse("2019-01-03T00:00:00Z")),
+                merged.getResults().get(0).getValues()
+                        .stream()
+                        .map(MetricsQueryResponse.DataPoint::getTime)
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testSingleSliceDelegatesQuery() throws ExecutionException, InterruptedException {
+        final MetricsQuery query = query(
+                Instant.parse("2019-01-01T00:00:00Z"),
+                Instant.parse("2019-01-01T01:00:00Z"),
+                aggregator("sum", SamplingUnit.MINUTES));
+
+        _client.queryMetrics(query).toCompletableFuture().get();
+
+        final ArgumentCaptor<MetricsQuery> captor = ArgumentCaptor.forClass(MetricsQuery.class);
+        verify(_delegate).queryMetrics(captor.capture());
+        assertSame(query, captor.getValue());
+    }
+
+    private static Aggregator aggregator(final String name, final SamplingUnit unit) {
+        return new Aggregator.Builder()
+                .setName(name)
+                .setSampling(new Sampling.Builder().setUnit(unit).build())
+                .setAlignSampling(true)
+                .build();
+    }
+
+    private static MetricsQuery query(final Instant start, final Instant end, final Aggregator aggregator) {
+        return new MetricsQuery.Builder()
+                .setStartTime(start)
+                .setEndTime(end)
+                .setMetrics(ImmutableList.of(new Metric.Builder()
+                        .setName("foo")
+                        .setAggregators(ImmutableList.of(aggregator))
+                        .build()))
+                .build();
+    }
+
+    private static MetricsQueryResponse respond(final MetricsQuery query) {
+        final ImmutableList.Builder<MetricsQueryResponse.Query> queries = ImmutableList.builder();
+        for (final Metric metric : query.getMetrics()) {
+            queries.add(new MetricsQueryResponse.Query.Builder()
+                    .setSampleSize(1L)
+                    .setResults(ImmutableList.of(new MetricsQueryResponse.QueryResult.Builder()
+                            .setName(metric.getName())
+                            .setTags(ImmutableMultimap.of())
+                            .setValues(ImmutableList.of(new MetricsQueryResponse.DataPoint.Builder()
+                                    .setTime(query.getStartTime())
+                                    .setValue(1.0)
+                                    .build()))
+                            .build()))
+                    .build());
+        }
+        return new MetricsQueryResponse.Builder().setQueries(queries.build()).build();
+    }
+}
@@ -29,6 +29,7 @@ import com.arpnetworking.metrics.portal.scheduling.mocks.DummyJob;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import models.internal.Organization;
 import models.internal.scheduling.Job;
@@ -62,6 +63,8 @@ public class JobCoordinatorTest {
     private ActorSystem _system;
     private OrganizationRepository _organizationRepo;
     private Organization _organization;
+    private Config _config;
+    private JobRepositoryExecutor _repositoryExecutor;
     @Mock
     private PeriodicMetrics _periodicMetrics;
 
@@ -80,11 +83,21 @@ public class JobCoordinatorTest {
 
         _clock = new ManualClock(T0, TICK_SIZE, ZoneId.systemDefault());
 
+        _config = ConfigFactory.parseString(
+                "scheduling {\n"
+                        + "  repository { threads = 2, queueSize = 100 }\n"
+                        + "  coordinator { changePollInterval = \"100ms\", antiEntropyInterval = \"1h\", resendInterval = \"1d\",\n"
+                        + "    rebalanceDelay = \"1m\" }\n"
+                        + "  passivation { lead = \"1m\" }\n"
+                        + "}");
+        _repositoryExecutor = new JobRepositoryExecutor(_config, _periodicMetrics);
+
         _injector = Guice.createInjector(new AbstractModule() {
             @Override
             protected void configure() {
                 bind(MockableIntJobRepository.class).toInstance(_repo);
                 bind(Clock.class).toInstance(_clock);
+                bind(JobRepositoryExecutor.class).toInstance(_repositoryExecutor);
             }
         });
 
@@ -98,6 +111,7 @@ public class JobCoordinatorTest {
     @After
     public void tearDown() {
         _system.terminate();
+        _repositoryExecutor.shutdown();
     }
 
     private DummyJob<Integer> addJobToRepo(final DummyJob<Integer> job) {
@@ -117,6 +131,7 @@ public class JobCoordinatorTest {
         return JobCoordinator.props(
                 _injector,
                 _clock,
+                _config,
                 MockableIntJobRepository.class,
                 _organizationRepo,
                 _messageExtractor.getRef(),
@@ -156,5 +171,102 @@ public class JobCoordinatorTest {
         _messageExtractor.expectNoMessage();
     }
 
+    @Test
+    public void testRunsAntiEntropyOnStart() {
+        final Job<Integer> job = addJobToRepo(new DummyJob.Builder<Integer>()
+                .setId(UUID.fromString("11111111-1111-1111-1111-111111111111"))
+                .setOneOffSchedule(T0)
+                .setResult(123)
+                .build());
+
+        makeCoordinatorActor();
+
+        _messageExtractor.expectMsg(new JobExecutorActor.Reload.Builder<Integer>()
+                        .setJobRef(makeRef(job))
+                        .setETag(job.getETag().orElse(null))
+                        .build());
+        _messageExtractor.expectNoMessage();
+    }
+
+    @Test
+    public void testAntiEntropySkipsUnchangedJobs() {
+        final Job<Integer> job = addJobToRepo(new DummyJob.Builder<Integer>()
+                .setId(UUID.fromString("11111111-1111-1111-1111-111111111111"))
+                .setOneOffSchedule(T0)
+                .setResult(123)
+                .build());
+
+        final ActorRef coordinator = makeCoordinatorActor();
+        _messageExtractor.expectMsg(new JobExecutorActor.Reload.Builder<Integer>()
+                        .setJobRef(makeRef(job))
+                        .setETag(job.getETag().orElse(null))
+                        .build());
+        _messageExtractor.expectNoMessage();
+
+        coordinator.tell(JobCoordinator.AntiEntropyTick.INSTANCE, null);
+        _messageExtractor.expectNoMessage();
+    }
+
+    @Test
+    public void testReloadsChangedJobs() {
+        final Job<Integer> job1 = addJobToRepo(new DummyJob.Builder<Integer>()
+                .setId(UUID.fromString("11111111-1111-1111-1111-111111111111"))
+                .setOneOffSchedule(T0)
+                .setResult(123)
+                .build());
+
+        makeCoordinatorActor();
+        _messageExtractor.expectMsg(new JobExecutorActor.Reload.Builder<Integer>()
+                        .setJobRef(makeRef(job1))
+                        .setETag(job1.getETag().orElse(null))
+                        .build());
+
+        final Job<Integer> job2 = addJobToRepo(new DummyJob.Builder<Integer>()
+                .setId(UUID.fromString("22222222-2222-2222-2222-222222222222"))
+                .setOneOffSchedule(T0)
+                .setResult(456)
+                .build());
+        _messageExtractor.expectMsg(new JobExecutorActor.Reload.Builder<Integer>()
+                        .setJobRef(makeRef(job2))
+                        .build());
+
+        _repo.removeJob(job1.getId(), _organization);
+        _messageExtractor.expectMsg(new JobExecutorActor.Reload.Builder<Integer>()
+                        .setJobRef(makeRef(job1))
+                        .build());
+        _messageExtractor.expectNoMessage();
+    }
+
+    @Test
+    public void testRehydratesPassivatedJobDueSoon() {
+        final JobRef<Integer> ref = new JobRef.Builder<Integer>()
+                .setId(UUID.fromString("11111111-1111-1111-1111-111111111111"))
+                .setOrganization(_organization)
+                .setRepositoryType(MockableIntJobRepository.class)
+                .build();
+
+        final ActorRef coordinator = makeCoordinatorActor();
+        coordinator.tell(new JobCoordinator.Passivated<>(ref, T0.plus(java.time.Duration.ofSeconds(30))), null);
+
+        _messageExtractor.expectMsg(new JobExecutorActor.Reload.Builder<Integer>()
+                        .setJobRef(ref)
+                        .build());
+        _messageExtractor.expectNoMessage();
+    }
+
+    @Test
+    public void testKeepsPassivatedJobUntilDue() {
+        final JobRef<Integer> ref = new JobRef.Builder<Integer>()
+                .setId(UUID.fromString("11111111-1111-1111-1111-111111111111"))
+                .setOrganization(_organization)
+                .setRepositoryType(MockableIntJobRepository.class)
+                .build();
+
+        final ActorRef coordinator = makeCoordinatorActor();
+        coordinator.tell(new JobCoordinator.Passivated<>(ref, T0.plus(java.time.Duration.ofHours(1))), null);
+
+        _messageExtractor.expectNoMessage();
+    }
+
     private static class MockableIntJobRepository extends MapJobRepository<Integer> {}
 }
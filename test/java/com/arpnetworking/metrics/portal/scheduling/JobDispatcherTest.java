@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.scheduling;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link JobDispatcher}.
+ *
+ * @author Spencer Pearson (spencerpearson at dropbox dot com)
+ */
+public final class JobDispatcherTest {
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(_clock.millis()).thenReturn(T_0.toEpochMilli());
+        _system = ActorSystem.create();
+    }
+
+    @After
+    public void tearDown() {
+        TestKit.shutdownActorSystem(_system);
+    }
+
+    @Test
+    public void testAdmitsBurstImmediately() {
+        final ActorRef dispatcher = _system.actorOf(JobDispatcher.props(_clock, TICK_DURATION, 1, 2, 100, Duration.ZERO, _periodicMetrics));
+        final TestKit executor = new TestKit(_system);
+        dispatcher.tell(new JobDispatcher.Admit(UUID.randomUUID(), T_0), executor.getRef());
+        dispatcher.tell(new JobDispatcher.Admit(UUID.randomUUID(), T_0), executor.getRef());
+
+        assertEquals(T_0, executor.expectMsgClass(JobDispatcher.Admitted.class).getScheduled());
+        assertEquals(T_0, executor.expectMsgClass(JobDispatcher.Admitted.class).getScheduled());
+    }
+
+    @Test
+    public void testQueuesBeyondRate() {
+        final ActorRef dispatcher = _system.actorOf(JobDispatcher.props(_clock, TICK_DURATION, 1, 2, 100, Duration.ZERO, _periodicMetrics));
+        final TestKit executor = new TestKit(_system);
+        for (int i = 0; i < 3; ++i) {
+            dispatcher.tell(new JobDispatcher.Admit(UUID.randomUUID(), T_0), executor.getRef());
+        }
+        executor.expectMsgClass(JobDispatcher.Admitted.class);
+        executor.expectMsgClass(JobDispatcher.Admitted.class);
+        executor.expectNoMessage(FiniteDuration.apply(300, TimeUnit.MILLISECONDS));
+
+        // One more token is available a second later; the admitted execution keeps its scheduled instant
+        Mockito.when(_clock.millis()).thenReturn(T_0.plusSeconds(1).toEpochMilli());
+        assertEquals(T_0, executor.expectMsgClass(JobDispatcher.Admitted.class).getScheduled());
+        Mockito.verify(_periodicMetrics, Mockito.atLeastOnce()).recordGauge("job_dispatcher/queue_depth", 1);
+    }
+
+    @Test
+    public void testRejectsWhenFull() {
+        final ActorRef dispatcher = _system.actorOf(JobDispatcher.props(_clock, TICK_DURATION, 1, 1, 2, Duration.ZERO, _periodicMetrics));
+        final TestKit executor = new TestKit(_system);
+        for (int i = 0; i < 4; ++i) {
+            dispatcher.tell(new JobDispatcher.Admit(UUID.randomUUID(), T_0), executor.getRef());
+        }
+        // One request is admitted from the burst and two wait; the last one does not fit
+        executor.expectMsgClass(JobDispatcher.Admitted.class);
+        assertEquals(T_0, executor.expectMsgClass(JobDispatcher.Rejected.class).getScheduled());
+        Mockito.verify(_periodicMetrics).recordCounter("job_dispatcher/rejected", 1);
+    }
+
+    @Test
+    public void testJitterDelaysAdmission() {
+        final ActorRef dispatcher = _system.actorOf(JobDispatcher.props(_clock, TICK_DURATION, 1, 2, 100, JITTER_WINDOW, _periodicMetrics));
+        final TestKit executor = new TestKit(_system);
+        final UUID jobId = UUID.randomUUID();
+        final Instant scheduled = T_0.plusSeconds(60);
+        final Instant releaseAt = scheduled.plus(JobDispatcher.jitterOf(jobId, JITTER_WINDOW));
+
+        dispatcher.tell(new JobDispatcher.Admit(jobId, scheduled), executor.getRef());
+        executor.expectNoMessage(FiniteDuration.apply(300, TimeUnit.MILLISECONDS));
+
+        Mockito.when(_clock.millis()).thenReturn(releaseAt.toEpochMilli());
+        assertEquals(scheduled, executor.expectMsgClass(JobDispatcher.Admitted.class).getScheduled());
+    }
+
+    @Test
+    public void testJitterIsDeterministicAndWithinWindow() {
+        for (int i = 0; i < 100; ++i) {
+            final UUID jobId = UUID.randomUUID();
+            final Duration jitter = JobDispatcher.jitterOf(jobId, JITTER_WINDOW);
+            assertEquals(jitter, JobDispatcher.jitterOf(jobId, JITTER_WINDOW));
+            assertTrue(!jitter.isNegative() && jitter.compareTo(JITTER_WINDOW) < 0);
+        }
+        assertEquals(Duration.ZERO, JobDispatcher.jitterOf(UUID.randomUUID(), Duration.ZERO));
+    }
+
+    @Mock
+    private Clock _clock;
+    @Mock
+    private PeriodicMetrics _periodicMetrics;
+    private ActorSystem _system;
+
+    private static final Instant T_0 = Instant.parse("2019-06-05T10:30:00Z");
+    private static final FiniteDuration TICK_DURATION = FiniteDuration.apply(50, TimeUnit.MILLISECONDS);
+    private static final Duration JITTER_WINDOW = Duration.ofMinutes(5);
+}
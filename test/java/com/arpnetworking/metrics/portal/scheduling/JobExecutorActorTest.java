@@ -15,9 +15,13 @@
  */
 package com.arpnetworking.metrics.portal.scheduling;
 
+import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
 import akka.actor.Props;
+import akka.cluster.sharding.ShardRegion;
+import akka.testkit.javadsl.TestKit;
 import com.arpnetworking.commons.java.time.ManualClock;
 import com.arpnetworking.metrics.MetricsFactory;
 import com.arpnetworking.metrics.impl.TsdMetricsFactory;
@@ -31,6 +35,7 @@ import com.arpnetworking.metrics.portal.scheduling.mocks.DummyJob;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.name.Names;
 import com.typesafe.config.ConfigFactory;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import models.internal.Organization;
@@ -40,7 +45,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import scala.concurrent.duration.FiniteDuration;
 
+import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
@@ -48,7 +55,11 @@ import java.time.temporal.ChronoUnit;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
 
 /**
  * Tests for {@link JobExecutorActor}.
@@ -67,26 +78,50 @@ public final class JobExecutorActorTest {
 
         _clock = new ManualClock(T_0, TICK_SIZE, ZoneId.systemDefault());
 
-        _injector = Guice.createInjector(new AbstractModule() {
-            @Override
-            protected void configure() {
-                bind(MockableIntJobRepository.class).toInstance(_repo);
-                bind(MetricsFactory.class).toInstance(TsdMetricsFactory.newInstance("test", "test"));
-            }
-        });
-
         _periodicMetrics = new TsdPeriodicMetrics.Builder()
                 .setMetricsFactory(TsdMetricsFactory.newInstance("test", "test"))
                 .build();
 
+        _repositoryExecutor = new JobRepositoryExecutor(
+                ConfigFactory.parseString("scheduling.repository { threads = 2, queueSize = 100 }"),
+                _periodicMetrics);
+
         _system = ActorSystem.create(
                 "test-" + SYSTEM_NAME_NONCE.getAndIncrement(),
                 ConfigFactory.parseMap(AkkaClusteringConfigFactory.generateConfiguration()));
+
+        _timingWheel = _system.actorOf(
+                JobTimingWheel.props(_clock, FiniteDuration.apply(100, TimeUnit.MILLISECONDS), _periodicMetrics));
+        final ActorRef dispatcher = _system.actorOf(
+                JobDispatcher.props(
+                        _clock,
+                        FiniteDuration.apply(100, TimeUnit.MILLISECONDS),
+                        1000,
+                        100,
+                        1000,
+                        Duration.ZERO,
+                        _periodicMetrics));
+
+        _injector = createInjector(dispatcher);
+    }
+
+    private Injector createInjector(final ActorRef dispatcher) {
+        return Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(MockableIntJobRepository.class).toInstance(_repo);
+                bind(MetricsFactory.class).toInstance(TsdMetricsFactory.newInstance("test", "test"));
+                bind(JobRepositoryExecutor.class).toInstance(_repositoryExecutor);
+                bind(ActorRef.class).annotatedWith(Names.named(JobExecutorActor.TIMING_WHEEL_NAME)).toInstance(_timingWheel);
+                bind(ActorRef.class).annotatedWith(Names.named(JobExecutorActor.DISPATCHER_NAME)).toInstance(dispatcher);
+            }
+        });
     }
 
     @After
     public void tearDown() {
         _system.terminate();
+        _repositoryExecutor.shutdown();
     }
 
     private DummyJob<Integer> addJobToRepo(final DummyJob<Integer> job) {
@@ -138,6 +173,38 @@ public final class JobExecutorActorTest {
                 Mockito.any(CompletionException.class));
     }
 
+    @Test
+    public void testAsksForAdmissionAgainAfterTimeout() {
+        final DummyJob<Integer> j = addJobToRepo(new DummyJob.Builder<Integer>().setOneOffSchedule(T_0).setResult(123).build());
+        final JobRef<Integer> ref = new JobRef.Builder<Integer>()
+                .setRepositoryType(MockableIntJobRepository.class)
+                .setId(j.getId())
+                .setOrganization(ORGANIZATION)
+                .build();
+        final TestKit dispatcher = new TestKit(_system);
+        final AtomicReference<Instant> now = new AtomicReference<>(T_0);
+        final Clock clock = Mockito.mock(Clock.class);
+        Mockito.when(clock.instant()).thenAnswer(invocation -> now.get());
+        final ActorRef executor = _system.actorOf(JobExecutorActor.props(createInjector(dispatcher.getRef()), clock, _periodicMetrics));
+        executor.tell(new JobExecutorActor.Reload.Builder<Integer>().setJobRef(ref).build(), null);
+
+        // The request is lost, e.g. because the dispatcher restarted
+        dispatcher.expectMsgClass(JobDispatcher.Admit.class);
+        executor.tell(JobExecutorActor.Tick.INSTANCE, null);
+        dispatcher.expectNoMessage(FiniteDuration.apply(500, TimeUnit.MILLISECONDS));
+
+        now.set(T_0.plus(Duration.ofMinutes(11)));
+        executor.tell(JobExecutorActor.Tick.INSTANCE, null);
+        final JobDispatcher.Admit retry = dispatcher.expectMsgClass(JobDispatcher.Admit.class);
+        assertEquals(T_0, retry.getScheduled());
+
+        // Admitting both requests executes the job only once
+        executor.tell(new JobDispatcher.Admitted(T_0), dispatcher.getRef());
+        executor.tell(new JobDispatcher.Admitted(T_0), dispatcher.getRef());
+        Mockito.verify(_repo, Mockito.timeout(1000)).jobSucceeded(j.getId(), ORGANIZATION, T_0, 123);
+        Mockito.verify(_repo, Mockito.after(500).times(1)).jobStarted(j.getId(), ORGANIZATION, T_0);
+    }
+
     @Test
     public void testJobInFutureNotRun() {
         final Job<Integer> j = addJobToRepo(
@@ -152,6 +219,51 @@ public final class JobExecutorActorTest {
         Mockito.verify(_repo, Mockito.never()).jobFailed(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
     }
 
+    @Test
+    public void testPassivatesIdleJob() {
+        final Instant nextRun = T_0.plus(Duration.ofDays(1));
+        final Job<Integer> j = addJobToRepo(new DummyJob.Builder<Integer>().setOneOffSchedule(nextRun).setResult(123).build());
+        final JobRef<Integer> ref = new JobRef.Builder<Integer>()
+                .setRepositoryType(MockableIntJobRepository.class)
+                .setId(j.getId())
+                .setOrganization(ORGANIZATION)
+                .build();
+        final TestKit coordinator = new TestKit(_system);
+        final TestKit shard = new TestKit(_system);
+        final ActorRef parent = _system.actorOf(ForwardingParent.props(
+                JobExecutorActor.props(_injector, _clock, Duration.ofHours(1), _periodicMetrics),
+                shard.getRef()));
+
+        parent.tell(new JobExecutorActor.Reload.Builder<Integer>().setJobRef(ref).build(), coordinator.getRef());
+
+        coordinator.expectMsg(new JobCoordinator.Passivated<>(ref, nextRun));
+        shard.expectMsg(new ShardRegion.Passivate(PoisonPill.getInstance()));
+    }
+
+    @Test
+    public void testDoesNotPassivateJobDueSoon() {
+        final Job<Integer> j = addJobToRepo(
+                new DummyJob.Builder<Integer>()
+                        .setOneOffSchedule(T_0.plus(Duration.ofMinutes(10)))
+                        .setResult(123)
+                        .build());
+        final JobRef<Integer> ref = new JobRef.Builder<Integer>()
+                .setRepositoryType(MockableIntJobRepository.class)
+                .setId(j.getId())
+                .setOrganization(ORGANIZATION)
+                .build();
+        final TestKit coordinator = new TestKit(_system);
+        final TestKit shard = new TestKit(_system);
+        final ActorRef parent = _system.actorOf(ForwardingParent.props(
+                JobExecutorActor.props(_injector, _clock, Duration.ofHours(1), _periodicMetrics),
+                shard.getRef()));
+
+        parent.tell(new JobExecutorActor.Reload.Builder<Integer>().setJobRef(ref).build(), coordinator.getRef());
+
+        coordinator.expectNoMessage();
+        shard.expectNoMessage();
+    }
+
     @Test
     @SuppressFBWarnings("NP_NONNULL_PARAM_VIOLATION")
     public void testOnlyExecutesOneAtATime() {
@@ -195,7 +307,9 @@ public final class JobExecutorActorTest {
     private Injector _injector;
     private MockableIntJobRepository _repo;
     private ManualClock _clock;
+    private ActorRef _timingWheel;
     private PeriodicMetrics _periodicMetrics;
+    private JobRepositoryExecutor _repositoryExecutor;
     private ActorSystem _system;
 
     private static final Instant T_0 = Instant.ofEpochMilli(0);
@@ -205,4 +319,34 @@ public final class JobExecutorActorTest {
 
     private static class MockableIntJobRepository extends MapJobRepository<Integer> {}
 
+    /**
+     * Stands in for a shard: starts the actor under test, forwards messages to it and reports the messages it sends to its parent.
+     */
+    private static final class ForwardingParent extends AbstractActor {
+        static Props props(final Props childProps, final ActorRef probe) {
+            return Props.create(ForwardingParent.class, () -> new ForwardingParent(childProps, probe));
+        }
+
+        private ForwardingParent(final Props childProps, final ActorRef probe) {
+            _child = getContext().actorOf(childProps);
+            _probe = probe;
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .matchAny(message -> {
+                        if (getSender().equals(_child)) {
+                            _probe.forward(message, getContext());
+                        } else {
+                            _child.forward(message, getContext());
+                        }
+                    })
+                    .build();
+        }
+
+        private final ActorRef _child;
+        private final ActorRef _probe;
+    }
+
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.scheduling;
+
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link JobRepositoryExecutor}.
+ *
+ * @author Spencer Pearson (spencerpearson at dropbox dot com)
+ */
+public final class JobRepositoryExecutorTest {
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        _executor = new JobRepositoryExecutor(
+                ConfigFactory.parseString("scheduling.repository { threads = 1, queueSize = 1 }"),
+                _periodicMetrics);
+    }
+
+    @After
+    public void tearDown() {
+        _executor.shutdown();
+    }
+
+    @Test
+    public void testRunsCall() throws InterruptedException, ExecutionException, TimeoutException {
+        assertEquals("result", _executor.submit("test", () -> "result").toCompletableFuture().get(5, TimeUnit.SECONDS));
+        Mockito.verify(_periodicMetrics, Mockito.timeout(1000))
+                .recordTimer(Mockito.eq("job_repository/test/queue_time"), Mockito.anyLong(), Mockito.any());
+        Mockito.verify(_periodicMetrics, Mockito.timeout(1000))
+                .recordTimer(Mockito.eq("job_repository/test/execution_time"), Mockito.anyLong(), Mockito.any());
+    }
+
+    @Test
+    public void testPropagatesFailure() throws InterruptedException, TimeoutException {
+        final IllegalStateException error = new IllegalStateException("database is down");
+        try {
+            _executor.submit("test", () -> {
+                throw error;
+            }).toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("expected the call to fail");
+        } catch (final ExecutionException e) {
+            assertEquals(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void testRejectsWhenQueueIsFull() throws InterruptedException, TimeoutException {
+        final CompletableFuture<Void> blocker = new CompletableFuture<>();
+        // One call occupies the only thread and one waits in the only queue slot
+        _executor.submit("test", blocker::join);
+        _executor.submit("test", () -> null);
+
+        final CompletionStage<Object> rejected = _executor.submit("test", () -> null);
+        try {
+            rejected.toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("expected the call to be rejected");
+        } catch (final ExecutionException e) {
+            assertEquals(RejectedExecutionException.class, e.getCause().getClass());
+        }
+        Mockito.verify(_periodicMetrics).recordCounter("job_repository/rejected", 1);
+        blocker.complete(null);
+    }
+
+    @Mock
+    private PeriodicMetrics _periodicMetrics;
+    private JobRepositoryExecutor _executor;
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.scheduling;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link JobTimingWheel}.
+ *
+ * @author Spencer Pearson (spencerpearson at dropbox dot com)
+ */
+public final class JobTimingWheelTest {
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(_clock.millis()).thenReturn(T_0.toEpochMilli());
+        _system = ActorSystem.create();
+        _wheel = _system.actorOf(JobTimingWheel.props(_clock, TICK_DURATION, _periodicMetrics));
+    }
+
+    @After
+    public void tearDown() {
+        TestKit.shutdownActorSystem(_system);
+    }
+
+    @Test
+    public void testWakesUpWhenDue() {
+        final TestKit executor = new TestKit(_system);
+        _wheel.tell(new JobTimingWheel.Schedule(T_0.plusSeconds(60)), executor.getRef());
+        executor.expectNoMessage(FiniteDuration.apply(300, TimeUnit.MILLISECONDS));
+
+        Mockito.when(_clock.millis()).thenReturn(T_0.plusSeconds(60).toEpochMilli());
+        executor.expectMsg(JobExecutorActor.Tick.INSTANCE);
+        // Each request is only answered once
+        executor.expectNoMessage(FiniteDuration.apply(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testWakesUpImmediatelyWhenAlreadyDue() {
+        final TestKit executor = new TestKit(_system);
+        _wheel.tell(new JobTimingWheel.Schedule(T_0.minusSeconds(1)), executor.getRef());
+        executor.expectMsg(JobExecutorActor.Tick.INSTANCE);
+    }
+
+    @Test
+    public void testRescheduleReplacesEarlierRequest() {
+        final TestKit executor = new TestKit(_system);
+        _wheel.tell(new JobTimingWheel.Schedule(T_0.plusSeconds(10)), executor.getRef());
+        _wheel.tell(new JobTimingWheel.Schedule(T_0.plusSeconds(60)), executor.getRef());
+
+        Mockito.when(_clock.millis()).thenReturn(T_0.plusSeconds(30).toEpochMilli());
+        executor.expectNoMessage(FiniteDuration.apply(300, TimeUnit.MILLISECONDS));
+        Mockito.when(_clock.millis()).thenReturn(T_0.plusSeconds(60).toEpochMilli());
+        executor.expectMsg(JobExecutorActor.Tick.INSTANCE);
+    }
+
+    @Test
+    public void testCancel() {
+        final TestKit executor = new TestKit(_system);
+        _wheel.tell(new JobTimingWheel.Schedule(T_0.plusSeconds(10)), executor.getRef());
+        _wheel.tell(JobTimingWheel.Cancel.INSTANCE, executor.getRef());
+
+        Mockito.when(_clock.millis()).thenReturn(T_0.plusSeconds(10).toEpochMilli());
+        executor.expectNoMessage(FiniteDuration.apply(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Mock
+    private Clock _clock;
+    @Mock
+    private PeriodicMetrics _periodicMetrics;
+    private ActorSystem _system;
+    private ActorRef _wheel;
+
+    private static final Instant T_0 = Instant.parse("2019-06-05T10:30:00Z");
+    private static final FiniteDuration TICK_DURATION = FiniteDuration.apply(50, TimeUnit.MILLISECONDS);
+}
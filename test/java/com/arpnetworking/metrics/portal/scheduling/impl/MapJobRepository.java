@@ -15,6 +15,7 @@
  */
 package com.arpnetworking.metrics.portal.scheduling.impl;
 
+import com.arpnetworking.metrics.portal.scheduling.JobChange;
 import com.arpnetworking.metrics.portal.scheduling.JobQuery;
 import com.arpnetworking.metrics.portal.scheduling.JobRepository;
 import com.arpnetworking.steno.Logger;
@@ -30,11 +31,13 @@ import models.internal.impl.DefaultQueryResult;
 import models.internal.scheduling.Job;
 
 import java.time.Instant;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -55,6 +58,7 @@ public class MapJobRepository<T> implements JobRepository<T> {
     private final AtomicBoolean _open = new AtomicBoolean();
     private final Map<Organization, Map<UUID, Job<T>>> _jobs = Maps.newHashMap();
     private final Map<Organization, Map<UUID, Instant>> _lastRuns = Maps.newHashMap();
+    private final List<JobChange> _changes = new CopyOnWriteArrayList<>();
 
     @Override
     public void open() {
@@ -78,6 +82,27 @@ public class MapJobRepository<T> implements JobRepository<T> {
     public void addOrUpdateJob(final Job<T> job, final Organization organization) {
         assertIsOpen();
         _jobs.computeIfAbsent(organization, o -> Maps.newHashMap()).put(job.getId(), job);
+        recordChange(job.getId(), organization);
+    }
+
+    /**
+     * Removes a job from an organization.
+     *
+     * @param id id of the job to remove
+     * @param organization organization to remove from
+     */
+    public void removeJob(final UUID id, final Organization organization) {
+        assertIsOpen();
+        _jobs.getOrDefault(organization, Maps.newHashMap()).remove(id);
+        recordChange(id, organization);
+    }
+
+    private void recordChange(final UUID id, final Organization organization) {
+        _changes.add(new JobChange.Builder()
+                .setId(id)
+                .setOrganization(organization)
+                .setVersion((long) _changes.size() + 1)
+                .build());
     }
 
     @Override
@@ -128,12 +153,27 @@ public class MapJobRepository<T> implements JobRepository<T> {
                     .getOrDefault(query.getOrganization(), ImmutableMap.of())
                     .values()
                     .stream()
+                    .sorted(Comparator.comparing(Job::getId))
+                    .filter(job -> query.getAfterId().map(afterId -> job.getId().compareTo(afterId) > 0).orElse(true))
                     .skip(offset)
                     .limit(limit)
                     .collect(ImmutableList.toImmutableList());
         return new DefaultQueryResult<>(queryResult, queryResult.size());
     }
 
+    @Override
+    public List<JobChange> getJobChanges(final long afterVersion, final int limit) {
+        return _changes.stream()
+                .filter(change -> change.getVersion() > afterVersion)
+                .limit(limit)
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    @Override
+    public long getLatestJobChangeVersion() {
+        return _changes.size();
+    }
+
     private void assertIsOpen() {
         assertIsOpen(true);
     }
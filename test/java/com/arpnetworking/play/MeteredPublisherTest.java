@@ -0,0 +1,177 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.play;
+
+import com.arpnetworking.metrics.Units;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test cases for {@link MeteredPublisher}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public class MeteredPublisherTest {
+    @Mock
+    private PeriodicMetrics _metrics;
+    private ManualPublisher _upstream;
+    private RecordingSubscriber _downstream;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        _upstream = new ManualPublisher();
+        _downstream = new RecordingSubscriber();
+        new MeteredPublisher<>(_upstream, String::length, _metrics, "test").subscribe(_downstream);
+    }
+
+    @Test
+    public void testPassesDemandThrough() {
+        assertEquals(0, _upstream._requested);
+        _downstream._subscription.request(2);
+        assertEquals(2, _upstream._requested);
+
+        _upstream.emit("ab");
+        _upstream.emit("cd");
+        assertEquals(Lists.newArrayList("ab", "cd"), _downstream._received);
+
+        // Nothing more is pulled from upstream until the subscriber asks for it
+        assertEquals(2, _upstream._requested);
+        _downstream._subscription.request(1);
+        assertEquals(3, _upstream._requested);
+    }
+
+    @Test
+    public void testRecordsBytesOnComplete() {
+        _downstream._subscription.request(Long.MAX_VALUE);
+        _upstream.emit("abc");
+        _upstream.emit("de");
+        _upstream._subscriber.onComplete();
+
+        assertTrue(_downstream._completed);
+        verify(_metrics).recordCounter("test/bytes", 5);
+        verify(_metrics).recordTimer(eq("test/consumer_wait"), anyLong(), eq(Optional.of(Units.NANOSECOND)));
+    }
+
+    @Test
+    public void testRecordsConsumerWait() throws InterruptedException {
+        // The publisher is stalled from subscription until the first request
+        Thread.sleep(20);
+        _downstream._subscription.request(1);
+        _upstream._subscriber.onComplete();
+
+        final ArgumentCaptor<Long> wait = ArgumentCaptor.forClass(Long.class);
+        verify(_metrics).recordTimer(eq("test/consumer_wait"), wait.capture(), eq(Optional.of(Units.NANOSECOND)));
+        assertTrue(wait.getValue() >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void testRecordsOnError() {
+        final IllegalStateException error = new IllegalStateException("boom");
+        _downstream._subscription.request(1);
+        _upstream.emit("abcd");
+        _upstream._subscriber.onError(error);
+
+        assertEquals(error, _downstream._error);
+        verify(_metrics).recordCounter("test/bytes", 4);
+    }
+
+    @Test
+    public void testCancelPropagatesUpstreamAndRecordsOnce() {
+        _downstream._subscription.request(1);
+        _upstream.emit("ab");
+        _downstream._subscription.cancel();
+
+        assertTrue(_upstream._cancelled);
+        // A late completion from upstream must not record the metrics a second time
+        _upstream._subscriber.onComplete();
+        verify(_metrics, times(1)).recordCounter("test/bytes", 2);
+        assertNull(_downstream._error);
+    }
+
+    private static final class ManualPublisher implements Publisher<String>, Subscription {
+        @Override
+        public void subscribe(final Subscriber<? super String> subscriber) {
+            _subscriber = subscriber;
+            subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public void request(final long n) {
+            _requested += n;
+        }
+
+        @Override
+        public void cancel() {
+            _cancelled = true;
+        }
+
+        void emit(final String item) {
+            _subscriber.onNext(item);
+        }
+
+        private Subscriber<? super String> _subscriber;
+        private long _requested = 0;
+        private boolean _cancelled = false;
+    }
+
+    private static final class RecordingSubscriber implements Subscriber<String> {
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            _subscription = subscription;
+        }
+
+        @Override
+        public void onNext(final String item) {
+            _received.add(item);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            _error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            _completed = true;
+        }
+
+        private Subscription _subscription;
+        private final List<String> _received = Lists.newArrayList();
+        private Throwable _error;
+        private boolean _completed = false;
+    }
+}
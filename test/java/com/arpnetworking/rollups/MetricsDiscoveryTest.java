@@ -24,6 +24,8 @@ import com.arpnetworking.kairos.client.models.KairosMetricNamesQueryResponse;
 import com.arpnetworking.metrics.incubator.PeriodicMetrics;
 import com.arpnetworking.metrics.portal.AkkaClusteringConfigFactory;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
@@ -35,18 +37,30 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.time.Clock;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -60,15 +74,26 @@ public final class MetricsDiscoveryTest {
     public void setUp() {
         MockitoAnnotations.initMocks(this);
         when(_config.getString(eq("rollup.fetch.interval"))).thenReturn("1h");
+        when(_config.getString(eq("rollup.lease.timeout"))).thenReturn("30min");
+        when(_config.getString(eq("rollup.failure.backoff"))).thenReturn("1h");
+        when(_config.getString(eq("rollup.failure.maxBackoff"))).thenReturn("6h");
+        when(_config.getString(eq("rollup.metric.expiry"))).thenReturn("1d");
         when(_config.getStringList(eq("rollup.metric.whitelist"))).thenReturn(Collections.emptyList());
         when(_config.getStringList(eq("rollup.metric.blacklist"))).thenReturn(Collections.emptyList());
 
+        _watermarkExecutor = new RollupWatermarkExecutor(
+                ConfigFactory.parseString("rollup.watermark { threads = 1, queueSize = 100 }"),
+                _periodicMetrics);
+
         _injector = Guice.createInjector(new AbstractModule() {
             @Override
             protected void configure() {
                 bind(KairosDbClient.class).toInstance(_kairosDbClient);
                 bind(Config.class).toInstance(_config);
                 bind(PeriodicMetrics.class).toInstance(_periodicMetrics);
+                bind(RollupWatermarkRepository.class).toInstance(_watermarkRepository);
+                bind(RollupWatermarkExecutor.class).toInstance(_watermarkExecutor);
+                bind(Clock.class).toInstance(CLOCK);
             }
         });
 
@@ -84,6 +109,7 @@ public final class MetricsDiscoveryTest {
     public void tearDown() {
         TestKit.shutdownActorSystem(_system);
         _system = null;
+        _watermarkExecutor.shutdown();
     }
 
     private ActorRef createActor() {
@@ -142,6 +168,42 @@ public final class MetricsDiscoveryTest {
         }};
     }
 
+    @Test
+    public void testPartitionsShareMetricNames() {
+        final ImmutableList<String> names = ImmutableList.of("metric1", "metric2", "metric3", "metric4", "metric5", "metric6");
+        when(_kairosDbClient.queryMetricNames())
+                .thenReturn(CompletableFuture
+                        .completedFuture(new KairosMetricNamesQueryResponse.Builder()
+                                .setResults(names)
+                                .build()));
+        final PartitionedMetricNames metricNames = new PartitionedMetricNames(_config, _kairosDbClient, _periodicMetrics, CLOCK);
+        new TestKit(_system) {{
+            final ActorRef testActor = getTestActor();
+            for (int partition = 0; partition < 2; ++partition) {
+                final int owned = partition;
+                final ActorRef actor = _system.actorOf(
+                        MetricsDiscovery.props(
+                                _config,
+                                () -> metricNames.getMetricNames(owned, 2),
+                                _periodicMetrics,
+                                _watermarkRepository,
+                                _watermarkExecutor,
+                                CLOCK));
+                final ImmutableList<String> expected = names.stream()
+                        .filter(name -> RollupPartition.partitionOf(name, 2) == owned)
+                        .collect(ImmutableList.toImmutableList());
+                awaitAssert(() -> {
+                    actor.tell(new MetricLeaseRequest(names.size()), testActor);
+                    final MetricLease lease = expectMsgClass(MetricLease.class);
+                    assertEquals(expected, lease.getMetricNames());
+                    return lease;
+                });
+            }
+            // The partitions of the node are handed their names from a single listing
+            verify(_kairosDbClient, times(1)).queryMetricNames();
+        }};
+    }
+
     @Test
     public void testMetricsFiltering() {
         when(_kairosDbClient.queryMetricNames())
@@ -168,7 +230,7 @@ public final class MetricsDiscoveryTest {
         when(_kairosDbClient.queryMetricNames())
                 .thenReturn(CompletableFuture
                         .completedFuture(new KairosMetricNamesQueryResponse.Builder()
-                                .setResults(ImmutableList.of("metric1", "metric1_1h", "metric1_1d"))
+                                .setResults(ImmutableList.of("metric1", "metric1_5m", "metric1_1h", "metric1_1d", "metric1_1w"))
                                 .build()))
                 .thenReturn(CompletableFuture
                         .completedFuture(new KairosMetricNamesQueryResponse.Builder()
@@ -201,6 +263,229 @@ public final class MetricsDiscoveryTest {
         }};
     }
 
+    @Test
+    public void testLeasesBatches() {
+        when(_kairosDbClient.queryMetricNames())
+                .thenReturn(CompletableFuture
+                        .completedFuture(new KairosMetricNamesQueryResponse.Builder()
+                                .setResults(ImmutableList.of("metric1", "metric2", "metric3"))
+                                .build()));
+        new TestKit(_system) {{
+            final ActorRef actor = createActor();
+            final ActorRef testActor = getTestActor();
+            awaitAssert(() -> {
+                actor.tell(new MetricLeaseRequest(2), testActor);
+                final MetricLease lease = expectMsgClass(MetricLease.class);
+                assertEquals(ImmutableList.of("metric1", "metric2"), lease.getMetricNames());
+                return lease;
+            });
+
+            actor.tell(new MetricLeaseRequest(2), testActor);
+            assertEquals(ImmutableList.of("metric3"), expectMsgClass(MetricLease.class).getMetricNames());
+
+            actor.tell(new MetricLeaseRequest(2), testActor);
+            expectMsgClass(NoMoreMetrics.class);
+        }};
+    }
+
+    @Test
+    public void testOrdersByRollupLag() {
+        when(_kairosDbClient.queryMetricNames())
+                .thenReturn(CompletableFuture
+                        .completedFuture(new KairosMetricNamesQueryResponse.Builder()
+                                .setResults(ImmutableList.of("current", "never", "behind"))
+                                .build()));
+        when(_watermarkRepository.getWatermarks(anyCollectionOf(String.class))).thenReturn(ImmutableMap.of(
+                "current", watermarks(CLOCK.instant().minus(5, ChronoUnit.MINUTES)),
+                "behind", watermarks(CLOCK.instant().minus(3, ChronoUnit.DAYS))));
+        new TestKit(_system) {{
+            final ActorRef actor = createActor();
+            final ActorRef testActor = getTestActor();
+            awaitAssert(() -> {
+                actor.tell(new MetricLeaseRequest(3), testActor);
+                final MetricLease lease = expectMsgClass(MetricLease.class);
+                assertEquals(ImmutableList.of("never", "behind", "current"), lease.getMetricNames());
+                return lease;
+            });
+        }};
+    }
+
+    @Test
+    public void testSkipsUpToDateMetrics() {
+        when(_kairosDbClient.queryMetricNames())
+                .thenReturn(CompletableFuture
+                        .completedFuture(new KairosMetricNamesQueryResponse.Builder()
+                                .setResults(ImmutableList.of("metric1", "metric2"))
+                                .build()));
+        final Map<RollupPeriod, Instant> upToDate = Maps.newEnumMap(RollupPeriod.class);
+        for (final RollupPeriod period : RollupPeriod.values()) {
+            upToDate.put(period, period.recentEndTime(CLOCK.instant()));
+        }
+        when(_watermarkRepository.getWatermarks(anyCollectionOf(String.class))).thenReturn(ImmutableMap.of("metric1", upToDate));
+        new TestKit(_system) {{
+            final ActorRef actor = createActor();
+            final ActorRef testActor = getTestActor();
+            awaitAssert(() -> {
+                actor.tell(new MetricLeaseRequest(2), testActor);
+                final MetricLease lease = expectMsgClass(MetricLease.class);
+                assertEquals(ImmutableList.of("metric2"), lease.getMetricNames());
+                return lease;
+            });
+            verify(_periodicMetrics).recordCounter("rollup/metrics_discovery/up_to_date", 1);
+        }};
+    }
+
+    @Test
+    public void testBacksOffFailedMetrics() {
+        when(_config.getString(eq("rollup.fetch.interval"))).thenReturn("1s");
+        when(_kairosDbClient.queryMetricNames())
+                .thenReturn(CompletableFuture
+                        .completedFuture(new KairosMetricNamesQueryResponse.Builder()
+                                .setResults(ImmutableList.of("metric1", "metric2"))
+                                .build()));
+        new TestKit(_system) {{
+            final ActorRef actor = createActor();
+            final ActorRef testActor = getTestActor();
+            awaitAssert(() -> {
+                actor.tell(new MetricLeaseRequest(2), testActor);
+                return expectMsgClass(MetricLease.class);
+            });
+            actor.tell(new MetricLeaseRelease("metric1", true), testActor);
+            actor.tell(new MetricLeaseRelease("metric2", false), testActor);
+
+            // Only the metric that succeeded is handed out again after the next refresh
+            awaitAssert(Duration.ofSeconds(3), () -> {
+                actor.tell(new MetricLeaseRequest(2), testActor);
+                final MetricLease lease = expectMsgClass(MetricLease.class);
+                assertEquals(ImmutableList.of("metric2"), lease.getMetricNames());
+                return lease;
+            });
+            verify(_periodicMetrics, atLeastOnce()).recordCounter("rollup/metrics_discovery/backed_off", 1);
+        }};
+    }
+
+    @Test
+    public void testExpiresMetricsThatStopAppearing() {
+        when(_config.getString(eq("rollup.fetch.interval"))).thenReturn("1s");
+        when(_config.getString(eq("rollup.metric.expiry"))).thenReturn("1h");
+        when(_kairosDbClient.queryMetricNames())
+                .thenReturn(CompletableFuture
+                        .completedFuture(new KairosMetricNamesQueryResponse.Builder()
+                                .setResults(ImmutableList.of("metric1", "metric2"))
+                                .build()))
+                .thenReturn(CompletableFuture
+                        .completedFuture(new KairosMetricNamesQueryResponse.Builder()
+                                .setResults(ImmutableList.of("metric2"))
+                                .build()));
+        final AtomicReference<Instant> now = new AtomicReference<>(CLOCK.instant());
+        final Clock clock = mock(Clock.class);
+        when(clock.instant()).thenAnswer(invocation -> now.get());
+
+        new TestKit(_system) {{
+            final ActorRef actor = _system.actorOf(
+                    MetricsDiscovery.props(
+                            _config,
+                            _kairosDbClient::queryMetricNames,
+                            _periodicMetrics,
+                            _watermarkRepository,
+                            _watermarkExecutor,
+                            clock));
+            verify(_periodicMetrics, timeout(5000)).recordCounter("rollup/metrics_discovery/added", 2);
+
+            now.set(CLOCK.instant().plus(2, ChronoUnit.HOURS));
+            verify(_periodicMetrics, timeout(5000)).recordCounter("rollup/metrics_discovery/expired", 1);
+
+            // The queued candidate of the expired metric is dropped
+            actor.tell(new MetricLeaseRequest(2), getTestActor());
+            assertEquals(ImmutableList.of("metric2"), expectMsgClass(MetricLease.class).getMetricNames());
+        }};
+    }
+
+    @Test
+    public void testLoadsWatermarksOfNewAndReleasedMetricsOnly() {
+        when(_config.getString(eq("rollup.fetch.interval"))).thenReturn("1s");
+        when(_kairosDbClient.queryMetricNames())
+                .thenReturn(CompletableFuture
+                        .completedFuture(new KairosMetricNamesQueryResponse.Builder()
+                                .setResults(ImmutableList.of("metric1", "metric2"))
+                                .build()))
+                .thenReturn(CompletableFuture
+                        .completedFuture(new KairosMetricNamesQueryResponse.Builder()
+                                .setResults(ImmutableList.of("metric1", "metric2", "metric3"))
+                                .build()));
+        new TestKit(_system) {{
+            final ActorRef actor = createActor();
+            final ActorRef testActor = getTestActor();
+            awaitAssert(() -> {
+                actor.tell(new MetricLeaseRequest(1), testActor);
+                final MetricLease lease = expectMsgClass(MetricLease.class);
+                assertEquals(ImmutableList.of("metric1"), lease.getMetricNames());
+                return lease;
+            });
+            actor.tell(new MetricLeaseRelease("metric1", false), testActor);
+
+            // The next refresh loads the watermarks of the new and the released metric, but not of the queued one
+            verify(_watermarkRepository, timeout(5000)).getWatermarks(eq(ImmutableList.of("metric1", "metric3")));
+            verify(_watermarkRepository).getWatermarks(eq(ImmutableList.of("metric1", "metric2")));
+        }};
+    }
+
+    @Test
+    public void testReleasedLeaseIsNotReissued() {
+        when(_config.getString(eq("rollup.lease.timeout"))).thenReturn("1s");
+        when(_kairosDbClient.queryMetricNames())
+                .thenReturn(CompletableFuture
+                        .completedFuture(new KairosMetricNamesQueryResponse.Builder()
+                                .setResults(ImmutableList.of("metric1", "metric2"))
+                                .build()));
+        new TestKit(_system) {{
+            final ActorRef actor = createActor();
+            final ActorRef testActor = getTestActor();
+            awaitAssert(() -> {
+                actor.tell(new MetricLeaseRequest(2), testActor);
+                return expectMsgClass(MetricLease.class);
+            });
+            actor.tell(new MetricLeaseRelease("metric1", false), testActor);
+
+            // Only the metric that was not released is leased again once the lease times out
+            awaitAssert(Duration.ofSeconds(3), () -> {
+                actor.tell(new MetricLeaseRequest(2), testActor);
+                final MetricLease lease = expectMsgClass(MetricLease.class);
+                assertEquals(ImmutableList.of("metric2"), lease.getMetricNames());
+                return lease;
+            });
+        }};
+    }
+
+    @Test
+    public void testLeaseReclaimedWhenWorkerStops() {
+        when(_kairosDbClient.queryMetricNames())
+                .thenReturn(CompletableFuture
+                        .completedFuture(new KairosMetricNamesQueryResponse.Builder()
+                                .setResults(ImmutableList.of("metric1"))
+                                .build()));
+        final TestKit worker = new TestKit(_system);
+        new TestKit(_system) {{
+            final ActorRef actor = createActor();
+            awaitAssert(() -> {
+                actor.tell(new MetricLeaseRequest(1), worker.getRef());
+                return worker.expectMsgClass(MetricLease.class);
+            });
+
+            final ActorRef testActor = getTestActor();
+            actor.tell(new MetricLeaseRequest(1), testActor);
+            expectMsgClass(NoMoreMetrics.class);
+
+            _system.stop(worker.getRef());
+            awaitAssert(() -> {
+                actor.tell(new MetricLeaseRequest(1), testActor);
+                final MetricLease lease = expectMsgClass(MetricLease.class);
+                assertEquals(ImmutableList.of("metric1"), lease.getMetricNames());
+                return lease;
+            });
+        }};
+    }
+
     @Test
     public void testFilterMetricNames() {
         final boolean whiteListDefault = true;
@@ -281,7 +566,19 @@ public final class MetricsDiscoveryTest {
     private Config _config;
     @Mock
     private PeriodicMetrics _periodicMetrics;
+    @Mock
+    private RollupWatermarkRepository _watermarkRepository;
+    private RollupWatermarkExecutor _watermarkExecutor;
     private ActorSystem _system;
 
     private static final AtomicLong SYSTEM_NAME_NONCE = new AtomicLong(0);
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2019-06-05T10:32:00Z"), ZoneOffset.UTC);
+
+    private static Map<RollupPeriod, Instant> watermarks(final Instant watermark) {
+        final Map<RollupPeriod, Instant> watermarks = Maps.newEnumMap(RollupPeriod.class);
+        for (final RollupPeriod period : RollupPeriod.values()) {
+            watermarks.put(period, period.recentEndTime(watermark));
+        }
+        return watermarks;
+    }
 }
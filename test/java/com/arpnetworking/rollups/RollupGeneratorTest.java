@@ -27,8 +27,10 @@ import com.arpnetworking.kairos.client.models.SamplingUnit;
 import com.arpnetworking.metrics.incubator.PeriodicMetrics;
 import com.arpnetworking.metrics.portal.AkkaClusteringConfigFactory;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
@@ -46,6 +48,8 @@ import java.time.Clock;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.inject.Inject;
@@ -57,6 +61,8 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -75,6 +81,11 @@ public class RollupGeneratorTest {
     private Config _config;
     @Mock
     private PeriodicMetrics _periodicMetrics;
+    @Mock
+    private RollupWatermarkRepository _watermarkRepository;
+    private RollupWatermarkExecutor _watermarkExecutor;
+    private RollupQueryLimiter _limiter;
+    private RollupTagCache _tagCache;
     private TestKit _probe;
 
     private Clock _clock;
@@ -86,7 +97,11 @@ public class RollupGeneratorTest {
     public void setUp() {
         MockitoAnnotations.initMocks(this);
         when(_config.getInt(eq("rollup.maxBackFill.periods"))).thenReturn(4);
+        when(_config.getInt(eq("rollup.backFill.chunkPeriods"))).thenReturn(24);
         when(_config.getString(eq("rollup.fetch.backoff"))).thenReturn("5min");
+        when(_config.getInt(eq("rollup.worker.leaseBatchSize"))).thenReturn(3);
+        when(_config.getInt(eq("rollup.worker.concurrency"))).thenReturn(2);
+        when(_config.getInt(eq("rollup.tags.cardinalityWarning"))).thenReturn(10000);
 
 
         _system = ActorSystem.create(
@@ -96,6 +111,13 @@ public class RollupGeneratorTest {
         _probe = new TestKit(_system);
 
         _clock = Clock.fixed(Instant.now(), ZoneId.of("UTC"));
+        _limiter = createLimiter(4);
+        // A single thread keeps the watermark loads of concurrently started metrics in order
+        _watermarkExecutor = new RollupWatermarkExecutor(
+                ConfigFactory.parseString("rollup.watermark { threads = 1, queueSize = 100 }"),
+                _periodicMetrics);
+        _tagCache = new RollupTagCache(ConfigFactory.parseString(
+                "rollup.tags { ttl = \"6h\", maxAge = \"7d\", maxEntries = 100 }"));
 
         _injector = Guice.createInjector(new AbstractModule() {
             @Override
@@ -107,6 +129,10 @@ public class RollupGeneratorTest {
                         .toInstance(_probe.getRef());
                 bind(Clock.class).toInstance(_clock);
                 bind(PeriodicMetrics.class).toInstance(_periodicMetrics);
+                bind(RollupWatermarkRepository.class).toInstance(_watermarkRepository);
+                bind(RollupWatermarkExecutor.class).toInstance(_watermarkExecutor);
+                bind(RollupQueryLimiter.class).toInstance(_limiter);
+                bind(RollupTagCache.class).toInstance(_tagCache);
             }
         });
 
@@ -116,18 +142,81 @@ public class RollupGeneratorTest {
     public void tearDown() {
         TestKit.shutdownActorSystem(_system);
         _system = null;
+        _watermarkExecutor.shutdown();
     }
 
     private ActorRef createActor() {
         return _system.actorOf(GuiceActorCreator.props(_injector, TestRollupGenerator.class));
     }
 
+    private void startMetric(final ActorRef actor, final String metricName) {
+        actor.tell(metricName, ActorRef.noSender());
+        forwardWatermarks(actor, metricName);
+    }
+
+    private void forwardWatermarks(final ActorRef actor, final String... metricNames) {
+        // Watermarks are loaded off the actor and handed back to it before the tag names are fetched
+        final List<WatermarksMessage> messages = Lists.newArrayList();
+        for (final String metricName : metricNames) {
+            final WatermarksMessage message = _probe.expectMsgClass(WatermarksMessage.class);
+            assertEquals(metricName, message.getMetricName());
+            messages.add(message);
+        }
+        messages.forEach(message -> actor.tell(message, ActorRef.noSender()));
+    }
+
     @Test
     public void testSendsFetchOnStartup() {
         createActor();
         _probe.expectMsg(RollupGenerator.FETCH_METRIC);
     }
 
+    @Test
+    public void testLeasesMetricsAndRollsUpConcurrently() {
+        final CompletableFuture<MetricsQueryResponse> future = new CompletableFuture<>();
+        future.completeExceptionally(new RuntimeException("Failure"));
+        when(_kairosDbClient.queryMetricTags(any())).thenReturn(future);
+
+        final ArgumentCaptor<MetricsQuery> captor = ArgumentCaptor.forClass(MetricsQuery.class);
+        final ActorRef actor = createActor();
+        _probe.expectMsg(RollupGenerator.FETCH_METRIC);
+
+        actor.tell(RollupGenerator.FETCH_METRIC, ActorRef.noSender());
+        assertEquals(3, _probe.expectMsgClass(MetricLeaseRequest.class).getMaxMetrics());
+
+        actor.tell(new MetricLease(ImmutableList.of("metric1", "metric2", "metric3")), ActorRef.noSender());
+        _probe.expectMsg(RollupGenerator.FETCH_METRIC);
+
+        // Only as many metrics as the configured concurrency are started
+        actor.tell(RollupGenerator.FETCH_METRIC, ActorRef.noSender());
+        forwardWatermarks(actor, "metric1", "metric2");
+        final TagNamesMessage first = _probe.expectMsgClass(TagNamesMessage.class);
+        final TagNamesMessage second = _probe.expectMsgClass(TagNamesMessage.class);
+        _probe.expectNoMessage();
+        verify(_kairosDbClient, times(2)).queryMetricTags(captor.capture());
+        assertEquals("metric1", captor.getAllValues().get(0).getMetrics().get(0).getName());
+        assertEquals("metric2", captor.getAllValues().get(1).getMetrics().get(0).getName());
+
+        // A finished metric is released and the next leased metric is started
+        actor.tell(first, ActorRef.noSender());
+        final MetricLeaseRelease release = _probe.expectMsgClass(MetricLeaseRelease.class);
+        assertEquals(first.getMetricName(), release.getMetricName());
+        // The tag names could not be fetched, so discovery backs off from the metric
+        assertTrue(release.isFailed());
+        _probe.expectMsg(RollupGenerator.FETCH_METRIC);
+        actor.tell(RollupGenerator.FETCH_METRIC, ActorRef.noSender());
+        forwardWatermarks(actor, "metric3");
+        assertEquals("metric3", _probe.expectMsgClass(TagNamesMessage.class).getMetricName());
+        _probe.expectNoMessage();
+
+        // Once every leased metric has started, finishing one requests another lease
+        actor.tell(second, ActorRef.noSender());
+        assertEquals(second.getMetricName(), _probe.expectMsgClass(MetricLeaseRelease.class).getMetricName());
+        _probe.expectMsg(RollupGenerator.FETCH_METRIC);
+        actor.tell(RollupGenerator.FETCH_METRIC, ActorRef.noSender());
+        _probe.expectMsgClass(MetricLeaseRequest.class);
+    }
+
     @Test
     public void testFetchesTagNames() {
         when(_kairosDbClient.queryMetricTags(any())).thenReturn(
@@ -145,7 +234,7 @@ public class RollupGeneratorTest {
         final ActorRef actor = createActor();
         _probe.expectMsg(RollupGenerator.FETCH_METRIC);
 
-        actor.tell("metric", ActorRef.noSender());
+        startMetric(actor, "metric");
         final TagNamesMessage tagNamesMessage = _probe.expectMsgClass(TagNamesMessage.class);
         assertFalse(tagNamesMessage.isFailure());
         assertEquals("metric", tagNamesMessage.getMetricName());
@@ -154,7 +243,85 @@ public class RollupGeneratorTest {
         verify(_kairosDbClient, times(1)).queryMetricTags(captor.capture());
         final MetricsQuery tagQuery = captor.getValue();
         assertEquals("metric", tagQuery.getMetrics().get(0).getName());
-        assertEquals(Instant.ofEpochSecond(0), tagQuery.getStartTime());
+        // Without watermarks the tags are discovered over the backfill window of the finest period
+        assertEquals(
+                RollupPeriod.FIVE_MINUTES.recentEndTime(_clock.instant()).minus(RollupPeriod.FIVE_MINUTES.periodCountToDuration(4)),
+                tagQuery.getStartTime());
+        assertEquals(_clock.instant(), tagQuery.getEndTime().orElse(null));
+    }
+
+    @Test
+    public void testBackfillLimitPerPeriod() {
+        when(_config.hasPath("rollup.maxBackFill.byPeriod.five_minutes")).thenReturn(true);
+        when(_config.getInt("rollup.maxBackFill.byPeriod.five_minutes")).thenReturn(1);
+        when(_kairosDbClient.queryMetricTags(any())).thenReturn(tagsResponse(ImmutableMultimap.of("tag1", "value1")));
+
+        final ArgumentCaptor<MetricsQuery> captor = ArgumentCaptor.forClass(MetricsQuery.class);
+        final ActorRef actor = createActor();
+        _probe.expectMsg(RollupGenerator.FETCH_METRIC);
+
+        startMetric(actor, "metric");
+        _probe.expectMsgClass(TagNamesMessage.class);
+
+        // Five minute rollups are only backfilled for a single period instead of the default four periods
+        verify(_kairosDbClient).queryMetricTags(captor.capture());
+        assertEquals(
+                RollupPeriod.FIVE_MINUTES.recentEndTime(_clock.instant()).minus(RollupPeriod.FIVE_MINUTES.periodCountToDuration(1)),
+                captor.getValue().getStartTime());
+    }
+
+    @Test
+    public void testTagWindowBoundedByFinestPeriodBehind() {
+        final Instant hourlyWatermark = RollupPeriod.HOURLY.recentEndTime(_clock.instant()).minus(2, ChronoUnit.HOURS);
+        when(_watermarkRepository.getWatermarks("metric")).thenReturn(ImmutableMap.of(
+                RollupPeriod.FIVE_MINUTES, RollupPeriod.FIVE_MINUTES.recentEndTime(_clock.instant()),
+                RollupPeriod.HOURLY, hourlyWatermark));
+        when(_kairosDbClient.queryMetricTags(any())).thenReturn(tagsResponse(ImmutableMultimap.of("tag1", "value1")));
+
+        final ArgumentCaptor<MetricsQuery> captor = ArgumentCaptor.forClass(MetricsQuery.class);
+        final ActorRef actor = createActor();
+        _probe.expectMsg(RollupGenerator.FETCH_METRIC);
+
+        startMetric(actor, "metric");
+        _probe.expectMsgClass(TagNamesMessage.class);
+
+        // The daily and weekly backfills reach further back but do not widen the tag window
+        verify(_kairosDbClient).queryMetricTags(captor.capture());
+        assertEquals(hourlyWatermark, captor.getValue().getStartTime());
+    }
+
+    @Test
+    public void testUsesCachedTagNames() {
+        when(_kairosDbClient.queryMetricTags(any())).thenReturn(tagsResponse(ImmutableMultimap.of("tag1", "value1")));
+
+        final ActorRef actor = createActor();
+        _probe.expectMsg(RollupGenerator.FETCH_METRIC);
+
+        startMetric(actor, "metric");
+        assertEquals(ImmutableSet.of("tag1"), _probe.expectMsgClass(TagNamesMessage.class).getTagNames());
+        startMetric(actor, "metric");
+        assertEquals(ImmutableSet.of("tag1"), _probe.expectMsgClass(TagNamesMessage.class).getTagNames());
+
+        verify(_kairosDbClient, times(1)).queryMetricTags(any());
+        verify(_periodicMetrics).recordCounter("rollup/tag_names/cache/hit", 1);
+    }
+
+    @Test
+    public void testMergesTagNamesIntoStaleCacheEntry() {
+        when(_kairosDbClient.queryMetricTags(any())).thenReturn(tagsResponse(ImmutableMultimap.of("tag2", "value2")));
+        final Instant fetchedAt = _clock.instant().minus(7, ChronoUnit.HOURS);
+        _tagCache.merge("metric", Optional.empty(), ImmutableSet.of("tag1"), Instant.EPOCH, fetchedAt);
+
+        final ArgumentCaptor<MetricsQuery> captor = ArgumentCaptor.forClass(MetricsQuery.class);
+        final ActorRef actor = createActor();
+        _probe.expectMsg(RollupGenerator.FETCH_METRIC);
+
+        startMetric(actor, "metric");
+        assertEquals(ImmutableSet.of("tag1", "tag2"), _probe.expectMsgClass(TagNamesMessage.class).getTagNames());
+
+        // Only the time since the cached tag names were fetched is scanned
+        verify(_kairosDbClient, times(1)).queryMetricTags(captor.capture());
+        assertEquals(fetchedAt, captor.getValue().getStartTime());
     }
 
     @Test
@@ -166,7 +333,7 @@ public class RollupGeneratorTest {
         final ActorRef actor = createActor();
         _probe.expectMsg(RollupGenerator.FETCH_METRIC);
 
-        actor.tell("metric", ActorRef.noSender());
+        startMetric(actor, "metric");
         final TagNamesMessage tagNamesMessage = _probe.expectMsgClass(TagNamesMessage.class);
         assertTrue(tagNamesMessage.isFailure());
         assertNotNull(tagNamesMessage.getFailure());
@@ -183,18 +350,14 @@ public class RollupGeneratorTest {
                 final MetricsQueryResponse.QueryResult.Builder builder = new MetricsQueryResponse.QueryResult.Builder();
                 builder.setName(metricName);
 
-                if (metricName.equals("metric_1h")) {
-                    builder.setValues(ImmutableList.of(new MetricsQueryResponse.DataPoint.Builder()
-                            .setTime(RollupPeriod.HOURLY.recentEndTime(_clock.instant()))
-                            .setValue(0.0)
-                            .build()
-                    ));
-                } else if (metricName.equals("metric_1d")) {
-                    builder.setValues(ImmutableList.of(new MetricsQueryResponse.DataPoint.Builder()
-                            .setTime(RollupPeriod.DAILY.recentEndTime(_clock.instant()))
-                            .setValue(0.0)
-                            .build()
-                    ));
+                for (final RollupPeriod period : RollupPeriod.values()) {
+                    if (metricName.equals("metric" + period.getSuffix())) {
+                        builder.setValues(ImmutableList.of(new MetricsQueryResponse.DataPoint.Builder()
+                                .setTime(period.recentEndTime(_clock.instant()))
+                                .setValue(0.0)
+                                .build()
+                        ));
+                    }
                 }
                 return CompletableFuture.completedFuture(new MetricsQueryResponse.Builder()
                         .setQueries(ImmutableList.of(new MetricsQueryResponse.Query.Builder()
@@ -216,63 +379,27 @@ public class RollupGeneratorTest {
                         .build(),
                 ActorRef.noSender());
 
-        final LastDataPointMessage lastDataPointMessage1 = _probe.expectMsgClass(LastDataPointMessage.class);
-        assertFalse(lastDataPointMessage1.isFailure());
-        assertEquals("metric", lastDataPointMessage1.getMetricName());
-        assertEquals(RollupPeriod.HOURLY, lastDataPointMessage1.getPeriod());
-        assertTrue(lastDataPointMessage1.getLastDataPointTime().isPresent());
-        assertEquals(RollupPeriod.HOURLY.recentEndTime(_clock.instant()),
-                lastDataPointMessage1.getLastDataPointTime().get());
-        assertEquals(2, lastDataPointMessage1.getTags().size());
-
-        final LastDataPointMessage lastDataPointMessage2 = _probe.expectMsgClass(LastDataPointMessage.class);
-        assertFalse(lastDataPointMessage2.isFailure());
-        assertEquals("metric", lastDataPointMessage2.getMetricName());
-        assertEquals(RollupPeriod.DAILY, lastDataPointMessage2.getPeriod());
-        assertTrue(lastDataPointMessage2.getLastDataPointTime().isPresent());
-        assertEquals(RollupPeriod.DAILY.recentEndTime(_clock.instant()),
-                lastDataPointMessage2.getLastDataPointTime().get());
-
-        _probe.expectNoMessage();
-
-        actor.tell(new FinishRollupMessage.Builder().setMetricName("metric").setPeriod(RollupPeriod.HOURLY).build(), ActorRef.noSender());
-        _probe.expectNoMessage();
-
-        actor.tell(new FinishRollupMessage.Builder().setMetricName("metric").setPeriod(RollupPeriod.DAILY).build(), ActorRef.noSender());
+        // Each period is started once the period it is computed from has finished
+        for (final RollupPeriod period : RollupPeriod.values()) {
+            final LastDataPointMessage lastDataPointMessage = _probe.expectMsgClass(LastDataPointMessage.class);
+            assertFalse(lastDataPointMessage.isFailure());
+            assertEquals("metric", lastDataPointMessage.getMetricName());
+            assertEquals(period, lastDataPointMessage.getPeriod());
+            assertTrue(lastDataPointMessage.getLastDataPointTime().isPresent());
+            assertEquals(period.recentEndTime(_clock.instant()), lastDataPointMessage.getLastDataPointTime().get());
+            assertEquals(2, lastDataPointMessage.getTags().size());
+            _probe.expectNoMessage();
+
+            actor.tell(new FinishRollupMessage.Builder().setMetricName("metric").setPeriod(period).build(), ActorRef.noSender());
+        }
         _probe.expectMsg(RollupGenerator.FETCH_METRIC);
     }
 
     @Test
-    public void testLastDataPointsSingleFailure() {
-        when(_kairosDbClient.queryMetrics(any())).thenAnswer(invocation -> {
-            final CompletableFuture<MetricsQueryResponse> future = new CompletableFuture<>();
-            final Object arg0 = invocation.getArguments()[0];
-            if (arg0 instanceof MetricsQuery) {
-                final MetricsQuery query = (MetricsQuery) arg0;
-                final String metricName = query.getMetrics().get(0).getName();
-                final MetricsQueryResponse.QueryResult.Builder builder = new MetricsQueryResponse.QueryResult.Builder();
-                builder.setName(metricName);
-
-                if (metricName.equals("metric_1h")) {
-                    future.completeExceptionally(new RuntimeException("Failure"));
-                } else if (metricName.equals("metric_1d")) {
-                    builder.setValues(ImmutableList.of(new MetricsQueryResponse.DataPoint.Builder()
-                            .setTime(RollupPeriod.DAILY.recentEndTime(_clock.instant()))
-                            .setValue(0.0)
-                            .build()
-                    ));
-                    future.complete(new MetricsQueryResponse.Builder()
-                            .setQueries(ImmutableList.of(new MetricsQueryResponse.Query.Builder()
-                                    .setResults(ImmutableList.of(builder.build()))
-                                    .build()))
-                            .build()
-                    );
-                }
-
-                return future;
-            }
-            return null;
-        });
+    public void testLastDataPointsFailure() {
+        final CompletableFuture<MetricsQueryResponse> future = new CompletableFuture<>();
+        future.completeExceptionally(new RuntimeException("Failure"));
+        when(_kairosDbClient.queryMetrics(any())).thenReturn(future);
 
         final ArgumentCaptor<MetricsQuery> captor = ArgumentCaptor.forClass(MetricsQuery.class);
         final ActorRef actor = createActor();
@@ -285,26 +412,17 @@ public class RollupGeneratorTest {
                         .build(),
                 ActorRef.noSender());
 
-        _probe.awaitAssert(() ->
-                verify(_kairosDbClient, times(2)).queryMetrics(captor.capture()));
-        final MetricsQuery hourlyQuery = captor.getAllValues().get(0);
-        assertEquals("metric_1h", hourlyQuery.getMetrics().get(0).getName());
-        assertEquals(RollupPeriod.HOURLY.recentEndTime(_clock.instant()).minus(RollupPeriod.HOURLY.periodCountToDuration(4)),
-                hourlyQuery.getStartTime());
-
-        final LastDataPointMessage lastDataPointMessage1 = _probe.expectMsgClass(LastDataPointMessage.class);
-        assertTrue(lastDataPointMessage1.isFailure());
-        assertEquals("metric", lastDataPointMessage1.getMetricName());
-        assertEquals(RollupPeriod.HOURLY, lastDataPointMessage1.getPeriod());
-        assertEquals("Failure", lastDataPointMessage1.getFailure().orElse(null).getMessage());
-
-        final LastDataPointMessage lastDataPointMessage2 = _probe.expectMsgClass(LastDataPointMessage.class);
-        assertFalse(lastDataPointMessage2.isFailure());
-        assertEquals("metric", lastDataPointMessage2.getMetricName());
-        assertEquals(RollupPeriod.DAILY, lastDataPointMessage2.getPeriod());
-        assertTrue(lastDataPointMessage2.getLastDataPointTime().isPresent());
-        assertEquals(RollupPeriod.DAILY.recentEndTime(_clock.instant()),
-                lastDataPointMessage2.getLastDataPointTime().get());
+        final LastDataPointMessage lastDataPointMessage = _probe.expectMsgClass(LastDataPointMessage.class);
+        assertTrue(lastDataPointMessage.isFailure());
+        assertEquals("metric", lastDataPointMessage.getMetricName());
+        assertEquals(RollupPeriod.FIVE_MINUTES, lastDataPointMessage.getPeriod());
+        assertEquals("Failure", lastDataPointMessage.getFailure().orElse(null).getMessage());
+
+        verify(_kairosDbClient, times(1)).queryMetrics(captor.capture());
+        final MetricsQuery query = captor.getValue();
+        assertEquals("metric_5m", query.getMetrics().get(0).getName());
+        assertEquals(RollupPeriod.FIVE_MINUTES.recentEndTime(_clock.instant()).minus(RollupPeriod.FIVE_MINUTES.periodCountToDuration(4)),
+                query.getStartTime());
 
         _probe.expectNoMessage();
     }
@@ -353,6 +471,7 @@ public class RollupGeneratorTest {
         assertFalse(finishRollupMessage.isFailure());
         assertEquals("metric", finishRollupMessage.getMetricName());
         assertEquals(RollupPeriod.HOURLY, finishRollupMessage.getPeriod());
+        assertEquals(RollupPeriod.HOURLY.recentEndTime(_clock.instant()), finishRollupMessage.getWatermark().orElse(null));
 
         verify(_kairosDbClient, times(1)).queryMetrics(captor.capture());
         final MetricsQuery rollupQuery = captor.getAllValues().get(0);
@@ -498,6 +617,81 @@ public class RollupGeneratorTest {
         _probe.expectNoMessage();
     }
 
+    @Test
+    public void testBackfillsInChunks() {
+        when(_config.getInt(eq("rollup.backFill.chunkPeriods"))).thenReturn(3);
+        when(_kairosDbClient.queryMetrics(any())).thenReturn(
+                CompletableFuture.completedFuture(new MetricsQueryResponse.Builder().setQueries(ImmutableList.of()).build()));
+
+        final ArgumentCaptor<MetricsQuery> captor = ArgumentCaptor.forClass(MetricsQuery.class);
+        final ActorRef actor = createActor();
+        _probe.expectMsg(RollupGenerator.FETCH_METRIC);
+
+        final Instant endTime = RollupPeriod.HOURLY.recentEndTime(_clock.instant());
+        final Instant startTime = endTime.minus(RollupPeriod.HOURLY.periodCountToDuration(4));
+        final Instant chunkEndTime = startTime.plus(RollupPeriod.HOURLY.periodCountToDuration(3));
+        actor.tell(
+                new LastDataPointMessage.Builder()
+                        .setMetricName("metric")
+                        .setPeriod(RollupPeriod.HOURLY)
+                        .setTags(ImmutableSet.of("tag1"))
+                        .setLastDataPointTime(null)
+                        .build(),
+                ActorRef.noSender());
+
+        // The oldest chunk is rolled up first and the backfill continues from its end
+        final LastDataPointMessage next = _probe.expectMsgClass(LastDataPointMessage.class);
+        assertEquals(chunkEndTime, next.getLastDataPointTime().orElse(null));
+        assertEquals(RollupPeriod.HOURLY, next.getPeriod());
+        assertEquals(ImmutableSet.of("tag1"), next.getTags());
+        verify(_kairosDbClient, times(1)).queryMetrics(captor.capture());
+        assertEquals(startTime, captor.getValue().getStartTime());
+        assertEquals(chunkEndTime, captor.getValue().getEndTime().orElse(null));
+
+        // Progress is recorded before the next chunk runs
+        actor.tell(next, ActorRef.noSender());
+        final FinishRollupMessage finishRollupMessage = _probe.expectMsgClass(FinishRollupMessage.class);
+        assertFalse(finishRollupMessage.isFailure());
+        assertEquals(endTime, finishRollupMessage.getWatermark().orElse(null));
+        _probe.awaitAssert(() -> verify(_watermarkRepository).updateWatermark("metric", RollupPeriod.HOURLY, chunkEndTime));
+        verify(_kairosDbClient, times(2)).queryMetrics(captor.capture());
+        assertEquals(chunkEndTime, captor.getValue().getStartTime());
+        assertEquals(endTime, captor.getValue().getEndTime().orElse(null));
+        _probe.expectNoMessage();
+    }
+
+    @Test
+    public void testRetriesRollupRejectedByLimiter() {
+        when(_kairosDbClient.queryMetrics(any())).thenReturn(
+                CompletableFuture.completedFuture(new MetricsQueryResponse.Builder().setQueries(ImmutableList.of()).build()));
+
+        final ActorRef actor = createActor();
+        _probe.expectMsg(RollupGenerator.FETCH_METRIC);
+
+        final List<RollupQueryLimiter.Permit> permits = Lists.newArrayList();
+        for (int i = 0; i < _limiter.getLimit(); ++i) {
+            permits.add(_limiter.tryAcquire().get());
+        }
+        actor.tell(
+                new LastDataPointMessage.Builder()
+                        .setMetricName("metric")
+                        .setPeriod(RollupPeriod.HOURLY)
+                        .setTags(ImmutableSet.of("tag1"))
+                        .setLastDataPointTime(null)
+                        .build(),
+                ActorRef.noSender());
+
+        // The rollup query waits while the limit is in use
+        _probe.expectNoMessage();
+        verify(_kairosDbClient, never()).queryMetrics(any());
+        verify(_periodicMetrics, atLeastOnce()).recordCounter("rollup/limiter/rejected", 1);
+
+        permits.forEach(permit -> _limiter.release(permit, null));
+        final FinishRollupMessage finishRollupMessage = _probe.expectMsgClass(FinishRollupMessage.class);
+        assertFalse(finishRollupMessage.isFailure());
+        verify(_kairosDbClient, times(1)).queryMetrics(any());
+    }
+
     @Test
     public void testSkipsRollupWithCurrentDataPoint() {
         final ActorRef actor = createActor();
@@ -558,6 +752,7 @@ public class RollupGeneratorTest {
         assertTrue(finishRollupMessage.isFailure());
         assertEquals("metric", finishRollupMessage.getMetricName());
         assertEquals(RollupPeriod.HOURLY, finishRollupMessage.getPeriod());
+        assertFalse(finishRollupMessage.getWatermark().isPresent());
 
         verify(_kairosDbClient, times(1)).queryMetrics(captor.capture());
         final MetricsQuery rollupQuery = captor.getAllValues().get(0);
@@ -569,6 +764,198 @@ public class RollupGeneratorTest {
         _probe.expectNoMessage();
     }
 
+    @Test
+    public void testUsesWatermarkInsteadOfProbing() {
+        final Instant watermark = RollupPeriod.FIVE_MINUTES.recentEndTime(_clock.instant());
+        when(_watermarkRepository.getWatermarks("metric")).thenReturn(ImmutableMap.of(RollupPeriod.FIVE_MINUTES, watermark));
+        when(_kairosDbClient.queryMetricTags(any())).thenReturn(tagsResponse(ImmutableMultimap.of("tag1", "value1")));
+        when(_kairosDbClient.queryMetrics(any())).thenReturn(
+                CompletableFuture.completedFuture(new MetricsQueryResponse.Builder()
+                        .setQueries(ImmutableList.of(new MetricsQueryResponse.Query.Builder()
+                                .setResults(ImmutableList.of(new MetricsQueryResponse.QueryResult.Builder()
+                                        .setName("metric_1h")
+                                        .build()))
+                                .build()))
+                        .build()));
+
+        final ArgumentCaptor<MetricsQuery> captor = ArgumentCaptor.forClass(MetricsQuery.class);
+        final ActorRef actor = createActor();
+        _probe.expectMsg(RollupGenerator.FETCH_METRIC);
+
+        startMetric(actor, "metric");
+        actor.tell(_probe.expectMsgClass(TagNamesMessage.class), ActorRef.noSender());
+
+        final LastDataPointMessage fiveMinutes = _probe.expectMsgClass(LastDataPointMessage.class);
+        assertEquals(RollupPeriod.FIVE_MINUTES, fiveMinutes.getPeriod());
+        assertEquals(watermark, fiveMinutes.getLastDataPointTime().orElse(null));
+        assertEquals(ImmutableSet.of("tag1"), fiveMinutes.getTags());
+        _probe.expectNoMessage();
+        verify(_kairosDbClient).queryMetricTags(any());
+        verifyNoMoreInteractions(_kairosDbClient);
+
+        // The hourly period has no watermark and is probed
+        actor.tell(
+                new FinishRollupMessage.Builder()
+                        .setMetricName("metric")
+                        .setPeriod(RollupPeriod.FIVE_MINUTES)
+                        .setWatermark(watermark)
+                        .build(),
+                ActorRef.noSender());
+        final LastDataPointMessage hourly = _probe.expectMsgClass(LastDataPointMessage.class);
+        assertEquals(RollupPeriod.HOURLY, hourly.getPeriod());
+        assertFalse(hourly.getLastDataPointTime().isPresent());
+
+        verify(_kairosDbClient, times(1)).queryMetrics(captor.capture());
+        assertEquals("metric_1h", captor.getValue().getMetrics().get(0).getName());
+        // The watermark did not move
+        verify(_watermarkRepository, never()).updateWatermark(any(), any(), any());
+        _probe.expectNoMessage();
+    }
+
+    @Test
+    public void testProceedsWithoutWatermarksWhenLoadFails() {
+        when(_watermarkRepository.getWatermarks("metric")).thenThrow(new IllegalStateException("database unavailable"));
+        when(_kairosDbClient.queryMetricTags(any())).thenReturn(tagsResponse(ImmutableMultimap.of("tag1", "value1")));
+
+        final ActorRef actor = createActor();
+        _probe.expectMsg(RollupGenerator.FETCH_METRIC);
+
+        actor.tell("metric", ActorRef.noSender());
+        final WatermarksMessage watermarks = _probe.expectMsgClass(WatermarksMessage.class);
+        assertTrue(watermarks.isFailure());
+        assertTrue(watermarks.getWatermarks().isEmpty());
+        actor.tell(watermarks, ActorRef.noSender());
+
+        // The tag names are discovered over the full backfill window instead
+        assertEquals(ImmutableSet.of("tag1"), _probe.expectMsgClass(TagNamesMessage.class).getTagNames());
+        verify(_periodicMetrics).recordCounter("rollup/watermark/load/success", 0);
+    }
+
+    @Test
+    public void testProbesWhenWatermarkIsSuspect() {
+        when(_watermarkRepository.getWatermarks("metric")).thenReturn(ImmutableMap.of(
+                RollupPeriod.FIVE_MINUTES, RollupPeriod.FIVE_MINUTES.nextPeriodStart(_clock.instant())));
+        when(_kairosDbClient.queryMetricTags(any())).thenReturn(tagsResponse(ImmutableMultimap.of()));
+        when(_kairosDbClient.queryMetrics(any())).thenReturn(new CompletableFuture<>());
+
+        final ArgumentCaptor<MetricsQuery> captor = ArgumentCaptor.forClass(MetricsQuery.class);
+        final ActorRef actor = createActor();
+        _probe.expectMsg(RollupGenerator.FETCH_METRIC);
+
+        startMetric(actor, "metric");
+        actor.tell(_probe.expectMsgClass(TagNamesMessage.class), ActorRef.noSender());
+
+        _probe.awaitAssert(() -> verify(_kairosDbClient, times(1)).queryMetrics(captor.capture()));
+        assertEquals("metric_5m", captor.getValue().getMetrics().get(0).getName());
+        _probe.expectNoMessage();
+    }
+
+    @Test
+    public void testComputesRollupFromSourceRollup() {
+        // Backfill the five minute series over a longer window than the hourly rollup reads
+        when(_config.getInt(eq("rollup.maxBackFill.periods"))).thenReturn(36);
+        final Instant hourEnd = RollupPeriod.HOURLY.recentEndTime(_clock.instant());
+        when(_watermarkRepository.getWatermarks("metric")).thenReturn(ImmutableMap.of(
+                RollupPeriod.FIVE_MINUTES, RollupPeriod.FIVE_MINUTES.recentEndTime(_clock.instant())));
+        when(_kairosDbClient.queryMetricTags(any())).thenReturn(tagsResponse(ImmutableMultimap.of("tag1", "value1")));
+        when(_kairosDbClient.queryMetrics(any())).thenReturn(
+                CompletableFuture.completedFuture(new MetricsQueryResponse.Builder().setQueries(ImmutableList.of()).build()));
+
+        final ArgumentCaptor<MetricsQuery> captor = ArgumentCaptor.forClass(MetricsQuery.class);
+        final ActorRef actor = createActor();
+        _probe.expectMsg(RollupGenerator.FETCH_METRIC);
+
+        startMetric(actor, "metric");
+        actor.tell(_probe.expectMsgClass(TagNamesMessage.class), ActorRef.noSender());
+        assertEquals(RollupPeriod.FIVE_MINUTES, _probe.expectMsgClass(LastDataPointMessage.class).getPeriod());
+
+        final Instant lastDataPoint = hourEnd.minus(RollupPeriod.HOURLY.periodCountToDuration(2));
+        actor.tell(
+                new LastDataPointMessage.Builder()
+                        .setMetricName("metric")
+                        .setPeriod(RollupPeriod.HOURLY)
+                        .setTags(ImmutableSet.of("tag1"))
+                        .setLastDataPointTime(lastDataPoint)
+                        .build(),
+                ActorRef.noSender());
+
+        final FinishRollupMessage finishRollupMessage = _probe.expectMsgClass(FinishRollupMessage.class);
+        assertFalse(finishRollupMessage.isFailure());
+        assertEquals(hourEnd, finishRollupMessage.getWatermark().orElse(null));
+
+        verify(_kairosDbClient, times(1)).queryMetrics(captor.capture());
+        final MetricsQuery rollupQuery = captor.getValue();
+        assertEquals(lastDataPoint.plusMillis(1), rollupQuery.getStartTime());
+        assertEquals(hourEnd, rollupQuery.getEndTime().orElse(null));
+        final Metric metric = rollupQuery.getMetrics().get(0);
+        assertEquals("metric_5m", metric.getName());
+        assertEquals(3, metric.getAggregators().size());
+        assertEquals("merge", metric.getAggregators().get(0).getName());
+        assertFalse(metric.getAggregators().get(0).getAlignSampling().get());
+        assertTrue(metric.getAggregators().get(0).getAlignStartTime().get());
+        assertEquals(SamplingUnit.HOURS, metric.getAggregators().get(0).getSampling().get().getUnit());
+        assertEquals("merge", metric.getAggregators().get(1).getName());
+        assertTrue(metric.getAggregators().get(1).getAlignSampling().get());
+        assertTrue(metric.getAggregators().get(1).getAlignEndTime().get());
+        assertEquals("save_as", metric.getAggregators().get(2).getName());
+        assertEquals("metric_1h", metric.getAggregators().get(2).getOtherArgs().get("metric_name"));
+        _probe.expectNoMessage();
+    }
+
+    @Test
+    public void testUpdatesWatermarkOnSuccessfulFinish() {
+        final Instant watermark = RollupPeriod.HOURLY.recentEndTime(_clock.instant());
+        final ActorRef actor = createActor();
+        _probe.expectMsg(RollupGenerator.FETCH_METRIC);
+
+        actor.tell(
+                new FinishRollupMessage.Builder()
+                        .setMetricName("metric")
+                        .setPeriod(RollupPeriod.HOURLY)
+                        .setWatermark(watermark)
+                        .setFailure(new RuntimeException("Failure"))
+                        .build(),
+                ActorRef.noSender());
+        actor.tell(
+                new FinishRollupMessage.Builder()
+                        .setMetricName("metric")
+                        .setPeriod(RollupPeriod.DAILY)
+                        .build(),
+                ActorRef.noSender());
+        actor.tell(
+                new FinishRollupMessage.Builder()
+                        .setMetricName("metric")
+                        .setPeriod(RollupPeriod.HOURLY)
+                        .setWatermark(watermark)
+                        .build(),
+                ActorRef.noSender());
+
+        _probe.awaitAssert(() -> verify(_watermarkRepository).updateWatermark("metric", RollupPeriod.HOURLY, watermark));
+        verify(_watermarkRepository, never()).updateWatermark(eq("metric"), eq(RollupPeriod.DAILY), any());
+    }
+
+    private static CompletableFuture<MetricsQueryResponse> tagsResponse(final ImmutableMultimap<String, String> tags) {
+        return CompletableFuture.completedFuture(new MetricsQueryResponse.Builder()
+                .setQueries(ImmutableList.of(
+                        new MetricsQueryResponse.Query.Builder()
+                                .setResults(ImmutableList.of(new MetricsQueryResponse.QueryResult.Builder()
+                                        .setName("metric")
+                                        .setTags(tags)
+                                        .build()))
+                                .build()))
+                .build());
+    }
+
+    private RollupQueryLimiter createLimiter(final int limit) {
+        return new RollupQueryLimiter(
+                ConfigFactory.parseString(String.format(
+                        "rollup.limiter { enabled = true, initialLimit = %d, minLimit = 1, maxLimit = %d, "
+                                + "latencyThreshold = \"30s\", backoffRatio = 0.7, retryDelay = \"100 milliseconds\" }",
+                        limit,
+                        limit)),
+                _periodicMetrics);
+    }
+
     /**
      * Test actor class that overrides {@code getSelf()} so that messages passed back to the actor
      * can be intercepted.
@@ -580,8 +967,12 @@ public class RollupGeneratorTest {
                 @Named("RollupsMetricsDiscovery") final ActorRef testActor,
                 final KairosDbClient kairosDbClient,
                 final Clock clock,
-                final PeriodicMetrics metrics) {
-            super(configuration, testActor, kairosDbClient, clock, metrics);
+                final PeriodicMetrics metrics,
+                final RollupWatermarkRepository watermarkRepository,
+                final RollupWatermarkExecutor watermarkExecutor,
+                final RollupQueryLimiter limiter,
+                final RollupTagCache tagCache) {
+            super(configuration, testActor, kairosDbClient, clock, metrics, watermarkRepository, watermarkExecutor, limiter, tagCache);
             _self = testActor;
         }
 
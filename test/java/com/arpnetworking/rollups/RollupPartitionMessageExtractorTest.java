@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.rollups;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link RollupPartitionMessageExtractor}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class RollupPartitionMessageExtractorTest {
+
+    @Test
+    public void testEntityId() {
+        final RollupPartitionMessageExtractor extractor = new RollupPartitionMessageExtractor(16);
+        assertEquals("7", extractor.entityId(new RollupPartition.Start(7, 16)));
+        assertNull(extractor.entityId("metric1"));
+    }
+
+    @Test
+    public void testPartitionOf() {
+        final int[] counts = new int[4];
+        for (int i = 0; i < 1000; ++i) {
+            final int partition = RollupPartition.partitionOf("metric" + i, counts.length);
+            assertEquals(partition, RollupPartition.partitionOf("metric" + i, counts.length));
+            ++counts[partition];
+        }
+        for (final int count : counts) {
+            assertTrue(count > 0);
+        }
+    }
+}
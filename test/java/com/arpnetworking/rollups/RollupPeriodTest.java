@@ -17,9 +17,12 @@ package com.arpnetworking.rollups;
 
 import org.junit.Test;
 
+import java.time.DayOfWeek;
 import java.time.Instant;
+import java.time.ZoneOffset;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Gilligan Markham (gmarkham at dropbox dot com)
@@ -46,4 +49,37 @@ public class RollupPeriodTest {
                 Instant.parse("2019-02-01T00:00:00Z"),
                 RollupPeriod.DAILY.nextPeriodStart(Instant.parse("2019-01-31T03:24:00Z")));
     }
+
+    @Test
+    public void testFiveMinutesAndWeeklyAlignment() {
+        assertEquals(
+                Instant.parse("2019-01-30T03:20:00Z"),
+                RollupPeriod.FIVE_MINUTES.recentEndTime(Instant.parse("2019-01-30T03:24:59Z")));
+
+        // 2019-01-28 is a Monday
+        assertEquals(
+                Instant.parse("2019-01-28T00:00:00Z"),
+                RollupPeriod.WEEKLY.recentEndTime(Instant.parse("2019-02-03T23:59:59Z")));
+        assertEquals(
+                Instant.parse("2019-02-04T00:00:00Z"),
+                RollupPeriod.WEEKLY.nextPeriodStart(Instant.parse("2019-01-28T00:00:00Z")));
+    }
+
+    @Test
+    public void testOrigins() {
+        assertEquals(Instant.EPOCH, RollupPeriod.DAILY.getOrigin());
+        assertEquals(DayOfWeek.MONDAY, RollupPeriod.WEEKLY.getOrigin().atZone(ZoneOffset.UTC).getDayOfWeek());
+        assertEquals(RollupPeriod.WEEKLY.getOrigin(), RollupPeriod.WEEKLY.recentEndTime(RollupPeriod.WEEKLY.getOrigin()));
+    }
+
+    @Test
+    public void testSourcePeriodsAreFiner() {
+        for (final RollupPeriod period : RollupPeriod.values()) {
+            if (period.getSourcePeriod().isPresent()) {
+                final RollupPeriod source = period.getSourcePeriod().get();
+                assertTrue(source.ordinal() < period.ordinal());
+                assertEquals(0, period.periodCountToDuration(1).toMillis() % source.periodCountToDuration(1).toMillis());
+            }
+        }
+    }
 }
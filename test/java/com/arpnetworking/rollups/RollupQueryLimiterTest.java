@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.rollups;
+
+import com.arpnetworking.kairos.client.KairosDbRequestException;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.google.common.collect.Lists;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.net.URI;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test cases for {@link RollupQueryLimiter}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public final class RollupQueryLimiterTest {
+    @Mock
+    private PeriodicMetrics _metrics;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void testRejectsAboveLimit() {
+        final RollupQueryLimiter limiter = createLimiter(true, 2, "30s");
+        final RollupQueryLimiter.Permit first = limiter.tryAcquire().get();
+        assertTrue(limiter.tryAcquire().isPresent());
+        assertFalse(limiter.tryAcquire().isPresent());
+        verify(_metrics).recordCounter("rollup/limiter/rejected", 1);
+
+        limiter.release(first, null);
+        assertTrue(limiter.tryAcquire().isPresent());
+    }
+
+    @Test
+    public void testDisabledNeverRejects() {
+        final RollupQueryLimiter limiter = createLimiter(false, 1, "30s");
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(limiter.tryAcquire().isPresent());
+        }
+    }
+
+    @Test
+    public void testGrowsWhileFast() {
+        final RollupQueryLimiter limiter = createLimiter(true, 2, "30s");
+        for (int i = 0; i < 20; ++i) {
+            final List<RollupQueryLimiter.Permit> permits = acquireAll(limiter);
+            permits.forEach(permit -> limiter.release(permit, null));
+        }
+        assertTrue(limiter.getLimit() > 2);
+    }
+
+    @Test
+    public void testShrinksOnceWhenSlow() {
+        final RollupQueryLimiter limiter = createLimiter(true, 10, "0 seconds");
+        // All queries of the burst were in flight when the first one shrank the limit
+        acquireAll(limiter).forEach(permit -> limiter.release(permit, null));
+        assertEquals(7, limiter.getLimit());
+    }
+
+    @Test
+    public void testClientErrorsDoNotShrink() {
+        final RollupQueryLimiter limiter = createLimiter(true, 10, "30s");
+        limiter.release(limiter.tryAcquire().get(), new KairosDbRequestException(400, "Bad Request", URI.create("/")));
+        assertEquals(10, limiter.getLimit());
+
+        limiter.release(limiter.tryAcquire().get(), new KairosDbRequestException(503, "Unavailable", URI.create("/")));
+        assertEquals(7, limiter.getLimit());
+    }
+
+    private static List<RollupQueryLimiter.Permit> acquireAll(final RollupQueryLimiter limiter) {
+        final List<RollupQueryLimiter.Permit> permits = Lists.newArrayList();
+        while (permits.size() < limiter.getLimit()) {
+            permits.add(limiter.tryAcquire().get());
+        }
+        return permits;
+    }
+
+    private RollupQueryLimiter createLimiter(final boolean enabled, final int limit, final String latencyThreshold) {
+        return new RollupQueryLimiter(
+                ConfigFactory.parseString(String.format(
+                        "rollup.limiter { enabled = %b, initialLimit = %d, minLimit = 1, maxLimit = 100, "
+                                + "latencyThreshold = \"%s\", backoffRatio = 0.7, retryDelay = \"5s\" }",
+                        enabled,
+                        limit,
+                        latencyThreshold)),
+                _metrics);
+    }
+}
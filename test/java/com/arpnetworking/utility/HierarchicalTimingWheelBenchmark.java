@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of a minute of job scheduling with a {@link HierarchicalTimingWheel} against waking
+ * every job once a minute to check whether it is due.
+ *
+ * Run with {@link #main(String[])}. The jobs run daily, at instants spread evenly over the day. Each
+ * invocation simulates one minute: the timing wheel is advanced through sixty one-second ticks, while
+ * the per-job approach checks every job once. A job that is due is rescheduled for the next day. Only
+ * the bookkeeping is measured; with one actor per job, each check additionally costs a timer and a
+ * message dispatch, so the per-job figures are a lower bound.
+ *
+ * @author Spencer Pearson (spencerpearson at dropbox dot com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HierarchicalTimingWheelBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    private int _jobs;
+    private long[] _deadlines;
+    private HierarchicalTimingWheel<Integer> _wheel;
+    private long _now;
+
+    private static final long TICK_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Spreads the next runs of the jobs over a day.
+     */
+    @Setup
+    public void setUp() {
+        final Random random = new Random(0);
+        _now = 0;
+        _deadlines = new long[_jobs];
+        _wheel = new HierarchicalTimingWheel<>(TICK_MILLIS, _now);
+        for (int i = 0; i < _jobs; ++i) {
+            _deadlines[i] = 1 + (long) (random.nextDouble() * DAY_MILLIS);
+            _wheel.schedule(i, _deadlines[i]);
+        }
+    }
+
+    /**
+     * Wakes every job to check whether it is due.
+     *
+     * @return the number of jobs that were due
+     */
+    @Benchmark
+    public int perJobTicks() {
+        _now += MINUTE_MILLIS;
+        int due = 0;
+        for (int i = 0; i < _deadlines.length; ++i) {
+            if (_deadlines[i] <= _now) {
+                _deadlines[i] += DAY_MILLIS;
+                ++due;
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Advances the timing wheel, waking only the jobs that are due.
+     *
+     * @return the number of jobs that were due
+     */
+    @Benchmark
+    public int timingWheel() {
+        int due = 0;
+        for (long tick = 0; tick < MINUTE_MILLIS / TICK_MILLIS; ++tick) {
+            _now += TICK_MILLIS;
+            due += _wheel.advanceTo(_now, job -> {
+                _deadlines[job] += DAY_MILLIS;
+                _wheel.schedule(job, _deadlines[job]);
+            });
+        }
+        return due;
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the command line arguments
+     * @throws RunnerException if the benchmark fails
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HierarchicalTimingWheelBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
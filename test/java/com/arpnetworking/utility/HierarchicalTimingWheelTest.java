@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for {@link HierarchicalTimingWheel}.
+ *
+ * @author Spencer Pearson (spencerpearson at dropbox dot com)
+ */
+public class HierarchicalTimingWheelTest {
+
+    @Test
+    public void testFiresWhenDue() {
+        final HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(1000, 0);
+        assertTrue(wheel.schedule("a", 5000));
+        assertTrue(wheel.schedule("b", 2500));
+
+        final List<String> fired = Lists.newArrayList();
+        assertEquals(0, wheel.advanceTo(2999, fired::add));
+        assertEquals(1, wheel.advanceTo(3000, fired::add));
+        assertEquals(Lists.newArrayList("b"), fired);
+        assertEquals(1, wheel.advanceTo(10000, fired::add));
+        assertEquals(Lists.newArrayList("b", "a"), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testDoesNotScheduleDeadlineInThePast() {
+        final HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(1000, 10000);
+        assertFalse(wheel.schedule("a", 9000));
+        assertFalse(wheel.schedule("b", 10000));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testRescheduleAndCancel() {
+        final HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(1000, 0);
+        wheel.schedule("a", 5000);
+        wheel.schedule("a", 500000);
+        wheel.schedule("b", 5000);
+        assertTrue(wheel.cancel("b"));
+        assertFalse(wheel.cancel("b"));
+
+        final List<String> fired = Lists.newArrayList();
+        wheel.advanceTo(499999, fired::add);
+        assertTrue(fired.isEmpty());
+        wheel.advanceTo(500000, fired::add);
+        assertEquals(Lists.newArrayList("a"), fired);
+    }
+
+    @Test
+    public void testFarFutureDeadline() {
+        final HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(1, 0);
+        // Beyond the range of the highest level
+        final long deadline = 1L << 40;
+        wheel.schedule("a", deadline);
+
+        final List<String> fired = Lists.newArrayList();
+        wheel.advanceTo(deadline - 1, fired::add);
+        assertTrue(fired.isEmpty());
+        wheel.advanceTo(deadline, fired::add);
+        assertEquals(Lists.newArrayList("a"), fired);
+    }
+
+    @Test
+    public void testMatchesScanOfAllDeadlines() {
+        final Random random = new Random(0);
+        final HierarchicalTimingWheel<Integer> wheel = new HierarchicalTimingWheel<>(100, 0);
+        final Map<Integer, Long> deadlines = new HashMap<>();
+        long now = 0;
+        for (int step = 0; step < 20000; ++step) {
+            final int key = random.nextInt(500);
+            if (random.nextInt(3) > 0) {
+                final long deadline = now + 1 + (random.nextBoolean() ? random.nextInt(10000) : (long) (random.nextDouble() * 1e10));
+                wheel.schedule(key, deadline);
+                deadlines.put(key, deadline);
+            } else {
+                now += random.nextBoolean() ? random.nextInt(1000) : (long) (random.nextDouble() * 1e8);
+                final long nowTick = now / 100;
+                final Set<Integer> expected = Sets.newHashSet();
+                deadlines.forEach((k, deadline) -> {
+                    if ((deadline + 99) / 100 <= nowTick) {
+                        expected.add(k);
+                    }
+                });
+                final Set<Integer> fired = Sets.newHashSet();
+                wheel.advanceTo(now, fired::add);
+                assertEquals(expected, fired);
+                expected.forEach(deadlines::remove);
+                assertEquals(deadlines.size(), wheel.size());
+            }
+        }
+    }
+}
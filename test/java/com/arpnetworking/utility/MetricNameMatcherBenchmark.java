@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Compares filtering metric names with a {@link MetricNameMatcher} against a chain of one
+ * {@link Pattern#asPredicate()} per regular expression.
+ *
+ * Run with {@link #main(String[])}. Most of the expressions are literal prefixes, suffixes and
+ * substrings, as whitelists and blacklists of metric names usually are, with a few general
+ * expressions mixed in. Each invocation filters the whole set of names.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricNameMatcherBenchmark {
+    @Param({"4", "64"})
+    private int _patterns;
+    private List<String> _names;
+    private Predicate<String> _chain;
+    private Predicate<String> _matcher;
+
+    private static final int NAMES = 10000;
+    private static final String[] SERVICES = {"web", "api", "desktop", "mobile", "billing", "search", "storage", "auth"};
+
+    /**
+     * Generates the metric names and the expressions to filter them with.
+     */
+    @Setup
+    public void setUp() {
+        final Random random = new Random(0);
+        _names = new ArrayList<>(NAMES);
+        for (int i = 0; i < NAMES; ++i) {
+            _names.add(SERVICES[random.nextInt(SERVICES.length)] + "_perf/"
+                    + "host" + random.nextInt(100) + "/"
+                    + "request_" + random.nextInt(1000)
+                    + (random.nextBoolean() ? "/latency" : "/count"));
+        }
+
+        final List<String> regexes = new ArrayList<>(_patterns);
+        for (int i = 0; i < _patterns; ++i) {
+            switch (i % 8) {
+                case 0:
+                case 1:
+                    regexes.add("^" + SERVICES[i % SERVICES.length] + "_perf/host" + i + "/.*");
+                    break;
+                case 2:
+                case 3:
+                    regexes.add("request_" + i + "/.*");
+                    break;
+                case 4:
+                case 5:
+                    regexes.add(".*/request_" + i + "/latency$");
+                    break;
+                case 6:
+                    regexes.add("^" + SERVICES[i % SERVICES.length] + "_perf/host" + i + "/request_" + i + "/count$");
+                    break;
+                default:
+                    regexes.add("^[a-z]+_perf/host" + i + "[0-9]/request_[0-9]+/count$");
+                    break;
+            }
+        }
+        _chain = regexes.stream()
+                .map(Pattern::compile)
+                .map(Pattern::asPredicate)
+                .reduce(Predicate::or)
+                .orElse(t -> false);
+        _matcher = MetricNameMatcher.compile(regexes);
+    }
+
+    /**
+     * Filters the names with one predicate per expression.
+     *
+     * @return the number of matching names
+     */
+    @Benchmark
+    public long chain() {
+        return _names.stream().filter(_chain).count();
+    }
+
+    /**
+     * Filters the names with the compiled matcher.
+     *
+     * @return the number of matching names
+     */
+    @Benchmark
+    public long matcher() {
+        return _names.stream().filter(_matcher).count();
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the command line arguments
+     * @throws RunnerException if the benchmark fails
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MetricNameMatcherBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
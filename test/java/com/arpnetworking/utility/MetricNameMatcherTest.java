@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for {@link MetricNameMatcher}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public class MetricNameMatcherTest {
+
+    @Test
+    public void testMatchesLikeRegexChain() {
+        final List<String> regexes = ImmutableList.of(
+                "^web_perf/.*",
+                "desktop/",
+                ".*_count$",
+                "^exact/name$",
+                "a\\.b",
+                "^[a-z]+_[0-9]+$",
+                "(foo)\\1",
+                "\\Qlit.eral\\E",
+                "^api/(latency|errors)/.*");
+        final List<String> names = ImmutableList.of(
+                "web_perf/latency",
+                "mobile/web_perf/latency",
+                "desktop/cpu",
+                "my_desktop/cpu",
+                "desktop",
+                "requests_count",
+                "requests_count/p99",
+                "exact/name",
+                "exact/name/more",
+                "a.b",
+                "axb",
+                "abc_123",
+                "abc_123x",
+                "foofoo",
+                "foobar",
+                "lit.eral",
+                "litxeral",
+                "api/latency/p50",
+                "api/throughput",
+                "exact/name\n",
+                "web\nperf/.x",
+                "");
+        assertEquivalent(regexes, names);
+    }
+
+    @Test
+    public void testEmptyLiteralMatchesEverything() {
+        assertTrue(MetricNameMatcher.compile(Collections.singletonList(".*")).test("anything"));
+        assertTrue(MetricNameMatcher.compile(Collections.singletonList("^")).test(""));
+        assertFalse(MetricNameMatcher.compile(Collections.singletonList("^$")).test("anything"));
+    }
+
+    @Test
+    public void testNoRegexesMatchNothing() {
+        assertFalse(MetricNameMatcher.compile(Collections.emptyList()).test("anything"));
+    }
+
+    @Test
+    public void testOverlappingSubstrings() {
+        // Exercises the failure links of the substring automaton
+        assertEquivalent(
+                ImmutableList.of("abcd", "bce", "cf"),
+                ImmutableList.of("abcf", "abce", "abcd", "xbcex", "abc", "ab", "bcf"));
+    }
+
+    @Test
+    public void testEscape() {
+        final String literal = "a.b*c$^(d)[e]{f}|g?h+i\\j";
+        final MetricNameMatcher matcher = MetricNameMatcher.compile(
+                Collections.singletonList("^" + MetricNameMatcher.escape(literal) + "$"));
+        assertTrue(matcher.test(literal));
+        assertFalse(matcher.test("a.b*c"));
+    }
+
+    @Test
+    public void testMemoized() {
+        final Predicate<String> memoized = MetricNameMatcher.compile(Collections.singletonList("^web/")).memoized(10);
+        assertTrue(memoized.test("web/latency"));
+        assertTrue(memoized.test("web/latency"));
+        assertFalse(memoized.test("api/latency"));
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void testRejectsInvalidRegex() {
+        MetricNameMatcher.compile(ImmutableList.of("valid", "(invalid"));
+    }
+
+    private static void assertEquivalent(final List<String> regexes, final List<String> names) {
+        final Predicate<String> chain = regexes.stream()
+                .map(Pattern::compile)
+                .map(Pattern::asPredicate)
+                .reduce(Predicate::or)
+                .orElse(t -> false);
+        final MetricNameMatcher matcher = MetricNameMatcher.compile(regexes);
+        for (final String name : names) {
+            assertEquals(name, chain.test(name), matcher.test(name));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test cases for {@link SingleFlight}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public class SingleFlightTest {
+    @Mock
+    private PeriodicMetrics _metrics;
+    private SingleFlight<String, String> _singleFlight;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        _singleFlight = new SingleFlight<>(_metrics, "test");
+    }
+
+    @Test
+    public void testCoalescesConcurrentCalls() throws ExecutionException, InterruptedException {
+        final AtomicInteger calls = new AtomicInteger(0);
+        final CompletableFuture<String> upstream = new CompletableFuture<>();
+
+        final CompletionStage<String> first = _singleFlight.execute("key", () -> {
+            calls.incrementAndGet();
+            return upstream;
+        });
+        final CompletionStage<String> second = _singleFlight.execute("key", () -> {
+            calls.incrementAndGet();
+            return upstream;
+        });
+
+        assertFalse(first.toCompletableFuture().isDone());
+        upstream.complete("value");
+        assertEquals("value", first.toCompletableFuture().get());
+        assertEquals("value", second.toCompletableFuture().get());
+        assertEquals(1, calls.get());
+        verify(_metrics, times(2)).recordCounter("test/requests", 1);
+        verify(_metrics).recordCounter("test/coalesced", 1);
+        verify(_metrics).recordCounter("test/coalesced", 0);
+    }
+
+    @Test
+    public void testDifferentKeysNotCoalesced() {
+        final AtomicInteger calls = new AtomicInteger(0);
+        _singleFlight.execute("a", () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        _singleFlight.execute("b", () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testReleasesKeyOnCompletion() throws ExecutionException, InterruptedException {
+        final AtomicInteger calls = new AtomicInteger(0);
+        _singleFlight.execute("key", () -> CompletableFuture.completedFuture("first" + calls.incrementAndGet()));
+        final CompletionStage<String> second = _singleFlight.execute(
+                "key",
+                () -> CompletableFuture.completedFuture("second" + calls.incrementAndGet()));
+        assertEquals("second2", second.toCompletableFuture().get());
+    }
+
+    @Test
+    public void testFailurePropagatesToAllWaiters() throws InterruptedException {
+        final CompletableFuture<String> upstream = new CompletableFuture<>();
+        final CompletionStage<String> first = _singleFlight.execute("key", () -> upstream);
+        final CompletionStage<String> second = _singleFlight.execute("key", () -> upstream);
+        final IllegalStateException failure = new IllegalStateException("failed");
+        upstream.completeExceptionally(failure);
+
+        for (final CompletionStage<String> stage : ImmutableList.of(first, second)) {
+            try {
+                stage.toCompletableFuture().get();
+                fail("Expected exception");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() == failure);
+            }
+        }
+    }
+}
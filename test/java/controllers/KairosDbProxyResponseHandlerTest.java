@@ -0,0 +1,209 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package controllers;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.testkit.javadsl.TestKit;
+import akka.util.ByteString;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import play.mvc.Result;
+import play.shaded.ahc.io.netty.handler.codec.http.DefaultHttpHeaders;
+import play.shaded.ahc.org.asynchttpclient.AsyncHandler;
+import play.shaded.ahc.org.asynchttpclient.HttpResponseBodyPart;
+import play.shaded.ahc.org.asynchttpclient.HttpResponseHeaders;
+import play.shaded.ahc.org.asynchttpclient.HttpResponseStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Test cases for {@link KairosDbProxy.ResponseHandler}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public class KairosDbProxyResponseHandlerTest {
+    @Mock
+    private PeriodicMetrics _metrics;
+    private ActorSystem _system;
+    private Materializer _materializer;
+    private CompletableFuture<KairosDbProxy.ProxiedResponse> _promise;
+    private KairosDbProxy.ResponseHandler _handler;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        _system = ActorSystem.create();
+        _materializer = ActorMaterializer.create(_system);
+        _promise = new CompletableFuture<>();
+        _handler = new KairosDbProxy.ResponseHandler(_promise, false, _metrics);
+
+        final HttpResponseStatus status = Mockito.mock(HttpResponseStatus.class);
+        Mockito.when(status.getStatusCode()).thenReturn(200);
+        final HttpResponseHeaders headers = Mockito.mock(HttpResponseHeaders.class);
+        Mockito.when(headers.getHeaders()).thenReturn(new DefaultHttpHeaders().add("Content-Type", "application/json"));
+        _handler.onStatusReceived(status);
+        _handler.onHeadersReceived(headers);
+    }
+
+    @After
+    public void tearDown() {
+        TestKit.shutdownActorSystem(_system);
+    }
+
+    @Test
+    public void testStreamsBodyOnDemand() throws Exception {
+        final ManualPublisher upstream = new ManualPublisher();
+        _handler.onStream(upstream);
+        final Result result = _promise.get(1, TimeUnit.SECONDS).getResult();
+        assertEquals(200, result.status());
+
+        // Nothing is read from upstream before the client starts consuming the body
+        assertEquals(0, upstream.getOutstanding());
+
+        final CompletionStage<ByteString> body = result.body().dataStream()
+                .runWith(Sink.fold(ByteString.empty(), ByteString::concat), _materializer);
+        upstream.emit("{\"queries\":");
+        upstream.emit("[]}");
+        upstream.complete();
+
+        assertEquals("{\"queries\":[]}", body.toCompletableFuture().get(1, TimeUnit.SECONDS).utf8String());
+        verify(_metrics, timeout(1000)).recordCounter("kairos_proxy/response/bytes", 14);
+    }
+
+    @Test
+    public void testCancelsUpstreamWhenClientDisconnects() throws Exception {
+        final ManualPublisher upstream = new ManualPublisher();
+        _handler.onStream(upstream);
+        final Result result = _promise.get(1, TimeUnit.SECONDS).getResult();
+
+        // Sink.head cancels the stream after the first element, as a disconnecting client does
+        final CompletionStage<ByteString> first = result.body().dataStream().runWith(Sink.head(), _materializer);
+        upstream.emit("abc");
+
+        assertEquals("abc", first.toCompletableFuture().get(1, TimeUnit.SECONDS).utf8String());
+        awaitTrue(() -> upstream._cancelled);
+        verify(_metrics, timeout(1000)).recordCounter("kairos_proxy/response/bytes", 3);
+    }
+
+    @Test
+    public void testCompletesEmptyBodyWithoutStream() throws Exception {
+        _handler.onCompleted();
+        final Result result = _promise.get(1, TimeUnit.SECONDS).getResult();
+        final ByteString body = result.body().consumeData(_materializer).toCompletableFuture().get(1, TimeUnit.SECONDS);
+        assertTrue(body.isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBodyPartOutsideStreamThrows() {
+        _handler.onBodyPartReceived(bodyPart("abc"));
+    }
+
+    @Test
+    public void testAbortsWhenAttemptCancelled() {
+        // A hedged attempt that lost the race is cancelled; its response is not read
+        _promise.cancel(true);
+        final ManualPublisher upstream = new ManualPublisher();
+        assertEquals(AsyncHandler.State.ABORT, _handler.onStream(upstream));
+        assertNull(upstream._subscriber);
+    }
+
+    @Test
+    public void testFailurePropagatesToPromise() {
+        _handler.onThrowable(new IllegalStateException("connection reset"));
+        assertTrue(_promise.isCompletedExceptionally());
+        assertFalse(_promise.isCancelled());
+    }
+
+    private static HttpResponseBodyPart bodyPart(final String content) {
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        final HttpResponseBodyPart part = Mockito.mock(HttpResponseBodyPart.class);
+        Mockito.when(part.getBodyPartBytes()).thenReturn(bytes);
+        Mockito.when(part.length()).thenReturn(bytes.length);
+        return part;
+    }
+
+    private static void awaitTrue(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (!condition.getAsBoolean()) {
+            assertTrue("condition not met in time", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * A publisher of body parts driven by the test, which only emits parts that have been requested.
+     */
+    private static final class ManualPublisher implements Publisher<HttpResponseBodyPart>, Subscription {
+        @Override
+        public void subscribe(final Subscriber<? super HttpResponseBodyPart> subscriber) {
+            _subscriber = subscriber;
+            subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public synchronized void request(final long n) {
+            _requested += n;
+        }
+
+        @Override
+        public void cancel() {
+            _cancelled = true;
+        }
+
+        void emit(final String content) throws InterruptedException {
+            awaitTrue(() -> getOutstanding() > 0);
+            synchronized (this) {
+                --_requested;
+            }
+            _subscriber.onNext(bodyPart(content));
+        }
+
+        void complete() throws InterruptedException {
+            awaitTrue(() -> _subscriber != null);
+            _subscriber.onComplete();
+        }
+
+        private synchronized long getOutstanding() {
+            return _requested;
+        }
+
+        private volatile Subscriber<? super HttpResponseBodyPart> _subscriber;
+        private long _requested = 0;
+        private volatile boolean _cancelled = false;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019 Dropbox, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package controllers;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.testkit.javadsl.TestKit;
+import akka.util.ByteString;
+import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
+import com.arpnetworking.kairos.client.KairosDbClient;
+import com.arpnetworking.kairos.client.KairosDbEndpoints;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.metrics.portal.query.MetricNameCatalog;
+import com.arpnetworking.metrics.portal.query.QueryResultCache;
+import com.arpnetworking.metrics.portal.query.RollupQueryRewriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import play.libs.Json;
+import play.libs.ws.WSClient;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.shaded.ahc.io.netty.handler.codec.http.DefaultHttpHeaders;
+import play.shaded.ahc.org.asynchttpclient.AsyncHandler;
+import play.shaded.ahc.org.asynchttpclient.AsyncHttpClient;
+import play.shaded.ahc.org.asynchttpclient.HttpResponseBodyPart;
+import play.shaded.ahc.org.asynchttpclient.HttpResponseHeaders;
+import play.shaded.ahc.org.asynchttpclient.HttpResponseStatus;
+import play.shaded.ahc.org.asynchttpclient.Request;
+import play.shaded.ahc.org.asynchttpclient.handler.StreamedAsyncHandler;
+import play.test.Helpers;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test cases for {@link KairosDbProxy}.
+ *
+ * @author Gilligan Markham (gmarkham at dropbox dot com)
+ */
+public class KairosDbProxyTest {
+    @Mock
+    private PeriodicMetrics _metrics;
+    @Mock
+    private KairosDbClient _kairosDbClient;
+    @Mock
+    private WSClient _wsClient;
+    @Mock
+    private AsyncHttpClient _asyncHttpClient;
+    private ActorSystem _system;
+    private Materializer _materializer;
+    private KairosDbProxy _proxy;
+    private final BlockingQueue<StreamedAsyncHandler<?>> _upstream = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        _system = ActorSystem.create();
+        _materializer = ActorMaterializer.create(_system);
+        when(_wsClient.getUnderlying()).thenReturn(_asyncHttpClient);
+        when(_asyncHttpClient.executeRequest(any(Request.class), any(AsyncHandler.class))).thenAnswer(invocation -> {
+            _upstream.add((StreamedAsyncHandler<?>) invocation.getArguments()[1]);
+            return null;
+        });
+
+        final Config config = ConfigFactory.parseString(
+                "kairosdb.proxy.cache { enabled = false, bucketSize = \"1 hour\", settle = \"5 minutes\", maxSize = \"1 MiB\" }\n"
+                        + "kairosdb.proxy.rollups { enabled = false, coverageTtl = \"1 minute\", maxCoverageEntries = 100 }\n"
+                        + "kairosdb.proxy.metricNames { refreshInterval = \"1 minute\", maxResults = 100 }\n"
+                        + "kairosdb.proxy.coalescing { maxResponseSize = 4 }");
+        final ObjectMapper mapper = ObjectMapperFactory.createInstance();
+        final Clock clock = Clock.systemUTC();
+        final QueryResultCache queryResultCache = new QueryResultCache(_kairosDbClient, config, mapper, clock, _metrics);
+        _proxy = new KairosDbProxy(
+                _wsClient,
+                mapper,
+                _metrics,
+                queryResultCache,
+                _materializer,
+                new MetricNameCatalog(_kairosDbClient, config, clock, _metrics),
+                new RollupQueryRewriter(_kairosDbClient, queryResultCache, config, clock, _metrics),
+                new KairosDbEndpoints.Builder()
+                        .setUris(ImmutableList.of(URI.create("http://localhost:8000")))
+                        .setActorSystem(_system)
+                        .setMetrics(_metrics)
+                        .setClock(clock)
+                        .build(),
+                clock,
+                config);
+    }
+
+    @After
+    public void tearDown() {
+        Http.Context.current.remove();
+        TestKit.shutdownActorSystem(_system);
+    }
+
+    @Test
+    public void testConcurrentQueriesLargerThanCoalescingLimit() throws Exception {
+        final String query = "{\"start_absolute\":1,\"metrics\":[{\"name\":\"foo\"}]}";
+        final CompletionStage<Result> first = queryMetrics(query);
+        final CompletionStage<Result> second = queryMetrics(query);
+
+        // Both queries share the first upstream request; its response is completed off the request thread
+        respondAsync(nextUpstream(), "{\"queries\":", "[]}");
+
+        // The response is too large to share, so the waiter that did not receive it makes its own request
+        respondAsync(nextUpstream(), "{\"queries\":", "[]}");
+
+        assertEquals("{\"queries\":[]}", body(first));
+        assertEquals("{\"queries\":[]}", body(second));
+    }
+
+    @Test
+    public void testProxiesQueryWithoutStartTime() throws Exception {
+        // The query cannot be built, so it is passed through for KairosDB to reject
+        final CompletionStage<Result> result = queryMetrics("{\"metrics\":[{\"name\":\"foo\"}]}");
+        respondAsync(nextUpstream(), "{\"queries\":[]}");
+        assertEquals("{\"queries\":[]}", body(result));
+    }
+
+    private CompletionStage<Result> queryMetrics(final String json) {
+        Http.Context.current.set(new Http.Context(
+                new Http.RequestBuilder()
+                        .method("POST")
+                        .uri("/api/v1/datapoints/query")
+                        .bodyJson(Json.parse(json)),
+                Helpers.contextComponents()));
+        try {
+            return _proxy.queryMetrics();
+        } finally {
+            Http.Context.current.remove();
+        }
+    }
+
+    private StreamedAsyncHandler<?> nextUpstream() throws InterruptedException {
+        final StreamedAsyncHandler<?> handler = _upstream.poll(1, TimeUnit.SECONDS);
+        assertNotNull("no upstream request made", handler);
+        return handler;
+    }
+
+    private void respondAsync(final StreamedAsyncHandler<?> handler, final String... parts) {
+        final Thread thread = new Thread(() -> {
+            final HttpResponseStatus status = Mockito.mock(HttpResponseStatus.class);
+            Mockito.when(status.getStatusCode()).thenReturn(200);
+            final HttpResponseHeaders headers = Mockito.mock(HttpResponseHeaders.class);
+            Mockito.when(headers.getHeaders()).thenReturn(new DefaultHttpHeaders().add("Content-Type", "application/json"));
+            handler.onStatusReceived(status);
+            handler.onHeadersReceived(headers);
+            handler.onStream(Source.from(ImmutableList.copyOf(parts))
+                    .map(KairosDbProxyTest::bodyPart)
+                    .runWith(Sink.asPublisher(false), _materializer));
+        });
+        thread.start();
+    }
+
+    private String body(final CompletionStage<Result> result) throws Exception {
+        final Result completed = result.toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(200, completed.status());
+        final CompletableFuture<ByteString> body = completed.body().consumeData(_materializer).toCompletableFuture();
+        final ByteString bytes = body.get(5, TimeUnit.SECONDS);
+        assertTrue(bytes.nonEmpty());
+        return bytes.utf8String();
+    }
+
+    private static HttpResponseBodyPart bodyPart(final String content) {
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        final HttpResponseBodyPart part = Mockito.mock(HttpResponseBodyPart.class);
+        Mockito.when(part.getBodyPartBytes()).thenReturn(bytes);
+        Mockito.when(part.length()).thenReturn(bytes.length);
+        return part;
+    }
+}